@@ -114,6 +114,9 @@ Comma
 Semi
     : ';';
 
+Star
+    : '*';
+
 LineComment
     : LINE_COMMENT_OPEN .*? LINE_END -> channel ( 2 );
 
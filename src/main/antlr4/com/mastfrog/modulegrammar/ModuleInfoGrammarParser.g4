@@ -45,7 +45,7 @@ identifierComponent
     | With;
 
 importStatement
-    : Import classIdentifier Semi;
+    : Import classIdentifier ( Dot Star )? Semi;
 
 statement
     : opensStatement Semi
@@ -23,6 +23,7 @@
  */
 package com.mastfrog.modulegrammar;
 
+import com.mastfrog.modulegrammar.model.PositionRecorder;
 import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
 import com.mastfrog.modulegrammar.model.annotation.AnnotationValue;
 import com.mastfrog.modulegrammar.model.annotation.AnnotationValueKind;
@@ -32,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ErrorNode;
 
 /**
@@ -47,9 +49,13 @@ final class AnnotationModelExtractor extends ModuleInfoGrammarParserBaseVisitor<
     private final Map<String, AnnotationValue<?>> values = new HashMap<>(16);
     private int depth;
     private final Consumer<ErrorNode> onError;
+    private final PositionRecorder positions;
+    private final SourceOrigin origin;
 
-    AnnotationModelExtractor(Consumer<ErrorNode> onError) {
+    AnnotationModelExtractor(Consumer<ErrorNode> onError, PositionRecorder positions, SourceOrigin origin) {
         this.onError = onError;
+        this.positions = positions;
+        this.origin = origin;
     }
 
     @Override
@@ -77,8 +83,12 @@ final class AnnotationModelExtractor extends ModuleInfoGrammarParserBaseVisitor<
         currentKeyName = name;
     }
 
-    private <T> void onValue(AnnotationValueKind kind, T value) {
-        AnnotationValue<T> av = new AnnotationValue<>(kind, value);
+    private <T> void onValue(AnnotationValueKind kind, T value, ParserRuleContext ctx) {
+        onValue(new AnnotationValue<>(kind, value), ctx);
+    }
+
+    private void onValue(AnnotationValue<?> av, ParserRuleContext ctx) {
+        origin.record(positions, av, ctx);
         if (currentArray != null) {
             currentArray.add(av);
         } else {
@@ -90,20 +100,20 @@ final class AnnotationModelExtractor extends ModuleInfoGrammarParserBaseVisitor<
         }
     }
 
-    private Number parseInt(String text) {
+    private AnnotationValue<Number> parseInt(String text) {
         text = text.replaceAll("_", "");
         if (text.charAt(text.length() - 1) == 'L') {
-            return Long.parseLong(text.substring(0, text.length() - 1));
+            return AnnotationValue.ofLong(Long.parseLong(text.substring(0, text.length() - 1)));
         } else {
             try {
-                return Integer.parseInt(text);
+                return AnnotationValue.ofInt(Integer.parseInt(text));
             } catch (NumberFormatException ex) {
-                return Long.parseLong(text);
+                return AnnotationValue.ofLong(Long.parseLong(text));
             }
         }
     }
 
-    private Number parseFloat(String text) {
+    private AnnotationValue<Number> parseFloat(String text) {
         text = text.replaceAll("_", "");
         char last = text.charAt(text.length() - 1);
         boolean explicitFloat = last == 'F' || last == 'f';
@@ -112,16 +122,16 @@ final class AnnotationModelExtractor extends ModuleInfoGrammarParserBaseVisitor<
             text = text.substring(0, text.length() - 1);
         }
         if (explicitFloat) {
-            return Float.parseFloat(text);
+            return AnnotationValue.ofFloat(Float.parseFloat(text));
         }
-        return Double.parseDouble(text);
+        return AnnotationValue.ofDouble(Double.parseDouble(text));
     }
 
     private String stripString(String what) {
         return what.substring(1, what.length() - 1);
     }
 
-    private <T> T inArray(Supplier<T> runner) {
+    private <T> T inArray(ParserRuleContext ctx, Supplier<T> runner) {
         List<AnnotationValue<?>> old = currentArray;
         List<AnnotationValue<?>> nue = new ArrayList<>();
         String keyName = currentKeyName;
@@ -131,7 +141,7 @@ final class AnnotationModelExtractor extends ModuleInfoGrammarParserBaseVisitor<
         } finally {
             currentArray = old;
             currentKeyName = keyName;
-            onValue(AnnotationValueKind.ARRAY, nue);
+            onValue(AnnotationValueKind.ARRAY, nue, ctx);
         }
     }
 
@@ -145,24 +155,24 @@ final class AnnotationModelExtractor extends ModuleInfoGrammarParserBaseVisitor<
     @Override
     public AnnotationModel visitAnnotationValue(ModuleInfoGrammarParser.AnnotationValueContext ctx) {
         if (ctx.AnnotationBoolean() != null) {
-            onValue(AnnotationValueKind.BOOLEAN, "true".equals(ctx.AnnotationBoolean().getText()));
+            onValue(AnnotationValue.ofBoolean("true".equals(ctx.AnnotationBoolean().getText())), ctx);
         } else if (ctx.AnnotationInt() != null) {
-            onValue(AnnotationValueKind.INT, parseInt(ctx.AnnotationInt().getText()));
+            onValue(parseInt(ctx.AnnotationInt().getText()), ctx);
         } else if (ctx.AnnotationClassReference() != null) {
-            onValue(AnnotationValueKind.CLASS, stripDotClass(ctx.AnnotationClassReference().getText()));
+            onValue(AnnotationValueKind.CLASS, stripDotClass(ctx.AnnotationClassReference().getText()), ctx);
         } else if (ctx.AnnotationChar() != null) {
-            onValue(AnnotationValueKind.CHAR, ctx.AnnotationChar().getText().charAt(1));
+            onValue(AnnotationValue.ofChar(ctx.AnnotationChar().getText().charAt(1)), ctx);
         } else if (ctx.AnnotationFloat() != null) {
-            onValue(AnnotationValueKind.FLOAT, parseFloat(ctx.AnnotationFloat().getText()));
+            onValue(parseFloat(ctx.AnnotationFloat().getText()), ctx);
         } else if (ctx.AnnotationString() != null) {
-            onValue(AnnotationValueKind.STRING, stripString(ctx.AnnotationString().getText()));
+            onValue(AnnotationValueKind.STRING, stripString(ctx.AnnotationString().getText()), ctx);
         } else if (ctx.annotationArray() != null) {
-            return inArray(() -> super.visitAnnotationValue(ctx));
+            return inArray(ctx, () -> super.visitAnnotationValue(ctx));
         } else if (ctx.annotationEnumConstant() != null) {
-            onValue(AnnotationValueKind.ENUM, ctx.getText());
+            onValue(AnnotationValueKind.ENUM, ctx.getText(), ctx);
         } else if (ctx.annotation() != null && currentKeyName != null) {
-            AnnotationModelExtractor child = new AnnotationModelExtractor(onError);
-            onValue(AnnotationValueKind.ANNOTATION, ctx.accept(child));
+            AnnotationModelExtractor child = new AnnotationModelExtractor(onError, positions, origin);
+            onValue(AnnotationValueKind.ANNOTATION, ctx.accept(child), ctx);
             return null;
         }
         return super.visitAnnotationValue(ctx);
@@ -182,7 +192,9 @@ final class AnnotationModelExtractor extends ModuleInfoGrammarParserBaseVisitor<
             if (isOutermost) {
                 setAnnotationName(ctx.StandaloneAnnotation().getText());
                 super.visitAnnotation(ctx);
-                return new AnnotationModel(this.annotationName, this.values);
+                AnnotationModel result = new AnnotationModel(this.annotationName, this.values);
+                origin.record(positions, result, ctx);
+                return result;
             } else {
                 return super.visitAnnotation(ctx);
             }
@@ -0,0 +1,79 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar;
+
+import com.mastfrog.modulegrammar.model.PositionRecorder;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Retains the source text of the run of annotations in a module-info file, and
+ * parses it into AnnotationModels on demand. The text was already parsed
+ * (without errors) as part of the whole file, so it is re-parsed silently.
+ * Single use: the text is released once it has been parsed. Positions of the
+ * annotations and their values are recorded relative to the whole file.
+ *
+ * @author Tim Boudreau
+ */
+final class LazyAnnotations implements Supplier<List<AnnotationModel>> {
+
+    private String source;
+    private final SourceOrigin origin;
+    private final PositionRecorder positions;
+
+    LazyAnnotations(String source, SourceOrigin origin, PositionRecorder positions) {
+        this.source = source;
+        this.origin = origin;
+        this.positions = positions;
+    }
+
+    @Override
+    public synchronized List<AnnotationModel> get() {
+        if (source == null) {
+            throw new IllegalStateException("Already parsed");
+        }
+        ModuleInfoGrammarLexer lex = new ModuleInfoGrammarLexer(CharStreams.fromString(source));
+        lex.removeErrorListeners();
+        ModuleInfoGrammarParser parser = new ModuleInfoGrammarParser(new CommonTokenStream(lex));
+        parser.removeErrorListeners();
+        List<AnnotationModel> result = new ArrayList<>(4);
+        while (parser.getInputStream().LA(1) != Token.EOF) {
+            result.add(parser.annotation().accept(new AnnotationModelExtractor(node -> {
+            }, positions, origin)));
+        }
+        source = null;
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public String toString() {
+        return "LazyAnnotations(" + source + ")";
+    }
+}
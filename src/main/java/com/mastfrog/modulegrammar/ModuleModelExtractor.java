@@ -26,15 +26,21 @@ package com.mastfrog.modulegrammar;
 import com.mastfrog.modulegrammar.model.Export;
 import com.mastfrog.modulegrammar.model.ModuleModel;
 import com.mastfrog.modulegrammar.model.Opens;
+import com.mastfrog.modulegrammar.model.PositionRecorder;
 import com.mastfrog.modulegrammar.model.Provides;
 import com.mastfrog.modulegrammar.model.Require;
 import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
 import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
 
 /**
  * Visitor that populates a ModuleModel. Note that this package is not opened by
@@ -44,13 +50,18 @@ import org.antlr.v4.runtime.tree.ErrorNode;
  */
 public final class ModuleModelExtractor extends ModuleInfoGrammarParserBaseVisitor<ModuleModel> {
 
-    private final Set<String> imports = new HashSet<>();
-    private final Set<String> uses = new HashSet<>();
-    private final Set<Require> requires = new HashSet<>();
-    private final Set<Export> exports = new HashSet<>();
-    private final Set<Provides> provides = new HashSet<>();
-    private final Set<Opens> opens = new HashSet<>();
-    private final List<AnnotationModel> annos = new ArrayList<>();
+    // Plain lists - the model sorts and deduplicates each section once
+    private final List<String> imports = new ArrayList<>();
+    private final List<String> uses = new ArrayList<>();
+    private final List<Require> requires = new ArrayList<>();
+    private final List<Export> exports = new ArrayList<>();
+    private final List<Provides> provides = new ArrayList<>();
+    private final List<Opens> opens = new ArrayList<>();
+    private final PositionRecorder positions = new PositionRecorder();
+    // Annotations are recorded as a source range, and only built into
+    // AnnotationModels if the model's annotations are asked for
+    private final List<ModuleInfoGrammarParser.AnnotationContext> annos = new ArrayList<>(4);
+    private boolean annotationErrors;
     private String moduleName;
     private boolean open;
     private final Consumer<ErrorNode> onError;
@@ -68,19 +79,54 @@ public final class ModuleModelExtractor extends ModuleInfoGrammarParserBaseVisit
     @Override
     public ModuleModel visitCompilationUnit(ModuleInfoGrammarParser.CompilationUnitContext ctx) {
         super.visitCompilationUnit(ctx);
-        return new ModuleModel(open, moduleName, imports, uses, requires, provides, exports, opens, annos);
+        if (annos.isEmpty()) {
+            return new ModuleModel(open, moduleName, imports, uses, requires,
+                    provides, exports, opens, Collections.<AnnotationModel>emptyList(), positions);
+        } else if (annotationErrors) {
+            // Build them now, so error nodes are reported as part of the
+            // parse, as they always have been
+            List<AnnotationModel> models = new ArrayList<>(annos.size());
+            for (ModuleInfoGrammarParser.AnnotationContext anno : annos) {
+                models.add(anno.accept(new AnnotationModelExtractor(onError,
+                        positions, SourceOrigin.START)));
+            }
+            return new ModuleModel(open, moduleName, imports, uses, requires,
+                    provides, exports, opens, models, positions);
+        }
+        Token first = annos.get(0).getStart();
+        Token last = annos.get(annos.size() - 1).getStop();
+        String source = first.getInputStream().getText(
+                Interval.of(first.getStartIndex(), last.getStopIndex()));
+        return new ModuleModel(open, moduleName, imports, uses, requires,
+                provides, exports, opens, new LazyAnnotations(source,
+                        SourceOrigin.of(first), positions), positions);
     }
 
     @Override
     public ModuleModel visitAnnotation(ModuleInfoGrammarParser.AnnotationContext ctx) {
-        AnnotationModel anno = ctx.accept(new AnnotationModelExtractor(onError));
-        annos.add(anno);
+        annos.add(ctx);
+        annotationErrors |= ctx.getStop() == null || hasErrors(ctx);
         return null;
     }
 
+    private static boolean hasErrors(ParseTree tree) {
+        if (tree instanceof ErrorNode) {
+            return true;
+        } else if (tree instanceof ParserRuleContext rule && rule.exception != null) {
+            return true;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (hasErrors(tree.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public ModuleModel visitImportStatement(ModuleInfoGrammarParser.ImportStatementContext ctx) {
-        imports.add(ctx.classIdentifier().getText());
+        String imported = ctx.classIdentifier().getText();
+        imports.add(ctx.Star() == null ? imported : imported + ".*");
         return super.visitImportStatement(ctx);
     }
 
@@ -102,7 +148,9 @@ public final class ModuleModelExtractor extends ModuleInfoGrammarParserBaseVisit
         boolean statyc = ctx.Static() != null;
         boolean transitive = ctx.Transitive() != null;
         String what = ctx.moduleIdentifier().getText();
-        requires.add(new Require(statyc, transitive, what));
+        Require req = new Require(statyc, transitive, what);
+        requires.add(req);
+        SourceOrigin.START.record(positions, req, ctx);
         return super.visitRequiresStatement(ctx);
     }
 
@@ -116,7 +164,9 @@ public final class ModuleModelExtractor extends ModuleInfoGrammarParserBaseVisit
                 tos.add(target.getText());
             }
         }
-        exports.add(new Export(what, tos));
+        Export export = new Export(what, tos);
+        exports.add(export);
+        SourceOrigin.START.record(positions, export, ctx);
         return super.visitExportsStatement(ctx);
     }
 
@@ -130,7 +180,9 @@ public final class ModuleModelExtractor extends ModuleInfoGrammarParserBaseVisit
                 tos.add(target.getText());
             }
         }
-        opens.add(new Opens(what, tos));
+        Opens opened = new Opens(what, tos);
+        opens.add(opened);
+        SourceOrigin.START.record(positions, opened, ctx);
         return super.visitOpensStatement(ctx);
     }
 
@@ -141,7 +193,9 @@ public final class ModuleModelExtractor extends ModuleInfoGrammarParserBaseVisit
         for (ModuleInfoGrammarParser.ClassIdentifierContext target : ctx.providedTypesList().classIdentifier()) {
             impls.add(target.getText());
         }
-        provides.add(new Provides(what, impls));
+        Provides provided = new Provides(what, impls);
+        provides.add(provided);
+        SourceOrigin.START.record(positions, provided, ctx);
         return super.visitProvidesStatement(ctx);
     }
 }
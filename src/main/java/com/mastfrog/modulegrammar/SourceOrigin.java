@@ -0,0 +1,70 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar;
+
+import com.mastfrog.modulegrammar.model.PositionRecorder;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Where the text a parser is working on starts in the original source, so
+ * positions of elements parsed from a fragment of a file can be reported
+ * relative to the whole file.
+ *
+ * @author Tim Boudreau
+ */
+final class SourceOrigin {
+
+    static final SourceOrigin START = new SourceOrigin(0, 1, 0);
+    private final int offset;
+    private final int line;
+    private final int column;
+
+    SourceOrigin(int offset, int line, int column) {
+        this.offset = offset;
+        this.line = line;
+        this.column = column;
+    }
+
+    static SourceOrigin of(Token token) {
+        return new SourceOrigin(token.getStartIndex(), token.getLine(), token.getCharPositionInLine());
+    }
+
+    void record(PositionRecorder positions, Object element, ParserRuleContext ctx) {
+        Token start = ctx.getStart();
+        Token stop = ctx.getStop();
+        if (positions == null || stop == null || stop.getStopIndex() < start.getStartIndex()) {
+            return;
+        }
+        int col = start.getLine() == 1 ? start.getCharPositionInLine() + column
+                : start.getCharPositionInLine();
+        positions.record(element, offset + start.getStartIndex(), offset + stop.getStopIndex() + 1,
+                line + start.getLine() - 1, col);
+    }
+
+    @Override
+    public String toString() {
+        return line + ":" + column + " (" + offset + ")";
+    }
+}
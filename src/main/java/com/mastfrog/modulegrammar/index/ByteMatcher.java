@@ -0,0 +1,153 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Aho-Corasick automaton over raw bytes, compiled to a dense transition table
+ * so a scan costs one array lookup per input byte regardless of the number of
+ * patterns.
+ *
+ * @author Tim Boudreau
+ */
+final class ByteMatcher {
+
+    private static final int ALPHABET = 256;
+    private final int[] delta;
+    private final int[][] outputs;
+    private final int patternCount;
+
+    ByteMatcher(byte[][] patterns) {
+        patternCount = patterns.length;
+        int maxStates = 1;
+        for (byte[] p : patterns) {
+            if (p.length == 0) {
+                throw new IllegalArgumentException("Empty pattern");
+            }
+            maxStates += p.length;
+        }
+        int[] table = new int[maxStates * ALPHABET];
+        Arrays.fill(table, -1);
+        int[][] out = new int[maxStates][];
+        int states = 1;
+        for (int i = 0; i < patterns.length; i++) {
+            int state = 0;
+            for (byte b : patterns[i]) {
+                int ix = state * ALPHABET + (b & 0xFF);
+                if (table[ix] < 0) {
+                    table[ix] = states++;
+                }
+                state = table[ix];
+            }
+            out[state] = append(out[state], i);
+        }
+        // Breadth-first, fill in failure transitions so every state has a
+        // transition for every byte
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < ALPHABET; c++) {
+            int target = table[c];
+            if (target < 0) {
+                table[c] = 0;
+            } else {
+                fail[target] = 0;
+                queue[tail++] = target;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            out[state] = merge(out[state], out[fail[state]]);
+            for (int c = 0; c < ALPHABET; c++) {
+                int ix = state * ALPHABET + c;
+                int viaFail = table[fail[state] * ALPHABET + c];
+                if (table[ix] < 0) {
+                    table[ix] = viaFail;
+                } else {
+                    fail[table[ix]] = viaFail;
+                    queue[tail++] = table[ix];
+                }
+            }
+        }
+        delta = Arrays.copyOf(table, states * ALPHABET);
+        outputs = Arrays.copyOf(out, states);
+    }
+
+    int patternCount() {
+        return patternCount;
+    }
+
+    /**
+     * Scan the remaining bytes of a buffer (without changing its position),
+     * setting the bit for each pattern that occurs in it.
+     *
+     * @param buffer A buffer
+     * @param found A bit set to record matched pattern indices in
+     * @return The number of distinct patterns found
+     */
+    int scan(ByteBuffer buffer, BitSet found) {
+        int state = 0;
+        int count = found.cardinality();
+        for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+            state = delta[state * ALPHABET + (buffer.get(i) & 0xFF)];
+            int[] matched = outputs[state];
+            if (matched != null) {
+                for (int m : matched) {
+                    if (!found.get(m)) {
+                        found.set(m);
+                        if (++count == patternCount) {
+                            // Nothing left to find
+                            return count;
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int[] append(int[] arr, int val) {
+        if (arr == null) {
+            return new int[]{val};
+        }
+        int[] result = Arrays.copyOf(arr, arr.length + 1);
+        result[arr.length] = val;
+        return result;
+    }
+
+    private static int[] merge(int[] a, int[] b) {
+        if (b == null) {
+            return a;
+        } else if (a == null) {
+            return b;
+        }
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
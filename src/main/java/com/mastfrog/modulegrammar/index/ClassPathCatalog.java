@@ -0,0 +1,347 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.model.ClassCatalog;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A ClassCatalog built from jars and source roots, for resolving wildcard
+ * imports. Jars are read from their central directory alone - no entry is
+ * inflated - and scanned in parallel. Member types are recorded under the
+ * qualified name of their enclosing type, so
+ * <code>import com.foo.Outer.*;</code> can be resolved too; source roots
+ * only contribute top-level types, since finding member types would mean
+ * parsing the sources.
+ * <p>
+ * A catalog can be cached on disk with <code>load()</code>, which records the
+ * size and modification time of each jar and only rescans jars which have
+ * changed since the cache was written. Source roots are always rescanned,
+ * since a directory's timestamp says nothing about changes deeper in the
+ * tree; listing file names is cheap next to opening every jar on a classpath.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class ClassPathCatalog implements ClassCatalog {
+
+    private static final int MAGIC = 0x43504331; // CPC1
+    private static final String VERSIONED_PREFIX = "META-INF/versions/";
+    private static final String[] NO_NAMES = new String[0];
+    // Package (or enclosing type) to sorted simple names
+    private final Map<String, String[]> typesByPackage;
+    private final int size;
+
+    private ClassPathCatalog(Collection<? extends Root> roots) {
+        Map<String, Set<String>> merged = new HashMap<>();
+        for (Root root : roots) {
+            for (Map.Entry<String, Set<String>> e : root.types.entrySet()) {
+                merged.computeIfAbsent(e.getKey(), k -> new TreeSet<>()).addAll(e.getValue());
+            }
+        }
+        typesByPackage = new HashMap<>(merged.size() * 2);
+        int count = 0;
+        for (Map.Entry<String, Set<String>> e : merged.entrySet()) {
+            String[] names = e.getValue().toArray(NO_NAMES);
+            typesByPackage.put(e.getKey(), names);
+            count += names.length;
+        }
+        size = count;
+    }
+
+    /**
+     * Build a catalog, scanning the passed jars and source roots in
+     * parallel.
+     *
+     * @param roots Jar files and directories of sources or classes
+     * @return A catalog
+     * @throws IOException If a root cannot be read
+     */
+    public static ClassPathCatalog build(Collection<? extends Path> roots) throws IOException {
+        return new ClassPathCatalog(scan(new ArrayList<>(roots)));
+    }
+
+    /**
+     * Build a catalog, reusing what a cache file written by an earlier call
+     * says about any jar which has not changed since, and rewrite the cache
+     * file.
+     *
+     * @param cacheFile The cache file, which need not exist
+     * @param roots Jar files and directories of sources or classes
+     * @return A catalog
+     * @throws IOException If a root cannot be read or the cache cannot be
+     * written
+     */
+    public static ClassPathCatalog load(Path cacheFile, Collection<? extends Path> roots) throws IOException {
+        Map<String, Root> cached = readCache(cacheFile);
+        List<Root> result = new ArrayList<>(roots.size());
+        List<Path> stale = new ArrayList<>();
+        for (Path path : roots) {
+            Root old = cached.get(path.toAbsolutePath().toString());
+            if (old != null && old.isCurrent(path)) {
+                result.add(old);
+            } else {
+                stale.add(path);
+            }
+        }
+        result.addAll(scan(stale));
+        writeCache(cacheFile, result);
+        return new ClassPathCatalog(result);
+    }
+
+    @Override
+    public boolean contains(String packageName, String simpleName) {
+        String[] names = typesByPackage.get(packageName);
+        return names != null && Arrays.binarySearch(names, simpleName) >= 0;
+    }
+
+    /**
+     * Get the simple names of the types in a package.
+     *
+     * @param packageName A package, or the qualified name of a type
+     * @return A sorted set of simple names, empty if the package is unknown
+     */
+    public Set<String> types(String packageName) {
+        String[] names = typesByPackage.get(packageName);
+        return names == null ? Collections.emptySet()
+                : Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(names)));
+    }
+
+    /**
+     * Get the number of types in the catalog.
+     *
+     * @return The number of types
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassPathCatalog(" + typesByPackage.size() + " packages, " + size + " types)";
+    }
+
+    private static List<Root> scan(List<Path> roots) throws IOException {
+        try (Stream<Path> str = roots.parallelStream()) {
+            return str.map(path -> {
+                try {
+                    return Root.scan(path);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static Map<String, Root> readCache(Path cacheFile) throws IOException {
+        if (!Files.exists(cacheFile)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Root> result = new HashMap<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(cacheFile))) {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC) {
+                // Not ours, or an older format - rebuild it
+                return Collections.emptyMap();
+            }
+            for (int i = data.readInt(); i > 0; i--) {
+                Root root = Root.read(data);
+                result.put(root.path, root);
+            }
+        } catch (EOFException ex) {
+            // Truncated by a crash - rebuild it
+            return Collections.emptyMap();
+        }
+        return result;
+    }
+
+    private static void writeCache(Path cacheFile, List<Root> roots) throws IOException {
+        Path tmp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(roots.size());
+            for (Root root : roots) {
+                root.write(data);
+            }
+            data.flush();
+        }
+        try {
+            Files.move(tmp, cacheFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, cacheFile, REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * The types found in one jar or directory.
+     */
+    private static final class Root {
+
+        private final String path;
+        private final boolean jar;
+        private final long length;
+        private final long lastModified;
+        private final Map<String, Set<String>> types;
+
+        Root(String path, boolean jar, long length, long lastModified, Map<String, Set<String>> types) {
+            this.path = path;
+            this.jar = jar;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.types = types;
+        }
+
+        static Root scan(Path path) throws IOException {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            Map<String, Set<String>> types = new TreeMap<>();
+            if (attrs.isDirectory()) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.forEach(file -> addEntry(path.relativize(file).toString()
+                            .replace(file.getFileSystem().getSeparator(), "/"), types));
+                }
+            } else {
+                try (ZipFile zip = new ZipFile(path.toFile())) {
+                    for (Enumeration<? extends ZipEntry> en = zip.entries(); en.hasMoreElements();) {
+                        addEntry(en.nextElement().getName(), types);
+                    }
+                }
+            }
+            return new Root(path.toAbsolutePath().toString(), !attrs.isDirectory(),
+                    attrs.size(), attrs.lastModifiedTime().toMillis(), types);
+        }
+
+        boolean isCurrent(Path file) throws IOException {
+            if (!jar || !Files.isRegularFile(file)) {
+                return false;
+            }
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.size() == length && attrs.lastModifiedTime().toMillis() == lastModified;
+        }
+
+        static Root read(DataInputStream in) throws IOException {
+            String path = in.readUTF();
+            boolean jar = in.readBoolean();
+            long length = in.readLong();
+            long lastModified = in.readLong();
+            Map<String, Set<String>> types = new TreeMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                Set<String> names = new TreeSet<>();
+                types.put(in.readUTF(), names);
+                for (int j = in.readInt(); j > 0; j--) {
+                    names.add(in.readUTF());
+                }
+            }
+            return new Root(path, jar, length, lastModified, types);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeBoolean(jar);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            out.writeInt(types.size());
+            for (Map.Entry<String, Set<String>> e : types.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().size());
+                for (String name : e.getValue()) {
+                    out.writeUTF(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the type named by a <code>/</code>-separated .class or .java
+     * file path, and any enclosing types encoded in a class file's name.
+     */
+    static void addEntry(String name, Map<String, Set<String>> into) {
+        int end;
+        if (name.endsWith(".class")) {
+            end = name.length() - ".class".length();
+        } else if (name.endsWith(".java")) {
+            end = name.length() - ".java".length();
+        } else {
+            return;
+        }
+        int start = 0;
+        if (name.startsWith(VERSIONED_PREFIX)) {
+            start = name.indexOf('/', VERSIONED_PREFIX.length()) + 1;
+            if (start == 0) {
+                return;
+            }
+        } else if (name.startsWith("META-INF/")) {
+            return;
+        }
+        int slash = name.lastIndexOf('/', end);
+        if (slash < start) {
+            // Types in the default package cannot be imported
+            return;
+        }
+        String owner = name.substring(start, slash).replace('/', '.');
+        String simple = name.substring(slash + 1, end);
+        if ("module-info".equals(simple) || "package-info".equals(simple)) {
+            return;
+        }
+        for (String part : simple.split("\\$")) {
+            // Anonymous and local classes have names starting with digits
+            if (part.isEmpty() || !Character.isJavaIdentifierStart(part.charAt(0))) {
+                return;
+            }
+            into.computeIfAbsent(owner, k -> new TreeSet<>()).add(part);
+            owner = owner + '.' + part;
+        }
+    }
+}
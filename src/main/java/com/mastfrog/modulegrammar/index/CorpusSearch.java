@@ -0,0 +1,239 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import com.mastfrog.modulegrammar.parser.ModuleParserErrorListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.READ;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Searches a corpus of <code>module-info.java</code> files for modules
+ * matching any of a set of queries, without running the parser over files
+ * which cannot possibly match: every file is first scanned for the needles of
+ * all queries in a single pass over its raw bytes, and only files containing
+ * at least one needle are parsed. Each parsed model is then tested against
+ * the queries whose needles were found, so needles which only occur in
+ * comments or as part of some other name do not produce false positives.
+ *
+ * @author Tim Boudreau
+ */
+public final class CorpusSearch {
+
+    /**
+     * Files smaller than this are read rather than memory-mapped - mapping
+     * costs more than reading a few kilobytes.
+     */
+    private static final int MAP_THRESHOLD = 16384;
+    private final List<ModuleQuery> queries;
+    private final ByteMatcher matcher;
+    private BiConsumer<? super Path, ? super IOException> onFailure = (path, ex) -> {
+        System.err.println("Failed to read " + path + ": " + ex);
+    };
+
+    public CorpusSearch(ModuleQuery... queries) {
+        this(Arrays.asList(queries));
+    }
+
+    public CorpusSearch(List<? extends ModuleQuery> queries) {
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("No queries");
+        }
+        this.queries = Collections.unmodifiableList(new ArrayList<>(queries));
+        byte[][] needles = new byte[queries.size()][];
+        for (int i = 0; i < needles.length; i++) {
+            needles[i] = queries.get(i).needle().getBytes(UTF_8);
+        }
+        matcher = new ByteMatcher(needles);
+    }
+
+    /**
+     * Set the handler called when a file cannot be read; the search
+     * continues with the next file. The default logs to stderr.
+     *
+     * @param onFailure A handler
+     * @return this
+     */
+    public CorpusSearch onFailure(BiConsumer<? super Path, ? super IOException> onFailure) {
+        this.onFailure = onFailure;
+        return this;
+    }
+
+    /**
+     * Search a set of files.
+     *
+     * @param files Paths to module-info.java files
+     * @return The result
+     */
+    public SearchResult search(Iterable<? extends Path> files) {
+        List<SearchHit> hits = new ArrayList<>();
+        BitSet found = new BitSet(queries.size());
+        int scanned = 0;
+        int parsed = 0;
+        for (Path file : files) {
+            ByteBuffer content;
+            try {
+                content = read(file);
+            } catch (IOException ex) {
+                onFailure.accept(file, ex);
+                continue;
+            }
+            scanned++;
+            found.clear();
+            if (matcher.scan(content, found) == 0) {
+                continue;
+            }
+            parsed++;
+            ModuleModel model;
+            try {
+                model = ModuleParser.parse(UTF_8.decode(content).toString(),
+                        ModuleParserErrorListener.SILENT);
+            } catch (RuntimeException ex) {
+                // Broken beyond what error recovery can handle - cannot match
+                continue;
+            }
+            if (model == null || model.moduleName() == null) {
+                continue;
+            }
+            List<ModuleQuery> matched = new ArrayList<>(found.cardinality());
+            for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+                ModuleQuery q = queries.get(i);
+                if (q.test(model)) {
+                    matched.add(q);
+                }
+            }
+            if (!matched.isEmpty()) {
+                hits.add(new SearchHit(file, model, matched));
+            }
+        }
+        return new SearchResult(hits, scanned, parsed);
+    }
+
+    private static ByteBuffer read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                // keep reading
+            }
+            return buf.flip();
+        }
+    }
+
+    /**
+     * A module which matched one or more queries.
+     */
+    public static final class SearchHit {
+
+        private final Path file;
+        private final ModuleModel model;
+        private final List<ModuleQuery> matched;
+
+        SearchHit(Path file, ModuleModel model, List<ModuleQuery> matched) {
+            this.file = file;
+            this.model = model;
+            this.matched = Collections.unmodifiableList(matched);
+        }
+
+        public Path file() {
+            return file;
+        }
+
+        public ModuleModel model() {
+            return model;
+        }
+
+        /**
+         * The queries the module matched.
+         *
+         * @return A list of queries
+         */
+        public List<ModuleQuery> matched() {
+            return matched;
+        }
+
+        @Override
+        public String toString() {
+            return file + " " + matched;
+        }
+    }
+
+    /**
+     * The matches found by a search, and how many files had to be parsed to
+     * find them.
+     */
+    public static final class SearchResult {
+
+        private final List<SearchHit> hits;
+        private final int scanned;
+        private final int parsed;
+
+        SearchResult(List<SearchHit> hits, int scanned, int parsed) {
+            this.hits = Collections.unmodifiableList(hits);
+            this.scanned = scanned;
+            this.parsed = parsed;
+        }
+
+        public List<SearchHit> hits() {
+            return hits;
+        }
+
+        /**
+         * The number of files scanned by the prefilter.
+         *
+         * @return A count
+         */
+        public int scanned() {
+            return scanned;
+        }
+
+        /**
+         * The number of files which passed the prefilter and were parsed.
+         *
+         * @return A count
+         */
+        public int parsed() {
+            return parsed;
+        }
+
+        @Override
+        public String toString() {
+            return hits.size() + " hits, " + parsed + " of " + scanned + " files parsed";
+        }
+    }
+}
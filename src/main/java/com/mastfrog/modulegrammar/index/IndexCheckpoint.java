@@ -0,0 +1,153 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.util.Properties;
+
+/**
+ * Persistent state of an interrupted indexing run: the last jar that was
+ * completely handled, the length of the output file at that point, and the
+ * running totals.
+ *
+ * @author Tim Boudreau
+ */
+final class IndexCheckpoint {
+
+    private static final String LAST = "last";
+    private static final String OUTPUT_LENGTH = "output.length";
+    private static final String JARS = "jars";
+    private static final String MODULES = "modules";
+    private static final String FAILURES = "failures";
+    final String[] last;
+    final long outputLength;
+    final int jars;
+    final int modules;
+    final int failures;
+
+    IndexCheckpoint(String[] last, long outputLength, int jars, int modules, int failures) {
+        this.last = last;
+        this.outputLength = outputLength;
+        this.jars = jars;
+        this.modules = modules;
+        this.failures = failures;
+    }
+
+    static IndexCheckpoint load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (Reader in = Files.newBufferedReader(file, UTF_8)) {
+            props.load(in);
+        }
+        String last = props.getProperty(LAST);
+        if (last == null || last.isEmpty()) {
+            return null;
+        }
+        try {
+            return new IndexCheckpoint(last.split("/"),
+                    Long.parseLong(props.getProperty(OUTPUT_LENGTH, "0")),
+                    Integer.parseInt(props.getProperty(JARS, "0")),
+                    Integer.parseInt(props.getProperty(MODULES, "0")),
+                    Integer.parseInt(props.getProperty(FAILURES, "0")));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Corrupt checkpoint " + file, ex);
+        }
+    }
+
+    /**
+     * Write the checkpoint to a temporary file and move it over the target,
+     * so a crash while saving never leaves a truncated checkpoint behind.
+     *
+     * @param file The checkpoint file
+     * @throws IOException If something goes wrong
+     */
+    void save(Path file) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(LAST, String.join("/", last));
+        props.setProperty(OUTPUT_LENGTH, Long.toString(outputLength));
+        props.setProperty(JARS, Integer.toString(jars));
+        props.setProperty(MODULES, Integer.toString(modules));
+        props.setProperty(FAILURES, Integer.toString(failures));
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp, UTF_8)) {
+            props.store(out, null);
+        }
+        try {
+            Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, file, REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Compare a path relative to the repository root with the last path
+     * handled, element by element - the same order the indexer walks the
+     * tree in.
+     *
+     * @param relative A relative path
+     * @return A negative number if the path sorts before the last path
+     * handled, zero if it is that path, positive if it sorts after it
+     */
+    int compareWithLast(Path relative) {
+        int count = relative.getNameCount();
+        int max = Math.min(count, last.length);
+        for (int i = 0; i < max; i++) {
+            int result = relative.getName(i).toString().compareTo(last[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(count, last.length);
+    }
+
+    /**
+     * Determine if a directory contains the last path handled, and so must be
+     * descended into even though it sorts before it.
+     *
+     * @param relative A relative directory path
+     * @return true if it is an ancestor
+     */
+    boolean isWithin(Path relative) {
+        int count = relative.getNameCount();
+        if (count >= last.length) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!relative.getName(i).toString().equals(last[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
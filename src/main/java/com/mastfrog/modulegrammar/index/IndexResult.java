@@ -0,0 +1,100 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+/**
+ * Totals from a run of the MavenRepositoryIndexer.
+ *
+ * @author Tim Boudreau
+ */
+public final class IndexResult {
+
+    private final int jars;
+    private final int modules;
+    private final int failures;
+    private final boolean complete;
+    private final boolean resumed;
+
+    IndexResult(int jars, int modules, int failures, boolean complete, boolean resumed) {
+        this.jars = jars;
+        this.modules = modules;
+        this.failures = failures;
+        this.complete = complete;
+        this.resumed = resumed;
+    }
+
+    /**
+     * The number of jars examined.
+     *
+     * @return A count
+     */
+    public int jars() {
+        return jars;
+    }
+
+    /**
+     * The number of module descriptors written.
+     *
+     * @return A count
+     */
+    public int modules() {
+        return modules;
+    }
+
+    /**
+     * The number of jars which could not be read or whose descriptor could
+     * not be parsed.
+     *
+     * @return A count
+     */
+    public int failures() {
+        return failures;
+    }
+
+    /**
+     * Whether the whole repository was walked; false if the run was
+     * interrupted and can be resumed.
+     *
+     * @return true if complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Whether this run continued from a checkpoint left by an earlier one.
+     *
+     * @return true if resumed
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    @Override
+    public String toString() {
+        return (complete ? "Complete: " : "Interrupted: ") + jars + " jars, "
+                + modules + " modules, " + failures + " failures"
+                + (resumed ? " (resumed)" : "");
+    }
+}
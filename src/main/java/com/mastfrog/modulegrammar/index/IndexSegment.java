@@ -0,0 +1,481 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An immutable file of module models sorted by name and content
+ * fingerprint, so that a large corpus can be indexed in shards - by separate
+ * processes or machines, each taking the modules <code>shard()</code>
+ * assigns to it - and the shards' segments merged into one.
+ * <p>
+ * Segments are written and read as streams, one model at a time, and
+ * <code>merge()</code> combines any number of them in a single k-way pass
+ * which holds one entry per input segment in memory and never decodes a
+ * model. Entries with the same name and fingerprint are written once;
+ * modules with the same name but different content are all kept.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class IndexSegment {
+
+    private static final int MAGIC = 0x4D495331; // MIS1
+    private static final int VERSION = 1;
+    private static final Comparator<Entry> ORDER = Comparator.comparing(Entry::name)
+            .thenComparingLong(Entry::fingerprint);
+
+    private IndexSegment() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Determine which of a number of shards should index a module, so that
+     * all copies of a module, which the merge can deduplicate, go to the same
+     * worker. The result depends only on the name, not on the JVM.
+     *
+     * @param moduleName A module name
+     * @param shards The number of shards
+     * @return A shard, from 0 to <code>shards - 1</code>
+     */
+    public static int shard(String moduleName, int shards) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shards);
+        }
+        // String.hashCode() is specified, so stable across JVMs; mix it so
+        // names differing only at the end spread across shards
+        long h = moduleName.hashCode() * 0x9E3779B97F4A7C15L;
+        return (int) Long.remainderUnsigned(h ^ (h >>> 32), shards);
+    }
+
+    /**
+     * Compute the content fingerprint segments use to recognize duplicates.
+     *
+     * @param model A model
+     * @return A fingerprint
+     */
+    public static long fingerprint(ModuleModel model) {
+        return fingerprint(encode(model));
+    }
+
+    private static long fingerprint(byte[] encoded) {
+        // FNV-1a over the binary encoding
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : encoded) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static byte[] encode(ModuleModel model) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try {
+            model.writeTo(new DataOutputStream(bytes));
+        } catch (IOException ex) {
+            // Cannot happen writing to memory
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write a segment of models in any order; they are sorted in memory
+     * first. Use <code>create()</code> to write models which are already in
+     * order without holding them.
+     *
+     * @param file The file
+     * @param models Models
+     * @return The number of models written, after removing duplicates
+     * @throws IOException If writing fails
+     */
+    public static int write(Path file, Iterable<? extends ModuleModel> models) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (ModuleModel mdl : models) {
+            byte[] encoded = encode(mdl);
+            entries.add(new Entry(mdl.moduleName(), fingerprint(encoded), encoded));
+        }
+        entries.sort(ORDER);
+        try (Writer writer = create(file)) {
+            try {
+                for (Entry e : entries) {
+                    writer.add(e);
+                }
+            } catch (IOException | RuntimeException ex) {
+                writer.abort();
+                throw ex;
+            }
+            return writer.count;
+        }
+    }
+
+    /**
+     * Create a writer for a segment, which must be passed models in order of
+     * name, and of fingerprint for models with the same name. The file is
+     * written under a temporary name, and replaces any existing file when the
+     * writer is closed.
+     *
+     * @param file The file
+     * @return A writer
+     * @throws IOException If the file cannot be created
+     */
+    public static Writer create(Path file) throws IOException {
+        return new Writer(file);
+    }
+
+    /**
+     * Open a segment for reading.
+     *
+     * @param file The file
+     * @return A reader
+     * @throws IOException If the file cannot be opened or is not a segment
+     */
+    public static Reader open(Path file) throws IOException {
+        return new Reader(file);
+    }
+
+    /**
+     * Merge segments into a new segment.
+     *
+     * @param target The file to write, which may not be one of the inputs
+     * @param segments The segments to merge
+     * @return The numbers of entries read and written
+     * @throws IOException If reading or writing fails, or an input is not a
+     * segment
+     */
+    public static MergeResult merge(Path target, Collection<? extends Path> segments) throws IOException {
+        PriorityQueue<Reader> queue = new PriorityQueue<>(Math.max(1, segments.size()),
+                (a, b) -> ORDER.compare(a.current, b.current));
+        List<Reader> readers = new ArrayList<>(segments.size());
+        int read = 0;
+        try (Writer writer = create(target)) {
+            try {
+                for (Path p : segments) {
+                    Reader reader = open(p);
+                    readers.add(reader);
+                    if (reader.advance() != null) {
+                        queue.add(reader);
+                    }
+                }
+                while (!queue.isEmpty()) {
+                    Reader reader = queue.poll();
+                    writer.add(reader.current);
+                    read++;
+                    if (reader.advance() != null) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                writer.abort();
+                throw ex;
+            }
+            return new MergeResult(segments.size(), read, writer.count);
+        } finally {
+            for (Reader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * One model in a segment, which is only decoded on request.
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final long fingerprint;
+        private final byte[] encoded;
+
+        Entry(String name, long fingerprint, byte[] encoded) {
+            this.name = name;
+            this.fingerprint = fingerprint;
+            this.encoded = encoded;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long fingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Decode the model.
+         *
+         * @return A model
+         */
+        public ModuleModel model() {
+            try {
+                return ModuleModel.readFrom(new DataInputStream(new ByteArrayInputStream(encoded)));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + Long.toHexString(fingerprint);
+        }
+    }
+
+    /**
+     * Writes a segment.
+     */
+    public static final class Writer implements Closeable {
+
+        private final Path file;
+        private final Path tmp;
+        private final DataOutputStream out;
+        private Entry last;
+        private int count;
+        private boolean closed;
+        private boolean aborted;
+
+        Writer(Path file) throws IOException {
+            this.file = file;
+            this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        /**
+         * Add a model, unless it duplicates the previous one.
+         *
+         * @param model A model which sorts at or after the previous one
+         * @return true if it was written
+         * @throws IOException If writing fails
+         */
+        public boolean add(ModuleModel model) throws IOException {
+            byte[] encoded = encode(model);
+            return add(new Entry(model.moduleName(), fingerprint(encoded), encoded));
+        }
+
+        /**
+         * Add an entry read from another segment, unless it duplicates the
+         * previous one.
+         *
+         * @param entry An entry which sorts at or after the previous one
+         * @return true if it was written
+         * @throws IOException If writing fails
+         */
+        public boolean add(Entry entry) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Closed");
+            }
+            if (last != null) {
+                int cmp = ORDER.compare(last, entry);
+                if (cmp > 0) {
+                    throw new IllegalArgumentException("Out of order: " + entry + " after " + last);
+                } else if (cmp == 0) {
+                    return false;
+                }
+            }
+            out.writeBoolean(true);
+            out.writeUTF(entry.name);
+            out.writeLong(entry.fingerprint);
+            out.writeInt(entry.encoded.length);
+            out.write(entry.encoded);
+            last = entry;
+            count++;
+            return true;
+        }
+
+        /**
+         * Discard the segment: closing the writer will delete what has been
+         * written rather than replacing the file, so a failed run never
+         * leaves a partial segment which looks complete.
+         */
+        public void abort() {
+            aborted = true;
+        }
+
+        /**
+         * The number of entries written so far.
+         *
+         * @return A count
+         */
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (aborted) {
+                out.close();
+                Files.deleteIfExists(tmp);
+                return;
+            }
+            try (out) {
+                out.writeBoolean(false);
+            }
+            try {
+                Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Reads a segment, one entry at a time.
+     */
+    public static final class Reader implements Closeable {
+
+        private final Path file;
+        private final DataInputStream in;
+        private Entry current;
+        private boolean done;
+
+        Reader(Path file) throws IOException {
+            this.file = file;
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 65536));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not an index segment: " + file);
+                }
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported index segment version " + version + ": " + file);
+                }
+            } catch (IOException ex) {
+                in.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Read the next entry.
+         *
+         * @return An entry, or null at the end of the segment
+         * @throws IOException If reading fails or the segment is truncated or
+         * out of order
+         */
+        public Entry next() throws IOException {
+            return advance();
+        }
+
+        Entry advance() throws IOException {
+            if (done) {
+                return current = null;
+            }
+            if (!in.readBoolean()) {
+                done = true;
+                return current = null;
+            }
+            String name = in.readUTF();
+            long fingerprint = in.readLong();
+            byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            Entry entry = new Entry(name, fingerprint, encoded);
+            if (current != null && ORDER.compare(current, entry) > 0) {
+                throw new IOException("Index segment out of order at " + entry + ": " + file);
+            }
+            return current = entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * The outcome of a merge.
+     */
+    public static final class MergeResult {
+
+        private final int segments;
+        private final int read;
+        private final int written;
+
+        MergeResult(int segments, int read, int written) {
+            this.segments = segments;
+            this.read = read;
+            this.written = written;
+        }
+
+        public int segments() {
+            return segments;
+        }
+
+        /**
+         * The number of entries read from all segments.
+         *
+         * @return A count
+         */
+        public int read() {
+            return read;
+        }
+
+        /**
+         * The number of entries written.
+         *
+         * @return A count
+         */
+        public int written() {
+            return written;
+        }
+
+        /**
+         * The number of entries dropped as duplicates.
+         *
+         * @return A count
+         */
+        public int duplicates() {
+            return read - written;
+        }
+
+        @Override
+        public String toString() {
+            return "Merged " + segments + " segments: " + read + " entries read, "
+                    + written + " written, " + duplicates() + " duplicates";
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.json.JsonRenderable;
+import com.mastfrog.modulegrammar.json.JsonWriter;
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * One module descriptor found in a jar in a Maven repository.
+ *
+ * @author Tim Boudreau
+ */
+public final class IndexedArtifact implements JsonRenderable {
+
+    private final String groupId;
+    private final String artifactId;
+    private final String version;
+    private final String classifier;
+    private final String jar;
+    private final DescriptorKind kind;
+    private final ModuleModel model;
+
+    IndexedArtifact(String groupId, String artifactId, String version,
+            String classifier, String jar, DescriptorKind kind, ModuleModel model) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.classifier = classifier;
+        this.jar = jar;
+        this.kind = kind;
+        this.model = model;
+    }
+
+    /**
+     * Where a descriptor was read from.
+     */
+    public enum DescriptorKind {
+        /**
+         * A <code>module-info.java</code> in a sources jar, read using
+         * ModuleParser.
+         */
+        SOURCE,
+        /**
+         * A compiled <code>module-info.class</code>.
+         */
+        CLASS
+    }
+
+    public String groupId() {
+        return groupId;
+    }
+
+    public String artifactId() {
+        return artifactId;
+    }
+
+    public String version() {
+        return version;
+    }
+
+    public Optional<String> classifier() {
+        return Optional.ofNullable(classifier);
+    }
+
+    /**
+     * The path of the jar relative to the repository root, using
+     * <code>/</code> as the separator.
+     *
+     * @return A path
+     */
+    public String jar() {
+        return jar;
+    }
+
+    public DescriptorKind kind() {
+        return kind;
+    }
+
+    public ModuleModel model() {
+        return model;
+    }
+
+    /**
+     * Get the Maven coordinates as <code>group:artifact:version</code> or
+     * <code>group:artifact:version:classifier</code>.
+     *
+     * @return The coordinates
+     */
+    public String coordinates() {
+        StringBuilder sb = new StringBuilder(groupId).append(':')
+                .append(artifactId).append(':').append(version);
+        if (classifier != null) {
+            sb.append(':').append(classifier);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void writeJson(JsonWriter json) {
+        json.startObject()
+                .field("artifact", coordinates())
+                .field("jar", jar)
+                .field("descriptor", kind)
+                .field("module", model)
+                .endObject();
+    }
+
+    @Override
+    public String toString() {
+        return coordinates() + " (" + kind + "): " + model.moduleName();
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 3;
+        hash = 37 * hash + Objects.hashCode(this.jar);
+        hash = 37 * hash + Objects.hashCode(this.kind);
+        hash = 37 * hash + Objects.hashCode(this.model);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final IndexedArtifact other = (IndexedArtifact) obj;
+        if (!Objects.equals(this.jar, other.jar)) {
+            return false;
+        }
+        if (this.kind != other.kind) {
+            return false;
+        }
+        return Objects.equals(this.model, other.model);
+    }
+}
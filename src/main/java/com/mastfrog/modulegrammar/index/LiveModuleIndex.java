@@ -0,0 +1,414 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import com.mastfrog.modulegrammar.parser.ModuleParserErrorListener;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * An index of all <code>module-info.java</code> files under a set of source
+ * roots which keeps itself up to date using a WatchService, reparsing only
+ * the files that change. Events for a file are debounced, so a burst of
+ * writes from an editor results in one reparse once the file has been quiet
+ * for the debounce delay.
+ * <p>
+ * Readers call <code>snapshot()</code> to get an immutable view of the index;
+ * all updates happen on a single background thread which builds a new
+ * snapshot and publishes it atomically, so readers never block and never see
+ * a partially applied update. Subscribers are notified of each change on that
+ * thread, after the snapshot containing it has been published.
+ * </p>
+ * If a changed file cannot be parsed, the previous model for it stays in the
+ * index and the failure handler is called.
+ *
+ * @author Tim Boudreau
+ */
+public final class LiveModuleIndex implements AutoCloseable {
+
+    private static final String MODULE_INFO = "module-info.java";
+    private final List<Path> roots;
+    private final long debounceMillis;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Map<Path, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+    private final List<Consumer<? super ModuleChange>> subscribers = new CopyOnWriteArrayList<>();
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(), 0);
+    private BiConsumer<? super Path, ? super Exception> onFailure = (path, ex) -> {
+        System.err.println("Failed to index " + path + ": " + ex);
+    };
+    private ScheduledExecutorService updater;
+    private WatchService watcher;
+    private Thread watchThread;
+
+    /**
+     * Create a new index; call <code>start()</code> to populate it and begin
+     * watching.
+     *
+     * @param roots Source roots to search for module-info.java files
+     * @param debounce How long a file must be quiet before it is reparsed
+     */
+    public LiveModuleIndex(Collection<? extends Path> roots, Duration debounce) {
+        if (roots.isEmpty()) {
+            throw new IllegalArgumentException("No roots");
+        }
+        this.roots = new ArrayList<>(roots);
+        this.debounceMillis = debounce.toMillis();
+    }
+
+    /**
+     * Set the handler called when a file cannot be read or parsed, or when a
+     * subscriber throws while being notified of a change to it. The default
+     * logs to stderr.
+     *
+     * @param onFailure A handler
+     * @return this
+     */
+    public LiveModuleIndex onFailure(BiConsumer<? super Path, ? super Exception> onFailure) {
+        this.onFailure = onFailure;
+        return this;
+    }
+
+    /**
+     * Scan the roots, publish the initial snapshot and start watching for
+     * changes.
+     *
+     * @return this
+     * @throws IOException If the roots cannot be scanned or watched
+     */
+    public synchronized LiveModuleIndex start() throws IOException {
+        if (watcher != null) {
+            throw new IllegalStateException("Already started");
+        }
+        watcher = FileSystems.getDefault().newWatchService();
+        List<Path> found = new ArrayList<>();
+        for (Path root : roots) {
+            register(root, found);
+        }
+        Map<Path, ModuleModel> initial = new HashMap<>();
+        for (Path file : found) {
+            ModuleModel mdl = parse(file);
+            if (mdl != null) {
+                initial.put(file, mdl);
+            }
+        }
+        snapshot = new Snapshot(initial, 1);
+        updater = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "live-module-index-updater");
+            t.setDaemon(true);
+            return t;
+        });
+        watchThread = new Thread(this::watchLoop, "live-module-index-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        return this;
+    }
+
+    /**
+     * Get the current state of the index. The result never changes.
+     *
+     * @return A snapshot
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Subscribe to changes. An exception thrown by a subscriber is passed to
+     * the failure handler, and does not prevent other subscribers from being
+     * notified.
+     *
+     * @param subscriber A subscriber
+     * @return A runnable which unsubscribes it
+     */
+    public Runnable subscribe(Consumer<? super ModuleChange> subscriber) {
+        subscribers.add(subscriber);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+            updater.shutdownNow();
+            watchThread.interrupt();
+        }
+    }
+
+    private void register(Path dir, List<Path> found) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                keys.put(d.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (isModuleInfo(file)) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchLoop() {
+        for (;;) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            Path dir = keys.get(key);
+            for (WatchEvent<?> evt : key.pollEvents()) {
+                if (evt.kind() == OVERFLOW) {
+                    // Events were lost - check everything we know about and
+                    // everything on disk
+                    rescan();
+                    continue;
+                }
+                if (dir == null) {
+                    continue;
+                }
+                Path child = dir.resolve((Path) evt.context());
+                if (evt.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                    // Files may have been created in the directory before we
+                    // registered it, so look for them too
+                    List<Path> found = new ArrayList<>();
+                    try {
+                        register(child, found);
+                    } catch (IOException ex) {
+                        onFailure.accept(child, ex);
+                    }
+                    found.forEach(this::schedule);
+                } else if (evt.kind() == ENTRY_DELETE) {
+                    // May have been a directory - drop anything under it
+                    for (Path known : snapshot.byPath.keySet()) {
+                        if (known.startsWith(child)) {
+                            schedule(known);
+                        }
+                    }
+                } else if (isModuleInfo(child)) {
+                    schedule(child);
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    private void rescan() {
+        List<Path> found = new ArrayList<>(snapshot.byPath.keySet());
+        for (Path root : roots) {
+            try {
+                register(root, found);
+            } catch (IOException ex) {
+                onFailure.accept(root, ex);
+            }
+        }
+        found.forEach(this::schedule);
+    }
+
+    private void schedule(Path file) {
+        pending.compute(file, (f, old) -> {
+            if (old != null) {
+                old.cancel(false);
+            }
+            return updater.schedule(() -> update(f), debounceMillis, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void update(Path file) {
+        pending.remove(file);
+        Snapshot old = snapshot;
+        ModuleModel previous = old.byPath.get(file);
+        ModuleModel current = null;
+        if (Files.exists(file)) {
+            current = parse(file);
+            if (current == null) {
+                // Unparseable - keep whatever we had
+                return;
+            }
+        }
+        if (current == null && previous == null || current != null && current.equals(previous)) {
+            return;
+        }
+        Map<Path, ModuleModel> next = new HashMap<>(old.byPath);
+        if (current == null) {
+            next.remove(file);
+        } else {
+            next.put(file, current);
+        }
+        snapshot = new Snapshot(next, old.generation + 1);
+        ModuleChange change = new ModuleChange(file, previous, current);
+        for (Consumer<? super ModuleChange> sub : subscribers) {
+            try {
+                sub.accept(change);
+            } catch (RuntimeException ex) {
+                // One bad subscriber must not starve the rest
+                onFailure.accept(file, ex);
+            }
+        }
+    }
+
+    private ModuleModel parse(Path file) {
+        try {
+            return ModuleParser.parse(file, ModuleParserErrorListener.THROWING);
+        } catch (IOException | RuntimeException ex) {
+            onFailure.accept(file, ex);
+            return null;
+        }
+    }
+
+    private static boolean isModuleInfo(Path file) {
+        Path name = file.getFileName();
+        return name != null && MODULE_INFO.equals(name.toString());
+    }
+
+    /**
+     * An immutable view of the index at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final Map<Path, ModuleModel> byPath;
+        private final Map<String, ModuleModel> byName;
+        private final long generation;
+
+        Snapshot(Map<Path, ModuleModel> byPath, long generation) {
+            this.byPath = Collections.unmodifiableMap(byPath);
+            Map<String, ModuleModel> names = new HashMap<>(byPath.size() * 2);
+            for (ModuleModel mdl : byPath.values()) {
+                names.put(mdl.moduleName(), mdl);
+            }
+            this.byName = Collections.unmodifiableMap(names);
+            this.generation = generation;
+        }
+
+        /**
+         * A counter which increases each time a change is published.
+         *
+         * @return The generation
+         */
+        public long generation() {
+            return generation;
+        }
+
+        public Optional<ModuleModel> module(String name) {
+            return Optional.ofNullable(byName.get(name));
+        }
+
+        public Optional<ModuleModel> moduleAt(Path file) {
+            return Optional.ofNullable(byPath.get(file));
+        }
+
+        public Map<Path, ModuleModel> modules() {
+            return byPath;
+        }
+
+        public int size() {
+            return byPath.size();
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot " + generation + " " + byName.keySet();
+        }
+    }
+
+    /**
+     * A module-info.java file being added, changed or removed.
+     */
+    public static final class ModuleChange {
+
+        private final Path file;
+        private final ModuleModel previous;
+        private final ModuleModel current;
+
+        ModuleChange(Path file, ModuleModel previous, ModuleModel current) {
+            this.file = file;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        public enum Kind {
+            ADDED,
+            CHANGED,
+            REMOVED
+        }
+
+        public Kind kind() {
+            return previous == null ? Kind.ADDED : current == null ? Kind.REMOVED : Kind.CHANGED;
+        }
+
+        public Path file() {
+            return file;
+        }
+
+        public Optional<ModuleModel> previous() {
+            return Optional.ofNullable(previous);
+        }
+
+        public Optional<ModuleModel> current() {
+            return Optional.ofNullable(current);
+        }
+
+        @Override
+        public String toString() {
+            return kind() + " " + file;
+        }
+    }
+}
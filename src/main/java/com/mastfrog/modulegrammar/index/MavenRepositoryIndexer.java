@@ -0,0 +1,354 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.index.IndexedArtifact.DescriptorKind;
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import com.mastfrog.modulegrammar.parser.ModuleParserErrorListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Walks a local Maven repository (<code>~/.m2/repository</code> layout) and
+ * extracts the module descriptor of every jar that has one - source
+ * descriptors from <code>-sources.jar</code> files are parsed with
+ * ModuleParser, compiled ones are read from <code>module-info.class</code>
+ * (including the versioned copies in multi-release jars).
+ * <p>
+ * Results are appended to the output file as a stream of JSON objects, one
+ * per descriptor, and a checkpoint recording the last jar handled and the
+ * length of the output at that point is saved periodically. The tree is
+ * walked in a stable order, so if a run is interrupted (or the process dies),
+ * the next run truncates the output to the checkpointed length and resumes
+ * with the next jar, skipping whole directories that were already handled.
+ * The checkpoint is deleted when a run completes, so the next run starts
+ * over.
+ * </p>
+ * A run stops early, saving a checkpoint, if the calling thread is
+ * interrupted.
+ *
+ * @author Tim Boudreau
+ */
+public final class MavenRepositoryIndexer {
+
+    private static final String CLASS_DESCRIPTOR = "module-info.class";
+    private static final String SOURCE_DESCRIPTOR = "module-info.java";
+    private static final String VERSIONED_PREFIX = "META-INF/versions/";
+    private static final String SOURCES_SUFFIX = "-sources.jar";
+    private static final String JAVADOC_SUFFIX = "-javadoc.jar";
+    private final Path repository;
+    private final Path output;
+    private final Path checkpointFile;
+    private int checkpointInterval = 500;
+    private BiConsumer<? super Path, ? super Exception> onFailure = (jar, ex) -> {
+        System.err.println("Failed to index " + jar + ": " + ex);
+    };
+    private Consumer<? super IndexedArtifact> onIndexed = artifact -> {
+        // do nothing
+    };
+
+    /**
+     * Create a new indexer.
+     *
+     * @param repository The repository root
+     * @param output The file to write results to
+     * @param checkpointFile The file to save checkpoints to
+     */
+    public MavenRepositoryIndexer(Path repository, Path output, Path checkpointFile) {
+        this.repository = repository;
+        this.output = output;
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Get the location of the current user's local repository.
+     *
+     * @return A path
+     */
+    public static Path defaultRepository() {
+        return Paths.get(System.getProperty("user.home"), ".m2", "repository");
+    }
+
+    /**
+     * Set how many jars are examined between checkpoints (default 500).
+     *
+     * @param jars The number of jars
+     * @return this
+     */
+    public MavenRepositoryIndexer checkpointEvery(int jars) {
+        if (jars < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be > 0: " + jars);
+        }
+        this.checkpointInterval = jars;
+        return this;
+    }
+
+    /**
+     * Set the handler called when a jar cannot be read or its descriptor
+     * cannot be parsed; indexing continues with the next jar. The default
+     * logs to stderr.
+     *
+     * @param onFailure A handler
+     * @return this
+     */
+    public MavenRepositoryIndexer onFailure(BiConsumer<? super Path, ? super Exception> onFailure) {
+        this.onFailure = onFailure;
+        return this;
+    }
+
+    /**
+     * Set a callback which is passed each descriptor after it has been
+     * written.
+     *
+     * @param onIndexed A callback
+     * @return this
+     */
+    public MavenRepositoryIndexer onIndexed(Consumer<? super IndexedArtifact> onIndexed) {
+        this.onIndexed = onIndexed;
+        return this;
+    }
+
+    /**
+     * Run the indexer, resuming from the checkpoint file if one exists.
+     *
+     * @return The totals for the whole run, including any portion done by an
+     * earlier, interrupted run
+     * @throws IOException If the output or checkpoint cannot be written
+     */
+    public IndexResult run() throws IOException {
+        IndexCheckpoint resumeFrom = IndexCheckpoint.load(checkpointFile);
+        // Not a FileChannel - those are closed if the thread is interrupted,
+        // and we need to be able to write a checkpoint when that happens
+        try (RandomAccessFile out = new RandomAccessFile(output.toFile(), "rw")) {
+            Run run = new Run(out, resumeFrom);
+            boolean complete = run.walk(repository);
+            run.checkpoint();
+            if (complete) {
+                Files.deleteIfExists(checkpointFile);
+            }
+            return new IndexResult(run.jars, run.modules, run.failures, complete, resumeFrom != null);
+        }
+    }
+
+    private final class Run {
+
+        private final RandomAccessFile out;
+        private final IndexCheckpoint resumeFrom;
+        private String[] last;
+        private int jars;
+        private int modules;
+        private int failures;
+        private int sinceCheckpoint;
+
+        Run(RandomAccessFile out, IndexCheckpoint resumeFrom) throws IOException {
+            this.out = out;
+            this.resumeFrom = resumeFrom;
+            if (resumeFrom != null) {
+                out.setLength(resumeFrom.outputLength);
+                out.seek(resumeFrom.outputLength);
+                last = resumeFrom.last;
+                jars = resumeFrom.jars;
+                modules = resumeFrom.modules;
+                failures = resumeFrom.failures;
+            } else {
+                out.setLength(0);
+            }
+        }
+
+        boolean walk(Path dir) throws IOException {
+            List<Path> children = new ArrayList<>();
+            try (DirectoryStream<Path> str = Files.newDirectoryStream(dir)) {
+                for (Path p : str) {
+                    children.add(p);
+                }
+            }
+            children.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+            for (Path child : children) {
+                Path relative = repository.relativize(child);
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    if (resumeFrom != null && resumeFrom.compareWithLast(relative) < 0
+                            && !resumeFrom.isWithin(relative)) {
+                        continue;
+                    }
+                    if (!walk(child)) {
+                        return false;
+                    }
+                } else if (isCandidate(child)) {
+                    if (resumeFrom != null && resumeFrom.compareWithLast(relative) <= 0) {
+                        continue;
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                    indexJar(child, relative);
+                }
+            }
+            return true;
+        }
+
+        private void indexJar(Path jar, Path relative) throws IOException {
+            IndexedArtifact artifact = null;
+            try {
+                artifact = read(jar, relative);
+            } catch (IOException | RuntimeException ex) {
+                failures++;
+                onFailure.accept(jar, ex);
+            }
+            if (artifact != null) {
+                write(artifact);
+                modules++;
+                onIndexed.accept(artifact);
+            }
+            jars++;
+            last = pathElements(relative);
+            if (++sinceCheckpoint >= checkpointInterval) {
+                checkpoint();
+            }
+        }
+
+        private void write(IndexedArtifact artifact) throws IOException {
+            StringBuilder sb = artifact.renderJsonInto(new StringBuilder(1024)).append('\n');
+            out.write(sb.toString().getBytes(UTF_8));
+        }
+
+        void checkpoint() throws IOException {
+            sinceCheckpoint = 0;
+            if (last == null) {
+                return;
+            }
+            // Make sure everything the checkpoint claims is really on disk
+            out.getFD().sync();
+            new IndexCheckpoint(last, out.getFilePointer(), jars, modules, failures)
+                    .save(checkpointFile);
+        }
+    }
+
+    private static String[] pathElements(Path relative) {
+        String[] result = new String[relative.getNameCount()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = relative.getName(i).toString();
+        }
+        return result;
+    }
+
+    private static boolean isCandidate(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".jar") && !name.endsWith(JAVADOC_SUFFIX);
+    }
+
+    private static IndexedArtifact read(Path jar, Path relative) throws IOException {
+        String fileName = jar.getFileName().toString();
+        boolean sources = fileName.endsWith(SOURCES_SUFFIX);
+        ModuleModel model;
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            ZipEntry entry = sources ? zip.getEntry(SOURCE_DESCRIPTOR) : classDescriptor(zip);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                model = sources ? ModuleParser.parse(in, ModuleParserErrorListener.THROWING)
+                        : ModuleParser.parseClassFile(in);
+            }
+        }
+        return artifact(relative, fileName, sources ? DescriptorKind.SOURCE : DescriptorKind.CLASS, model);
+    }
+
+    private static ZipEntry classDescriptor(ZipFile zip) {
+        ZipEntry result = zip.getEntry(CLASS_DESCRIPTOR);
+        if (result != null) {
+            return result;
+        }
+        // Multi-release jar - use the descriptor for the highest version
+        int bestVersion = -1;
+        for (Enumeration<? extends ZipEntry> en = zip.entries(); en.hasMoreElements();) {
+            ZipEntry e = en.nextElement();
+            String name = e.getName();
+            if (name.startsWith(VERSIONED_PREFIX) && name.endsWith('/' + CLASS_DESCRIPTOR)) {
+                String ver = name.substring(VERSIONED_PREFIX.length(),
+                        name.length() - CLASS_DESCRIPTOR.length() - 1);
+                try {
+                    int v = Integer.parseInt(ver);
+                    if (v > bestVersion) {
+                        bestVersion = v;
+                        result = e;
+                    }
+                } catch (NumberFormatException ex) {
+                    // not a version directory
+                }
+            }
+        }
+        return result;
+    }
+
+    private static IndexedArtifact artifact(Path relative, String fileName, DescriptorKind kind, ModuleModel model) {
+        String jar = String.join("/", pathElements(relative));
+        int count = relative.getNameCount();
+        String baseName = fileName.substring(0, fileName.length() - ".jar".length());
+        if (count < 4) {
+            // Not in group/artifact/version layout
+            return new IndexedArtifact("", baseName, "", null, jar, kind, model);
+        }
+        String version = relative.getName(count - 2).toString();
+        String artifactId = relative.getName(count - 3).toString();
+        StringBuilder groupId = new StringBuilder();
+        for (int i = 0; i < count - 3; i++) {
+            if (i > 0) {
+                groupId.append('.');
+            }
+            groupId.append(relative.getName(i));
+        }
+        String prefix = artifactId + '-' + version + '-';
+        String classifier = baseName.startsWith(prefix) && baseName.length() > prefix.length()
+                ? baseName.substring(prefix.length()) : null;
+        return new IndexedArtifact(groupId.toString(), artifactId, version, classifier, jar, kind, model);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage:  java -cp module-info-grammar.jar "
+                    + MavenRepositoryIndexer.class.getName() + " /path/to/output [/path/to/repository]");
+            System.exit(1);
+        }
+        Path out = Paths.get(args[0]);
+        Path repo = args.length > 1 ? Paths.get(args[1]) : defaultRepository();
+        IndexResult result = new MavenRepositoryIndexer(repo, out,
+                out.resolveSibling(out.getFileName() + ".checkpoint")).run();
+        System.out.println(result);
+    }
+}
@@ -0,0 +1,677 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.model.Export;
+import com.mastfrog.modulegrammar.model.ExportTargets;
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.model.Opens;
+import com.mastfrog.modulegrammar.model.Provides;
+import com.mastfrog.modulegrammar.model.Require;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A corpus of module descriptors in a single file which is memory-mapped
+ * rather than read, so opening one costs the same however many modules it
+ * holds, and queries are answered from the mapped bytes without creating a
+ * ModuleModel - one is only decoded when asked for.
+ * <p>
+ * The file holds a header of counts, a string table - every distinct name,
+ * sorted by UTF-8 bytes, with an offset table - and fixed-width records for
+ * modules (sorted by name), requires, exports, opens and provides clauses,
+ * which refer to strings by number, so a query looks its argument up in the
+ * string table once by binary search and then compares ints. Each module
+ * record also points at the module's complete model in the binary format of
+ * <code>ModuleModel.writeTo()</code>. The records hold type names resolved
+ * against each module's imports, so queries for types should use fully
+ * qualified names; the decoded models are as written.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class ModuleIndexFile {
+
+    private static final int MAGIC = 0x4D495831; // MIX1
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 11;
+    private static final int MODULE_INTS = 14;
+    private static final int REQUIRE_INTS = 2;
+    private static final int CLAUSE_INTS = 3;
+    // Fields of a module record
+    private static final int M_NAME = 0;
+    private static final int M_FLAGS = 1;
+    private static final int M_REQUIRES = 2;
+    private static final int M_EXPORTS = 4;
+    private static final int M_OPENS = 6;
+    private static final int M_PROVIDES = 8;
+    private static final int M_USES = 10;
+    private static final int M_BLOB = 12;
+    private static final int[] NONE = new int[0];
+    private final ByteBuffer buf;
+    private final int stringCount;
+    private final int moduleCount;
+    private final int stringOffsets;
+    private final int stringData;
+    private final int modules;
+    private final int requires;
+    private final int exports;
+    private final int opens;
+    private final int provides;
+    private final int ids;
+    private final int blobs;
+
+    private ModuleIndexFile(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER_INTS * 4 || buf.getInt(0) != MAGIC) {
+            throw new IOException("Not a module index file");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException("Unsupported module index version " + buf.getInt(4));
+        }
+        stringCount = buf.getInt(8);
+        int stringBytes = buf.getInt(12);
+        moduleCount = buf.getInt(16);
+        int requireCount = buf.getInt(20);
+        int exportCount = buf.getInt(24);
+        int opensCount = buf.getInt(28);
+        int providesCount = buf.getInt(32);
+        int idCount = buf.getInt(36);
+        int blobBytes = buf.getInt(40);
+        long offset = HEADER_INTS * 4;
+        stringOffsets = (int) offset;
+        offset += (stringCount + 1L) * 4;
+        stringData = (int) offset;
+        offset += align(stringBytes);
+        modules = (int) offset;
+        offset += (long) moduleCount * MODULE_INTS * 4;
+        requires = (int) offset;
+        offset += (long) requireCount * REQUIRE_INTS * 4;
+        exports = (int) offset;
+        offset += (long) exportCount * CLAUSE_INTS * 4;
+        opens = (int) offset;
+        offset += (long) opensCount * CLAUSE_INTS * 4;
+        provides = (int) offset;
+        offset += (long) providesCount * CLAUSE_INTS * 4;
+        ids = (int) offset;
+        offset += (long) idCount * 4;
+        blobs = (int) offset;
+        offset += blobBytes;
+        if (offset != buf.capacity()) {
+            throw new IOException("Module index is " + buf.capacity()
+                    + " bytes but its header describes " + offset);
+        }
+    }
+
+    /**
+     * Map an index file.
+     *
+     * @param file The file
+     * @return An index
+     * @throws IOException If the file cannot be mapped or is not an index
+     */
+    public static ModuleIndexFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Module index too large: " + file);
+            }
+            // The mapping remains valid after the channel is closed
+            return new ModuleIndexFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Read an index from a buffer, such as one holding a file's contents.
+     *
+     * @param buffer A buffer, which must not be modified afterwards
+     * @return An index
+     * @throws IOException If the buffer does not hold an index
+     */
+    public static ModuleIndexFile of(ByteBuffer buffer) throws IOException {
+        return new ModuleIndexFile(buffer.slice());
+    }
+
+    /**
+     * The number of modules.
+     *
+     * @return The count
+     */
+    public int size() {
+        return moduleCount;
+    }
+
+    /**
+     * The name of a module.
+     *
+     * @param module A module index, from 0 to <code>size()</code>
+     * @return Its name
+     */
+    public String name(int module) {
+        return string(field(module, M_NAME));
+    }
+
+    public boolean isOpen(int module) {
+        return (field(module, M_FLAGS) & 1) != 0;
+    }
+
+    /**
+     * Find the first module with a given name; modules are sorted by name,
+     * so any others with the same name follow it.
+     *
+     * @param name A module name
+     * @return Its index, or -1
+     */
+    public int indexOf(String name) {
+        int id = stringId(name);
+        if (id < 0) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = moduleCount - 1;
+        int result = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Integer.compare(field(mid, M_NAME), id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                if (cmp == 0) {
+                    result = mid;
+                }
+                hi = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decode the complete model of a module.
+     *
+     * @param module A module index
+     * @return A model
+     */
+    public ModuleModel model(int module) {
+        int start = blobs + field(module, M_BLOB);
+        int length = field(module, M_BLOB + 1);
+        ByteBuffer slice = buf.slice(start, length);
+        try {
+            return ModuleModel.readFrom(new DataInputStream(new BufferInput(slice)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Decode the model of the first module with a given name.
+     *
+     * @param name A module name
+     * @return A model, if the module is present
+     */
+    public Optional<ModuleModel> model(String name) {
+        int index = indexOf(name);
+        return index < 0 ? Optional.empty() : Optional.of(model(index));
+    }
+
+    public boolean requires(int module, String required) {
+        int id = stringId(required);
+        return id >= 0 && findRequire(module, id) >= 0;
+    }
+
+    public boolean requiresTransitive(int module, String required) {
+        int id = stringId(required);
+        int rec = id < 0 ? -1 : findRequire(module, id);
+        return rec >= 0 && (buf.getInt(rec + 4) & 2) != 0;
+    }
+
+    /**
+     * Determine if a module exports a package, to anyone.
+     *
+     * @param module A module index
+     * @param pkg A package name
+     * @return true if it is exported
+     */
+    public boolean exports(int module, String pkg) {
+        int id = stringId(pkg);
+        return id >= 0 && findClause(module, M_EXPORTS, exports, id) >= 0;
+    }
+
+    /**
+     * Determine if a module opens a package, to anyone.
+     *
+     * @param module A module index
+     * @param pkg A package name
+     * @return true if it is opened
+     */
+    public boolean opens(int module, String pkg) {
+        int id = stringId(pkg);
+        return id >= 0 && findClause(module, M_OPENS, opens, id) >= 0;
+    }
+
+    public boolean uses(int module, String type) {
+        int id = stringId(type);
+        if (id < 0) {
+            return false;
+        }
+        int start = ids + field(module, M_USES) * 4;
+        for (int i = 0, count = field(module, M_USES + 1); i < count; i++) {
+            if (buf.getInt(start + i * 4) == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean provides(int module, String service) {
+        int id = stringId(service);
+        return id >= 0 && findClause(module, M_PROVIDES, provides, id) >= 0;
+    }
+
+    /**
+     * Find the modules which require a module.
+     *
+     * @param required A module name
+     * @return Module indices, in order
+     */
+    public int[] modulesRequiring(String required) {
+        int id = stringId(required);
+        if (id < 0) {
+            return NONE;
+        }
+        int[] result = new int[8];
+        int count = 0;
+        for (int m = 0; m < moduleCount; m++) {
+            if (findRequire(m, id) >= 0) {
+                result = add(result, count++, m);
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Find the modules which export a package, to anyone.
+     *
+     * @param pkg A package name
+     * @return Module indices, in order
+     */
+    public int[] modulesExporting(String pkg) {
+        return modulesWithClause(pkg, M_EXPORTS, exports);
+    }
+
+    /**
+     * Find the modules which provide a service.
+     *
+     * @param service A fully qualified type name
+     * @return Module indices, in order
+     */
+    public int[] modulesProviding(String service) {
+        return modulesWithClause(service, M_PROVIDES, provides);
+    }
+
+    /**
+     * Find the modules which use a service.
+     *
+     * @param service A fully qualified type name
+     * @return Module indices, in order
+     */
+    public int[] modulesUsing(String service) {
+        int[] result = new int[8];
+        int count = 0;
+        if (stringId(service) >= 0) {
+            for (int m = 0; m < moduleCount; m++) {
+                if (uses(m, service)) {
+                    result = add(result, count++, m);
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int[] modulesWithClause(String name, int field, int section) {
+        int id = stringId(name);
+        if (id < 0) {
+            return NONE;
+        }
+        int[] result = new int[8];
+        int count = 0;
+        for (int m = 0; m < moduleCount; m++) {
+            if (findClause(m, field, section, id) >= 0) {
+                result = add(result, count++, m);
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] add(int[] array, int index, int value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+
+    private int field(int module, int field) {
+        if (module < 0 || module >= moduleCount) {
+            throw new IndexOutOfBoundsException(module + " of " + moduleCount);
+        }
+        return buf.getInt(modules + (module * MODULE_INTS + field) * 4);
+    }
+
+    private int findRequire(int module, int id) {
+        int start = requires + field(module, M_REQUIRES) * REQUIRE_INTS * 4;
+        for (int i = 0, count = field(module, M_REQUIRES + 1); i < count; i++) {
+            int rec = start + i * REQUIRE_INTS * 4;
+            if (buf.getInt(rec) == id) {
+                return rec;
+            }
+        }
+        return -1;
+    }
+
+    private int findClause(int module, int field, int section, int id) {
+        int start = section + field(module, field) * CLAUSE_INTS * 4;
+        for (int i = 0, count = field(module, field + 1); i < count; i++) {
+            int rec = start + i * CLAUSE_INTS * 4;
+            if (buf.getInt(rec) == id) {
+                return rec;
+            }
+        }
+        return -1;
+    }
+
+    private String string(int id) {
+        int start = buf.getInt(stringOffsets + id * 4);
+        int end = buf.getInt(stringOffsets + id * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        buf.get(stringData + start, bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private int stringId(String value) {
+        byte[] key = value.getBytes(UTF_8);
+        int lo = 0;
+        int hi = stringCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareString(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareString(int id, byte[] key) {
+        int start = stringData + buf.getInt(stringOffsets + id * 4);
+        int length = stringData + buf.getInt(stringOffsets + id * 4 + 4) - start;
+        int max = Math.min(length, key.length);
+        for (int i = 0; i < max; i++) {
+            int cmp = Integer.compare(buf.get(start + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 3) & ~3L;
+    }
+
+    /**
+     * Write an index file, replacing any existing file atomically where the
+     * file system allows it.
+     *
+     * @param file The file
+     * @param models The models to index
+     * @throws IOException If writing fails
+     */
+    public static void write(Path file, Iterable<? extends ModuleModel> models) throws IOException {
+        List<ModuleModel> sorted = new ArrayList<>();
+        List<ModuleModel> resolved = new ArrayList<>();
+        Map<String, byte[]> encoded = new HashMap<>();
+        for (ModuleModel mdl : models) {
+            sorted.add(mdl);
+        }
+        sorted.sort((a, b) -> Arrays.compareUnsigned(a.moduleName().getBytes(UTF_8),
+                b.moduleName().getBytes(UTF_8)));
+        for (ModuleModel mdl : sorted) {
+            ModuleModel res = mdl.resolved();
+            resolved.add(res);
+            collectStrings(res, encoded);
+        }
+        List<byte[]> strings = new ArrayList<>(encoded.values());
+        strings.sort(Arrays::compareUnsigned);
+        Map<String, Integer> stringIds = new HashMap<>(strings.size() * 2);
+        for (int i = 0; i < strings.size(); i++) {
+            stringIds.put(new String(strings.get(i), UTF_8), i);
+        }
+
+        Section moduleSection = new Section();
+        Section requireSection = new Section();
+        Section exportSection = new Section();
+        Section opensSection = new Section();
+        Section providesSection = new Section();
+        Section idSection = new Section();
+        ByteArrayOutputStream blobBytes = new ByteArrayOutputStream();
+        DataOutputStream blobOut = new DataOutputStream(blobBytes);
+        for (int i = 0; i < sorted.size(); i++) {
+            ModuleModel res = resolved.get(i);
+            moduleSection.add(stringIds.get(res.moduleName()));
+            moduleSection.add(res.isOpen() ? 1 : 0);
+            Set<? extends Require> reqs = res.requires();
+            moduleSection.add(requireSection.count / REQUIRE_INTS).add(reqs.size());
+            for (Require r : reqs) {
+                requireSection.add(stringIds.get(r.moduleName()))
+                        .add((r.isStatic() ? 1 : 0) | (r.isTransitive() ? 2 : 0));
+            }
+            Set<? extends Export> exps = res.exports();
+            moduleSection.add(exportSection.count / CLAUSE_INTS).add(exps.size());
+            for (Export e : exps) {
+                exportSection.add(stringIds.get(e.exportedPackage));
+                addIds(exportSection, idSection, stringIds, e.targets().map(ModuleIndexFile::toList).orElse(null));
+            }
+            Set<? extends Opens> ops = res.opens();
+            moduleSection.add(opensSection.count / CLAUSE_INTS).add(ops.size());
+            for (Opens o : ops) {
+                opensSection.add(stringIds.get(o.opened()));
+                addIds(opensSection, idSection, stringIds, o.to().<List<String>>map(ArrayList::new).orElse(null));
+            }
+            Set<? extends Provides> provs = res.provides();
+            moduleSection.add(providesSection.count / CLAUSE_INTS).add(provs.size());
+            for (Provides p : provs) {
+                providesSection.add(stringIds.get(p.provided()));
+                List<String> impls = new ArrayList<>();
+                p.forEach(impls::add);
+                addIds(providesSection, idSection, stringIds, impls);
+            }
+            List<String> uses = new ArrayList<>();
+            res.uses().forEach(uses::add);
+            moduleSection.add(idSection.count).add(uses.size());
+            for (String use : uses) {
+                idSection.add(stringIds.get(use));
+            }
+            int blobStart = blobOut.size();
+            sorted.get(i).writeTo(blobOut);
+            moduleSection.add(blobStart).add(blobOut.size() - blobStart);
+        }
+        int stringBytes = 0;
+        for (byte[] s : strings) {
+            stringBytes += s.length;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            out.writeInt(stringBytes);
+            out.writeInt(sorted.size());
+            out.writeInt(requireSection.count / REQUIRE_INTS);
+            out.writeInt(exportSection.count / CLAUSE_INTS);
+            out.writeInt(opensSection.count / CLAUSE_INTS);
+            out.writeInt(providesSection.count / CLAUSE_INTS);
+            out.writeInt(idSection.count);
+            out.writeInt(blobOut.size());
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] s : strings) {
+                offset += s.length;
+                out.writeInt(offset);
+            }
+            for (byte[] s : strings) {
+                out.write(s);
+            }
+            for (long i = stringBytes; i < align(stringBytes); i++) {
+                out.writeByte(0);
+            }
+            for (Section section : new Section[]{moduleSection, requireSection,
+                exportSection, opensSection, providesSection, idSection}) {
+                section.writeTo(out);
+            }
+            blobBytes.writeTo(out);
+        }
+        try {
+            Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, file, REPLACE_EXISTING);
+        }
+    }
+
+    private static List<String> toList(ExportTargets targets) {
+        List<String> result = new ArrayList<>();
+        targets.forEach(result::add);
+        return result;
+    }
+
+    private static void addIds(Section clauses, Section idSection,
+            Map<String, Integer> stringIds, List<String> names) {
+        if (names == null) {
+            // Unqualified
+            clauses.add(idSection.count).add(-1);
+            return;
+        }
+        clauses.add(idSection.count).add(names.size());
+        for (String name : names) {
+            idSection.add(stringIds.get(name));
+        }
+    }
+
+    private static void collectStrings(ModuleModel mdl, Map<String, byte[]> into) {
+        List<String> names = new ArrayList<>();
+        names.add(mdl.moduleName());
+        for (Require r : mdl.requires()) {
+            names.add(r.moduleName());
+        }
+        for (Export e : mdl.exports()) {
+            names.add(e.exportedPackage);
+            e.targets().ifPresent(t -> t.forEach(names::add));
+        }
+        for (Opens o : mdl.opens()) {
+            names.add(o.opened());
+            o.to().ifPresent(names::addAll);
+        }
+        for (Provides p : mdl.provides()) {
+            names.add(p.provided());
+            p.forEach(names::add);
+        }
+        mdl.uses().forEach(names::add);
+        for (String name : names) {
+            into.computeIfAbsent(name, n -> n.getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * A growable section of ints.
+     */
+    private static final class Section {
+
+        private int[] values = new int[256];
+        private int count;
+
+        Section add(int value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = value;
+            return this;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            for (int i = 0; i < count; i++) {
+                out.writeInt(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a slice of the mapped file as a stream.
+     */
+    private static final class BufferInput extends InputStream {
+
+        private final ByteBuffer buf;
+
+        BufferInput(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buf.remaining());
+            buf.get(b, off, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.model.Export;
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.model.Opens;
+import java.util.function.Predicate;
+
+/**
+ * A question asked of each module in a corpus by CorpusSearch, consisting of a
+ * <i>needle</i> - a string which must appear verbatim in the source of any
+ * module that can possibly match - and a test which verifies the match
+ * against the parsed model.
+ * <p>
+ * The built-in queries use the longest dot-separated component of the name
+ * they look for as the needle, since the source may use a simple name plus an
+ * import for types, and may put whitespace around the dots of a qualified
+ * name. Note that names written using unicode escapes will not be found.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class ModuleQuery {
+
+    private final String description;
+    private final String needle;
+    private final Predicate<? super ModuleModel> test;
+
+    private ModuleQuery(String description, String needle, Predicate<? super ModuleModel> test) {
+        if (needle == null || needle.isEmpty()) {
+            throw new IllegalArgumentException("Empty needle for " + description);
+        }
+        this.description = description;
+        this.needle = needle;
+        this.test = test;
+    }
+
+    /**
+     * Create a custom query.
+     *
+     * @param description A description for logging
+     * @param needle A string which the source of any module that passes the
+     * test must contain
+     * @param test The test
+     * @return A query
+     */
+    public static ModuleQuery of(String description, String needle, Predicate<? super ModuleModel> test) {
+        return new ModuleQuery(description, needle, test);
+    }
+
+    /**
+     * Match modules which require the passed module.
+     *
+     * @param module A module name
+     * @return A query
+     */
+    public static ModuleQuery requires(String module) {
+        return new ModuleQuery("requires " + module, longestComponent(module),
+                mdl -> mdl.requires(module));
+    }
+
+    /**
+     * Match modules annotated with the passed annotation, by simple or fully
+     * qualified name.
+     *
+     * @param annotation An annotation type name
+     * @return A query
+     */
+    public static ModuleQuery annotatedWith(String annotation) {
+        return new ModuleQuery("@" + annotation, lastComponent(annotation),
+                mdl -> mdl.findAnnotation(annotation).isPresent());
+    }
+
+    /**
+     * Match modules which use the passed service type.
+     *
+     * @param type A type name
+     * @return A query
+     */
+    public static ModuleQuery uses(String type) {
+        return new ModuleQuery("uses " + type, lastComponent(type),
+                mdl -> mdl.uses(type));
+    }
+
+    /**
+     * Match modules which provide an implementation of the passed service
+     * type.
+     *
+     * @param type A type name
+     * @return A query
+     */
+    public static ModuleQuery provides(String type) {
+        return new ModuleQuery("provides " + type, lastComponent(type),
+                mdl -> mdl.provides(type));
+    }
+
+    /**
+     * Match modules which export the passed package, either unconditionally
+     * or to specific modules.
+     *
+     * @param pkg A package
+     * @return A query
+     */
+    public static ModuleQuery exports(String pkg) {
+        return new ModuleQuery("exports " + pkg, longestComponent(pkg), mdl -> {
+            if (!mdl.mightMention(pkg)) {
+                return false;
+            }
+            for (Export e : mdl.exports()) {
+                if (e.exportedPackage.equals(pkg)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Match modules which open the passed package, either unconditionally or
+     * to specific modules.
+     *
+     * @param pkg A package
+     * @return A query
+     */
+    public static ModuleQuery opens(String pkg) {
+        return new ModuleQuery("opens " + pkg, longestComponent(pkg), mdl -> {
+            if (!mdl.mightMention(pkg)) {
+                return false;
+            }
+            for (Opens o : mdl.opens()) {
+                if (o.opened().equals(pkg)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * The string the prefilter searches for.
+     *
+     * @return The needle
+     */
+    public String needle() {
+        return needle;
+    }
+
+    /**
+     * Test a parsed model.
+     *
+     * @param model A model
+     * @return true if it matches
+     */
+    public boolean test(ModuleModel model) {
+        return test.test(model);
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    private static String lastComponent(String name) {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private static String longestComponent(String name) {
+        String result = "";
+        for (String part : name.split("\\.")) {
+            if (part.length() > result.length()) {
+                result = part;
+            }
+        }
+        return result;
+    }
+}
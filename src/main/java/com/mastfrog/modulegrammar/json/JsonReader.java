@@ -0,0 +1,532 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A small pull reader for JSON, reading a token at a time from a string or
+ * stream, enough to read back what JsonWriter writes (in either mode) and
+ * any other well-formed JSON. Numbers are returned as their literal text, so
+ * callers choose the type to parse them as. Malformed input causes an
+ * IllegalArgumentException naming the line and column; I/O errors are
+ * rethrown as UncheckedIOException.
+ *
+ * @author Tim Boudreau
+ */
+public final class JsonReader {
+
+    private static final int TOP = 0;
+    private static final int TOP_DONE = 1;
+    private static final int OBJECT_FIRST = 2;
+    private static final int OBJECT_NEXT = 3;
+    private static final int OBJECT_VALUE = 4;
+    private static final int ARRAY_FIRST = 5;
+    private static final int ARRAY_NEXT = 6;
+    private final Reader in;
+    private final char[] buf;
+    private int pos;
+    private int limit;
+    private int line = 1;
+    private int lineStart;
+    private int[] stack = new int[16];
+    private int depth;
+    private Token peeked;
+    private final StringBuilder scratch = new StringBuilder();
+
+    private JsonReader(Reader in, char[] buf, int limit) {
+        this.in = in;
+        this.buf = buf;
+        this.limit = limit;
+        stack[0] = TOP;
+    }
+
+    /**
+     * Read JSON from a string.
+     *
+     * @param json Some JSON
+     * @return A reader
+     */
+    public static JsonReader of(CharSequence json) {
+        char[] chars = new char[json.length()];
+        if (json instanceof String s) {
+            s.getChars(0, chars.length, chars, 0);
+        } else {
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = json.charAt(i);
+            }
+        }
+        return new JsonReader(null, chars, chars.length);
+    }
+
+    /**
+     * Read JSON from a character stream. The reader buffers its input, so
+     * need not be passed a buffered one.
+     *
+     * @param in A reader
+     * @return A reader
+     */
+    public static JsonReader of(Reader in) {
+        return new JsonReader(in, new char[8192], 0);
+    }
+
+    /**
+     * Read UTF-8 encoded JSON from a stream.
+     *
+     * @param in A stream
+     * @return A reader
+     */
+    public static JsonReader of(InputStream in) {
+        return of(new InputStreamReader(in, UTF_8));
+    }
+
+    /**
+     * The kinds of token.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING,
+        NUMBER, BOOLEAN, NULL, END
+    }
+
+    /**
+     * Get the kind of the next token without consuming it.
+     *
+     * @return A token kind
+     */
+    public Token peek() {
+        if (peeked == null) {
+            peeked = advance();
+        }
+        return peeked;
+    }
+
+    /**
+     * Determine if the current object or array has more members.
+     *
+     * @return true if the next token does not end it
+     */
+    public boolean hasNext() {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END;
+    }
+
+    public void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        push(OBJECT_FIRST);
+    }
+
+    public void endObject() {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        push(ARRAY_FIRST);
+    }
+
+    public void endArray() {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * Read the name of the next object member.
+     *
+     * @return The name
+     */
+    public String nextName() {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * Read a string value.
+     *
+     * @return The string
+     */
+    public String nextString() {
+        expect(Token.STRING);
+        return readString();
+    }
+
+    /**
+     * Read a boolean value.
+     *
+     * @return The boolean
+     */
+    public boolean nextBoolean() {
+        expect(Token.BOOLEAN);
+        boolean result = buf[pos] == 't';
+        literal(result ? "true" : "false");
+        return result;
+    }
+
+    /**
+     * Read a numeric value as the text it was written as. The strings
+     * <code>"NaN"</code>, <code>"Infinity"</code> and
+     * <code>"-Infinity"</code>, which JsonWriter writes for non-finite
+     * numbers, are also accepted, and returned unquoted.
+     *
+     * @return The number's text
+     */
+    public String nextNumber() {
+        if (peek() == Token.STRING) {
+            String special = nextString();
+            switch (special) {
+                case "NaN":
+                case "Infinity":
+                case "-Infinity":
+                    return special;
+                default:
+                    throw error("Expected a number but found \"" + special + '"');
+            }
+        }
+        expect(Token.NUMBER);
+        scratch.setLength(0);
+        for (;;) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            char c = buf[pos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                scratch.append(c);
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return scratch.toString();
+    }
+
+    /**
+     * Read an array of strings.
+     *
+     * @return A list of strings
+     */
+    public List<String> nextStrings() {
+        beginArray();
+        List<String> result = new ArrayList<>();
+        while (hasNext()) {
+            result.add(nextString());
+        }
+        endArray();
+        return result;
+    }
+
+    /**
+     * Verify that nothing but whitespace follows the top-level value.
+     */
+    public void end() {
+        if (depth != 0 || peek() != Token.END) {
+            throw error("Expected end of input but found " + peek());
+        }
+    }
+
+    /**
+     * Read a null.
+     */
+    public void nextNull() {
+        expect(Token.NULL);
+        literal("null");
+    }
+
+    /**
+     * Skip the next value, including everything in it if it is an object or
+     * array.
+     */
+    public void skipValue() {
+        int target = depth;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    break;
+                case NAME:
+                    nextName();
+                    break;
+                case STRING:
+                    nextString();
+                    break;
+                case NUMBER:
+                    nextNumber();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw error("Unexpected end of input");
+            }
+        } while (depth > target);
+    }
+
+    /**
+     * Create an exception describing a problem at the current position,
+     * for use by callers whose input is well-formed JSON but not what they
+     * expect.
+     *
+     * @param message A message
+     * @return An exception
+     */
+    public IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at " + line + ":" + (pos - lineStart + 1));
+    }
+
+    private void expect(Token token) {
+        Token t = peek();
+        if (t != token) {
+            throw error("Expected " + token + " but found " + t);
+        }
+        peeked = null;
+    }
+
+    private void push(int state) {
+        if (++depth == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[depth] = state;
+    }
+
+    private Token advance() {
+        int state = stack[depth];
+        char c = nextNonWhitespace();
+        switch (state) {
+            case OBJECT_FIRST:
+            case OBJECT_NEXT:
+                if (c == '}') {
+                    pos++;
+                    return Token.END_OBJECT;
+                }
+                if (state == OBJECT_NEXT) {
+                    if (c != ',') {
+                        throw error("Expected , or } but found '" + c + "'");
+                    }
+                    pos++;
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw error("Expected a name but found '" + c + "'");
+                }
+                stack[depth] = OBJECT_VALUE;
+                return Token.NAME;
+            case OBJECT_VALUE:
+                // Called after a name was read; consume the colon
+                if (c != ':') {
+                    throw error("Expected : but found '" + c + "'");
+                }
+                pos++;
+                c = nextNonWhitespace();
+                stack[depth] = OBJECT_NEXT;
+                break;
+            case ARRAY_FIRST:
+            case ARRAY_NEXT:
+                if (c == ']') {
+                    pos++;
+                    return Token.END_ARRAY;
+                }
+                if (state == ARRAY_NEXT) {
+                    if (c != ',') {
+                        throw error("Expected , or ] but found '" + c + "'");
+                    }
+                    pos++;
+                    c = nextNonWhitespace();
+                }
+                stack[depth] = ARRAY_NEXT;
+                break;
+            case TOP:
+                stack[depth] = TOP_DONE;
+                break;
+            default:
+                if (c != 0) {
+                    throw error("Trailing content '" + c + "'");
+                }
+                return Token.END;
+        }
+        return valueToken(c);
+    }
+
+    private Token valueToken(char c) {
+        switch (c) {
+            case '{':
+                pos++;
+                return Token.BEGIN_OBJECT;
+            case '[':
+                pos++;
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            case 0:
+                throw error("Unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private char nextNonWhitespace() {
+        for (;;) {
+            if (pos == limit && !fill()) {
+                return 0;
+            }
+            char c = buf[pos];
+            switch (c) {
+                case '\n':
+                    line++;
+                    lineStart = pos + 1;
+                    pos++;
+                    break;
+                case ' ':
+                case '\r':
+                case '\t':
+                    pos++;
+                    break;
+                default:
+                    return c;
+            }
+        }
+    }
+
+    private void literal(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if ((pos == limit && !fill()) || buf[pos] != text.charAt(i)) {
+                throw error("Expected " + text);
+            }
+            pos++;
+        }
+    }
+
+    private String readString() {
+        // Positioned at the opening quote
+        pos++;
+        scratch.setLength(0);
+        for (;;) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buf[pos];
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    break;
+                }
+                pos++;
+            }
+            scratch.append(buf, start, pos - start);
+            if (pos == limit) {
+                if (!fill()) {
+                    throw error("Unterminated string");
+                }
+                continue;
+            }
+            char c = buf[pos++];
+            if (c == '"') {
+                return scratch.toString();
+            } else if (c != '\\') {
+                throw error("Unescaped control character in string");
+            }
+            scratch.append(unescape());
+        }
+    }
+
+    private char unescape() {
+        if (pos == limit && !fill()) {
+            throw error("Unterminated escape");
+        }
+        char c = buf[pos++];
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                int result = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (pos == limit && !fill()) {
+                        throw error("Unterminated escape");
+                    }
+                    int digit = Character.digit(buf[pos++], 16);
+                    if (digit < 0) {
+                        throw error("Bad unicode escape");
+                    }
+                    result = (result << 4) | digit;
+                }
+                return (char) result;
+            default:
+                throw error("Bad escape \\" + c);
+        }
+    }
+
+    private boolean fill() {
+        if (in == null) {
+            return false;
+        }
+        try {
+            lineStart -= limit;
+            pos = 0;
+            limit = 0;
+            int count = in.read(buf, 0, buf.length);
+            if (count <= 0) {
+                return false;
+            }
+            limit = count;
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
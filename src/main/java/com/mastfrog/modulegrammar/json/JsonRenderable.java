@@ -25,16 +25,47 @@ package com.mastfrog.modulegrammar.json;
 
 /**
  * A simple interface to make model objects renderable as JSON without dictating
- * any particular serialization library.
+ * any particular serialization library. Implementations override either
+ * <code>writeJson</code>, which streams, or <code>renderJsonInto</code>, as
+ * implementations written before <code>writeJson</code> existed do; each
+ * defaults to calling the other, and an implementation which overrides
+ * neither fails with an IllegalStateException rather than recursing.
  *
  * @author Tim Boudreau
  */
 public interface JsonRenderable {
 
-    StringBuilder renderJsonInto(StringBuilder sb);
+    default StringBuilder renderJsonInto(StringBuilder sb) {
+        writeJson(JsonWriter.bridging(sb, this));
+        return sb;
+    }
+
+    /**
+     * Write this object as a JSON value. The default implementation buffers
+     * the output of <code>renderJsonInto</code> and writes it verbatim.
+     *
+     * @param writer A writer
+     */
+    default void writeJson(JsonWriter writer) {
+        if (writer.isBridging(this)) {
+            throw new IllegalStateException(getClass().getName()
+                    + " overrides neither writeJson() nor renderJsonInto()");
+        }
+        writer.rawValue(renderJsonInto(new StringBuilder()));
+    }
 
     default String toJson() {
         return renderJsonInto(new StringBuilder()).toString();
     }
-    
+
+    /**
+     * Render this object as JSON with no whitespace.
+     *
+     * @return A JSON string
+     */
+    default String toCompactJson() {
+        StringBuilder sb = new StringBuilder();
+        writeJson(JsonWriter.to(sb, false));
+        return sb.toString();
+    }
 }
@@ -23,7 +23,6 @@
  */
 package com.mastfrog.modulegrammar.json;
 
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
@@ -32,29 +31,29 @@ import java.util.Map;
  * Quick and dirty JSON.
  *
  * @author Tim Boudreau
+ * @deprecated Tracks nesting depth per thread; use JsonWriter, which
+ * carries it explicitly and can write to a stream
  */
+@Deprecated
 public final class JsonUtils {
 
-    private static final ThreadLocal<Integer> DEPTH
-            = ThreadLocal.withInitial(() -> 0);
+    private static final ThreadLocal<int[]> DEPTH
+            = ThreadLocal.withInitial(() -> new int[1]);
 
     private static void descend(Runnable run) {
-        int old = DEPTH.get();
-        DEPTH.set(old + 1);
+        int[] depth = DEPTH.get();
+        depth[0]++;
         try {
             run.run();
         } finally {
-            DEPTH.set(old);
+            depth[0]--;
         }
     }
 
     private static StringBuilder indent(StringBuilder sb) {
         sb.append('\n');
-        int d = DEPTH.get();
-        if (d > 0) {
-            char[] c = new char[d * 4];
-            Arrays.fill(c, ' ');
-            sb.append(c);
+        for (int i = DEPTH.get()[0] * 4; i > 0; i--) {
+            sb.append(' ');
         }
         return sb;
     }
@@ -65,8 +64,7 @@ public final class JsonUtils {
     }
 
     public static String escapeAndQuote(CharSequence what) {
-        String x = what.toString().replaceAll("\"", "\\\"");
-        return '"' + x + '"';
+        return JsonWriter.quote(what, new StringBuilder(what.length() + 2)).toString();
     }
 
     public static StringBuilder append(String key, Object value, StringBuilder to) {
@@ -0,0 +1,556 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.json;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Streaming JSON output to any Appendable - a StringBuilder, a Writer - or
+ * straight to an OutputStream as UTF-8, in either the indented format
+ * <code>toJson()</code> has always produced, or a compact format with no
+ * whitespace at all. All state - nesting depth and whether a separator is
+ * needed - lives in the writer, so it needs no thread-locals or locks and
+ * writes nothing but the output; strings are escaped as they are written,
+ * without copying them.
+ * <p>
+ * A writer is not thread-safe; use one per output. I/O errors are rethrown as
+ * UncheckedIOException, since most output goes to in-memory buffers which
+ * cannot throw them.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class JsonWriter implements Flushable {
+
+    private static final String SPACES = "                                ";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final Appendable out;
+    private final boolean pretty;
+    private int depth;
+    private boolean first;
+    private boolean afterKey;
+    private boolean inline;
+    // The renderable whose default renderJsonInto() created this writer
+    private Object bridging;
+
+    private JsonWriter(Appendable out, boolean pretty) {
+        this.out = out;
+        this.pretty = pretty;
+    }
+
+    /**
+     * Create a writer that appends to an Appendable.
+     *
+     * @param out The output
+     * @param pretty If true, indent the output; if false, write no
+     * whitespace
+     * @return A writer
+     */
+    public static JsonWriter to(Appendable out, boolean pretty) {
+        if (out == null) {
+            throw new IllegalArgumentException("Null output");
+        }
+        return new JsonWriter(out, pretty);
+    }
+
+    static JsonWriter bridging(StringBuilder out, JsonRenderable renderable) {
+        JsonWriter result = new JsonWriter(out, true);
+        result.bridging = renderable;
+        return result;
+    }
+
+    boolean isBridging(JsonRenderable renderable) {
+        return bridging == renderable;
+    }
+
+    /**
+     * Create a writer that encodes output as UTF-8 into its own buffer and
+     * writes it to a stream when the buffer fills or the writer is flushed.
+     * Callers must call <code>flush()</code> when done.
+     *
+     * @param out The output
+     * @param pretty If true, indent the output; if false, write no
+     * whitespace
+     * @return A writer
+     */
+    public static JsonWriter toUtf8(OutputStream out, boolean pretty) {
+        if (out == null) {
+            throw new IllegalArgumentException("Null output");
+        }
+        return new JsonWriter(new Utf8Output(out), pretty);
+    }
+
+    /**
+     * Start an object, as a value or array element.
+     *
+     * @return this
+     */
+    public JsonWriter startObject() {
+        return open('{', false);
+    }
+
+    /**
+     * Start an object whose members are written on one line when pretty
+     * printing, as requires clauses are. An inline object may only contain
+     * scalar values.
+     *
+     * @return this
+     */
+    public JsonWriter startInlineObject() {
+        return open('{', pretty);
+    }
+
+    /**
+     * End the current object.
+     *
+     * @return this
+     */
+    public JsonWriter endObject() {
+        depth--;
+        if (pretty && !first) {
+            newline();
+        }
+        return close('}');
+    }
+
+    /**
+     * Start an array, as a value or array element.
+     *
+     * @return this
+     */
+    public JsonWriter startArray() {
+        return open('[', false);
+    }
+
+    /**
+     * End the current array.
+     *
+     * @return this
+     */
+    public JsonWriter endArray() {
+        depth--;
+        return close(']');
+    }
+
+    /**
+     * Write the key of an object member; the next call must write its
+     * value.
+     *
+     * @param key The key
+     * @return this
+     */
+    public JsonWriter key(CharSequence key) {
+        separate();
+        string(key);
+        append(pretty ? " : " : ":");
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Write an object member.
+     *
+     * @param key The key
+     * @param value The value, as for <code>value(Object)</code>
+     * @return this
+     */
+    public JsonWriter field(CharSequence key, Object value) {
+        return key(key).value(value);
+    }
+
+    /**
+     * Write a string value, or null.
+     *
+     * @param value A string
+     * @return this
+     */
+    public JsonWriter value(CharSequence value) {
+        beforeValue();
+        if (value == null) {
+            append("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    /**
+     * Write a boolean value.
+     *
+     * @param value A boolean
+     * @return this
+     */
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        append(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Write a numeric value.
+     *
+     * @param value A long
+     * @return this
+     */
+    public JsonWriter value(long value) {
+        beforeValue();
+        try {
+            if (out instanceof StringBuilder sb) {
+                sb.append(value);
+            } else {
+                out.append(Long.toString(value));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return this;
+    }
+
+    /**
+     * Write any value: strings, characters, numbers, booleans and enum
+     * constants are written as scalars, JsonRenderables write themselves,
+     * collections become arrays (skipping null elements) and maps become
+     * objects keyed by the string value of their keys. Anything else is
+     * written as its string value. Non-finite floating point numbers, which
+     * JSON cannot represent, are written as the strings <code>"NaN"</code>,
+     * <code>"Infinity"</code> and <code>"-Infinity"</code>.
+     *
+     * @param value A value, or null
+     * @return this
+     */
+    public JsonWriter value(Object value) {
+        if (value == null) {
+            beforeValue();
+            append("null");
+        } else if (value instanceof CharSequence seq) {
+            value(seq);
+        } else if (value instanceof Boolean bool) {
+            value(bool.booleanValue());
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            double dbl = ((Number) value).doubleValue();
+            beforeValue();
+            if (Double.isFinite(dbl)) {
+                append(value.toString());
+            } else {
+                // JSON has no NaN or Infinity; JsonReader.nextNumber()
+                // accepts them as strings
+                string(value.toString());
+            }
+        } else if (value instanceof Number) {
+            beforeValue();
+            append(value.toString());
+        } else if (value instanceof Character ch) {
+            beforeValue();
+            string(Character.toString(ch));
+        } else if (value instanceof Enum<?> en) {
+            value(en.name());
+        } else if (value instanceof JsonRenderable renderable) {
+            renderable.writeJson(this);
+        } else if (value instanceof Collection<?> coll) {
+            startArray();
+            for (Object item : coll) {
+                if (item != null) {
+                    value(item);
+                }
+            }
+            endArray();
+        } else if (value instanceof Map<?, ?> map) {
+            startObject();
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                key(e.getKey().toString()).value(e.getValue());
+            }
+            endObject();
+        } else {
+            value(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Write the output of a legacy <code>renderJsonInto</code> verbatim, as a
+     * value.
+     */
+    JsonWriter rawValue(CharSequence json) {
+        beforeValue();
+        append(json);
+        return this;
+    }
+
+    /**
+     * Write any buffered output to the underlying output, flushing it if it
+     * is Flushable.
+     */
+    @Override
+    public void flush() {
+        if (out instanceof Flushable flushable) {
+            try {
+                flushable.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Append a quoted, escaped JSON string to a StringBuilder.
+     *
+     * @param value A string
+     * @param into The output
+     * @return The output
+     */
+    public static StringBuilder quote(CharSequence value, StringBuilder into) {
+        try {
+            escape(value, into);
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+        return into;
+    }
+
+    private JsonWriter open(char c, boolean inlineMembers) {
+        if (inline) {
+            throw new IllegalStateException("Inline objects may only contain scalars");
+        }
+        beforeValue();
+        append(c);
+        depth++;
+        first = true;
+        inline = inlineMembers;
+        return this;
+    }
+
+    private JsonWriter close(char c) {
+        if (depth < 0) {
+            throw new IllegalStateException("Unbalanced " + c);
+        }
+        append(c);
+        // The enclosing container holds at least the one just closed, and
+        // inline objects never contain containers
+        first = false;
+        inline = false;
+        return this;
+    }
+
+    private void beforeValue() {
+        if (afterKey) {
+            afterKey = false;
+        } else if (depth > 0) {
+            separate();
+        }
+    }
+
+    private void separate() {
+        if (afterKey) {
+            throw new IllegalStateException("Expected a value after a key");
+        }
+        if (first) {
+            first = false;
+            if (pretty) {
+                newline();
+            }
+        } else if (inline) {
+            append(", ");
+        } else {
+            append(',');
+            if (pretty) {
+                newline();
+            }
+        }
+    }
+
+    private void newline() {
+        append('\n');
+        for (int spaces = depth * 4; spaces > 0; spaces -= SPACES.length()) {
+            append(SPACES, Math.min(spaces, SPACES.length()));
+        }
+    }
+
+    private void string(CharSequence value) {
+        try {
+            escape(value, out);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void escape(CharSequence value, Appendable out) throws IOException {
+        out.append('"');
+        int len = value.length();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) {
+                continue;
+            }
+            if (i > start) {
+                out.append(value, start, i);
+            }
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    // Other control characters, and the line and paragraph
+                    // separators JavaScript does not allow in strings
+                    out.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF])
+                            .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            }
+        }
+        if (start < len) {
+            out.append(value, start, len);
+        }
+        out.append('"');
+    }
+
+    private void append(char c) {
+        try {
+            out.append(c);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void append(CharSequence seq) {
+        append(seq, seq.length());
+    }
+
+    private void append(CharSequence seq, int length) {
+        try {
+            out.append(seq, 0, length);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Encodes characters as UTF-8 into a buffer, writing it to a stream when
+     * full; unpaired surrogates are written as '?', as String.getBytes()
+     * would.
+     */
+    private static final class Utf8Output implements Appendable, Flushable {
+
+        private final OutputStream out;
+        private final byte[] buf = new byte[8192];
+        private int pos;
+        private char highSurrogate;
+
+        Utf8Output(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (pos > buf.length - 4) {
+                drain();
+            }
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(high, c);
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                    return this;
+                }
+                buf[pos++] = '?';
+                return append(c);
+            }
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            return this;
+        }
+
+        private void drain() throws IOException {
+            if (pos > 0) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (highSurrogate != 0) {
+                // Nothing can follow it now
+                highSurrogate = 0;
+                buf[pos++] = '?';
+            }
+            drain();
+            out.flush();
+        }
+    }
+}
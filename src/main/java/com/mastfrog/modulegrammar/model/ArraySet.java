@@ -0,0 +1,237 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BinaryOperator;
+
+/**
+ * An immutable set view over an array which is sorted and deduplicated (by
+ * <code>compareTo()</code>, as TreeSet would) once, when the owning model
+ * element is created, with binary-search lookups. Several model elements can
+ * share one array.
+ *
+ * @author Tim Boudreau
+ */
+final class ArraySet<T extends Comparable<? super T>> extends AbstractSet<T> {
+
+    private final T[] items;
+
+    ArraySet(T[] items) {
+        this.items = items;
+    }
+
+    /**
+     * Create a sorted, deduplicated array from a collection. If two elements
+     * compare as equal, the first one encountered is kept - model elements
+     * compare by module, package or service name alone, so duplicate clauses
+     * such as <code>exports a.p; exports a.p to b;</code> (which javac
+     * rejects) collapse into the first. If the collection is already an
+     * ArraySet, its
+     * array is shared rather than copied.
+     *
+     * @param <T> The element type
+     * @param items A collection
+     * @param empty A shared, empty array of the right type
+     * @return A sorted array, which may be the passed empty one
+     */
+    static <T extends Comparable<? super T>> T[] sorted(Collection<? extends T> items, T[] empty) {
+        return sorted(items, empty, null);
+    }
+
+    /**
+     * Create a sorted, deduplicated array from a collection, combining
+     * elements which compare as equal.
+     *
+     * @param <T> The element type
+     * @param items A collection
+     * @param empty A shared, empty array of the right type
+     * @param merge Combines an element with a later one comparing equal to
+     * it; if null, the first one encountered is kept
+     * @return A sorted array, which may be the passed empty one
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Comparable<? super T>> T[] sorted(Collection<? extends T> items, T[] empty,
+            BinaryOperator<T> merge) {
+        if (items instanceof ArraySet<?> set && set.items.getClass() == empty.getClass()) {
+            return (T[]) set.items;
+        }
+        if (items.isEmpty()) {
+            return empty;
+        }
+        T[] result = items.toArray(Arrays.copyOf(empty, items.size()));
+        Arrays.sort(result);
+        int count = 1;
+        for (int i = 1; i < result.length; i++) {
+            if (result[i].compareTo(result[count - 1]) != 0) {
+                result[count++] = result[i];
+            } else if (merge != null) {
+                result[count - 1] = merge.apply(result[count - 1], result[i]);
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Binary search a sorted array for an element comparing equal to the
+     * passed one.
+     *
+     * @param <T> The type
+     * @param sorted A sorted array
+     * @param key The key
+     * @return The index, or a negative number if not present
+     */
+    static <T extends Comparable<? super T>> int indexOf(T[] sorted, T key) {
+        int lo = 0;
+        int hi = sorted.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = sorted[mid].compareTo(key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * Return a copy of a sorted array with the passed element added, or
+     * replacing the element that compares equal to it; returns the original
+     * array if an equal element is already present.
+     *
+     * @param <T> The type
+     * @param sorted A sorted array
+     * @param item The item to add
+     * @return A sorted array
+     */
+    static <T extends Comparable<? super T>> T[] with(T[] sorted, T item) {
+        int ix = indexOf(sorted, item);
+        if (ix >= 0) {
+            if (sorted[ix].equals(item)) {
+                return sorted;
+            }
+            T[] result = sorted.clone();
+            result[ix] = item;
+            return result;
+        }
+        int insertAt = -ix - 1;
+        T[] result = Arrays.copyOf(sorted, sorted.length + 1);
+        System.arraycopy(sorted, insertAt, result, insertAt + 1, sorted.length - insertAt);
+        result[insertAt] = item;
+        return result;
+    }
+
+    /**
+     * Return a copy of a sorted array without the element comparing equal to
+     * the passed key, or the original array if there is none.
+     *
+     * @param <T> The type
+     * @param sorted A sorted array
+     * @param key The key
+     * @return A sorted array
+     */
+    static <T extends Comparable<? super T>> T[] without(T[] sorted, T key) {
+        int ix = indexOf(sorted, key);
+        if (ix < 0) {
+            return sorted;
+        }
+        T[] result = Arrays.copyOf(sorted, sorted.length - 1);
+        System.arraycopy(sorted, ix + 1, result, ix, sorted.length - ix - 1);
+        return result;
+    }
+
+    T get(int index) {
+        return items[index];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o) {
+        if (o == null || !items.getClass().getComponentType().isInstance(o)) {
+            return false;
+        }
+        return indexOf(items, (T) o) >= 0;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int ix;
+
+            @Override
+            public boolean hasNext() {
+                return ix < items.length;
+            }
+
+            @Override
+            public T next() {
+                if (ix >= items.length) {
+                    throw new NoSuchElementException();
+                }
+                return items[ix++];
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return items.length;
+    }
+
+    @Override
+    public Object[] toArray() {
+        return items.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (o instanceof ArraySet<?> other) {
+            // Use equals(), not just compareTo() as containsAll() would, so
+            // elements that sort the same but differ (such as a static and
+            // a non-static require of the same module) are not equal
+            return Arrays.equals(items, other.items);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        // Must match the Set contract, which AbstractSet implements
+        int result = 0;
+        for (T item : items) {
+            result += item.hashCode();
+        }
+        return result;
+    }
+}
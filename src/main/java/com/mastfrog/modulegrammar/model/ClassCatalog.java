@@ -0,0 +1,45 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+/**
+ * Knows which types exist in which packages, so that names imported by
+ * wildcard imports can be resolved. See ClassPathCatalog in the index package
+ * for an implementation built from jars and source roots.
+ *
+ * @author Tim Boudreau
+ */
+@FunctionalInterface
+public interface ClassCatalog {
+
+    /**
+     * Determine if a type exists.
+     *
+     * @param packageName A package name - or, for member types, the qualified
+     * name of the enclosing type, as in <code>import com.foo.Outer.*;</code>
+     * @param simpleName A simple name
+     * @return true if the type exists
+     */
+    boolean contains(String packageName, String simpleName);
+}
@@ -23,10 +23,13 @@
  */
 package com.mastfrog.modulegrammar.model;
 
+import com.mastfrog.modulegrammar.json.JsonReader;
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -39,6 +42,7 @@ public final class Export implements Comparable<Export>, JsonRenderable {
 
     private final ExportTargets targets;
     public final String exportedPackage;
+    private int hashCode; // cached; 0 until computed
 
     public Export(String exportedPackage, Collection<? extends String> targets) {
         this.exportedPackage = exportedPackage;
@@ -51,12 +55,62 @@ public final class Export implements Comparable<Export>, JsonRenderable {
     }
 
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.hash(() -> {
-            JsonUtils.append("exportedPackage", exportedPackage, sb);
-            JsonUtils.nextItem(sb);
-            JsonUtils.append("to", targets, sb);
-        }, sb);
+    public void writeJson(JsonWriter json) {
+        json.startObject().field("exportedPackage", exportedPackage);
+        if (targets != null) {
+            json.field("to", targets);
+        }
+        json.endObject();
+    }
+
+    static Export fromJson(JsonReader json) {
+        json.beginObject();
+        String pkg = null;
+        List<String> to = null;
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "exportedPackage":
+                    pkg = json.nextString();
+                    break;
+                case "to":
+                    to = json.nextStrings();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        if (pkg == null) {
+            throw json.error("No package in exports");
+        }
+        json.endObject();
+        return new Export(pkg, to);
+    }
+
+    /**
+     * Write this exports clause in the binary format ModelInput reads.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        out.writeString(exportedPackage);
+        if (targets == null) {
+            out.writeVarint(0);
+        } else {
+            targets.writeTo(out);
+        }
+    }
+
+    /**
+     * Read an exports clause written by <code>writeTo()</code>.
+     *
+     * @param in The input
+     * @return An exports clause
+     * @throws IOException If reading fails
+     */
+    public static Export readFrom(ModelInput in) throws IOException {
+        String pkg = in.readString();
+        return new Export(pkg, in.readStrings());
     }
     
     @Override
@@ -92,9 +146,13 @@ public final class Export implements Comparable<Export>, JsonRenderable {
 
     @Override
     public int hashCode() {
-        int hash = 5;
-        hash = 97 * hash + Objects.hashCode(this.targets);
-        hash = 97 * hash + Objects.hashCode(this.exportedPackage);
+        int hash = this.hashCode;
+        if (hash == 0) {
+            hash = 5;
+            hash = 97 * hash + Objects.hashCode(this.targets);
+            hash = 97 * hash + Objects.hashCode(this.exportedPackage);
+            this.hashCode = hash;
+        }
         return hash;
     }
 
@@ -110,6 +168,9 @@ public final class Export implements Comparable<Export>, JsonRenderable {
             return false;
         }
         final Export other = (Export) obj;
+        if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) {
+            return false;
+        }
         if (!Objects.equals(this.exportedPackage, other.exportedPackage)) {
             return false;
         }
@@ -24,13 +24,11 @@
 package com.mastfrog.modulegrammar.model;
 
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.Objects;
-import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * The (optional) "to" targets of an exports statement in a module-info.java.
@@ -39,30 +37,51 @@ import java.util.TreeSet;
  */
 public final class ExportTargets implements Iterable<String>, JsonRenderable {
 
-    private final Set<String> tos = new TreeSet<>();
+    private final String[] tos;
 
     public ExportTargets(Collection<? extends String> tos) {
-        this.tos.addAll(tos);
+        this.tos = ArraySet.sorted(tos, Uses.NO_STRINGS);
     }
 
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.append(tos, sb);
+    public void writeJson(JsonWriter json) {
+        json.value(new ArraySet<>(tos));
+    }
+
+    /**
+     * Write this target list in the binary format ModelInput reads.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        out.writeStrings(tos);
+    }
+
+    /**
+     * Read a target list written by <code>writeTo()</code>.
+     *
+     * @param in The input
+     * @return A target list
+     * @throws IOException If reading fails
+     */
+    public static ExportTargets readFrom(ModelInput in) throws IOException {
+        return new ExportTargets(in.readStrings());
     }
 
     public boolean contains(String moduleId) {
-        return tos.contains(moduleId);
+        return ArraySet.indexOf(tos, moduleId) >= 0;
     }
 
     @Override
     public Iterator<String> iterator() {
-        return Collections.unmodifiableSet(tos).iterator();
+        return new ArraySet<>(tos).iterator();
     }
 
     @Override
     public int hashCode() {
         int hash = 5;
-        hash = 71 * hash + Objects.hashCode(this.tos);
+        hash = 71 * hash + Arrays.hashCode(this.tos);
         return hash;
     }
 
@@ -90,7 +109,7 @@ public final class ExportTargets implements Iterable<String>, JsonRenderable {
             return false;
         }
         final ExportTargets other = (ExportTargets) obj;
-        return Objects.equals(this.tos, other.tos);
+        return Arrays.equals(this.tos, other.tos);
     }
 
 }
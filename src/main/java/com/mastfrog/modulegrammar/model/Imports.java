@@ -24,48 +24,114 @@
 package com.mastfrog.modulegrammar.model;
 
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * The set of imports in a module-info.java file, which is used to qualify uses
- * and provides statements.
+ * and provides statements. Wildcard imports are stored with their trailing
+ * <code>.*</code>, and are only used in resolving names if a ClassCatalog has
+ * been supplied via <code>withCatalog()</code> to say what the imported
+ * packages contain.
  *
  * @author Tim Boudreau
  */
 public final class Imports implements Iterable<String>, JsonRenderable {
 
-    private static final Set<String> JDK_IMPORTS = new HashSet<>();
     public static final Imports EMPTY = new Imports(Collections.emptyList());
-    private final Set<String> importedClasses = new TreeSet<>();
+    private static final String WILDCARD = ".*";
+    private final String[] importedClasses;
+    private final ClassCatalog catalog;
+    // Computed on first use
+    private volatile Lookup lookup;
 
     public Imports(Collection<? extends String> all) {
-        importedClasses.addAll(all);
+        importedClasses = ArraySet.sorted(all, Uses.NO_STRINGS);
+        catalog = null;
+    }
+
+    private Imports(String[] sorted, ClassCatalog catalog) {
+        importedClasses = sorted;
+        this.catalog = catalog;
+    }
+
+    Imports with(String type) {
+        String[] nue = ArraySet.with(importedClasses, type);
+        return nue == importedClasses ? this : new Imports(nue, catalog);
+    }
+
+    Imports without(String type) {
+        String[] nue = ArraySet.without(importedClasses, type);
+        return nue == importedClasses ? this : new Imports(nue, catalog);
+    }
+
+    /**
+     * Create a copy of this Imports which uses the passed catalog to resolve
+     * names imported by wildcard imports. The catalog does not participate in
+     * equality.
+     *
+     * @param catalog A catalog, or null for none
+     * @return An Imports
+     */
+    public Imports withCatalog(ClassCatalog catalog) {
+        return catalog == this.catalog ? this : new Imports(importedClasses, catalog);
+    }
+
+    /**
+     * Determine if any of the imports are wildcard imports.
+     *
+     * @return true if there are wildcards
+     */
+    public boolean hasWildcards() {
+        return lookup().wildcards.length > 0;
     }
 
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.append(importedClasses, sb);
+    public void writeJson(JsonWriter json) {
+        json.value(allImports());
+    }
+
+    /**
+     * Write this import list in the binary format ModelInput reads.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        out.writeStrings(importedClasses);
+    }
+
+    /**
+     * Read an import list written by <code>writeTo()</code>.
+     *
+     * @param in The input
+     * @return An import list
+     * @throws IOException If reading fails
+     */
+    public static Imports readFrom(ModelInput in) throws IOException {
+        return new Imports(in.readStrings());
     }
 
     public boolean isEmpty() {
-        return importedClasses.isEmpty();
+        return importedClasses.length == 0;
     }
 
     Set<String> allImports() {
-        return Collections.unmodifiableSet(importedClasses);
+        return new ArraySet<>(importedClasses);
     }
 
     /**
      * Resolve a class simple name to a full one, if it matches the tail of one
-     * in this Imports.
+     * in this Imports, names a type the catalog (if any) finds in a package
+     * imported by a wildcard import, or names a public type in
+     * <code>java.lang</code>.
      *
      * @param what The string to resolve, which must not contain a '.'
      * @return A new string or the same one
@@ -74,23 +140,63 @@ public final class Imports implements Iterable<String>, JsonRenderable {
         if (what.indexOf('.') >= 0) {
             return what;
         }
-        String testFor = '.' + what;
-        for (String s : importedClasses) {
-            if (s.endsWith(testFor)) {
-                return s;
+        if (importedClasses.length > 0) {
+            Lookup lkp = lookup();
+            String result = lkp.bySimpleName.get(what);
+            if (result != null) {
+                return result;
+            }
+            if (catalog != null) {
+                for (String pkg : lkp.wildcards) {
+                    if (catalog.contains(pkg, what)) {
+                        return pkg + '.' + what;
+                    }
+                }
             }
         }
-        for (String s : JDK_IMPORTS) {
-            if (s.endsWith(testFor)) {
-                return s;
+        String result = JavaLangCatalog.resolve(what);
+        return result == null ? what : result;
+    }
+
+    private Lookup lookup() {
+        // Building it twice under contention is harmless
+        Lookup result = lookup;
+        if (result == null) {
+            lookup = result = new Lookup(importedClasses);
+        }
+        return result;
+    }
+
+    private static final class Lookup {
+
+        private final Map<String, String> bySimpleName;
+        private final String[] wildcards;
+
+        Lookup(String[] importedClasses) {
+            bySimpleName = new HashMap<>(importedClasses.length * 2);
+            int wildcardCount = 0;
+            for (String type : importedClasses) {
+                if (type.endsWith(WILDCARD)) {
+                    wildcardCount++;
+                } else {
+                    // In sorted order, the first import with a given simple
+                    // name wins
+                    bySimpleName.putIfAbsent(type.substring(type.lastIndexOf('.') + 1), type);
+                }
+            }
+            wildcards = new String[wildcardCount];
+            for (int i = 0, j = 0; i < importedClasses.length; i++) {
+                if (importedClasses[i].endsWith(WILDCARD)) {
+                    wildcards[j++] = importedClasses[i].substring(0,
+                            importedClasses[i].length() - WILDCARD.length());
+                }
             }
         }
-        return what;
     }
 
     @Override
     public Iterator<String> iterator() {
-        return Collections.unmodifiableSet(importedClasses).iterator();
+        return allImports().iterator();
     }
 
     @Override
@@ -108,7 +214,7 @@ public final class Imports implements Iterable<String>, JsonRenderable {
     @Override
     public int hashCode() {
         int hash = 5;
-        hash = 61 * hash + Objects.hashCode(this.importedClasses);
+        hash = 61 * hash + Arrays.hashCode(this.importedClasses);
         return hash;
     }
 
@@ -124,57 +230,6 @@ public final class Imports implements Iterable<String>, JsonRenderable {
             return false;
         }
         final Imports other = (Imports) obj;
-        return Objects.equals(this.importedClasses, other.importedClasses);
-    }
-
-    static {
-        // So we can resolve these into FQNs when referenced
-        JDK_IMPORTS.addAll(Arrays.asList(
-                "java.lang.Object",
-                "java.lang.Integer",
-                "java.lang.Boolean",
-                "java.lang.Long",
-                "java.lang.Character",
-                "java.lang.Short",
-                "java.lang.Byte",
-                "java.lang.String",
-                "java.lang.Void",
-                "java.lang.Class",
-                "java.lang.Comparable",
-                "java.lang.Thread",
-                "java.lang.CharSequence",
-                "java.lang.Cloneable",
-                "java.lang.Double",
-                "java.lang.Float",
-                "java.lang.Enum",
-                "java.lang.Exception",
-                "java.lang.Error",
-                "java.lang.Throwable",
-                "java.lang.FunctionalInterface",
-                "java.lang.Math",
-                "java.lang.Module",
-                "java.lang.ModuleLayer",
-                "java.lang.IllegalArgumentException",
-                "java.lang.IllegalStateException",
-                "java.lang.AssertionError",
-                "java.lang.Deprecated",
-                "java.lang.Override",
-                "java.lang.Number",
-                "java.lang.NullPointerException",
-                "java.lang.Process",
-                "java.lang.ProcessBuilder",
-                "java.lang.Record",
-                "java.lang.Runtime",
-                "java.lang.RuntimeException",
-                "java.lang.SafeVarargs",
-                "java.lang.StringBuffer",
-                "java.lang.StringBuilder",
-                "java.lang.SuppressWarnings",
-                "java.lang.Thread",
-                "java.lang.ThreadLocal",
-                "java.lang.ThreadDeath",
-                "java.lang.ThreadGroup",
-                "java.lang.UnsupportedOperationException"
-        ));
+        return Arrays.equals(this.importedClasses, other.importedClasses);
     }
 }
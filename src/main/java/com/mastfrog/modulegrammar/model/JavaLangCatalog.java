@@ -0,0 +1,115 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * The public top-level types of <code>java.lang</code>, which Java code may
+ * refer to by simple name without importing them. The table is generated from
+ * the JDK by JavaLangCatalogGenerator in the test sources and stored as a
+ * minimal perfect hash: each name hashes to a bucket, whose seed rehashes it to
+ * a unique slot, so a lookup costs two hashes and one string comparison.
+ *
+ * @author Tim Boudreau
+ */
+final class JavaLangCatalog {
+
+    static final String RESOURCE = "java-lang.types";
+    static final int MAGIC = 0x4A4C4331; // JLC1
+
+    private JavaLangCatalog() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Get the fully qualified name of a java.lang type.
+     *
+     * @param simpleName A simple name
+     * @return A qualified name, or null if there is no such public type in
+     * java.lang
+     */
+    static String resolve(String simpleName) {
+        int slot = slot(simpleName, Table.SEEDS, Table.SIMPLE_NAMES.length);
+        return Table.SIMPLE_NAMES[slot].equals(simpleName) ? Table.QUALIFIED_NAMES[slot] : null;
+    }
+
+    static int size() {
+        return Table.SIMPLE_NAMES.length;
+    }
+
+    static int slot(CharSequence name, int[] seeds, int slots) {
+        int seed = seeds[Math.floorMod(hash(name, 0), seeds.length)];
+        return Math.floorMod(hash(name, seed), slots);
+    }
+
+    static int hash(CharSequence name, int seed) {
+        // FNV-1a, with the seed folded into the offset basis
+        int result = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+        for (int i = 0; i < name.length(); i++) {
+            result ^= name.charAt(i);
+            result *= 0x01000193;
+        }
+        return result ^ (result >>> 16);
+    }
+
+    /**
+     * Holder for the table, loaded on first lookup, so the generator can use
+     * the hash functions before the resource exists.
+     */
+    private static final class Table {
+
+        private static final String[] SIMPLE_NAMES;
+        private static final String[] QUALIFIED_NAMES;
+        private static final int[] SEEDS;
+
+        static {
+            try (InputStream in = JavaLangCatalog.class.getResourceAsStream(RESOURCE)) {
+                if (in == null) {
+                    throw new IllegalStateException("Missing " + RESOURCE);
+                }
+                DataInputStream data = new DataInputStream(in);
+                if (data.readInt() != MAGIC) {
+                    throw new IllegalStateException("Bad header in " + RESOURCE);
+                }
+                int count = data.readInt();
+                SEEDS = new int[data.readInt()];
+                for (int i = 0; i < SEEDS.length; i++) {
+                    SEEDS[i] = data.readInt();
+                }
+                SIMPLE_NAMES = new String[count];
+                QUALIFIED_NAMES = new String[count];
+                for (int i = 0; i < count; i++) {
+                    SIMPLE_NAMES[i] = data.readUTF();
+                    QUALIFIED_NAMES[i] = "java.lang." + SIMPLE_NAMES[i];
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+}
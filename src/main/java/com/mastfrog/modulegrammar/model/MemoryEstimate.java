@@ -0,0 +1,184 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An estimate of the heap retained by one or more models and everything they
+ * refer to, computed from object layout rather than by instrumentation, so it
+ * needs no agent. Objects shared between models - interned strings and
+ * elements, for example - are counted once in a corpus estimate, so comparing
+ * the estimate for a corpus before and after interning, or across model
+ * representations, shows what sharing buys. Objects referenced from static
+ * fields (such as shared empty arrays) are not retained by any model and are
+ * not counted.
+ * <p>
+ * Sizes assume a 64-bit HotSpot JVM with compressed references, 8-byte
+ * alignment and compact strings, unless the maximum heap is too large for
+ * compressed references; field packing is not modelled, so sizes may be a
+ * few bytes per object off from what a heap dump reports.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class MemoryEstimate {
+
+    private final long[] bytes;
+    private final long objects;
+    private final int models;
+
+    private MemoryEstimate(MemoryEstimator estimator) {
+        this.bytes = estimator.bytes.clone();
+        this.objects = estimator.objects;
+        this.models = estimator.models;
+    }
+
+    /**
+     * Estimate the heap retained by a single model.
+     *
+     * @param model A model
+     * @return An estimate
+     */
+    public static MemoryEstimate of(ModuleModel model) {
+        MemoryEstimator estimator = new MemoryEstimator();
+        estimator.add(model);
+        return new MemoryEstimate(estimator);
+    }
+
+    /**
+     * Estimate the heap retained by a corpus of models, counting objects
+     * shared between them once.
+     *
+     * @param models Some models
+     * @return An estimate
+     */
+    public static MemoryEstimate of(Iterable<? extends ModuleModel> models) {
+        MemoryEstimator estimator = new MemoryEstimator();
+        for (ModuleModel model : models) {
+            estimator.add(model);
+        }
+        return new MemoryEstimate(estimator);
+    }
+
+    /**
+     * The estimated total retained size in bytes.
+     *
+     * @return A byte count
+     */
+    public long bytes() {
+        long result = 0;
+        for (long b : bytes) {
+            result += b;
+        }
+        return result;
+    }
+
+    /**
+     * The estimated retained size of objects in one category.
+     *
+     * @param category A category
+     * @return A byte count
+     */
+    public long bytes(Category category) {
+        return bytes[category.ordinal()];
+    }
+
+    /**
+     * The estimated retained size by category.
+     *
+     * @return A map with an entry for every category
+     */
+    public Map<Category, Long> breakdown() {
+        Map<Category, Long> result = new EnumMap<>(Category.class);
+        for (Category c : Category.values()) {
+            result.put(c, bytes[c.ordinal()]);
+        }
+        return result;
+    }
+
+    /**
+     * The number of distinct objects counted.
+     *
+     * @return An object count
+     */
+    public long objects() {
+        return objects;
+    }
+
+    /**
+     * The number of models estimated.
+     *
+     * @return A model count
+     */
+    public int models() {
+        return models;
+    }
+
+    /**
+     * The average retained size per model.
+     *
+     * @return A byte count, or 0 if no models were estimated
+     */
+    public long bytesPerModel() {
+        return models == 0 ? 0 : bytes() / models;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(96).append(bytes())
+                .append(" bytes in ").append(objects).append(" objects for ")
+                .append(models).append(models == 1 ? " model" : " models");
+        for (Category c : Category.values()) {
+            sb.append(", ").append(c.name().toLowerCase()).append('=')
+                    .append(bytes[c.ordinal()]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The kinds of object a retained size is broken down by.
+     */
+    public enum Category {
+        /**
+         * Strings and their backing arrays.
+         */
+        STRINGS,
+        /**
+         * Arrays, lists, sets and maps, not including their contents.
+         */
+        COLLECTIONS,
+        /**
+         * Annotation and annotation value objects, not including the
+         * strings and collections they hold.
+         */
+        ANNOTATIONS,
+        /**
+         * Models, their elements, and anything else, such as lazily built
+         * query indexes.
+         */
+        ELEMENTS
+    }
+}
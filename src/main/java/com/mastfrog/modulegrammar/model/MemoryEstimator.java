@@ -0,0 +1,276 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import com.mastfrog.modulegrammar.model.MemoryEstimate.Category;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Walks an object graph from a model, estimating the size of each object
+ * from its layout - header, fields and alignment, assuming compressed
+ * references on a 64-bit JVM unless the heap is too large for them. Classes
+ * in this module are measured by reflection on their fields; JDK types are
+ * not open to reflection, so strings, arrays, boxes and the common
+ * collections are sized by formulas that match their OpenJDK 17 layout, and
+ * other JDK objects count as a bare header. Objects referenced from static
+ * fields are shared, not retained, and are not counted. Each object is
+ * counted once per estimator, however many paths lead to it.
+ *
+ * @author Tim Boudreau
+ */
+final class MemoryEstimator {
+
+    private static final Module MODULE = MemoryEstimator.class.getModule();
+    private static final boolean COMPRESSED = !"32".equals(System.getProperty("sun.arch.data.model"))
+            && Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024;
+    static final int REF = COMPRESSED ? 4 : 8;
+    static final int HEADER = COMPRESSED ? 12 : 16;
+    static final int ARRAY_HEADER = COMPRESSED ? 16 : 24;
+    private static final ClassValue<Layout> LAYOUTS = new ClassValue<>() {
+        @Override
+        protected Layout computeValue(Class<?> type) {
+            return new Layout(type);
+        }
+    };
+    private final IdentityHashMap<Object, Boolean> seen = new IdentityHashMap<>();
+    private final HashSet<Class<?>> seededClasses = new HashSet<>();
+    private final ArrayDeque<Object> work = new ArrayDeque<>();
+    final long[] bytes = new long[Category.values().length];
+    long objects;
+    int models;
+
+    void add(ModuleModel model) {
+        models++;
+        push(model);
+        while (!work.isEmpty()) {
+            visit(work.pop());
+        }
+    }
+
+    private void push(Object o) {
+        if (o != null && !(o instanceof Class<?>) && !(o instanceof Enum<?>)
+                && seen.put(o, Boolean.TRUE) == null) {
+            work.push(o);
+        }
+    }
+
+    private void count(Category category, long size) {
+        bytes[category.ordinal()] += size;
+        objects++;
+    }
+
+    private void visit(Object o) {
+        Class<?> type = o.getClass();
+        if (o instanceof String s) {
+            count(Category.STRINGS, align(HEADER + 4 + 1 + 1 + REF));
+            count(Category.STRINGS, align(ARRAY_HEADER + (isLatin1(s) ? s.length() : s.length() * 2L)));
+        } else if (type.isArray()) {
+            visitArray(o, type.getComponentType());
+        } else if (type.getModule() == MODULE) {
+            Layout layout = LAYOUTS.get(type);
+            if (seededClasses.add(type)) {
+                for (Object shared : layout.statics()) {
+                    seen.put(shared, Boolean.TRUE);
+                }
+            }
+            count(AnnotationModel.class.getPackageName().equals(type.getPackageName())
+                    ? Category.ANNOTATIONS : Category.ELEMENTS, layout.size);
+            for (Field f : layout.references) {
+                try {
+                    push(f.get(o));
+                } catch (IllegalAccessException ex) {
+                    // Not accessible after all - count the object but not
+                    // what it refers to
+                }
+            }
+        } else if (o instanceof Map<?, ?> map) {
+            count(Category.COLLECTIONS, mapSize(map));
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                push(e.getKey());
+                push(e.getValue());
+            }
+        } else if (o instanceof Collection<?> coll) {
+            count(Category.COLLECTIONS, collectionSize(coll));
+            for (Object item : coll) {
+                push(item);
+            }
+        } else if (o instanceof Optional<?> opt) {
+            count(Category.ELEMENTS, align(HEADER + REF));
+            opt.ifPresent(this::push);
+        } else if (o instanceof Long || o instanceof Double) {
+            count(Category.ELEMENTS, align(HEADER + 8));
+        } else if (o instanceof Number || o instanceof Character || o instanceof Boolean) {
+            count(Category.ELEMENTS, align(HEADER + 4));
+        } else {
+            count(Category.ELEMENTS, align(HEADER));
+        }
+    }
+
+    private void visitArray(Object array, Class<?> component) {
+        if (!component.isPrimitive()) {
+            Object[] items = (Object[]) array;
+            count(Category.COLLECTIONS, align(ARRAY_HEADER + (long) items.length * REF));
+            for (Object item : items) {
+                push(item);
+            }
+            return;
+        }
+        int length = java.lang.reflect.Array.getLength(array);
+        count(Category.COLLECTIONS, align(ARRAY_HEADER + (long) length * primitiveSize(component)));
+    }
+
+    private static long mapSize(Map<?, ?> map) {
+        int size = map.size();
+        if (map instanceof TreeMap<?, ?>) {
+            return align(HEADER + 7L * REF + 8) + size * align(HEADER + 5L * REF + 1);
+        } else if (map instanceof IdentityHashMap<?, ?>) {
+            return align(HEADER + REF + 12) + align(ARRAY_HEADER + 2L * REF * tableSize(size, 2f / 3));
+        } else if (map instanceof HashMap<?, ?>) {
+            long node = map instanceof LinkedHashMap<?, ?> ? align(HEADER + 6L * REF + 4)
+                    : align(HEADER + 3L * REF + 4);
+            return hashMapSize(size, node);
+        }
+        // Unknown - a wrapper around a hash map, say
+        return align(HEADER + REF) + align(ARRAY_HEADER + (long) REF * tableSize(size, 0.75f))
+                + size * align(HEADER + 3L * REF + 4);
+    }
+
+    private static long collectionSize(Collection<?> coll) {
+        int size = coll.size();
+        if (coll instanceof HashSet<?>) {
+            return align(HEADER + REF) + hashMapSize(size, align(HEADER + 3L * REF + 4));
+        } else if (coll instanceof TreeSet<?>) {
+            return align(HEADER + REF) + align(HEADER + 7L * REF + 8) + size * align(HEADER + 5L * REF + 1);
+        } else if (coll instanceof ArrayList<?>) {
+            return align(HEADER + 8 + REF) + align(ARRAY_HEADER + (long) size * REF);
+        } else if (coll instanceof List<?> && size <= 2) {
+            // List.of(a) and List.of(a, b) keep elements in fields
+            return align(HEADER + 2L * REF);
+        }
+        // Unknown, or an unmodifiable wrapper around a list or array
+        return align(HEADER + REF) + align(ARRAY_HEADER + (long) size * REF);
+    }
+
+    private static long hashMapSize(int size, long node) {
+        long table = size == 0 ? 0 : align(ARRAY_HEADER + (long) REF * tableSize(size, 0.75f));
+        return align(HEADER + 4L * REF + 16) + table + size * node;
+    }
+
+    private static int tableSize(int size, float loadFactor) {
+        int needed = (int) Math.ceil(size / loadFactor);
+        return Math.max(16, Integer.highestOneBit(Math.max(1, needed - 1)) << 1);
+    }
+
+    private static boolean isLatin1(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Shallow size and reference fields of a class in this module.
+     */
+    private static final class Layout {
+
+        private final long size;
+        private final Field[] references;
+        private final Field[] staticReferences;
+
+        Layout(Class<?> type) {
+            long fieldBytes = 0;
+            List<Field> refs = new ArrayList<>();
+            List<Field> statics = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    boolean isStatic = Modifier.isStatic(f.getModifiers());
+                    boolean isRef = !f.getType().isPrimitive();
+                    if (!isStatic) {
+                        fieldBytes += isRef ? REF : primitiveSize(f.getType());
+                    }
+                    if (isRef && (c.getModule() == MODULE) && trySetAccessible(f)) {
+                        (isStatic ? statics : refs).add(f);
+                    }
+                }
+            }
+            size = align(HEADER + fieldBytes);
+            references = refs.toArray(Field[]::new);
+            staticReferences = statics.toArray(Field[]::new);
+        }
+
+        List<Object> statics() {
+            List<Object> result = new ArrayList<>(staticReferences.length);
+            for (Field f : staticReferences) {
+                try {
+                    Object val = f.get(null);
+                    if (val != null) {
+                        result.add(val);
+                    }
+                } catch (IllegalAccessException ex) {
+                    // ignore
+                }
+            }
+            return result;
+        }
+
+        private static boolean trySetAccessible(Field f) {
+            try {
+                return f.trySetAccessible();
+            } catch (SecurityException ex) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.io.DataInput;
+import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads what ModelOutput writes. Malformed input causes an IOException.
+ *
+ * @author Tim Boudreau
+ */
+public final class ModelInput {
+
+    private final DataInput in;
+    private final List<String> strings = new ArrayList<>(256);
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Create an input, reading and checking the header.
+     *
+     * @param in The input
+     * @throws IOException If reading fails, or the input does not start with
+     * a header in a supported version of the format
+     */
+    public ModelInput(DataInput in) throws IOException {
+        this.in = in;
+        if (in.readInt() != ModelOutput.MAGIC) {
+            throw new IOException("Not a module model stream");
+        }
+        int version = in.readUnsignedByte();
+        if (version != ModelOutput.VERSION) {
+            throw new IOException("Unsupported module model stream version " + version);
+        }
+    }
+
+    /**
+     * Read a model.
+     *
+     * @return A model
+     * @throws IOException If reading fails
+     */
+    public ModuleModel read() throws IOException {
+        return ModuleModel.readFrom(this);
+    }
+
+    /**
+     * The underlying input.
+     *
+     * @return The input
+     */
+    public DataInput data() {
+        return in;
+    }
+
+    /**
+     * Read a string written by <code>ModelOutput.writeString()</code>.
+     *
+     * @return A string
+     * @throws IOException If reading fails or the string table reference is
+     * invalid
+     */
+    public String readString() throws IOException {
+        int id = readVarint();
+        if (id != 0) {
+            if (id > strings.size()) {
+                throw new IOException("Bad string reference " + id + " with "
+                        + strings.size() + " strings read");
+            }
+            return strings.get(id - 1);
+        }
+        int length = readCount();
+        // The length is untrusted; grow the buffer only as bytes arrive
+        int read = 0;
+        while (read < length) {
+            if (read == scratch.length) {
+                scratch = Arrays.copyOf(scratch, (int) Math.min(length, scratch.length * 2L));
+            }
+            int chunk = Math.min(length, scratch.length) - read;
+            in.readFully(scratch, read, chunk);
+            read += chunk;
+        }
+        String result = new String(scratch, 0, length, UTF_8);
+        strings.add(result);
+        return result;
+    }
+
+    /**
+     * Read a count or length, which may not be negative.
+     *
+     * @return A count
+     * @throws IOException If reading fails or the value is negative
+     */
+    public int readCount() throws IOException {
+        int result = readVarint();
+        if (result < 0) {
+            throw new IOException("Bad count " + Integer.toUnsignedString(result));
+        }
+        return result;
+    }
+
+    /**
+     * Read an unsigned varint.
+     *
+     * @return The value
+     * @throws IOException If reading fails or the varint is too long
+     */
+    public int readVarint() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Read an unsigned 64-bit varint.
+     *
+     * @return The value
+     * @throws IOException If reading fails or the varint is too long
+     */
+    public long readVarlong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    List<String> readStrings() throws IOException {
+        int count = readCount();
+        List<String> result = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            result.add(readString());
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,232 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValue;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValueKind;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonicalizes model elements, so that across a corpus of modules every
+ * distinct <code>requires java.base</code>, export, annotation and so forth
+ * is represented by a single instance, and equality tests between canonical
+ * instances succeed on the first, reference-equality check. Interning a
+ * ModuleModel interns all of its elements, bottom-up, including the values
+ * inside annotations.
+ * <p>
+ * Models which know the source positions of their elements - those created by
+ * the parser, and derived from them - are never pooled whole, since equality
+ * ignores positions, and another file's model would report that file's
+ * positions: each is replaced by a new model over interned elements which
+ * keeps its own positions. Models without positions are pooled.
+ * </p>
+ * <p>
+ * Annotation values compare equal across numeric widths (<code>5</code> and
+ * <code>5L</code>), but are only ever replaced by one of the same width, so
+ * interning never changes what the binary format writes.
+ * </p>
+ * <p>
+ * An interner holds strong references to everything passed to it until it is
+ * cleared or dropped, so its lifetime should be that of the corpus being
+ * processed. It is thread-safe.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class ModelInterner {
+
+    private final Map<Object, Object> pool = new ConcurrentHashMap<>();
+
+    public ModuleModel intern(ModuleModel model) {
+        long[] positions = model.positionTable();
+        long[] annotationPositions = model.annotationPositionTable();
+        boolean positioned = positions.length > 0 || annotationPositions.length > 0;
+        if (!positioned) {
+            ModuleModel existing = existing(model);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        Require[] requires = model.requires().toArray(ModuleModel.NO_REQUIRES);
+        for (int i = 0; i < requires.length; i++) {
+            requires[i] = intern(requires[i]);
+        }
+        Provides[] provides = model.provides().toArray(ModuleModel.NO_PROVIDES);
+        for (int i = 0; i < provides.length; i++) {
+            provides[i] = intern(provides[i]);
+        }
+        Export[] exports = model.exports().toArray(ModuleModel.NO_EXPORTS);
+        for (int i = 0; i < exports.length; i++) {
+            exports[i] = intern(exports[i]);
+        }
+        Opens[] opens = model.opens().toArray(ModuleModel.NO_OPENS);
+        for (int i = 0; i < opens.length; i++) {
+            opens[i] = intern(opens[i]);
+        }
+        AnnotationModel[] annotations = model.annotations().toArray(ModuleModel.NO_ANNOTATIONS);
+        for (int i = 0; i < annotations.length; i++) {
+            annotations[i] = intern(annotations[i]);
+        }
+        // Interning replaces each element with one equal to it, so the
+        // arrays are still sorted
+        ModuleModel result = new ModuleModel(model.isOpen(), model.moduleName(),
+                canonical(model.imports()), canonical(model.uses()),
+                requires, provides, exports, opens, annotations,
+                positions, annotationPositions);
+        return positioned ? result : canonical(result);
+    }
+
+    public Require intern(Require req) {
+        return canonical(req);
+    }
+
+    public Export intern(Export export) {
+        return canonical(export);
+    }
+
+    public Opens intern(Opens opens) {
+        return canonical(opens);
+    }
+
+    public Provides intern(Provides provides) {
+        return canonical(provides);
+    }
+
+    @SuppressWarnings("unchecked")
+    public AnnotationValue<?> intern(AnnotationValue<?> value) {
+        AnnotationValue<?> existing = existing(value);
+        if (existing != null) {
+            return existing;
+        }
+        switch (value.kind()) {
+            case ANNOTATION:
+                AnnotationModel mdl = (AnnotationModel) value.value();
+                AnnotationModel canon = intern(mdl);
+                if (canon != mdl) {
+                    value = new AnnotationValue<>(AnnotationValueKind.ANNOTATION, canon);
+                }
+                break;
+            case ARRAY:
+                if (value.isPrimitiveArray()) {
+                    // Nothing inside to share
+                    break;
+                }
+                List<AnnotationValue<?>> items = (List<AnnotationValue<?>>) value.value();
+                List<AnnotationValue<?>> canonItems = new ArrayList<>(items.size());
+                for (AnnotationValue<?> item : items) {
+                    canonItems.add(intern(item));
+                }
+                value = new AnnotationValue<>(AnnotationValueKind.ARRAY,
+                        Collections.unmodifiableList(canonItems));
+                break;
+            default:
+                break;
+        }
+        return canonical(value);
+    }
+
+    public AnnotationModel intern(AnnotationModel annotation) {
+        AnnotationModel existing = existing(annotation);
+        if (existing != null) {
+            return existing;
+        }
+        Map<String, AnnotationValue<?>> props = annotation.properties();
+        Map<String, AnnotationValue<?>> canonProps = new LinkedHashMap<>(props.size() * 2);
+        boolean anyChanged = false;
+        for (Map.Entry<String, AnnotationValue<?>> e : props.entrySet()) {
+            AnnotationValue<?> canon = intern(e.getValue());
+            anyChanged |= canon != e.getValue();
+            canonProps.put(e.getKey(), canon);
+        }
+        if (anyChanged) {
+            annotation = new AnnotationModel(annotation.name(), canonProps);
+        }
+        return canonical(annotation);
+    }
+
+    /**
+     * Get the number of distinct elements held.
+     *
+     * @return The size
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    /**
+     * Release all elements held.
+     */
+    public void clear() {
+        pool.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T existing(T obj) {
+        return (T) pool.get(key(obj));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T canonical(T obj) {
+        Object result = pool.putIfAbsent(key(obj), obj);
+        return result == null ? obj : (T) result;
+    }
+
+    private static Object key(Object obj) {
+        if (obj instanceof AnnotationValue<?> || obj instanceof AnnotationModel
+                || obj instanceof ModuleModel) {
+            return new SameWidths(obj);
+        }
+        return obj;
+    }
+
+    /**
+     * Pool key for things that may contain annotation values, which are
+     * equal across numeric widths; the source form shows the width.
+     */
+    private static final class SameWidths {
+
+        private final Object obj;
+
+        SameWidths(Object obj) {
+            this.obj = obj;
+        }
+
+        @Override
+        public int hashCode() {
+            return obj.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SameWidths other && obj.equals(other.obj)
+                    && obj.toString().equals(other.obj.toString());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes models and their elements in a compact binary format, read back by
+ * ModelInput. The stream starts with a header - magic number and format
+ * version - and every string is written once per stream: the first
+ * occurrence is written inline as UTF-8 and assigned the next number in the
+ * stream's string table, and later occurrences are written as that number,
+ * so a stream of many models from one corpus stores each module and package
+ * name once. Counts and lengths are unsigned varints.
+ * <p>
+ * To write several models to one stream, write a count or other framing
+ * through <code>data()</code> and then each model with
+ * <code>write()</code>.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class ModelOutput {
+
+    static final int MAGIC = 0x4D4D4231; // MMB1
+    static final int VERSION = 1;
+    private final DataOutput out;
+    private final Map<String, Integer> strings = new HashMap<>(256);
+
+    /**
+     * Create an output, writing the header.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public ModelOutput(DataOutput out) throws IOException {
+        this.out = out;
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    /**
+     * Write a model.
+     *
+     * @param model A model
+     * @throws IOException If writing fails
+     */
+    public void write(ModuleModel model) throws IOException {
+        model.writeTo(this);
+    }
+
+    /**
+     * The underlying output, for writing fixed-width values and framing.
+     *
+     * @return The output
+     */
+    public DataOutput data() {
+        return out;
+    }
+
+    /**
+     * Write a string, or a reference to it if it has been written before.
+     *
+     * @param value A string
+     * @throws IOException If writing fails
+     */
+    public void writeString(String value) throws IOException {
+        Integer id = strings.get(value);
+        if (id != null) {
+            writeVarint(id + 1);
+            return;
+        }
+        strings.put(value, strings.size());
+        writeVarint(0);
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Write an unsigned varint - seven bits per byte, low bits first.
+     *
+     * @param value A value, treated as unsigned
+     * @throws IOException If writing fails
+     */
+    public void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Write an unsigned 64-bit varint.
+     *
+     * @param value A value, treated as unsigned
+     * @throws IOException If writing fails
+     */
+    public void writeVarlong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    void writeStrings(String[] values) throws IOException {
+        writeVarint(values.length);
+        for (String s : values) {
+            writeString(s);
+        }
+    }
+}
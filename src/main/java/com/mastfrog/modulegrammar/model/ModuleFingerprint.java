@@ -0,0 +1,106 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+/**
+ * A 128-bit fingerprint of the meaning of a module descriptor, which is the
+ * same for any two descriptors which differ only in the order of their
+ * clauses, formatting, comments, or whether type names are written fully
+ * qualified or imported, and is the same in every JVM on every platform, so
+ * it can be stored and compared across builds.
+ *
+ * @author Tim Boudreau
+ */
+public final class ModuleFingerprint implements Comparable<ModuleFingerprint> {
+
+    private final long high;
+    private final long low;
+
+    public ModuleFingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Parse the result of <code>toString()</code>.
+     *
+     * @param hex 32 hexadecimal digits
+     * @return A fingerprint
+     * @throws IllegalArgumentException if the string is not 32 hex digits
+     */
+    public static ModuleFingerprint parse(String hex) {
+        if (hex.length() != 32) {
+            throw new IllegalArgumentException("Fingerprint must be 32 hex digits: " + hex);
+        }
+        try {
+            return new ModuleFingerprint(Long.parseUnsignedLong(hex, 0, 16, 16),
+                    Long.parseUnsignedLong(hex, 16, 32, 16));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Fingerprint must be 32 hex digits: " + hex, ex);
+        }
+    }
+
+    public long high() {
+        return high;
+    }
+
+    /**
+     * The low 64 bits, for uses where a 64-bit fingerprint is enough.
+     *
+     * @return The low bits
+     */
+    public long low() {
+        return low;
+    }
+
+    @Override
+    public int compareTo(ModuleFingerprint o) {
+        int result = Long.compareUnsigned(high, o.high);
+        return result != 0 ? result : Long.compareUnsigned(low, o.low);
+    }
+
+    @Override
+    public String toString() {
+        String h = Long.toHexString(high);
+        String l = Long.toHexString(low);
+        return "0".repeat(16 - h.length()) + h + "0".repeat(16 - l.length()) + l;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high ^ low);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ModuleFingerprint)) {
+            return false;
+        }
+        ModuleFingerprint other = (ModuleFingerprint) obj;
+        return high == other.high && low == other.low;
+    }
+}
@@ -23,11 +23,20 @@
  */
 package com.mastfrog.modulegrammar.model;
 
+import com.mastfrog.modulegrammar.json.JsonReader;
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
 import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
 import com.mastfrog.modulegrammar.model.annotation.AnnotationModelVisitor;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationTreeVisitor;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValue;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -35,9 +44,9 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.function.BiConsumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Models a <code>module-info.java</code> file's contents. Note that the
@@ -48,6 +57,15 @@ import java.util.function.Predicate;
  * <p>
  * The <code>toString()</code> representation is a usable, parsable copy of the
  * module's contents (not comment- or whitespace-preserving).
+ * <p>
+ * Each section of the model is held as a sorted, deduplicated array rather
+ * than a collection, so a model costs a handful of objects beyond its elements,
+ * and membership tests are binary searches; the set-returning accessors are
+ * read-only views over those arrays. Clauses that javac would reject as
+ * duplicates are therefore merged: two <code>requires</code> of one module
+ * become one with the strongest modifiers of the two - static only if both
+ * are, transitive if either is - whatever their order; of two exports,
+ * opens or provides clauses for one name, the first is kept.
  *
  * @author Tim Boudreau
  */
@@ -57,106 +75,352 @@ public final class ModuleModel implements JsonRenderable {
     private final String name;
     private final Imports imports;
     private final Uses uses;
-    private final Set<Require> requires;
-    private final Set<Provides> provides;
-    private final Set<Export> exports;
-    private final Set<Opens> opens;
-    private final List<AnnotationModel> annotations;
+    private final Require[] requires;
+    private final Provides[] provides;
+    private final Export[] exports;
+    private final Opens[] opens;
+    // Null until first use if the annotations are supplied lazily
+    private volatile AnnotationModel[] annotations;
+    private final Supplier<? extends Collection<? extends AnnotationModel>> annotationSource;
+    // Packed source positions - see PositionTable; the annotation table is
+    // written before the annotations field, and only read after it
+    private final long[] positions;
+    private long[] annotationPositions;
+    // Receives annotation positions if annotations are supplied lazily;
+    // guarded by this
+    private PositionRecorder pendingPositions;
+    // Bloom filter over every name in the module - see NameFilter; it and
+    // the fingerprints below are computed by one SectionScan
+    private final long[] names;
+    // State of the semantic hash after every section but the annotations,
+    // which may not exist yet - see SemanticHash
+    private final long semanticA;
+    private final long semanticB;
+    private final long abiHigh;
+    private final long abiLow;
+    // Computed on first use; volatile so that a thread which finds one
+    // also sees it fully constructed - a resolved model has non-final fields
+    private volatile QueryIndex index;
+    private volatile ModuleModel resolved;
+    private volatile ModuleFingerprint fingerprint;
+    private int hashCode; // cached; 0 until computed
+
+    static final Require[] NO_REQUIRES = new Require[0];
+    static final Provides[] NO_PROVIDES = new Provides[0];
+    static final Export[] NO_EXPORTS = new Export[0];
+    static final Opens[] NO_OPENS = new Opens[0];
+    static final AnnotationModel[] NO_ANNOTATIONS = new AnnotationModel[0];
 
     public ModuleModel(boolean open, String name,
             Collection<? extends String> imports,
             Collection<? extends String> uses,
-            Set<Require> requires,
+            Collection<? extends Require> requires,
             Collection<? extends Provides> provides,
             Collection<? extends Export> exports,
             Collection<? extends Opens> opens,
             Collection<? extends AnnotationModel> annotations) {
+        this(open, name, imports, uses, requires, provides, exports, opens,
+                annotations, (PositionRecorder) null);
+    }
+
+    /**
+     * Create a model which knows the source positions of its elements.
+     *
+     * @param open Whether the module is open
+     * @param name The module name
+     * @param imports Imported types
+     * @param uses Used types
+     * @param requires Requires clauses
+     * @param provides Provides clauses
+     * @param exports Exports clauses
+     * @param opens Opens clauses
+     * @param annotations Annotations
+     * @param positions Positions of the passed elements, or null
+     */
+    public ModuleModel(boolean open, String name,
+            Collection<? extends String> imports,
+            Collection<? extends String> uses,
+            Collection<? extends Require> requires,
+            Collection<? extends Provides> provides,
+            Collection<? extends Export> exports,
+            Collection<? extends Opens> opens,
+            Collection<? extends AnnotationModel> annotations,
+            PositionRecorder positions) {
+        this(open, name, new Imports(imports), new Uses(uses),
+                ArraySet.sorted(requires, NO_REQUIRES, Require::strongest),
+                ArraySet.sorted(provides, NO_PROVIDES),
+                ArraySet.sorted(exports, NO_EXPORTS),
+                ArraySet.sorted(opens, NO_OPENS),
+                toArray(annotations), null, positions);
+    }
+
+    /**
+     * Create a model whose annotations are only created when first needed,
+     * by any method that needs them; the supplier is called at most once, and
+     * that call is synchronized.
+     *
+     * @param open Whether the module is open
+     * @param name The module name
+     * @param imports Imported types
+     * @param uses Used types
+     * @param requires Requires clauses
+     * @param provides Provides clauses
+     * @param exports Exports clauses
+     * @param opens Opens clauses
+     * @param annotations Supplies the annotations on first use
+     */
+    public ModuleModel(boolean open, String name,
+            Collection<? extends String> imports,
+            Collection<? extends String> uses,
+            Collection<? extends Require> requires,
+            Collection<? extends Provides> provides,
+            Collection<? extends Export> exports,
+            Collection<? extends Opens> opens,
+            Supplier<? extends Collection<? extends AnnotationModel>> annotations) {
+        this(open, name, imports, uses, requires, provides, exports, opens,
+                annotations, null);
+    }
+
+    /**
+     * Create a model whose annotations are only created when first needed,
+     * and which knows the source positions of its elements. The recorder is
+     * emptied once the positions of the passed elements have been read from
+     * it, and should receive the positions of the annotations when the
+     * supplier creates them.
+     *
+     * @param open Whether the module is open
+     * @param name The module name
+     * @param imports Imported types
+     * @param uses Used types
+     * @param requires Requires clauses
+     * @param provides Provides clauses
+     * @param exports Exports clauses
+     * @param opens Opens clauses
+     * @param annotations Supplies the annotations on first use
+     * @param positions Positions of the passed elements, or null
+     */
+    public ModuleModel(boolean open, String name,
+            Collection<? extends String> imports,
+            Collection<? extends String> uses,
+            Collection<? extends Require> requires,
+            Collection<? extends Provides> provides,
+            Collection<? extends Export> exports,
+            Collection<? extends Opens> opens,
+            Supplier<? extends Collection<? extends AnnotationModel>> annotations,
+            PositionRecorder positions) {
+        this(open, name, new Imports(imports), new Uses(uses),
+                ArraySet.sorted(requires, NO_REQUIRES, Require::strongest),
+                ArraySet.sorted(provides, NO_PROVIDES),
+                ArraySet.sorted(exports, NO_EXPORTS),
+                ArraySet.sorted(opens, NO_OPENS),
+                null, annotations, positions);
+    }
+
+    ModuleModel(boolean open, String name, Imports imports, Uses uses,
+            Require[] requires, Provides[] provides, Export[] exports,
+            Opens[] opens, AnnotationModel[] annotations) {
+        this(open, name, imports, uses, requires, provides, exports, opens,
+                annotations, PositionTable.NONE, PositionTable.NONE);
+    }
+
+    ModuleModel(boolean open, String name, Imports imports, Uses uses,
+            Require[] requires, Provides[] provides, Export[] exports,
+            Opens[] opens, AnnotationModel[] annotations, long[] positions,
+            long[] annotationPositions) {
+        this(open, name, imports, uses, requires, provides, exports, opens,
+                annotations, null, positions, annotationPositions, null);
+    }
+
+    private ModuleModel(boolean open, String name, Imports imports, Uses uses,
+            Require[] requires, Provides[] provides, Export[] exports,
+            Opens[] opens, AnnotationModel[] annotations,
+            Supplier<? extends Collection<? extends AnnotationModel>> annotationSource,
+            PositionRecorder recorder) {
+        this(open, name, imports, uses, requires, provides, exports, opens,
+                annotations, annotationSource,
+                PositionTable.layout(recorder, requires, exports, opens, provides),
+                annotations == null ? null : PositionTable.layoutAnnotations(recorder, annotations),
+                annotations == null ? recorder : null);
+        if (recorder != null && annotations == null) {
+            recorder.reset();
+        }
+    }
+
+    private ModuleModel(boolean open, String name, Imports imports, Uses uses,
+            Require[] requires, Provides[] provides, Export[] exports,
+            Opens[] opens, AnnotationModel[] annotations,
+            Supplier<? extends Collection<? extends AnnotationModel>> annotationSource,
+            long[] positions, long[] annotationPositions, PositionRecorder pendingPositions) {
+        // Arrays passed here must already be sorted and are never modified,
+        // so models derived from this one may share them
         this.open = open;
         this.name = name;
-        this.imports = new Imports(imports);
-        this.uses = new Uses(uses);
-        this.requires = new TreeSet<>(requires);
-        this.provides = new TreeSet<>(provides);
-        this.exports = new TreeSet<>(exports);
-        this.opens = new TreeSet<>(opens);
-        this.annotations = new ArrayList<>(annotations);
+        this.imports = imports;
+        this.uses = uses;
+        this.requires = requires;
+        this.provides = provides;
+        this.exports = exports;
+        this.opens = opens;
+        this.annotationSource = annotationSource;
+        this.positions = positions;
+        this.annotationPositions = annotationPositions;
+        this.pendingPositions = pendingPositions;
+        this.annotations = annotations;
+        SectionScan scan = new SectionScan(open, name, imports, uses, requires,
+                provides, exports, opens);
+        this.names = scan.nameFilter();
+        this.semanticA = scan.semanticA();
+        this.semanticB = scan.semanticB();
+        this.abiHigh = scan.abi().high();
+        this.abiLow = scan.abi().low();
     }
 
-    public boolean requires(String what) {
-        for (Require req : requires) {
-            if (req.moduleName().equals(what)) {
-                return true;
+    private static AnnotationModel[] toArray(Collection<? extends AnnotationModel> annotations) {
+        return annotations.isEmpty() ? NO_ANNOTATIONS
+                : annotations.toArray(NO_ANNOTATIONS);
+    }
+
+    private AnnotationModel[] annos() {
+        AnnotationModel[] result = annotations;
+        if (result == null) {
+            synchronized (this) {
+                result = annotations;
+                if (result == null) {
+                    result = toArray(annotationSource.get());
+                    annotationPositions = PositionTable.layoutAnnotations(pendingPositions, result);
+                    pendingPositions = null;
+                    annotations = result;
+                }
             }
         }
-        return false;
+        return result;
+    }
+
+    private QueryIndex index() {
+        // Single-check: the index is immutable and building it twice is
+        // harmless
+        QueryIndex result = index;
+        if (result == null) {
+            index = result = new QueryIndex(imports, requires, uses, provides,
+                    opens, annos());
+        }
+        return result;
+    }
+
+    /**
+     * Quickly determine whether a name - of a module, package or type - could
+     * appear in this module's requires, exports, opens, uses or provides
+     * clauses or as its name, using a Bloom filter built when the model was
+     * created. If this returns false, the name definitely does not appear
+     * there; if it returns true, it probably does. Type names are matched as
+     * written and as resolved against this module's imports. Annotations are
+     * not covered.
+     *
+     * @param name A name
+     * @return false if the name is certainly not mentioned
+     */
+    public boolean mightMention(String name) {
+        return NameFilter.mightContain(names, name);
+    }
+
+    /**
+     * Get a fingerprint of what this module descriptor means, which changes
+     * when its name, openness, requires, exports, opens, uses, provides or
+     * annotations do, and does not change with the order of clauses or of
+     * the modules and types listed in them, formatting or comments. Type
+     * names are compared as resolved against the imports, so an import
+     * which is added or removed changes nothing unless it changes what a name
+     * refers to; wildcard imports count, since names they may import are not
+     * resolved. Positions are ignored.
+     * <p>
+     * Since <code>resolved()</code> drops the imports when it resolves any
+     * name, the resolved copy of a model with wildcard imports has a
+     * different fingerprint from the original; fingerprint models
+     * consistently, either as parsed or as resolved.
+     * </p>
+     * <p>
+     * Everything but the annotations is hashed while the model is built, in
+     * the same walk over its sections that builds the name filter; the
+     * annotations, which are only created when needed, are hashed on the
+     * first call.
+     * </p>
+     *
+     * @return A fingerprint
+     */
+    public ModuleFingerprint fingerprint() {
+        // Single-check: computing it twice is harmless
+        ModuleFingerprint result = fingerprint;
+        if (result == null) {
+            fingerprint = result = SemanticHash.resume(semanticA, semanticB)
+                    .annotations(annos(), imports).finish();
+        }
+        return result;
+    }
+
+    /**
+     * Get a fingerprint of the parts of this module descriptor which affect
+     * the modules that read it - its name, whether it is open, its exports,
+     * its unqualified opens and its <code>requires transitive</code>
+     * clauses. Changes to uses, provides, other requires, qualified opens,
+     * imports or annotations leave it unchanged, so a build tool can skip
+     * recompiling dependents of a module whose ABI fingerprint is the same
+     * as last time. Like <code>fingerprint()</code>, it ignores order and
+     * formatting, and is the same on every JVM. It is computed while the
+     * model is built.
+     *
+     * @return A fingerprint
+     */
+    public ModuleFingerprint abiFingerprint() {
+        return new ModuleFingerprint(abiHigh, abiLow);
+    }
+
+    public boolean requires(String what) {
+        return mightMention(what) && index().require(what) != null;
     }
 
     public boolean requiresTransitive(String what) {
-        for (Require req : requires) {
-            if (req.isTransitive() && req.moduleName().equals(what)) {
-                return true;
-            }
+        if (!mightMention(what)) {
+            return false;
         }
-        return false;
+        Require req = index().require(what);
+        return req != null && req.isTransitive();
     }
 
     public boolean requiresStatic(String what) {
-        for (Require req : requires) {
-            if (req.isStatic() && req.moduleName().equals(what)) {
-                return true;
-            }
+        if (!mightMention(what)) {
+            return false;
         }
-        return false;
+        Require req = index().require(what);
+        return req != null && req.isStatic();
     }
 
     public boolean uses(String what) {
-        String resolved = imports.resolve(what);
-        for (String s : uses) {
-            if (s.equals(what) || s.equals(resolved) || imports.resolve(s).equals(resolved)) {
-                return true;
-            }
+        if (mightMention(what)) {
+            return index().uses(what, imports.resolve(what));
         }
-        return false;
+        String resolvedWhat = imports.resolve(what);
+        return mightMention(resolvedWhat) && index().uses(what, resolvedWhat);
     }
 
     public boolean provides(String what) {
-        for (Provides p : provides) {
-            if (p.provided().equals(what)) {
-                return true;
-            } else if (p.provided().indexOf('.') < 0 && imports.resolve(p.provided()).equals(what)) {
-                return true;
-            }
-        }
-        return false;
+        // Only the service name as written is resolved, not the query
+        return mightMention(what) && index().provides(what);
     }
 
+    /**
+     * Determine if this module provides an implementation of a service type,
+     * comparing type names after resolving them against this module's
+     * imports.
+     *
+     * @param what The service type
+     * @param with The implementation type
+     * @return true if it is provided
+     */
     public boolean provides(String what, String with) {
-        for (Provides p : provides) {
-            if (p.provided().equals(what)) {
-                for (String s : p) {
-                    if (what.equals(s)) {
-                        return true;
-                    } else if (!s.contains(".") && imports.resolve(s).equals(with)) {
-                        return true;
-                    } else if (imports.resolve(with).equals(s)) {
-                        return true;
-                    } else if (imports.resolve(with).equals(imports.resolve(s))) {
-                        return true;
-                    }
-                }
-            } else if (p.provided().indexOf('.') < 0 && (imports.resolve(p.provided()).equals(what) || imports.resolve(p.provided()).equals(imports.resolve(what)))) {
-                for (String s : p) {
-                    if (with.equals(s)) {
-                        return true;
-                    } else if (!s.contains(".") && !with.contains(".") && imports.resolve(s).equals(imports.resolve(with))) {
-                        return true;
-                    } else if (!s.contains(".") && imports.resolve(s).equals(with)) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        String resolvedWhat = imports.resolve(what);
+        String resolvedWith = imports.resolve(with);
+        return mightMention(resolvedWhat) && mightMention(resolvedWith)
+                && index().provides(resolvedWhat, resolvedWith);
     }
 
     /**
@@ -167,7 +431,7 @@ public final class ModuleModel implements JsonRenderable {
      * abort traversal
      */
     public boolean visitAnnotations(AnnotationModelVisitor visitor) {
-        for (AnnotationModel mdl : annotations) {
+        for (AnnotationModel mdl : annos()) {
             if (!mdl.visitValues(visitor)) {
                 return false;
             }
@@ -175,16 +439,53 @@ public final class ModuleModel implements JsonRenderable {
         return true;
     }
 
+    /**
+     * Walk all of the module's annotations and their values, with the ability
+     * to skip subtrees.
+     *
+     * @param visitor A visitor
+     * @return false if the visitor stopped traversal
+     */
+    public boolean walkAnnotations(AnnotationTreeVisitor visitor) {
+        for (AnnotationModel mdl : annos()) {
+            if (!mdl.walk(visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public boolean opens(String pkg, String to) {
         if (isOpen()) {
             return true;
         }
-        for (Opens o : opens) {
-            if (pkg.equals(o.opened())) {
-                return o.isOpenedTo(to);
-            }
+        if (!mightMention(pkg)) {
+            return false;
         }
-        return false;
+        Opens o = index().opens(pkg);
+        return o != null && o.isOpenedTo(to);
+    }
+
+    /**
+     * Create a builder for a new, empty module.
+     *
+     * @param name The module name
+     * @return A builder
+     */
+    public static Builder builder(String name) {
+        return new Builder(false, name, Imports.EMPTY, Uses.EMPTY, NO_REQUIRES,
+                NO_PROVIDES, NO_EXPORTS, NO_OPENS, NO_ANNOTATIONS);
+    }
+
+    /**
+     * Create a builder initialized with the contents of this model, for
+     * deriving modified copies of it.
+     *
+     * @return A builder
+     */
+    public Builder toBuilder() {
+        return new Builder(open, name, imports, uses, requires, provides,
+                exports, opens, annos());
     }
 
     /**
@@ -195,31 +496,84 @@ public final class ModuleModel implements JsonRenderable {
      * this
      */
     public ModuleModel resolved() {
-        Set<Provides> newProvides = new TreeSet<>();
-        boolean anyChanged = false;
-        for (Provides p : provides) {
-            Provides res = p.resolve(imports);
-            if (res != p) {
-                anyChanged = true;
+        ModuleModel result = resolved;
+        if (result == null) {
+            resolved = result = computeResolved(imports);
+        }
+        return result;
+    }
+
+    /**
+     * Resolve all class names in the model to instances with fully qualified
+     * class names, using the passed catalog to resolve names imported by
+     * wildcard imports.
+     *
+     * @param catalog A catalog
+     * @return A new ModuleModel if that results in any differences, otherwise
+     * this
+     */
+    public ModuleModel resolved(ClassCatalog catalog) {
+        if (catalog == null || !imports.hasWildcards()) {
+            return resolved();
+        }
+        return computeResolved(imports.withCatalog(catalog));
+    }
+
+    private ModuleModel computeResolved(Imports imports) {
+        Provides[] newProvides = provides;
+        for (int i = 0; i < provides.length; i++) {
+            Provides res = provides[i].resolve(imports);
+            if (res != provides[i]) {
+                if (newProvides == provides) {
+                    newProvides = provides.clone();
+                }
+                newProvides[i] = res;
             }
-            newProvides.add(res);
+        }
+        // In the same order as this model's provides
+        Provides[] resolvedProvides = newProvides;
+        if (newProvides != provides) {
+            // Resolution can change the sort order
+            newProvides = ArraySet.sorted(Arrays.asList(newProvides), NO_PROVIDES);
         }
         Uses newUses = uses.resolve(imports);
-        anyChanged |= newUses != uses;
-        List<AnnotationModel> newAnnos = new ArrayList<>(annotations.size());
-        for (AnnotationModel m : annotations) {
-            AnnotationModel newAnno = m.resolve(imports);
-            newAnnos.add(newAnno);
-            if (newAnno != m) {
-                anyChanged = true;
+        AnnotationModel[] annotations = annos();
+        AnnotationModel[] newAnnos = annotations;
+        for (int i = 0; i < annotations.length; i++) {
+            AnnotationModel newAnno = annotations[i].resolve(imports);
+            if (newAnno != annotations[i]) {
+                if (newAnnos == annotations) {
+                    newAnnos = annotations.clone();
+                }
+                newAnnos[i] = newAnno;
             }
         }
-        if (!anyChanged) {
+        if (newProvides == provides && newUses == uses && newAnnos == annotations) {
             return this;
         }
-        return new ModuleModel(open, name, Collections.emptySet(),
-                newUses.allUses(), requires, newProvides, exports, opens,
-                newAnnos);
+        long[] newPositions = positions;
+        if (newProvides != provides && positions.length > 0) {
+            // Provides may have been reordered; annotations keep their shape
+            PositionRecorder remap = new PositionRecorder();
+            for (Object[] section : new Object[][]{requires, exports, opens}) {
+                for (Object element : section) {
+                    recordPosition(element, remap, element);
+                }
+            }
+            for (int i = 0; i < provides.length; i++) {
+                recordPosition(provides[i], remap, resolvedProvides[i]);
+            }
+            newPositions = PositionTable.layout(remap, requires, exports, opens, newProvides);
+        }
+        // Unchanged sections are shared with this model, not copied
+        return new ModuleModel(open, name, new Imports(Collections.emptySet()),
+                newUses, requires, newProvides, exports, opens, newAnnos,
+                newPositions, annotationPositions);
+    }
+
+    private void recordPosition(Object element, PositionRecorder into, Object as) {
+        sourcePosition(element).ifPresent(pos -> into.record(as, pos.startOffset(),
+                pos.endOffset(), pos.line(), pos.column()));
     }
 
     /**
@@ -228,7 +582,7 @@ public final class ModuleModel implements JsonRenderable {
      * @return A collection of annotations.
      */
     public List<? extends AnnotationModel> annotations() {
-        return Collections.unmodifiableList(annotations);
+        return Collections.unmodifiableList(Arrays.asList(annos()));
     }
 
     /**
@@ -237,7 +591,7 @@ public final class ModuleModel implements JsonRenderable {
      * @return A set of modules
      */
     public Set<String> requiredModuleNames() {
-        Set<String> result = new HashSet<>();
+        Set<String> result = new HashSet<>(requires.length * 2);
         for (Require req : requires) {
             result.add(req.moduleName());
         }
@@ -254,7 +608,7 @@ public final class ModuleModel implements JsonRenderable {
     }
 
     public Set<? extends Opens> opens() {
-        return Collections.unmodifiableSet(opens);
+        return new ArraySet<>(opens);
     }
 
     public String moduleName() {
@@ -303,15 +657,15 @@ public final class ModuleModel implements JsonRenderable {
     }
 
     public Set<? extends Require> requires() {
-        return Collections.unmodifiableSet(requires);
+        return new ArraySet<>(requires);
     }
 
     public Set<? extends Provides> provides() {
-        return Collections.unmodifiableSet(provides);
+        return new ArraySet<>(provides);
     }
 
     public Set<? extends Export> exports() {
-        return Collections.unmodifiableSet(exports);
+        return new ArraySet<>(exports);
     }
 
     @Override
@@ -320,7 +674,8 @@ public final class ModuleModel implements JsonRenderable {
         if (!imports.isEmpty()) {
             sb.append(imports).append('\n');
         }
-        if (!annotations.isEmpty()) {
+        AnnotationModel[] annotations = annos();
+        if (annotations.length > 0) {
             if (!sb.isEmpty()) {
                 sb.append('\n');
             }
@@ -352,15 +707,19 @@ public final class ModuleModel implements JsonRenderable {
 
     @Override
     public int hashCode() {
-        int hash = 7;
-        hash = 13 * hash + (this.open ? 1 : 0);
-        hash = 13 * hash + Objects.hashCode(this.name);
-        hash = 13 * hash + Objects.hashCode(this.imports);
-        hash = 13 * hash + Objects.hashCode(this.uses);
-        hash = 13 * hash + Objects.hashCode(this.requires);
-        hash = 13 * hash + Objects.hashCode(this.provides);
-        hash = 13 * hash + Objects.hashCode(this.exports);
-        hash = 13 * hash + Objects.hashCode(this.opens);
+        int hash = this.hashCode;
+        if (hash == 0) {
+            hash = 7;
+            hash = 13 * hash + (this.open ? 1 : 0);
+            hash = 13 * hash + Objects.hashCode(this.name);
+            hash = 13 * hash + Objects.hashCode(this.imports);
+            hash = 13 * hash + Objects.hashCode(this.uses);
+            hash = 13 * hash + Arrays.hashCode(this.requires);
+            hash = 13 * hash + Arrays.hashCode(this.provides);
+            hash = 13 * hash + Arrays.hashCode(this.exports);
+            hash = 13 * hash + Arrays.hashCode(this.opens);
+            this.hashCode = hash;
+        }
         return hash;
     }
 
@@ -376,6 +735,9 @@ public final class ModuleModel implements JsonRenderable {
             return false;
         }
         final ModuleModel other = (ModuleModel) obj;
+        if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) {
+            return false;
+        }
         if (this.open != other.open) {
             return false;
         }
@@ -385,68 +747,547 @@ public final class ModuleModel implements JsonRenderable {
         if (!Objects.equals(this.imports, other.imports)) {
             return false;
         }
-        if (!Objects.equals(this.annotations, other.annotations)) {
+        if (!Arrays.equals(this.annos(), other.annos())) {
             return false;
         }
         if (!Objects.equals(this.uses, other.uses)) {
             return false;
         }
-        if (!Objects.equals(this.requires, other.requires)) {
+        if (!Arrays.equals(this.requires, other.requires)) {
             return false;
         }
-        if (!Objects.equals(this.provides, other.provides)) {
+        if (!Arrays.equals(this.provides, other.provides)) {
             return false;
         }
-        if (!Objects.equals(this.exports, other.exports)) {
+        if (!Arrays.equals(this.exports, other.exports)) {
             return false;
         }
-        return Objects.equals(this.opens, other.opens);
+        return Arrays.equals(this.opens, other.opens);
     }
 
-    public Optional<AnnotationModel> findAnnotation(String annotationClassName) {
-        String resolved = imports.resolve(annotationClassName);
-        for (AnnotationModel mdl : annotations) {
-            if (mdl.name().equals(annotationClassName) || imports.resolve(mdl.name()).equals(resolved)) {
-                return Optional.of(mdl);
-            }
+    /**
+     * Get the position in the source of an element of this model - a
+     * Require, Export, Opens, Provides, AnnotationModel or AnnotationValue.
+     * Positions are only known for models created by the parser, and the
+     * models derived from them by <code>resolved()</code> and ModelInterner;
+     * models created by a Builder have none. Elements of primitive arrays
+     * have no positions of their own. Annotations and values are found by
+     * identity, so for a value which occurs more than once in an interned
+     * model, the position of the first occurrence is returned.
+     *
+     * @param element An element
+     * @return The position, if known
+     */
+    public Optional<SourcePosition> sourcePosition(Object element) {
+        int base = 0;
+        if (element instanceof Require r) {
+            return sectionPosition(requires, r, base);
+        }
+        base += requires.length;
+        if (element instanceof Export e) {
+            return sectionPosition(exports, e, base);
+        }
+        base += exports.length;
+        if (element instanceof Opens o) {
+            return sectionPosition(opens, o, base);
+        }
+        base += opens.length;
+        if (element instanceof Provides p) {
+            return sectionPosition(provides, p, base);
+        }
+        if (element instanceof AnnotationModel || element instanceof AnnotationValue<?>) {
+            AnnotationModel[] annos = annos();
+            return Optional.ofNullable(PositionTable.get(annotationPositions,
+                    PositionTable.annotationSlot(annos, element)));
         }
         return Optional.empty();
     }
 
+    private <T extends Comparable<? super T>> Optional<SourcePosition> sectionPosition(T[] section, T element, int base) {
+        int ix = ArraySet.indexOf(section, element);
+        if (ix < 0 || !section[ix].equals(element)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(PositionTable.get(positions, base + ix));
+    }
+
+    long[] positionTable() {
+        return positions;
+    }
+
+    long[] annotationPositionTable() {
+        annos();
+        return annotationPositions;
+    }
+
+    public Optional<AnnotationModel> findAnnotation(String annotationClassName) {
+        return Optional.ofNullable(index().annotation(imports.resolve(annotationClassName)));
+    }
+
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.hash(() -> {
-            JsonUtils.append("name", name, sb);
-            JsonUtils.nextItem(sb);
-            JsonUtils.append("open", open, sb);
-            if (!imports.isEmpty()) {
-                JsonUtils.nextItem(sb);
-                JsonUtils.append("imports", imports, sb);
-            }
-            if (!uses.isEmpty()) {
-                JsonUtils.nextItem(sb);
-                JsonUtils.append("uses", uses, sb);
+    public void writeJson(JsonWriter json) {
+        json.startObject()
+                .field("name", name)
+                .field("open", open);
+        if (!imports.isEmpty()) {
+            json.field("imports", imports);
+        }
+        if (!uses.isEmpty()) {
+            json.field("uses", uses);
+        }
+        if (requires.length > 0) {
+            json.field("requires", new ArraySet<>(requires));
+        }
+        if (provides.length > 0) {
+            json.field("provides", new ArraySet<>(provides));
+        }
+        if (exports.length > 0) {
+            json.field("exports", new ArraySet<>(exports));
+        }
+        if (opens.length > 0) {
+            json.field("opens", new ArraySet<>(opens));
+        }
+        if (annos().length > 0) {
+            json.field("annotations", Arrays.asList(annos()));
+        }
+        json.endObject();
+    }
+
+    /**
+     * Recreate a model from the JSON <code>toJson()</code> or
+     * <code>toCompactJson()</code> produces, without parsing source. See
+     * <code>AnnotationValue.fromJson()</code> for how annotation values are
+     * typed; source positions are not part of the JSON and are not restored.
+     *
+     * @param json Some JSON
+     * @return A model
+     * @throws IllegalArgumentException if the JSON is malformed or does not
+     * describe a module
+     */
+    public static ModuleModel fromJson(CharSequence json) {
+        JsonReader reader = JsonReader.of(json);
+        ModuleModel result = fromJson(reader);
+        reader.end();
+        return result;
+    }
+
+    /**
+     * Recreate a model from UTF-8 JSON as <code>toJson()</code> or
+     * <code>toCompactJson()</code> produces.
+     *
+     * @param json A stream
+     * @return A model
+     * @throws IOException if reading fails
+     */
+    public static ModuleModel fromJson(InputStream json) throws IOException {
+        try {
+            JsonReader reader = JsonReader.of(json);
+            ModuleModel result = fromJson(reader);
+            reader.end();
+            return result;
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Read a model from a reader positioned at the object
+     * <code>writeJson()</code> produced.
+     *
+     * @param json A reader
+     * @return A model
+     */
+    public static ModuleModel fromJson(JsonReader json) {
+        json.beginObject();
+        String name = null;
+        boolean open = false;
+        List<String> imports = Collections.emptyList();
+        List<String> uses = Collections.emptyList();
+        List<Require> requires = new ArrayList<>();
+        List<Provides> provides = new ArrayList<>();
+        List<Export> exports = new ArrayList<>();
+        List<Opens> opens = new ArrayList<>();
+        List<AnnotationModel> annotations = new ArrayList<>();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "name":
+                    name = json.nextString();
+                    break;
+                case "open":
+                    open = json.nextBoolean();
+                    break;
+                case "imports":
+                    imports = json.nextStrings();
+                    break;
+                case "uses":
+                    uses = json.nextStrings();
+                    break;
+                case "requires":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        requires.add(Require.fromJson(json));
+                    }
+                    json.endArray();
+                    break;
+                case "provides":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        provides.add(Provides.fromJson(json));
+                    }
+                    json.endArray();
+                    break;
+                case "exports":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        exports.add(Export.fromJson(json));
+                    }
+                    json.endArray();
+                    break;
+                case "opens":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        opens.add(Opens.fromJson(json));
+                    }
+                    json.endArray();
+                    break;
+                case "annotations":
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        annotations.add(AnnotationModel.fromJson(json));
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
             }
-            if (!requires.isEmpty()) {
-                JsonUtils.nextItem(sb);
-                JsonUtils.append("requires", requires, sb);
+        }
+        if (name == null) {
+            throw json.error("No module name");
+        }
+        json.endObject();
+        return new ModuleModel(open, name, imports, uses, requires, provides,
+                exports, opens, annotations);
+    }
+
+    /**
+     * Write this model to a stream in a compact binary format, preceded by
+     * a header and followed by nothing; to write several models sharing one
+     * string table, use a ModelOutput. Source positions are not written.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        writeTo(new ModelOutput(out));
+    }
+
+    /**
+     * Write this model to a ModelOutput.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        out.data().writeByte(open ? 1 : 0);
+        out.writeString(name);
+        imports.writeTo(out);
+        uses.writeTo(out);
+        out.writeVarint(requires.length);
+        for (Require r : requires) {
+            r.writeTo(out);
+        }
+        out.writeVarint(provides.length);
+        for (Provides p : provides) {
+            p.writeTo(out);
+        }
+        out.writeVarint(exports.length);
+        for (Export e : exports) {
+            e.writeTo(out);
+        }
+        out.writeVarint(opens.length);
+        for (Opens o : opens) {
+            o.writeTo(out);
+        }
+        AnnotationModel[] annos = annos();
+        out.writeVarint(annos.length);
+        for (AnnotationModel anno : annos) {
+            anno.writeTo(out);
+        }
+    }
+
+    /**
+     * Read a model written by <code>writeTo(DataOutput)</code>.
+     *
+     * @param in The input
+     * @return A model
+     * @throws IOException If reading fails or the input is malformed
+     */
+    public static ModuleModel readFrom(DataInput in) throws IOException {
+        return readFrom(new ModelInput(in));
+    }
+
+    /**
+     * Read a model from a ModelInput.
+     *
+     * @param in The input
+     * @return A model
+     * @throws IOException If reading fails or the input is malformed
+     */
+    public static ModuleModel readFrom(ModelInput in) throws IOException {
+        boolean open = in.data().readByte() != 0;
+        String name = in.readString();
+        Imports imports = Imports.readFrom(in);
+        Uses uses = Uses.readFrom(in);
+        List<Require> requires = new ArrayList<>();
+        for (int i = in.readCount(); i > 0; i--) {
+            requires.add(Require.readFrom(in));
+        }
+        List<Provides> provides = new ArrayList<>();
+        for (int i = in.readCount(); i > 0; i--) {
+            provides.add(Provides.readFrom(in));
+        }
+        List<Export> exports = new ArrayList<>();
+        for (int i = in.readCount(); i > 0; i--) {
+            exports.add(Export.readFrom(in));
+        }
+        List<Opens> opens = new ArrayList<>();
+        for (int i = in.readCount(); i > 0; i--) {
+            opens.add(Opens.readFrom(in));
+        }
+        int annotationCount = in.readCount();
+        AnnotationModel[] annotations = annotationCount == 0 ? NO_ANNOTATIONS
+                : new AnnotationModel[Math.min(annotationCount, 1024)];
+        for (int i = 0; i < annotationCount; i++) {
+            if (i == annotations.length) {
+                annotations = Arrays.copyOf(annotations, annotations.length * 2);
             }
-            if (!provides.isEmpty()) {
-                JsonUtils.nextItem(sb);
-                JsonUtils.append("provides", provides, sb);
+            annotations[i] = AnnotationModel.readFrom(in);
+        }
+        if (annotations.length != annotationCount) {
+            annotations = Arrays.copyOf(annotations, annotationCount);
+        }
+        return new ModuleModel(open, name, imports, uses,
+                ArraySet.sorted(requires, NO_REQUIRES, Require::strongest),
+                ArraySet.sorted(provides, NO_PROVIDES),
+                ArraySet.sorted(exports, NO_EXPORTS),
+                ArraySet.sorted(opens, NO_OPENS), annotations);
+    }
+
+    /**
+     * Immutable builder for deriving models from one another. Each
+     * <code>with</code> or <code>without</code> method returns a new builder
+     * and leaves this one untouched, so a builder can be used as the common
+     * base of any number of variants. Sections which an operation does not
+     * touch are shared, not copied, between the builder, the models it
+     * builds, and the model it was created from; changing a section costs a
+     * binary search and one copy of that section's array - O(n) in the size
+     * of that section, not O(log n) as a persistent tree would be, which is
+     * the cheaper trade for sections of a few to a few dozen clauses.
+     * <code>build()</code> is O(n) in the total size of the model, since the
+     * new model computes its name filter and fingerprints over all of its
+     * names.
+     */
+    public static final class Builder {
+
+        private final boolean open;
+        private final String name;
+        private final Imports imports;
+        private final Uses uses;
+        private final Require[] requires;
+        private final Provides[] provides;
+        private final Export[] exports;
+        private final Opens[] opens;
+        private final AnnotationModel[] annotations;
+
+        Builder(boolean open, String name, Imports imports, Uses uses,
+                Require[] requires, Provides[] provides, Export[] exports,
+                Opens[] opens, AnnotationModel[] annotations) {
+            this.open = open;
+            this.name = notNull("name", name);
+            this.imports = imports;
+            this.uses = uses;
+            this.requires = requires;
+            this.provides = provides;
+            this.exports = exports;
+            this.opens = opens;
+            this.annotations = annotations;
+        }
+
+        public Builder open(boolean open) {
+            return open == this.open ? this : new Builder(open, name, imports,
+                    uses, requires, provides, exports, opens, annotations);
+        }
+
+        public Builder name(String name) {
+            return name.equals(this.name) ? this : new Builder(open, name,
+                    imports, uses, requires, provides, exports, opens,
+                    annotations);
+        }
+
+        /**
+         * Add a require, replacing any existing require of the same module.
+         *
+         * @param req A require
+         * @return A builder
+         */
+        public Builder withRequire(Require req) {
+            return withRequires(ArraySet.with(requires, notNull("req", req)));
+        }
+
+        public Builder withRequire(String module) {
+            return withRequire(new Require(false, false, module));
+        }
+
+        public Builder withoutRequire(String module) {
+            return withRequires(ArraySet.without(requires,
+                    new Require(false, false, module)));
+        }
+
+        /**
+         * Add an export, replacing any existing export of the same package.
+         *
+         * @param export An export
+         * @return A builder
+         */
+        public Builder withExport(Export export) {
+            return withExports(ArraySet.with(exports, notNull("export", export)));
+        }
+
+        public Builder withoutExport(String pkg) {
+            return withExports(ArraySet.without(exports,
+                    new Export(pkg, (ExportTargets) null)));
+        }
+
+        /**
+         * Add a provides clause, replacing any existing one for the same
+         * service type.
+         *
+         * @param prov A provides clause
+         * @return A builder
+         */
+        public Builder withProvides(Provides prov) {
+            return withProvides(ArraySet.with(provides, notNull("prov", prov)));
+        }
+
+        public Builder withoutProvides(String type) {
+            return withProvides(ArraySet.without(provides,
+                    new Provides(type, Collections.emptySet())));
+        }
+
+        /**
+         * Add an opens clause, replacing any existing one for the same
+         * package.
+         *
+         * @param op An opens clause
+         * @return A builder
+         */
+        public Builder withOpens(Opens op) {
+            return withOpens(ArraySet.with(opens, notNull("op", op)));
+        }
+
+        public Builder withoutOpens(String pkg) {
+            return withOpens(ArraySet.without(opens, new Opens(pkg, null)));
+        }
+
+        public Builder withUses(String type) {
+            return withUses(uses.with(notNull("type", type)));
+        }
+
+        public Builder withoutUses(String type) {
+            return withUses(uses.without(type));
+        }
+
+        public Builder withImport(String type) {
+            Imports nue = imports.with(notNull("type", type));
+            return nue == imports ? this : new Builder(open, name, nue, uses,
+                    requires, provides, exports, opens, annotations);
+        }
+
+        public Builder withoutImport(String type) {
+            Imports nue = imports.without(type);
+            return nue == imports ? this : new Builder(open, name, nue, uses,
+                    requires, provides, exports, opens, annotations);
+        }
+
+        /**
+         * Add an annotation, replacing any existing annotation with the same
+         * name in place; annotations keep their source order.
+         *
+         * @param anno An annotation
+         * @return A builder
+         */
+        public Builder withAnnotation(AnnotationModel anno) {
+            notNull("anno", anno);
+            int ix = annotationIndex(anno.name());
+            AnnotationModel[] nue;
+            if (ix < 0) {
+                nue = Arrays.copyOf(annotations, annotations.length + 1);
+                nue[annotations.length] = anno;
+            } else if (annotations[ix].equals(anno)) {
+                return this;
+            } else {
+                nue = annotations.clone();
+                nue[ix] = anno;
             }
-            if (!exports.isEmpty()) {
-                JsonUtils.nextItem(sb);
-                JsonUtils.append("exports", exports, sb);
+            return new Builder(open, name, imports, uses, requires, provides,
+                    exports, opens, nue);
+        }
+
+        public Builder withoutAnnotation(String annotationName) {
+            int ix = annotationIndex(annotationName);
+            if (ix < 0) {
+                return this;
             }
-            if (!opens.isEmpty()) {
-                JsonUtils.nextItem(sb);
-                JsonUtils.append("opens", opens, sb);
+            AnnotationModel[] nue = Arrays.copyOf(annotations, annotations.length - 1);
+            System.arraycopy(annotations, ix + 1, nue, ix, annotations.length - ix - 1);
+            return new Builder(open, name, imports, uses, requires, provides,
+                    exports, opens, nue);
+        }
+
+        public ModuleModel build() {
+            return new ModuleModel(open, name, imports, uses, requires,
+                    provides, exports, opens, annotations);
+        }
+
+        private int annotationIndex(String annotationName) {
+            for (int i = 0; i < annotations.length; i++) {
+                if (annotations[i].name().equals(annotationName)) {
+                    return i;
+                }
             }
-            if (!annotations.isEmpty()) {
-                JsonUtils.nextItem(sb);
-                JsonUtils.append("annotations", annotations, sb);
+            return -1;
+        }
+
+        private Builder withRequires(Require[] nue) {
+            return nue == requires ? this : new Builder(open, name, imports,
+                    uses, nue, provides, exports, opens, annotations);
+        }
+
+        private Builder withExports(Export[] nue) {
+            return nue == exports ? this : new Builder(open, name, imports,
+                    uses, requires, provides, nue, opens, annotations);
+        }
+
+        private Builder withProvides(Provides[] nue) {
+            return nue == provides ? this : new Builder(open, name, imports,
+                    uses, requires, nue, exports, opens, annotations);
+        }
+
+        private Builder withOpens(Opens[] nue) {
+            return nue == opens ? this : new Builder(open, name, imports,
+                    uses, requires, provides, exports, nue, annotations);
+        }
+
+        private Builder withUses(Uses nue) {
+            return nue == uses ? this : new Builder(open, name, imports,
+                    nue, requires, provides, exports, opens, annotations);
+        }
+
+        private static <T> T notNull(String what, T obj) {
+            if (obj == null) {
+                throw new IllegalArgumentException(what + " is null");
             }
-        }, sb);
+            return obj;
+        }
     }
 }
@@ -0,0 +1,88 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.util.List;
+
+/**
+ * A Bloom filter over the names that appear in a module - its own name, the
+ * modules it requires or exports or opens to, the packages it exports or
+ * opens, and the types it uses or provides, both as written and as resolved
+ * against its imports - stored as a bare <code>long[]</code> so a model pays
+ * only for the bits. Sized at roughly ten bits per name, rounded up to a
+ * power of two, with three probes derived from the name's (cached) string
+ * hash code, so a negative answer costs a few nanoseconds and false
+ * positives run around one percent. The names are collected by the
+ * SectionScan a model makes when it is created.
+ *
+ * @author Tim Boudreau
+ */
+final class NameFilter {
+
+    private static final int BITS_PER_NAME = 10;
+    private static final int PROBES = 3;
+
+    private NameFilter() {
+        throw new AssertionError();
+    }
+
+    static long[] build(List<String> names) {
+        int bits = Math.max(64, Integer.highestOneBit(Math.max(1, names.size() * BITS_PER_NAME - 1)) << 1);
+        long[] result = new long[bits >>> 6];
+        int mask = bits - 1;
+        for (String name : names) {
+            int h1 = name.hashCode();
+            int h2 = mix(h1);
+            for (int i = 0; i < PROBES; i++) {
+                int bit = (h1 + i * h2) & mask;
+                result[bit >>> 6] |= 1L << bit;
+            }
+        }
+        return result;
+    }
+
+    static boolean mightContain(long[] filter, String name) {
+        int h1 = name.hashCode();
+        int h2 = mix(h1);
+        int mask = (filter.length << 6) - 1;
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        // Murmur3 finalizer; odd, so successive probes never repeat within
+        // a power-of-two table
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+}
@@ -23,15 +23,17 @@
  */
 package com.mastfrog.modulegrammar.model;
 
+import com.mastfrog.modulegrammar.json.JsonReader;
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * Models an <code>opens</code> statement in a <code>module-info.java</code>.
@@ -40,23 +42,85 @@ import java.util.TreeSet;
  */
 public final class Opens implements Comparable<Opens>, JsonRenderable {
 
-    private final Set<String> tos;
+    private final String[] tos;
     private final String what;
+    private int hashCode; // cached; 0 until computed
 
     public Opens(String what, Collection<? extends String> tos) {
-        this.tos = tos == null ? null : new TreeSet<>(tos);
+        this.tos = tos == null ? null : ArraySet.sorted(tos, Uses.NO_STRINGS);
         this.what = what;
     }
 
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.hash(() -> {
-            JsonUtils.append("package", what, sb);
-            if (tos != null && !tos.isEmpty()) {
-                JsonUtils.nextItem(sb);
-                JsonUtils.append("to", tos, sb);
+    public void writeJson(JsonWriter json) {
+        json.startObject().field("package", what);
+        if (tos != null && tos.length > 0) {
+            json.field("to", new ArraySet<>(tos));
+        }
+        json.endObject();
+    }
+
+    static Opens fromJson(JsonReader json) {
+        json.beginObject();
+        String pkg = null;
+        List<String> to = null;
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "package":
+                    pkg = json.nextString();
+                    break;
+                case "to":
+                    to = json.nextStrings();
+                    break;
+                default:
+                    json.skipValue();
             }
-        }, sb);
+        }
+        if (pkg == null) {
+            throw json.error("No package in opens");
+        }
+        json.endObject();
+        return new Opens(pkg, to);
+    }
+
+    /**
+     * Write this opens clause in the binary format ModelInput reads.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        out.writeString(what);
+        // Count plus one, so an unqualified opens is distinct from an empty
+        // target list
+        if (tos == null) {
+            out.writeVarint(0);
+        } else {
+            out.writeVarint(tos.length + 1);
+            for (String to : tos) {
+                out.writeString(to);
+            }
+        }
+    }
+
+    /**
+     * Read an opens clause written by <code>writeTo()</code>.
+     *
+     * @param in The input
+     * @return An opens clause
+     * @throws IOException If reading fails
+     */
+    public static Opens readFrom(ModelInput in) throws IOException {
+        String pkg = in.readString();
+        int count = in.readCount();
+        if (count == 0) {
+            return new Opens(pkg, null);
+        }
+        List<String> tos = new ArrayList<>(Math.min(count - 1, 1024));
+        for (int i = 1; i < count; i++) {
+            tos.add(in.readString());
+        }
+        return new Opens(pkg, tos);
     }
 
     @Override
@@ -72,14 +136,14 @@ public final class Opens implements Comparable<Opens>, JsonRenderable {
         if (tos == null) {
             return true;
         }
-        return tos.contains(what);
+        return ArraySet.indexOf(tos, what) >= 0;
     }
 
     public Optional<Set<? extends String>> to() {
         if (tos == null) {
             return Optional.empty();
         }
-        return Optional.of(Collections.unmodifiableSet(tos));
+        return Optional.of(new ArraySet<>(tos));
     }
 
     @Override
@@ -87,9 +151,9 @@ public final class Opens implements Comparable<Opens>, JsonRenderable {
         StringBuilder sb = new StringBuilder("    opens ").append(what);
         if (tos != null) {
             sb.append(" to");
-            for (Iterator<String> it = tos.iterator(); it.hasNext();) {
-                sb.append(' ').append(it.next());
-                if (it.hasNext()) {
+            for (int i = 0; i < tos.length; i++) {
+                sb.append(' ').append(tos[i]);
+                if (i < tos.length - 1) {
                     sb.append(',');
                 }
             }
@@ -99,9 +163,13 @@ public final class Opens implements Comparable<Opens>, JsonRenderable {
 
     @Override
     public int hashCode() {
-        int hash = 3;
-        hash = 29 * hash + Objects.hashCode(this.tos);
-        hash = 29 * hash + Objects.hashCode(this.what);
+        int hash = this.hashCode;
+        if (hash == 0) {
+            hash = 3;
+            hash = 29 * hash + Arrays.hashCode(this.tos);
+            hash = 29 * hash + Objects.hashCode(this.what);
+            this.hashCode = hash;
+        }
         return hash;
     }
 
@@ -117,9 +185,12 @@ public final class Opens implements Comparable<Opens>, JsonRenderable {
             return false;
         }
         final Opens other = (Opens) obj;
+        if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) {
+            return false;
+        }
         if (!Objects.equals(this.what, other.what)) {
             return false;
         }
-        return Objects.equals(this.tos, other.tos);
+        return Arrays.equals(this.tos, other.tos);
     }
 }
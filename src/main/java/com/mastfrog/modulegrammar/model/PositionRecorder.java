@@ -0,0 +1,69 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Collects the source positions of model elements as they are created by a
+ * parser, keyed by identity, to be passed to a ModuleModel constructor, which
+ * lays them out in its own compact table. Not thread-safe; only needed while
+ * a model is being built.
+ *
+ * @author Tim Boudreau
+ */
+public final class PositionRecorder {
+
+    private Map<Object, SourcePosition> positions;
+
+    /**
+     * Record the position of an element - a Require, Export, Opens,
+     * Provides, AnnotationModel or AnnotationValue.
+     *
+     * @param element The element
+     * @param startOffset The offset of its first character
+     * @param endOffset The offset after its last character
+     * @param line The line it starts on, from 1
+     * @param column The column it starts at, from 0
+     */
+    public void record(Object element, int startOffset, int endOffset, int line, int column) {
+        if (positions == null) {
+            positions = new IdentityHashMap<>();
+        }
+        positions.put(element, new SourcePosition(startOffset, endOffset, line, column));
+    }
+
+    SourcePosition get(Object element) {
+        return positions == null ? null : positions.get(element);
+    }
+
+    boolean isEmpty() {
+        return positions == null;
+    }
+
+    void reset() {
+        positions = null;
+    }
+}
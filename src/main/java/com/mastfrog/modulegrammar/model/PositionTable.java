@@ -0,0 +1,160 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValue;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValueKind;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Source positions packed two longs to a slot - start and end offset, then
+ * line and column - with slots in a fixed order: the model's requires,
+ * exports, opens and provides in array order for the section table; and for
+ * the annotation table, each annotation followed by its values, property by
+ * property in key order, with array elements following their array and the
+ * values of a nested annotation following the value holding it. Elements of
+ * primitive arrays have no slots of their own. A slot whose line is 0 has no
+ * position.
+ *
+ * @author Tim Boudreau
+ */
+final class PositionTable {
+
+    static final long[] NONE = new long[0];
+
+    private PositionTable() {
+        throw new AssertionError();
+    }
+
+    static long[] layout(PositionRecorder recorder, Object[]... sections) {
+        if (recorder == null || recorder.isEmpty()) {
+            return NONE;
+        }
+        int count = 0;
+        for (Object[] section : sections) {
+            count += section.length;
+        }
+        long[] result = new long[count * 2];
+        int slot = 0;
+        boolean any = false;
+        for (Object[] section : sections) {
+            for (Object element : section) {
+                any |= put(result, slot++, recorder.get(element));
+            }
+        }
+        return any ? result : NONE;
+    }
+
+    static long[] layoutAnnotations(PositionRecorder recorder, AnnotationModel[] annotations) {
+        if (recorder == null || recorder.isEmpty() || annotations.length == 0) {
+            return NONE;
+        }
+        int[] count = new int[1];
+        forEachNode(annotations, node -> {
+            count[0]++;
+            return true;
+        });
+        long[] result = new long[count[0] * 2];
+        int[] slot = new int[1];
+        boolean[] any = new boolean[1];
+        forEachNode(annotations, node -> {
+            any[0] |= put(result, slot[0]++, recorder.get(node));
+            return true;
+        });
+        return any[0] ? result : NONE;
+    }
+
+    static int annotationSlot(AnnotationModel[] annotations, Object target) {
+        int[] slot = new int[1];
+        boolean found = !forEachNode(annotations, node -> {
+            if (node == target || (node instanceof AnnotationValue<?> v
+                    && v.kind() == AnnotationValueKind.ANNOTATION && v.value() == target)) {
+                return false;
+            }
+            slot[0]++;
+            return true;
+        });
+        return found ? slot[0] : -1;
+    }
+
+    static SourcePosition get(long[] table, int slot) {
+        if (slot < 0 || slot * 2 >= table.length) {
+            return null;
+        }
+        long range = table[slot * 2];
+        long location = table[slot * 2 + 1];
+        int line = (int) (location >>> 32);
+        if (line == 0) {
+            return null;
+        }
+        return new SourcePosition((int) (range >>> 32), (int) range, line, (int) location);
+    }
+
+    private static boolean put(long[] table, int slot, SourcePosition pos) {
+        if (pos == null) {
+            return false;
+        }
+        table[slot * 2] = ((long) pos.startOffset() << 32) | (pos.endOffset() & 0xFFFF_FFFFL);
+        table[slot * 2 + 1] = ((long) pos.line() << 32) | (pos.column() & 0xFFFF_FFFFL);
+        return true;
+    }
+
+    /**
+     * Pass each annotation and value to the predicate in slot order, without
+     * recursion, stopping if it returns false.
+     *
+     * @return false if stopped
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean forEachNode(AnnotationModel[] annotations, Predicate<Object> p) {
+        ArrayDeque<Iterator<AnnotationValue<?>>> stack = new ArrayDeque<>();
+        for (AnnotationModel anno : annotations) {
+            if (!p.test(anno)) {
+                return false;
+            }
+            stack.push(anno.properties().values().iterator());
+            while (!stack.isEmpty()) {
+                Iterator<AnnotationValue<?>> iter = stack.peek();
+                if (!iter.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                AnnotationValue<?> value = iter.next();
+                if (!p.test(value)) {
+                    return false;
+                }
+                if (value.kind() == AnnotationValueKind.ANNOTATION) {
+                    stack.push(((AnnotationModel) value.value()).properties().values().iterator());
+                } else if (value.kind() == AnnotationValueKind.ARRAY && !value.isPrimitiveArray()) {
+                    stack.push(((List<AnnotationValue<?>>) value.value()).iterator());
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -23,14 +23,17 @@
  */
 package com.mastfrog.modulegrammar.model;
 
+import com.mastfrog.modulegrammar.json.JsonReader;
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
-import java.util.Set;
-import java.util.TreeSet;
 import java.util.function.BiConsumer;
 
 /**
@@ -41,30 +44,79 @@ import java.util.function.BiConsumer;
 public final class Provides implements Iterable<String>, Comparable<Provides>, JsonRenderable {
 
     private final String provided;
-    private final Set<String> providers = new TreeSet<>();
+    private final String[] providers;
+    private int hashCode; // cached; 0 until computed
 
     public Provides(String provided, Collection<? extends String> providers) {
-        this.providers.addAll(providers);
+        this.providers = ArraySet.sorted(providers, Uses.NO_STRINGS);
         this.provided = provided;
     }
 
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.hash(() -> {
-            JsonUtils.append("type", provided, sb);
-            JsonUtils.nextItem(sb);
-            JsonUtils.append("with", providers, sb);
-        }, sb);
+    public void writeJson(JsonWriter json) {
+        json.startObject()
+                .field("type", provided)
+                .field("with", new ArraySet<>(providers))
+                .endObject();
+    }
+
+    static Provides fromJson(JsonReader json) {
+        json.beginObject();
+        String type = null;
+        List<String> with = Collections.emptyList();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "type":
+                    type = json.nextString();
+                    break;
+                case "with":
+                    with = json.nextStrings();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        if (type == null) {
+            throw json.error("No type in provides");
+        }
+        json.endObject();
+        return new Provides(type, with);
+    }
+
+    /**
+     * Write this provides clause in the binary format ModelInput reads.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        out.writeString(provided);
+        out.writeStrings(providers);
+    }
+
+    /**
+     * Read a provides clause written by <code>writeTo()</code>.
+     *
+     * @param in The input
+     * @return A provides clause
+     * @throws IOException If reading fails
+     */
+    public static Provides readFrom(ModelInput in) throws IOException {
+        String type = in.readString();
+        return new Provides(type, in.readStrings());
     }
     
     @SuppressWarnings("StringEquality")
     public Provides resolve(Imports imports) {
         String pname = imports.resolve(provided);
-        Set<String> nue = new TreeSet<>();
+        List<String> nue = new ArrayList<>(providers.length);
+        boolean anyChanged = pname != provided;
         for (String provider : providers) {
-            nue.add(imports.resolve(provider));
+            String res = imports.resolve(provider);
+            anyChanged |= res != provider;
+            nue.add(res);
         }
-        if (pname == provided && nue.equals(providers)) {
+        if (!anyChanged) {
             return this;
         }
         return new Provides(pname, nue);
@@ -87,15 +139,15 @@ public final class Provides implements Iterable<String>, Comparable<Provides>, J
 
     @Override
     public Iterator<String> iterator() {
-        return Collections.unmodifiableSet(providers).iterator();
+        return new ArraySet<>(providers).iterator();
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("    provides ").append(provided).append(" with ");
-        for (Iterator<String> it = providers.iterator(); it.hasNext();) {
-            sb.append(it.next());
-            if (it.hasNext()) {
+        for (int i = 0; i < providers.length; i++) {
+            sb.append(providers[i]);
+            if (i < providers.length - 1) {
                 sb.append(", ");
             }
         }
@@ -104,9 +156,13 @@ public final class Provides implements Iterable<String>, Comparable<Provides>, J
 
     @Override
     public int hashCode() {
-        int hash = 5;
-        hash = 41 * hash + Objects.hashCode(this.provided);
-        hash = 41 * hash + Objects.hashCode(this.providers);
+        int hash = this.hashCode;
+        if (hash == 0) {
+            hash = 5;
+            hash = 41 * hash + Objects.hashCode(this.provided);
+            hash = 41 * hash + Arrays.hashCode(this.providers);
+            this.hashCode = hash;
+        }
         return hash;
     }
 
@@ -122,10 +178,13 @@ public final class Provides implements Iterable<String>, Comparable<Provides>, J
             return false;
         }
         final Provides other = (Provides) obj;
+        if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) {
+            return false;
+        }
         if (!Objects.equals(this.provided, other.provided)) {
             return false;
         }
-        return Objects.equals(this.providers, other.providers);
+        return Arrays.equals(this.providers, other.providers);
     }
 
 }
@@ -0,0 +1,107 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hash-based lookup tables for a ModuleModel's query methods, built on first
+ * use. Every class name is stored both as written and as resolved against the
+ * module's imports, so a query needs only to resolve its own argument.
+ *
+ * @author Tim Boudreau
+ */
+final class QueryIndex {
+
+    private final Map<String, Require> requires;
+    private final Map<String, Opens> opens;
+    private final Set<String> uses;
+    private final Set<String> provided;
+    private final Map<String, Set<String>> providers;
+    private final Map<String, AnnotationModel> annotations;
+
+    QueryIndex(Imports imports, Require[] requires, Uses uses, Provides[] provides,
+            Opens[] opens, AnnotationModel[] annotations) {
+        this.requires = new HashMap<>(requires.length * 2);
+        for (Require r : requires) {
+            this.requires.put(r.moduleName(), r);
+        }
+        this.opens = new HashMap<>(opens.length * 2);
+        for (Opens o : opens) {
+            this.opens.putIfAbsent(o.opened(), o);
+        }
+        this.uses = new HashSet<>();
+        for (String use : uses) {
+            this.uses.add(use);
+            this.uses.add(imports.resolve(use));
+        }
+        // Keyed by resolved service name, containing resolved provider names
+        this.providers = new HashMap<>(provides.length * 2);
+        this.provided = new HashSet<>();
+        for (Provides p : provides) {
+            this.provided.add(p.provided());
+            String service = imports.resolve(p.provided());
+            this.provided.add(service);
+            Set<String> impls = this.providers.computeIfAbsent(service, k -> new HashSet<>());
+            for (String impl : p) {
+                impls.add(imports.resolve(impl));
+            }
+        }
+        // Keyed by resolved annotation name; the first one with a given name
+        // wins, as with a linear search
+        this.annotations = new HashMap<>(annotations.length * 2);
+        for (AnnotationModel anno : annotations) {
+            this.annotations.putIfAbsent(imports.resolve(anno.name()), anno);
+        }
+    }
+
+    Require require(String module) {
+        return requires.get(module);
+    }
+
+    Opens opens(String pkg) {
+        return opens.get(pkg);
+    }
+
+    boolean uses(String type, String resolvedType) {
+        return uses.contains(type) || uses.contains(resolvedType);
+    }
+
+    boolean provides(String type) {
+        return provided.contains(type);
+    }
+
+    boolean provides(String resolvedType, String resolvedImpl) {
+        Set<String> impls = providers.get(resolvedType);
+        return impls != null && impls.contains(resolvedImpl);
+    }
+
+    AnnotationModel annotation(String resolvedName) {
+        return annotations.get(resolvedName);
+    }
+}
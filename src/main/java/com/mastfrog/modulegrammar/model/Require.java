@@ -23,8 +23,10 @@
  */
 package com.mastfrog.modulegrammar.model;
 
+import com.mastfrog.modulegrammar.json.JsonReader;
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -37,6 +39,7 @@ public final class Require implements Comparable<Require>, JsonRenderable {
     private final boolean requireStatic;
     private final boolean transitive;
     private final String requiredModule;
+    private int hashCode; // cached; 0 until computed
 
     public Require(boolean requireStatic, boolean transitive,
             String requiredModule) {
@@ -46,14 +49,83 @@ public final class Require implements Comparable<Require>, JsonRenderable {
     }
 
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.hash(() -> {
-            JsonUtils.append("module", requiredModule, sb);
-            sb.append(", ");
-            JsonUtils.append("transitive", transitive, sb);
-            sb.append(", ");
-            JsonUtils.append("static", requireStatic, sb);
-        }, sb);
+    public void writeJson(JsonWriter json) {
+        json.startInlineObject()
+                .field("module", requiredModule)
+                .field("transitive", transitive)
+                .field("static", requireStatic)
+                .endObject();
+    }
+
+    static Require fromJson(JsonReader json) {
+        json.beginObject();
+        String module = null;
+        boolean isTransitive = false;
+        boolean isStatic = false;
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "module":
+                    module = json.nextString();
+                    break;
+                case "transitive":
+                    isTransitive = json.nextBoolean();
+                    break;
+                case "static":
+                    isStatic = json.nextBoolean();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        if (module == null) {
+            throw json.error("No module in requires");
+        }
+        json.endObject();
+        return new Require(isStatic, isTransitive, module);
+    }
+
+    /**
+     * Write this requires clause in the binary format ModelInput reads.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        out.data().writeByte((requireStatic ? 1 : 0) | (transitive ? 2 : 0));
+        out.writeString(requiredModule);
+    }
+
+    /**
+     * Read a requires clause written by <code>writeTo()</code>.
+     *
+     * @param in The input
+     * @return A requires clause
+     * @throws IOException If reading fails
+     */
+    public static Require readFrom(ModelInput in) throws IOException {
+        int flags = in.data().readUnsignedByte();
+        return new Require((flags & 1) != 0, (flags & 2) != 0, in.readString());
+    }
+
+    /**
+     * Combine two requires clauses for the same module into the one a
+     * module reading both would see: it is static only if both are, and
+     * transitive if either is. The result does not depend on their order,
+     * and is one of the two if either already says the same.
+     *
+     * @param a A clause
+     * @param b Another clause for the same module
+     * @return A clause
+     */
+    static Require strongest(Require a, Require b) {
+        boolean isStatic = a.requireStatic && b.requireStatic;
+        boolean isTransitive = a.transitive || b.transitive;
+        if (a.requireStatic == isStatic && a.transitive == isTransitive) {
+            return a;
+        } else if (b.requireStatic == isStatic && b.transitive == isTransitive) {
+            return b;
+        }
+        return new Require(isStatic, isTransitive, a.requiredModule);
     }
 
     @Override
@@ -81,10 +153,14 @@ public final class Require implements Comparable<Require>, JsonRenderable {
 
     @Override
     public int hashCode() {
-        int hash = 7;
-        hash = 67 * hash + (this.requireStatic ? 1 : 0);
-        hash = 67 * hash + (this.transitive ? 1 : 0);
-        hash = 67 * hash + Objects.hashCode(this.requiredModule);
+        int hash = this.hashCode;
+        if (hash == 0) {
+            hash = 7;
+            hash = 67 * hash + (this.requireStatic ? 1 : 0);
+            hash = 67 * hash + (this.transitive ? 1 : 0);
+            hash = 67 * hash + Objects.hashCode(this.requiredModule);
+            this.hashCode = hash;
+        }
         return hash;
     }
 
@@ -100,6 +176,9 @@ public final class Require implements Comparable<Require>, JsonRenderable {
             return false;
         }
         final Require other = (Require) obj;
+        if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) {
+            return false;
+        }
         if (this.requireStatic != other.requireStatic) {
             return false;
         }
@@ -0,0 +1,158 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The single walk over a module's sections made when a ModuleModel is
+ * created, which collects the names for its NameFilter and feeds both its
+ * semantic hash - with type names resolved against the imports - and its
+ * ABI hash, which sees only the parts of the module that affect modules
+ * which read it.
+ * <p>
+ * It runs in the ModuleModel constructor rather than during the parser's
+ * extraction pass, so models from a Builder, from JSON or from the binary
+ * format get the same fingerprints as parsed ones, at the cost of one walk
+ * over a model's sections per model created, however it was created.
+ * Annotations are not part of the walk; they are hashed on the first call
+ * to <code>fingerprint()</code>.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class SectionScan {
+
+    private final long[] nameFilter;
+    private final long semanticA;
+    private final long semanticB;
+    private final ModuleFingerprint abi;
+
+    SectionScan(boolean open, String module, Imports imports, Uses uses,
+            Require[] requires, Provides[] provides, Export[] exports,
+            Opens[] opens) {
+        List<String> names = new ArrayList<>(32);
+        SemanticHash hash = new SemanticHash();
+        SemanticHash abi = new SemanticHash();
+        names.add(module);
+        for (SemanticHash h : new SemanticHash[]{hash, abi}) {
+            h.section(SemanticHash.OPEN).element().add(open ? 1 : 0).endElement().endSection();
+            h.section(SemanticHash.NAME).element().add(module).endElement().endSection();
+        }
+        hash.section(SemanticHash.REQUIRES);
+        abi.section(SemanticHash.REQUIRES);
+        for (Require r : requires) {
+            names.add(r.moduleName());
+            int flags = (r.isStatic() ? 1 : 0) | (r.isTransitive() ? 2 : 0);
+            hash.element().add(r.moduleName()).add(flags).endElement();
+            if (r.isTransitive()) {
+                // Readers of this module read the required module too
+                abi.element().add(r.moduleName()).add(flags).endElement();
+            }
+        }
+        hash.endSection().section(SemanticHash.EXPORTS);
+        abi.endSection().section(SemanticHash.EXPORTS);
+        for (Export e : exports) {
+            names.add(e.exportedPackage);
+            ExportTargets targets = e.targets().orElse(null);
+            if (targets != null) {
+                targets.forEach(names::add);
+            }
+            hash.element().add(e.exportedPackage).addSet(targets).endElement();
+            abi.element().add(e.exportedPackage).addSet(targets).endElement();
+        }
+        hash.endSection().section(SemanticHash.OPENS);
+        abi.endSection().section(SemanticHash.OPENS);
+        for (Opens o : opens) {
+            names.add(o.opened());
+            Set<? extends String> targets = o.to().orElse(null);
+            if (targets != null) {
+                names.addAll(targets);
+            } else {
+                abi.element().add(o.opened()).endElement();
+            }
+            hash.element().add(o.opened()).addSet(targets).endElement();
+        }
+        abi.endSection();
+        hash.endSection().section(SemanticHash.USES);
+        for (String use : uses) {
+            String resolved = imports.resolve(use);
+            names.add(use);
+            names.add(resolved);
+            hash.element().add(resolved).endElement();
+        }
+        hash.endSection().section(SemanticHash.PROVIDES);
+        List<String> impls = new ArrayList<>();
+        for (Provides p : provides) {
+            String resolved = imports.resolve(p.provided());
+            names.add(p.provided());
+            names.add(resolved);
+            impls.clear();
+            for (String impl : p) {
+                String resolvedImpl = imports.resolve(impl);
+                names.add(impl);
+                names.add(resolvedImpl);
+                impls.add(resolvedImpl);
+            }
+            hash.element().add(resolved).addSet(impls).endElement();
+        }
+        hash.endSection().section(SemanticHash.WILDCARDS);
+        if (imports.hasWildcards()) {
+            // Names imported by wildcard stay unresolved, so which packages
+            // they may come from is part of the meaning
+            for (String imp : imports) {
+                if (imp.endsWith(".*")) {
+                    hash.element().add(imp).endElement();
+                }
+            }
+        }
+        hash.endSection();
+        nameFilter = NameFilter.build(names);
+        semanticA = hash.stateA();
+        semanticB = hash.stateB();
+        this.abi = abi.finish();
+    }
+
+    long[] nameFilter() {
+        return nameFilter;
+    }
+
+    /**
+     * The state of the semantic hash after every section but the
+     * annotations, to be resumed with <code>SemanticHash.resume()</code>.
+     */
+    long semanticA() {
+        return semanticA;
+    }
+
+    long semanticB() {
+        return semanticB;
+    }
+
+    ModuleFingerprint abi() {
+        return abi;
+    }
+}
@@ -0,0 +1,254 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValue;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValueKind;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes a ModuleFingerprint in two 64-bit lanes. Strings are hashed by
+ * their chars, never with String.hashCode() or anything else a JVM may
+ * choose, so the result is the same everywhere. Elements of a section, and
+ * members of sets within an element, are combined by addition, so their
+ * order does not matter; sections are combined in a fixed order.
+ *
+ * @author Tim Boudreau
+ */
+final class SemanticHash {
+
+    static final int OPEN = 1;
+    static final int NAME = 2;
+    static final int REQUIRES = 3;
+    static final int EXPORTS = 4;
+    static final int OPENS = 5;
+    static final int USES = 6;
+    static final int PROVIDES = 7;
+    static final int WILDCARDS = 8;
+    static final int ANNOTATIONS = 9;
+    private static final long SEED_A = 0x2545F4914F6CDD1DL;
+    private static final long SEED_B = 0x6A09E667F3BCC909L;
+    private static final long PRIME_A = 0x100000001B3L;
+    private static final long PRIME_B = 0x9E3779B97F4A7C15L;
+    // Sections combined so far, in order
+    private long a;
+    private long b;
+    // The current section - a sum of element hashes
+    private int section;
+    private int sectionCount;
+    private long sectionA;
+    private long sectionB;
+    // The current element
+    private long elementA;
+    private long elementB;
+
+    SemanticHash() {
+        this(SEED_A, SEED_B);
+    }
+
+    private SemanticHash(long a, long b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * Continue a hash whose state was saved with <code>stateA()</code> and
+     * <code>stateB()</code>.
+     */
+    static SemanticHash resume(long a, long b) {
+        return new SemanticHash(a, b);
+    }
+
+    long stateA() {
+        return a;
+    }
+
+    long stateB() {
+        return b;
+    }
+
+    SemanticHash section(int tag) {
+        section = tag;
+        sectionCount = 0;
+        sectionA = 0;
+        sectionB = 0;
+        return this;
+    }
+
+    SemanticHash endSection() {
+        a = step(step(step(a, section, PRIME_A), sectionCount, PRIME_A), sectionA, PRIME_A);
+        b = step(step(step(b, section, PRIME_B), sectionCount, PRIME_B), sectionB, PRIME_B);
+        return this;
+    }
+
+    SemanticHash element() {
+        elementA = SEED_A;
+        elementB = SEED_B;
+        return this;
+    }
+
+    SemanticHash endElement() {
+        sectionA += fmix(elementA);
+        sectionB += fmix(elementB);
+        sectionCount++;
+        return this;
+    }
+
+    SemanticHash add(String value) {
+        elementA = string(elementA, value, PRIME_A);
+        elementB = string(elementB, value, PRIME_B);
+        return this;
+    }
+
+    SemanticHash add(long value) {
+        elementA = step(elementA, value, PRIME_A);
+        elementB = step(elementB, value, PRIME_B);
+        return this;
+    }
+
+    /**
+     * Add a set of strings, regardless of order; null, meaning unqualified,
+     * differs from an empty set.
+     */
+    SemanticHash addSet(Iterable<? extends String> values) {
+        if (values == null) {
+            return add(-1);
+        }
+        long sumA = 0;
+        long sumB = 0;
+        int count = 0;
+        for (String v : values) {
+            sumA += fmix(string(SEED_A, v, PRIME_A));
+            sumB += fmix(string(SEED_B, v, PRIME_B));
+            count++;
+        }
+        elementA = step(step(elementA, count, PRIME_A), sumA, PRIME_A);
+        elementB = step(step(elementB, count, PRIME_B), sumB, PRIME_B);
+        return this;
+    }
+
+    /**
+     * Add a section of annotations, with type names resolved against imports.
+     * Members are unordered; a single value and a one-element array, which
+     * Java treats as equivalent, hash the same.
+     */
+    SemanticHash annotations(AnnotationModel[] annotations, Imports imports) {
+        section(ANNOTATIONS);
+        for (AnnotationModel anno : annotations) {
+            element();
+            annotation(anno, imports);
+            endElement();
+        }
+        return endSection();
+    }
+
+    private void annotation(AnnotationModel anno, Imports imports) {
+        add(imports.resolve(anno.name()));
+        long sumA = 0;
+        long sumB = 0;
+        Map<String, AnnotationValue<?>> properties = anno.properties();
+        for (Map.Entry<String, AnnotationValue<?>> e : properties.entrySet()) {
+            // Hash each member as an element of its own, and sum them
+            long saveA = elementA;
+            long saveB = elementB;
+            element();
+            add(e.getKey());
+            value(e.getValue(), imports);
+            sumA += fmix(elementA);
+            sumB += fmix(elementB);
+            elementA = saveA;
+            elementB = saveB;
+        }
+        add(properties.size());
+        elementA = step(elementA, sumA, PRIME_A);
+        elementB = step(elementB, sumB, PRIME_B);
+    }
+
+    private void value(AnnotationValue<?> value, Imports imports) {
+        if (value.kind() == AnnotationValueKind.ARRAY) {
+            List<?> items = (List<?>) value.value();
+            add(items.size());
+            for (Object item : items) {
+                scalar((AnnotationValue<?>) item, imports);
+            }
+        } else {
+            add(1);
+            scalar(value, imports);
+        }
+    }
+
+    private void scalar(AnnotationValue<?> value, Imports imports) {
+        AnnotationValueKind kind = value.kind();
+        add(kind.name());
+        switch (kind) {
+            case INT:
+                add(value.longValue());
+                break;
+            case FLOAT:
+                add(Double.doubleToLongBits(value.doubleValue()));
+                break;
+            case ANNOTATION:
+                annotation((AnnotationModel) value.value(), imports);
+                break;
+            case ARRAY:
+                // Not valid Java, but representable
+                value(value, imports);
+                break;
+            case CLASS:
+            case ENUM:
+                add(value.resolve(imports).stringValue());
+                break;
+            default:
+                add(value.stringValue());
+        }
+    }
+
+    ModuleFingerprint finish() {
+        return new ModuleFingerprint(fmix(a ^ fmix(b)), fmix(b));
+    }
+
+    private static long string(long h, String value, long prime) {
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * prime;
+        }
+        // The length separates adjacent strings
+        return (h ^ value.length()) * prime;
+    }
+
+    private static long step(long h, long value, long prime) {
+        return fmix((h ^ value) * prime);
+    }
+
+    static long fmix(long h) {
+        // Murmur3 64-bit finalizer
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,128 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+/**
+ * The location of an element of a ModuleModel in the source it was parsed
+ * from. Offsets count characters as the lexer does - by code point, which is
+ * the same as by <code>char</code> unless the source contains supplementary
+ * characters. Lines are 1-based, columns 0-based.
+ * <p>
+ * Models do not keep these; they keep packed longs in a table, and create a
+ * SourcePosition when asked for one.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class SourcePosition {
+
+    private final int startOffset;
+    private final int endOffset;
+    private final int line;
+    private final int column;
+
+    public SourcePosition(int startOffset, int endOffset, int line, int column) {
+        if (startOffset < 0 || endOffset < startOffset) {
+            throw new IllegalArgumentException("Bad range " + startOffset + ":" + endOffset);
+        }
+        if (line < 1 || column < 0) {
+            throw new IllegalArgumentException("Bad line or column " + line + ":" + column);
+        }
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * The offset of the first character.
+     *
+     * @return An offset
+     */
+    public int startOffset() {
+        return startOffset;
+    }
+
+    /**
+     * The offset after the last character.
+     *
+     * @return An offset
+     */
+    public int endOffset() {
+        return endOffset;
+    }
+
+    public int length() {
+        return endOffset - startOffset;
+    }
+
+    /**
+     * The line of the first character, starting from 1.
+     *
+     * @return A line number
+     */
+    public int line() {
+        return line;
+    }
+
+    /**
+     * The column of the first character, starting from 0.
+     *
+     * @return A column
+     */
+    public int column() {
+        return column;
+    }
+
+    @Override
+    public String toString() {
+        return line + ":" + column + " (" + startOffset + "-" + endOffset + ")";
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 43 * hash + this.startOffset;
+        hash = 43 * hash + this.endOffset;
+        hash = 43 * hash + this.line;
+        hash = 43 * hash + this.column;
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final SourcePosition other = (SourcePosition) obj;
+        return this.startOffset == other.startOffset && this.endOffset == other.endOffset
+                && this.line == other.line && this.column == other.column;
+    }
+}
@@ -24,13 +24,14 @@
 package com.mastfrog.modulegrammar.model;
 
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.Objects;
+import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * A uses clause in a module-info.java.
@@ -39,48 +40,87 @@ import java.util.TreeSet;
  */
 public final class Uses implements Iterable<String>, JsonRenderable {
 
-    private final Set<String> usedClasses = new TreeSet<>();
+    static final String[] NO_STRINGS = new String[0];
+    static final Uses EMPTY = new Uses(NO_STRINGS);
+    private final String[] usedClasses;
 
     Uses(Collection<? extends String> all) {
-        usedClasses.addAll(all);
+        this(ArraySet.sorted(all, NO_STRINGS));
+    }
+
+    private Uses(String[] sorted) {
+        this.usedClasses = sorted;
     }
 
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.append(usedClasses, sb);
+    public void writeJson(JsonWriter json) {
+        json.value(allUses());
+    }
+
+    /**
+     * Write this uses set in the binary format ModelInput reads.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        out.writeStrings(usedClasses);
+    }
+
+    /**
+     * Read a uses set written by <code>writeTo()</code>.
+     *
+     * @param in The input
+     * @return A uses set
+     * @throws IOException If reading fails
+     */
+    public static Uses readFrom(ModelInput in) throws IOException {
+        return new Uses(in.readStrings());
     }
     
+    Uses with(String type) {
+        String[] nue = ArraySet.with(usedClasses, type);
+        return nue == usedClasses ? this : new Uses(nue);
+    }
+
+    Uses without(String type) {
+        String[] nue = ArraySet.without(usedClasses, type);
+        return nue == usedClasses ? this : new Uses(nue);
+    }
+
     public boolean isEmpty() {
-        return usedClasses.isEmpty();
+        return usedClasses.length == 0;
     }
 
     public boolean contains(String what) {
-        return usedClasses.contains(what);
+        return ArraySet.indexOf(usedClasses, what) >= 0;
     }
     
     Set<String> allUses() {
-        return Collections.unmodifiableSet(usedClasses);
+        return new ArraySet<>(usedClasses);
     }
 
     public Uses resolve(Imports imports) {
-        Set<String> nue = resolvedUses(imports);
-        if (nue.equals(usedClasses)) {
-            return this;
+        List<String> nue = null;
+        for (int i = 0; i < usedClasses.length; i++) {
+            String res = imports.resolve(usedClasses[i]);
+            if (nue == null && !res.equals(usedClasses[i])) {
+                nue = new ArrayList<>(Arrays.asList(usedClasses).subList(0, i));
+            }
+            if (nue != null) {
+                nue.add(res);
+            }
         }
-        return new Uses(nue);
+        return nue == null ? this : new Uses(nue);
     }
 
     public Set<String> resolvedUses(Imports imports) {
-        Set<String> result = new TreeSet<>();
-        for (String cl : usedClasses) {
-            result.add(imports.resolve(cl));
-        }
-        return result;
+        return resolve(imports).allUses();
     }
 
     @Override
     public Iterator<String> iterator() {
-        return Collections.unmodifiableSet(usedClasses).iterator();
+        return allUses().iterator();
     }
 
     @Override
@@ -98,7 +138,7 @@ public final class Uses implements Iterable<String>, JsonRenderable {
     @Override
     public int hashCode() {
         int hash = 3;
-        hash = 67 * hash + Objects.hashCode(this.usedClasses);
+        hash = 67 * hash + Arrays.hashCode(this.usedClasses);
         return hash;
     }
 
@@ -114,6 +154,6 @@ public final class Uses implements Iterable<String>, JsonRenderable {
             return false;
         }
         final Uses other = (Uses) obj;
-        return Objects.equals(this.usedClasses, other.usedClasses);
+        return Arrays.equals(this.usedClasses, other.usedClasses);
     }
 }
@@ -0,0 +1,424 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model.annotation;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds AnnotationModels to instances of a record or interface type, by
+ * property name. The work of finding the properties, choosing a conversion
+ * for each and looking up the constructor is done once per type; binding an
+ * annotation is then one conversion per property plus a constructor call.
+ * Binders are cached softly, so that the cache never keeps a bound type or
+ * its class loader from being unloaded.
+ *
+ * @author Tim Boudreau
+ */
+final class AnnotationBinder<T> {
+
+    // A binder refers to its type, and its constructor handle to the type's
+    // loader; held strongly as a ClassValue's value, that would keep them
+    // from ever being unloaded (say, by a plugin container), so binders are
+    // only held softly, and recreated if collected
+    private static final ClassValue<SoftReference<AnnotationBinder<?>>> BINDERS = new ClassValue<>() {
+        @Override
+        protected SoftReference<AnnotationBinder<?>> computeValue(Class<?> type) {
+            return new SoftReference<>(create(type));
+        }
+    };
+    private final Class<T> type;
+    private final String[] names;
+    private final Converter[] converters;
+    // For records, the canonical constructor taking an Object[]
+    private final MethodHandle constructor;
+    // For interfaces, the property index of each method
+    private final Map<Method, Integer> methodIndices;
+
+    private AnnotationBinder(Class<T> type, String[] names, Converter[] converters,
+            MethodHandle constructor, Map<Method, Integer> methodIndices) {
+        this.type = type;
+        this.names = names;
+        this.converters = converters;
+        this.constructor = constructor;
+        this.methodIndices = methodIndices;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> AnnotationBinder<T> forType(Class<T> type) {
+        for (;;) {
+            AnnotationBinder<?> result = BINDERS.get(type).get();
+            if (result != null) {
+                return (AnnotationBinder<T>) result;
+            }
+            BINDERS.remove(type);
+        }
+    }
+
+    T bind(AnnotationModel model) {
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < values.length; i++) {
+            AnnotationValue<?> val = model.getProperty(names[i]).orElse(null);
+            try {
+                values[i] = val == null
+                        ? converters[i].missing()
+                        : converters[i].convert(val);
+            } catch (RuntimeException ex) {
+                throw new IllegalArgumentException("Cannot bind " + names[i]
+                        + " = " + val + " of " + model + " to "
+                        + type.getName() + ": " + ex.getMessage(), ex);
+            }
+        }
+        if (constructor != null) {
+            try {
+                return type.cast(constructor.invoke(values));
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+                new Class<?>[]{type}, new Handler(model, values)));
+    }
+
+    private static AnnotationBinder<?> create(Class<?> type) {
+        if (type.isRecord()) {
+            return forRecord(type);
+        } else if (type.isInterface() && !type.isAnnotation()) {
+            return forInterface(type);
+        }
+        throw new IllegalArgumentException("Can only bind to records and interfaces: " + type.getName());
+    }
+
+    private static <T> AnnotationBinder<T> forRecord(Class<T> type) {
+        RecordComponent[] components = type.getRecordComponents();
+        String[] names = new String[components.length];
+        Converter[] converters = new Converter[components.length];
+        Class<?>[] paramTypes = new Class<?>[components.length];
+        for (int i = 0; i < components.length; i++) {
+            names[i] = components[i].getName();
+            converters[i] = converter(components[i].getGenericType());
+            paramTypes[i] = components[i].getType();
+        }
+        MethodHandle ctor;
+        try {
+            ctor = MethodHandles.publicLookup().findConstructor(type,
+                    MethodType.methodType(void.class, paramTypes));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new IllegalArgumentException("No accessible canonical constructor on "
+                    + type.getName() + " - is it public, in a package that is "
+                    + "exported unconditionally?", ex);
+        }
+        MethodHandle spread = ctor.asSpreader(Object[].class, components.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        return new AnnotationBinder<>(type, names, converters, spread, null);
+    }
+
+    private static <T> AnnotationBinder<T> forInterface(Class<T> type) {
+        List<String> names = new ArrayList<>();
+        List<Converter> converters = new ArrayList<>();
+        Map<Method, Integer> indices = new HashMap<>();
+        for (Method m : type.getMethods()) {
+            if (Modifier.isStatic(m.getModifiers()) || m.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            if (m.getParameterCount() != 0 || m.getReturnType() == void.class) {
+                if (m.isDefault()) {
+                    continue;
+                }
+                throw new IllegalArgumentException("Not a property method: " + m);
+            }
+            indices.put(m, names.size());
+            names.add(m.getName());
+            converters.add(m.isDefault() ? new DefaultMethod(converter(m.getGenericReturnType()))
+                    : converter(m.getGenericReturnType()));
+        }
+        return new AnnotationBinder<>(type, names.toArray(new String[names.size()]),
+                converters.toArray(new Converter[converters.size()]), null, indices);
+    }
+
+    /**
+     * Marker for interface properties with a default method, which is called
+     * if the property is missing.
+     */
+    private static final Object USE_DEFAULT = new Object();
+
+    private final class Handler implements InvocationHandler {
+
+        private final AnnotationModel model;
+        private final Object[] values;
+
+        Handler(AnnotationModel model, Object[] values) {
+            this.model = model;
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Integer ix = methodIndices.get(method);
+            if (ix != null) {
+                Object result = values[ix];
+                return result == USE_DEFAULT
+                        ? InvocationHandler.invokeDefault(proxy, method, args)
+                        : result;
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+                            && Proxy.getInvocationHandler(args[0]) instanceof AnnotationBinder<?>.Handler h
+                            && h.binder() == AnnotationBinder.this
+                            && Arrays.deepEquals(values, h.values);
+                case "hashCode":
+                    return Arrays.deepHashCode(values);
+                case "toString":
+                    return type.getSimpleName() + "[" + model + "]";
+                default:
+                    if (method.isDefault()) {
+                        return InvocationHandler.invokeDefault(proxy, method, args);
+                    }
+                    throw new UnsupportedOperationException(method.toString());
+            }
+        }
+
+        private AnnotationBinder<T> binder() {
+            return AnnotationBinder.this;
+        }
+    }
+
+    interface Converter {
+
+        Object convert(AnnotationValue<?> value);
+
+        default Object missing() {
+            return null;
+        }
+    }
+
+    private static final class DefaultMethod implements Converter {
+
+        private final Converter delegate;
+
+        DefaultMethod(Converter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object convert(AnnotationValue<?> value) {
+            return delegate.convert(value);
+        }
+
+        @Override
+        public Object missing() {
+            return USE_DEFAULT;
+        }
+    }
+
+    private static Converter primitive(Converter conv, Object missing) {
+        return new Converter() {
+            @Override
+            public Object convert(AnnotationValue<?> value) {
+                return conv.convert(value);
+            }
+
+            @Override
+            public Object missing() {
+                return missing;
+            }
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Converter converter(Type genericType) {
+        Class<?> raw = rawType(genericType);
+        if (raw == String.class) {
+            return AnnotationValue::stringValue;
+        } else if (raw == int.class) {
+            return primitive(AnnotationValue::intValue, 0);
+        } else if (raw == Integer.class) {
+            return AnnotationValue::intValue;
+        } else if (raw == long.class) {
+            return primitive(AnnotationValue::longValue, 0L);
+        } else if (raw == Long.class) {
+            return AnnotationValue::longValue;
+        } else if (raw == double.class) {
+            return primitive(AnnotationValue::doubleValue, 0D);
+        } else if (raw == Double.class) {
+            return AnnotationValue::doubleValue;
+        } else if (raw == float.class) {
+            return primitive(AnnotationValue::floatValue, 0F);
+        } else if (raw == Float.class) {
+            return AnnotationValue::floatValue;
+        } else if (raw == short.class) {
+            return primitive(v -> (short) v.intValue(), (short) 0);
+        } else if (raw == Short.class) {
+            return v -> (short) v.intValue();
+        } else if (raw == byte.class) {
+            return primitive(v -> (byte) v.intValue(), (byte) 0);
+        } else if (raw == Byte.class) {
+            return v -> (byte) v.intValue();
+        } else if (raw == char.class) {
+            return primitive(AnnotationValue::charValue, (char) 0);
+        } else if (raw == Character.class) {
+            return AnnotationValue::charValue;
+        } else if (raw == boolean.class) {
+            return primitive(AnnotationValue::booleanValue, false);
+        } else if (raw == Boolean.class) {
+            return AnnotationValue::booleanValue;
+        } else if (raw == AnnotationValue.class) {
+            return v -> v;
+        } else if (raw == AnnotationModel.class) {
+            return v -> annotation(v);
+        } else if (raw == Object.class || raw == Number.class) {
+            return AnnotationValue::value;
+        } else if (raw.isEnum()) {
+            return enumConverter((Class<? extends Enum>) raw);
+        } else if (raw == int[].class) {
+            return arrayOf(int.class, converter(int.class), AnnotationValue::intArray);
+        } else if (raw == long[].class) {
+            return arrayOf(long.class, converter(long.class), AnnotationValue::longArray);
+        } else if (raw == double[].class) {
+            return arrayOf(double.class, converter(double.class), AnnotationValue::doubleArray);
+        } else if (raw.isArray()) {
+            Type component = genericType instanceof GenericArrayType gat
+                    ? gat.getGenericComponentType() : raw.getComponentType();
+            return arrayOf(raw.getComponentType(), converter(component), null);
+        } else if (raw == List.class || raw == Collection.class || raw == Iterable.class) {
+            Type element = Object.class;
+            if (genericType instanceof ParameterizedType pt) {
+                element = pt.getActualTypeArguments()[0];
+            }
+            return listOf(converter(element));
+        } else if (raw.isRecord() || (raw.isInterface() && !raw.isAnnotation())) {
+            // Look the binder up on use, so types that contain themselves work
+            return v -> forType(raw).bind(annotation(v));
+        }
+        throw new IllegalArgumentException("Cannot bind annotation values to " + genericType);
+    }
+
+    private static AnnotationModel annotation(AnnotationValue<?> v) {
+        if (v.kind() != AnnotationValueKind.ANNOTATION) {
+            throw new IllegalArgumentException("Not an annotation: " + v);
+        }
+        return (AnnotationModel) v.value();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<AnnotationValue<?>> elements(AnnotationValue<?> v) {
+        if (v.kind() == AnnotationValueKind.ARRAY) {
+            return (List<AnnotationValue<?>>) v.value();
+        }
+        // A single value where an array is expected is a one-element array
+        return Collections.singletonList(v);
+    }
+
+    private static Converter arrayOf(Class<?> componentType, Converter element, Converter fast) {
+        return new Converter() {
+            @Override
+            public Object convert(AnnotationValue<?> value) {
+                if (fast != null && value.isPrimitiveArray()) {
+                    return fast.convert(value);
+                }
+                List<AnnotationValue<?>> items = elements(value);
+                Object result = Array.newInstance(componentType, items.size());
+                for (int i = 0; i < items.size(); i++) {
+                    Array.set(result, i, element.convert(items.get(i)));
+                }
+                return result;
+            }
+
+            @Override
+            public Object missing() {
+                return Array.newInstance(componentType, 0);
+            }
+        };
+    }
+
+    private static Converter listOf(Converter element) {
+        return new Converter() {
+            @Override
+            public Object convert(AnnotationValue<?> value) {
+                List<AnnotationValue<?>> items = elements(value);
+                Object[] result = new Object[items.size()];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = element.convert(items.get(i));
+                }
+                return Collections.unmodifiableList(Arrays.asList(result));
+            }
+
+            @Override
+            public Object missing() {
+                return Collections.emptyList();
+            }
+        };
+    }
+
+    private static <E extends Enum<E>> Converter enumConverter(Class<E> type) {
+        Map<String, E> constants = new HashMap<>();
+        for (E e : type.getEnumConstants()) {
+            constants.put(e.name(), e);
+        }
+        return v -> {
+            // Enum values may be written SomeEnum.CONSTANT, or fully qualified
+            String s = v.stringValue();
+            E result = constants.get(s.substring(s.lastIndexOf('.') + 1));
+            if (result == null) {
+                throw new IllegalArgumentException("No constant " + s + " on " + type.getName());
+            }
+            return result;
+        };
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class<?> c) {
+            return c;
+        } else if (type instanceof ParameterizedType pt) {
+            return rawType(pt.getRawType());
+        } else if (type instanceof GenericArrayType gat) {
+            return Array.newInstance(rawType(gat.getGenericComponentType()), 0).getClass();
+        } else if (type instanceof WildcardType wt) {
+            return rawType(wt.getUpperBounds()[0]);
+        }
+        return Object.class;
+    }
+}
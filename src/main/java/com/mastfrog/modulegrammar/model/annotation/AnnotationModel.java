@@ -23,12 +23,16 @@
  */
 package com.mastfrog.modulegrammar.model.annotation;
 
+import com.mastfrog.modulegrammar.json.JsonReader;
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
 import com.mastfrog.modulegrammar.model.Imports;
+import com.mastfrog.modulegrammar.model.ModelInput;
+import com.mastfrog.modulegrammar.model.ModelOutput;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -42,6 +46,7 @@ public final class AnnotationModel implements JsonRenderable {
 
     private final Map<String, AnnotationValue<?>> pairs = new TreeMap<>();
     private final String annotationName;
+    private int hashCode; // cached; 0 until computed
 
     public AnnotationModel(String annotationName, Map<String, AnnotationValue<?>> pairs) {
         this.annotationName = annotationName;
@@ -49,14 +54,93 @@ public final class AnnotationModel implements JsonRenderable {
     }
 
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.hash(() -> {
-            JsonUtils.append("annotation", annotationName, sb);
-            if (!pairs.isEmpty()) {
-                JsonUtils.nextItem(sb);
-                JsonUtils.append("properties", pairs, sb);
+    public void writeJson(JsonWriter json) {
+        json.startObject().field("annotation", annotationName);
+        if (!pairs.isEmpty()) {
+            json.field("properties", pairs);
+        }
+        json.endObject();
+    }
+
+    /**
+     * Read an annotation from the JSON <code>writeJson</code> produces; see
+     * <code>AnnotationValue.fromJson()</code> for how values are typed.
+     *
+     * @param json Some JSON
+     * @return An annotation
+     */
+    public static AnnotationModel fromJson(CharSequence json) {
+        JsonReader reader = JsonReader.of(json);
+        AnnotationModel result = fromJson(reader);
+        reader.end();
+        return result;
+    }
+
+    /**
+     * Read an annotation from a reader positioned at the object
+     * <code>writeJson</code> produced.
+     *
+     * @param json A reader
+     * @return An annotation
+     */
+    public static AnnotationModel fromJson(JsonReader json) {
+        json.beginObject();
+        String name = null;
+        Map<String, AnnotationValue<?>> values = new TreeMap<>();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "annotation":
+                    name = json.nextString();
+                    break;
+                case "properties":
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        String key = json.nextName();
+                        values.put(key, AnnotationValue.fromJson(json));
+                    }
+                    json.endObject();
+                    break;
+                default:
+                    json.skipValue();
             }
-        }, sb);
+        }
+        if (name == null) {
+            throw json.error("No annotation name");
+        }
+        json.endObject();
+        return new AnnotationModel(name, values);
+    }
+
+    /**
+     * Write this annotation in the binary format ModelInput reads.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        out.writeString(annotationName);
+        out.writeVarint(pairs.size());
+        for (Map.Entry<String, AnnotationValue<?>> e : pairs.entrySet()) {
+            out.writeString(e.getKey());
+            e.getValue().writeTo(out);
+        }
+    }
+
+    /**
+     * Read an annotation written by <code>writeTo()</code>.
+     *
+     * @param in The input
+     * @return An annotation
+     * @throws IOException If reading fails or the input is malformed
+     */
+    public static AnnotationModel readFrom(ModelInput in) throws IOException {
+        String name = in.readString();
+        Map<String, AnnotationValue<?>> values = new TreeMap<>();
+        for (int i = in.readCount(); i > 0; i--) {
+            String key = in.readString();
+            values.put(key, AnnotationValue.readFrom(in));
+        }
+        return new AnnotationModel(name, values);
     }
 
     public AnnotationModel resolve(Imports imports) {
@@ -82,6 +166,42 @@ public final class AnnotationModel implements JsonRenderable {
         return visitValues(v, 0);
     }
 
+    /**
+     * Get all of the name/value pairs of this annotation, sorted by name.
+     *
+     * @return An unmodifiable map
+     */
+    public Map<String, AnnotationValue<?>> properties() {
+        return Collections.unmodifiableMap(pairs);
+    }
+
+    /**
+     * Create an instance of a record or interface type from this annotation's
+     * properties, matching record components or interface methods to
+     * properties by name. Numbers, strings, enum constants, arrays, lists and
+     * nested annotations (bound to nested record or interface types) are
+     * converted as needed; properties that are absent are null, zero, false
+     * or empty - or for an interface method with a default implementation,
+     * the result of calling it. The binding for a type is computed once and
+     * cached, softly, so the cache never prevents the type from being
+     * unloaded.
+     * <p>
+     * Record types must be public and in a package that is exported
+     * unconditionally - a qualified export to this module is not enough, as
+     * the canonical constructor is found with the public lookup and called
+     * via a MethodHandle. Interfaces are implemented with a proxy.
+     * </p>
+     *
+     * @param <T> The type
+     * @param type A record or interface type
+     * @return An instance of the type
+     * @throws IllegalArgumentException if the type cannot be bound to, or a
+     * property value cannot be converted to the needed type
+     */
+    public <T> T bind(Class<T> type) {
+        return AnnotationBinder.forType(type).bind(this);
+    }
+
     public Optional<AnnotationValue<?>> getProperty(String propertyName) {
         return Optional.ofNullable(pairs.get(propertyName));
     }
@@ -90,44 +210,20 @@ public final class AnnotationModel implements JsonRenderable {
         return getProperty(name).map(AnnotationValue::value);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Walk this annotation and any nested in it, with the ability to skip
+     * subtrees. Traversal is iterative, so deeply nested annotations cannot
+     * overflow the stack.
+     *
+     * @param v A visitor
+     * @return false if the visitor stopped traversal
+     */
+    public boolean walk(AnnotationTreeVisitor v) {
+        return AnnotationTreeWalker.walk(this, 0, v);
+    }
+
     boolean visitValues(AnnotationModelVisitor v, int depth) {
-        if (!v.onEnterAnnotationModel(this, depth)) {
-            return false;
-        }
-        boolean result = true;
-        for (Map.Entry<String, AnnotationValue<?>> e : pairs.entrySet()) {
-            Object o = e.getValue().value();
-            if (o instanceof List<?> l) {
-                List<AnnotationValue<?>> avs = (List<AnnotationValue<?>>) l;
-                for (AnnotationValue<?> av : avs) {
-                    result = v.visitValue(this, depth, e.getKey(), av, true);
-                    if (!result) {
-                        break;
-                    }
-                    Object o1 = av.value();
-                    if (o1 instanceof AnnotationModel am) {
-                        result = am.visitValues(v, depth + 1);
-                        if (!result) {
-                            break;
-                        }
-                    }
-                }
-            } else {
-                result = v.visitValue(this, depth, e.getKey(), e.getValue(), false);
-            }
-            if (!result) {
-                break;
-            }
-            if (o instanceof AnnotationModel child) {
-                result = child.visitValues(v, depth + 1);
-                if (!result) {
-                    break;
-                }
-            }
-        }
-        result &= v.onExitAnnotationModel(this, depth);
-        return result;
+        return AnnotationTreeWalker.walk(this, depth, AnnotationTreeVisitor.of(v));
     }
 
     @Override
@@ -149,9 +245,13 @@ public final class AnnotationModel implements JsonRenderable {
 
     @Override
     public int hashCode() {
-        int hash = 7;
-        hash = 41 * hash + Objects.hashCode(this.pairs);
-        hash = 41 * hash + Objects.hashCode(this.annotationName);
+        int hash = this.hashCode;
+        if (hash == 0) {
+            hash = 7;
+            hash = 41 * hash + Objects.hashCode(this.pairs);
+            hash = 41 * hash + Objects.hashCode(this.annotationName);
+            this.hashCode = hash;
+        }
         return hash;
     }
 
@@ -167,6 +267,9 @@ public final class AnnotationModel implements JsonRenderable {
             return false;
         }
         final AnnotationModel other = (AnnotationModel) obj;
+        if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) {
+            return false;
+        }
         if (!Objects.equals(this.annotationName, other.annotationName)) {
             return false;
         }
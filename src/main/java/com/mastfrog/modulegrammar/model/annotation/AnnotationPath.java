@@ -0,0 +1,283 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model.annotation;
+
+import com.mastfrog.modulegrammar.model.Imports;
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compiled path to values nested inside an annotation, such as
+ * <code>Maven.deps[*].scope</code>, which navigates directly to the requested
+ * properties without visiting anything else.
+ * <p>
+ * A path is an annotation name (simple or qualified), followed by dot-separated
+ * property names. A property whose value is an array can be followed by
+ * <code>[*]</code> to select every element, or <code>[n]</code> to select one;
+ * as in Java source, a property holding a single value where an array is
+ * expected is treated as a one-element array. When a step selects a nested
+ * annotation, the next property name is looked up in it.
+ * </p><p>
+ * Paths are immutable and may be used concurrently; <code>compile()</code>
+ * caches them by their text.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class AnnotationPath {
+
+    private static final int NO_INDEX = -1;
+    private static final int ALL = -2;
+    private static final int MAX_CACHED = 512;
+    private static final Map<String, AnnotationPath> CACHE = new ConcurrentHashMap<>();
+    private final String text;
+    // Maps each dotted prefix of the path which could be the annotation name
+    // to the index of the first property step following it
+    private final Map<String, Integer> annotationNames;
+    private final String[] properties;
+    private final int[] indices;
+
+    private AnnotationPath(String text, Map<String, Integer> annotationNames,
+            String[] properties, int[] indices) {
+        this.text = text;
+        this.annotationNames = annotationNames;
+        this.properties = properties;
+        this.indices = indices;
+    }
+
+    /**
+     * Compile a path, or fetch a cached copy of it.
+     *
+     * @param path The path
+     * @return A compiled path
+     * @throws IllegalArgumentException if the path is malformed
+     */
+    public static AnnotationPath compile(String path) {
+        AnnotationPath result = CACHE.get(path);
+        if (result == null) {
+            result = parse(path);
+            if (CACHE.size() >= MAX_CACHED) {
+                // Paths are cheap to compile; this only guards against
+                // callers generating unbounded numbers of distinct ones
+                CACHE.clear();
+            }
+            CACHE.put(path, result);
+        }
+        return result;
+    }
+
+    private static AnnotationPath parse(String path) {
+        List<String> names = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        int len = path.length();
+        int pos = 0;
+        while (true) {
+            int start = pos;
+            while (pos < len && Character.isJavaIdentifierPart(path.charAt(pos))) {
+                pos++;
+            }
+            if (pos == start || !Character.isJavaIdentifierStart(path.charAt(start))) {
+                throw malformed(path, start, "identifier expected");
+            }
+            names.add(path.substring(start, pos));
+            int index = NO_INDEX;
+            if (pos < len && path.charAt(pos) == '[') {
+                int close = path.indexOf(']', pos);
+                if (close < 0) {
+                    throw malformed(path, pos, "unclosed [");
+                }
+                String ix = path.substring(pos + 1, close).trim();
+                if ("*".equals(ix)) {
+                    index = ALL;
+                } else {
+                    try {
+                        index = Integer.parseInt(ix);
+                    } catch (NumberFormatException ex) {
+                        index = -1;
+                    }
+                    if (index < 0) {
+                        throw malformed(path, pos + 1, "* or array index expected");
+                    }
+                }
+                pos = close + 1;
+            }
+            indices.add(index);
+            if (pos == len) {
+                break;
+            }
+            if (path.charAt(pos) != '.') {
+                throw malformed(path, pos, ". expected");
+            }
+            pos++;
+        }
+        if (names.size() < 2) {
+            throw malformed(path, len, "annotation name and property expected");
+        }
+        // Any prefix of unindexed names, leaving at least one property, may
+        // be the annotation name; the annotations present decide which
+        Map<String, Integer> annotationNames = new HashMap<>();
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < names.size() - 1 && indices.get(i) == NO_INDEX; i++) {
+            if (i > 0) {
+                prefix.append('.');
+            }
+            prefix.append(names.get(i));
+            annotationNames.put(prefix.toString(), i + 1);
+        }
+        if (annotationNames.isEmpty()) {
+            throw malformed(path, 0, "annotation name may not be indexed");
+        }
+        int[] ixs = new int[indices.size()];
+        for (int i = 0; i < ixs.length; i++) {
+            ixs[i] = indices.get(i);
+        }
+        return new AnnotationPath(path, annotationNames,
+                names.toArray(new String[names.size()]), ixs);
+    }
+
+    private static IllegalArgumentException malformed(String path, int pos, String msg) {
+        return new IllegalArgumentException("Bad annotation path '" + path
+                + "' at " + pos + ": " + msg);
+    }
+
+    /**
+     * Select all values the path leads to in any annotation on a module.
+     *
+     * @param module A module
+     * @return A list of values, empty if there are none
+     */
+    public List<AnnotationValue<?>> select(ModuleModel module) {
+        List<AnnotationValue<?>> result = null;
+        Imports imports = module.imports();
+        for (AnnotationModel anno : module.annotations()) {
+            int first = firstPropertyStep(anno, imports);
+            if (first > 0) {
+                if (result == null) {
+                    result = new ArrayList<>(4);
+                }
+                walk(anno, first, result);
+            }
+        }
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * Select all values the path leads to in an annotation, if the path's
+     * annotation name matches it.
+     *
+     * @param annotation An annotation
+     * @return A list of values, empty if there are none
+     */
+    public List<AnnotationValue<?>> select(AnnotationModel annotation) {
+        int first = firstPropertyStep(annotation, Imports.EMPTY);
+        if (first < 0) {
+            return Collections.emptyList();
+        }
+        List<AnnotationValue<?>> result = new ArrayList<>(4);
+        walk(annotation, first, result);
+        return result;
+    }
+
+    /**
+     * Get the first value the path leads to in any annotation on a module.
+     *
+     * @param module A module
+     * @return A value, if any
+     */
+    public Optional<AnnotationValue<?>> first(ModuleModel module) {
+        List<AnnotationValue<?>> all = select(module);
+        return all.isEmpty() ? Optional.empty() : Optional.of(all.get(0));
+    }
+
+    private int firstPropertyStep(AnnotationModel anno, Imports imports) {
+        String name = anno.name();
+        Integer result = annotationNames.get(name);
+        if (result == null) {
+            result = annotationNames.get(name.substring(name.lastIndexOf('.') + 1));
+        }
+        if (result == null && !imports.isEmpty()) {
+            result = annotationNames.get(imports.resolve(name));
+        }
+        return result == null ? -1 : result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void walk(AnnotationModel anno, int step, List<AnnotationValue<?>> into) {
+        AnnotationValue<?> value = anno.getProperty(properties[step]).orElse(null);
+        if (value == null) {
+            return;
+        }
+        int index = indices[step];
+        boolean last = step == properties.length - 1;
+        if (index == NO_INDEX) {
+            accept(value, step, last, into);
+        } else if (value.kind() != AnnotationValueKind.ARRAY) {
+            // A single value where an array is allowed is a one-element array
+            if (index == ALL || index == 0) {
+                accept(value, step, last, into);
+            }
+        } else {
+            List<AnnotationValue<?>> items = (List<AnnotationValue<?>>) value.value();
+            if (index == ALL) {
+                for (AnnotationValue<?> item : items) {
+                    accept(item, step, last, into);
+                }
+            } else if (index < items.size()) {
+                accept(items.get(index), step, last, into);
+            }
+        }
+    }
+
+    private void accept(AnnotationValue<?> value, int step, boolean last, List<AnnotationValue<?>> into) {
+        if (last) {
+            into.add(value);
+        } else if (value.kind() == AnnotationValueKind.ANNOTATION) {
+            walk((AnnotationModel) value.value(), step + 1, into);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    @Override
+    public int hashCode() {
+        return text.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        return obj instanceof AnnotationPath other && other.text.equals(text);
+    }
+}
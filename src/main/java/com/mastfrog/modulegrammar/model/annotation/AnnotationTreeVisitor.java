@@ -0,0 +1,106 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model.annotation;
+
+/**
+ * Walks the tree of annotations like AnnotationModelVisitor, but can skip
+ * individual subtrees as well as abort the whole traversal. Traversal is
+ * iterative, so annotations may be nested arbitrarily deeply.
+ *
+ * @see AnnotationModel#walk(AnnotationTreeVisitor)
+ * @author Tim Boudreau
+ */
+@FunctionalInterface
+public interface AnnotationTreeVisitor {
+
+    /**
+     * Optional method, called when entering an annotation; returning
+     * SKIP_CHILDREN skips all of its values, and STOP aborts traversal
+     * without a corresponding call to <code>onExitAnnotationModel()</code>.
+     *
+     * @param model The annotation model being visited
+     * @param depth The depth, zero for top-level
+     * @return How to proceed
+     */
+    default AnnotationVisitResult onEnterAnnotationModel(AnnotationModel model, int depth) {
+        return AnnotationVisitResult.CONTINUE;
+    }
+
+    /**
+     * Visit one annotation parameter name/value pair, or for arrays, one
+     * element of the array.
+     *
+     * @param owner The annotation owning this name/value pair
+     * @param depth The depth of that owner
+     * @param name The name of the property
+     * @param value The value of the property
+     * @param isArrayElement True if the value is one element of an array
+     * @return How to proceed - SKIP_CHILDREN means do not enter the value if
+     * it is an annotation
+     */
+    AnnotationVisitResult visitValue(AnnotationModel owner, int depth, String name,
+            AnnotationValue<?> value, boolean isArrayElement);
+
+    /**
+     * Optional method, called when all properties of an annotation have been
+     * visited or skipped.
+     *
+     * @param model The annotation being exited
+     * @param depth The depth - 0 = top-level
+     * @return STOP to abort traversal, anything else to continue
+     */
+    default AnnotationVisitResult onExitAnnotationModel(AnnotationModel model, int depth) {
+        return AnnotationVisitResult.CONTINUE;
+    }
+
+    /**
+     * Adapt an AnnotationModelVisitor, mapping false to STOP.
+     *
+     * @param visitor A visitor
+     * @return A tree visitor
+     */
+    static AnnotationTreeVisitor of(AnnotationModelVisitor visitor) {
+        return new AnnotationTreeVisitor() {
+            @Override
+            public AnnotationVisitResult onEnterAnnotationModel(AnnotationModel model, int depth) {
+                return result(visitor.onEnterAnnotationModel(model, depth));
+            }
+
+            @Override
+            public AnnotationVisitResult visitValue(AnnotationModel owner, int depth,
+                    String name, AnnotationValue<?> value, boolean isArrayElement) {
+                return result(visitor.visitValue(owner, depth, name, value, isArrayElement));
+            }
+
+            @Override
+            public AnnotationVisitResult onExitAnnotationModel(AnnotationModel model, int depth) {
+                return result(visitor.onExitAnnotationModel(model, depth));
+            }
+
+            private AnnotationVisitResult result(boolean val) {
+                return val ? AnnotationVisitResult.CONTINUE : AnnotationVisitResult.STOP;
+            }
+        };
+    }
+}
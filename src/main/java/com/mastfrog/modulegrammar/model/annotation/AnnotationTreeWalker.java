@@ -0,0 +1,142 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model.annotation;
+
+import static com.mastfrog.modulegrammar.model.annotation.AnnotationVisitResult.CONTINUE;
+import static com.mastfrog.modulegrammar.model.annotation.AnnotationVisitResult.STOP;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Iterative traversal of an annotation tree using an explicit stack of
+ * frames, one per annotation entered, so depth is limited by heap rather than
+ * thread stack size.
+ *
+ * @author Tim Boudreau
+ */
+final class AnnotationTreeWalker {
+
+    private static final int DESCEND = 0;
+    private static final int DONE = 1;
+    private static final int ABORT = 2;
+
+    private AnnotationTreeWalker() {
+        throw new AssertionError();
+    }
+
+    static boolean walk(AnnotationModel root, int rootDepth, AnnotationTreeVisitor v) {
+        AnnotationVisitResult res = v.onEnterAnnotationModel(root, rootDepth);
+        if (res == STOP) {
+            return false;
+        }
+        ArrayDeque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(root, rootDepth, res != CONTINUE));
+        boolean aborted = false;
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            switch (aborted ? DONE : frame.step(v)) {
+                case DESCEND:
+                    AnnotationModel child = frame.child;
+                    frame.child = null;
+                    res = v.onEnterAnnotationModel(child, frame.depth + 1);
+                    if (res == STOP) {
+                        aborted = true;
+                    } else {
+                        stack.push(new Frame(child, frame.depth + 1, res != CONTINUE));
+                    }
+                    break;
+                case ABORT:
+                    aborted = true;
+                    break;
+                default:
+                    stack.pop();
+                    if (v.onExitAnnotationModel(frame.model, frame.depth) == STOP) {
+                        aborted = true;
+                    }
+                    break;
+            }
+        }
+        return !aborted;
+    }
+
+    private static final class Frame {
+
+        final AnnotationModel model;
+        final int depth;
+        private final Iterator<Map.Entry<String, AnnotationValue<?>>> entries;
+        private String key;
+        private List<AnnotationValue<?>> array;
+        private int arrayIndex;
+        AnnotationModel child;
+
+        Frame(AnnotationModel model, int depth, boolean skip) {
+            this.model = model;
+            this.depth = depth;
+            this.entries = skip ? Collections.emptyIterator()
+                    : model.properties().entrySet().iterator();
+        }
+
+        /**
+         * Visit values until one holds an annotation to enter (which is
+         * stored in <code>child</code>), the annotation is finished, or the
+         * visitor says to stop.
+         */
+        @SuppressWarnings("unchecked")
+        int step(AnnotationTreeVisitor v) {
+            for (;;) {
+                AnnotationValue<?> value;
+                boolean isArrayElement = array != null;
+                if (isArrayElement) {
+                    if (arrayIndex == array.size()) {
+                        array = null;
+                        continue;
+                    }
+                    value = array.get(arrayIndex++);
+                } else if (entries.hasNext()) {
+                    Map.Entry<String, AnnotationValue<?>> e = entries.next();
+                    key = e.getKey();
+                    value = e.getValue();
+                    if (value.kind() == AnnotationValueKind.ARRAY) {
+                        // Arrays themselves are not visited, only elements
+                        array = (List<AnnotationValue<?>>) value.value();
+                        arrayIndex = 0;
+                        continue;
+                    }
+                } else {
+                    return DONE;
+                }
+                AnnotationVisitResult res = v.visitValue(model, depth, key, value, isArrayElement);
+                if (res == STOP) {
+                    return ABORT;
+                } else if (res == CONTINUE && value.kind() == AnnotationValueKind.ANNOTATION) {
+                    child = (AnnotationModel) value.value();
+                    return DESCEND;
+                }
+            }
+        }
+    }
+}
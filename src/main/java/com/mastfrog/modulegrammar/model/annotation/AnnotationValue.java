@@ -23,26 +23,78 @@
  */
 package com.mastfrog.modulegrammar.model.annotation;
 
+import com.mastfrog.modulegrammar.json.JsonReader;
 import com.mastfrog.modulegrammar.json.JsonRenderable;
-import com.mastfrog.modulegrammar.json.JsonUtils;
+import com.mastfrog.modulegrammar.json.JsonWriter;
 import com.mastfrog.modulegrammar.model.Imports;
+import com.mastfrog.modulegrammar.model.ModelInput;
+import com.mastfrog.modulegrammar.model.ModelOutput;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.RandomAccess;
 
 /**
  * The value of a property of an annotation - note that this class cannot know
  * what the type in the annotation declaration is, only what it looks like when
  * it is encountered (so <code>foo = 5</code> is interpreted as an int even
  * though the annotation might declare <code>float foo()</code>).
+ * <p>
+ * Numbers, characters and booleans are stored unboxed, and arrays whose
+ * elements are all ints, all longs or all doubles are stored as a primitive
+ * array rather than a list of values; <code>value()</code> boxes on demand
+ * (returning a read-only list view in the case of arrays), while the
+ * <code>intValue()</code>, <code>longArray()</code>, etc. accessors do not.
+ * The representation is invisible to equality, visitors and JSON output.
+ * </p><p>
+ * Since JSON numbers carry no width, INT values compare equal whenever their
+ * values are, whether stored as ints or longs, and FLOAT values likewise
+ * (at float precision if either is a float), so a value read back from its
+ * JSON equals the original; only the binary format preserves the width.
+ * </p>
  *
  * @author Tim Boudreau
  */
 public final class AnnotationValue<T> implements JsonRenderable {
 
-    private final AnnotationValueKind kind;
-    private final T value;
+    // Storage tags; the kind is derived from the tag, so it needs no field.
+    // They are also the tags of the binary format, so must never change
+    private static final byte T_CLASS = 0;
+    private static final byte T_ENUM = 1;
+    private static final byte T_STRING = 2;
+    private static final byte T_ARRAY = 3;
+    private static final byte T_ANNOTATION = 4;
+    private static final byte T_INT = 5;
+    private static final byte T_LONG = 6;
+    private static final byte T_FLOAT = 7;
+    private static final byte T_DOUBLE = 8;
+    private static final byte T_CHAR = 9;
+    private static final byte T_BOOLEAN = 10;
+    private static final byte T_INT_ARRAY = 11;
+    private static final byte T_LONG_ARRAY = 12;
+    private static final byte T_DOUBLE_ARRAY = 13;
+    private static final AnnotationValueKind[] KIND_FOR_TAG = {
+        AnnotationValueKind.CLASS, AnnotationValueKind.ENUM,
+        AnnotationValueKind.STRING, AnnotationValueKind.ARRAY,
+        AnnotationValueKind.ANNOTATION, AnnotationValueKind.INT,
+        AnnotationValueKind.INT, AnnotationValueKind.FLOAT,
+        AnnotationValueKind.FLOAT, AnnotationValueKind.CHAR,
+        AnnotationValueKind.BOOLEAN, AnnotationValueKind.ARRAY,
+        AnnotationValueKind.ARRAY, AnnotationValueKind.ARRAY
+    };
+
+    private final byte tag;
+    // Scalar value for primitive tags (raw bits for floating point)
+    private final long bits;
+    // Object value for reference tags, or the primitive array
+    private final Object ref;
+    private int hashCode; // cached; 0 until computed
 
     /**
      * Create a new annotation values.
@@ -62,17 +114,407 @@ public final class AnnotationValue<T> implements JsonRenderable {
             throw new IllegalArgumentException(kind + " is typed on " + kind.javaValueType()
                     + " but passed an instance of " + value.getClass().getName() + ": " + value);
         }
-        this.kind = kind;
-        this.value = value;
+        switch (kind) {
+            case INT:
+                if (value instanceof Integer i) {
+                    tag = T_INT;
+                    bits = i;
+                } else {
+                    // Anything that is not an Integer was historically
+                    // treated as (and rendered as) a long
+                    tag = T_LONG;
+                    bits = ((Number) value).longValue();
+                }
+                ref = null;
+                break;
+            case FLOAT:
+                if (value instanceof Float f) {
+                    tag = T_FLOAT;
+                    bits = Float.floatToIntBits(f);
+                } else {
+                    tag = T_DOUBLE;
+                    bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                }
+                ref = null;
+                break;
+            case CHAR:
+                tag = T_CHAR;
+                bits = (Character) value;
+                ref = null;
+                break;
+            case BOOLEAN:
+                tag = T_BOOLEAN;
+                bits = ((Boolean) value) ? 1 : 0;
+                ref = null;
+                break;
+            case ARRAY:
+                List<?> items = (List<?>) value;
+                byte arrayTag = primitiveArrayTag(items);
+                tag = arrayTag;
+                bits = 0;
+                ref = arrayTag == T_ARRAY ? items : toPrimitiveArray(arrayTag, items);
+                break;
+            case CLASS:
+                tag = T_CLASS;
+                bits = 0;
+                ref = value;
+                break;
+            case ENUM:
+                tag = T_ENUM;
+                bits = 0;
+                ref = value;
+                break;
+            case STRING:
+                tag = T_STRING;
+                bits = 0;
+                ref = value;
+                break;
+            case ANNOTATION:
+                tag = T_ANNOTATION;
+                bits = 0;
+                ref = value;
+                break;
+            default:
+                throw new AssertionError(kind);
+        }
+    }
+
+    private AnnotationValue(byte tag, long bits, Object ref) {
+        this.tag = tag;
+        this.bits = bits;
+        this.ref = ref;
+    }
+
+    public static AnnotationValue<Number> ofInt(int value) {
+        return new AnnotationValue<>(T_INT, value, null);
+    }
+
+    public static AnnotationValue<Number> ofLong(long value) {
+        return new AnnotationValue<>(T_LONG, value, null);
+    }
+
+    public static AnnotationValue<Number> ofFloat(float value) {
+        return new AnnotationValue<>(T_FLOAT, Float.floatToIntBits(value), null);
+    }
+
+    public static AnnotationValue<Number> ofDouble(double value) {
+        return new AnnotationValue<>(T_DOUBLE, Double.doubleToLongBits(value), null);
+    }
+
+    public static AnnotationValue<Character> ofChar(char value) {
+        return new AnnotationValue<>(T_CHAR, value, null);
+    }
+
+    public static AnnotationValue<Boolean> ofBoolean(boolean value) {
+        return new AnnotationValue<>(T_BOOLEAN, value ? 1 : 0, null);
+    }
+
+    public static AnnotationValue<List<AnnotationValue<?>>> ofInts(int... values) {
+        return new AnnotationValue<>(T_INT_ARRAY, 0, values.clone());
+    }
+
+    public static AnnotationValue<List<AnnotationValue<?>>> ofLongs(long... values) {
+        return new AnnotationValue<>(T_LONG_ARRAY, 0, values.clone());
+    }
+
+    public static AnnotationValue<List<AnnotationValue<?>>> ofDoubles(double... values) {
+        return new AnnotationValue<>(T_DOUBLE_ARRAY, 0, values.clone());
+    }
+
+    private static byte primitiveArrayTag(List<?> items) {
+        if (items.isEmpty()) {
+            return T_ARRAY;
+        }
+        byte result = -1;
+        for (Object o : items) {
+            if (!(o instanceof AnnotationValue<?> av)) {
+                return T_ARRAY;
+            }
+            byte elementTag = av.tag == T_INT ? T_INT_ARRAY
+                    : av.tag == T_LONG ? T_LONG_ARRAY
+                    : av.tag == T_DOUBLE ? T_DOUBLE_ARRAY
+                    : T_ARRAY;
+            if (elementTag == T_ARRAY || (result >= 0 && elementTag != result)) {
+                return T_ARRAY;
+            }
+            result = elementTag;
+        }
+        return result;
+    }
+
+    private static Object toPrimitiveArray(byte arrayTag, List<?> items) {
+        int size = items.size();
+        switch (arrayTag) {
+            case T_INT_ARRAY:
+                int[] ints = new int[size];
+                for (int i = 0; i < size; i++) {
+                    ints[i] = (int) ((AnnotationValue<?>) items.get(i)).bits;
+                }
+                return ints;
+            case T_LONG_ARRAY:
+                long[] longs = new long[size];
+                for (int i = 0; i < size; i++) {
+                    longs[i] = ((AnnotationValue<?>) items.get(i)).bits;
+                }
+                return longs;
+            case T_DOUBLE_ARRAY:
+                double[] doubles = new double[size];
+                for (int i = 0; i < size; i++) {
+                    doubles[i] = Double.longBitsToDouble(((AnnotationValue<?>) items.get(i)).bits);
+                }
+                return doubles;
+            default:
+                throw new AssertionError(arrayTag);
+        }
     }
 
     @Override
-    public StringBuilder renderJsonInto(StringBuilder sb) {
-        return JsonUtils.hash(() -> {
-            JsonUtils.append("kind", kind, sb);
-            JsonUtils.nextItem(sb);
-            JsonUtils.append("value", value, sb);
-        }, sb);
+    public void writeJson(JsonWriter json) {
+        json.startObject()
+                .field("kind", kind())
+                .field("value", value())
+                .endObject();
+    }
+
+    /**
+     * Read a value from the JSON <code>writeJson</code> produces. The kind is
+     * preserved exactly; since JSON numbers carry no type, INT values become
+     * Integers if they fit in an int and Longs otherwise, and FLOAT values
+     * become Doubles, as unsuffixed literals in source would - which equal
+     * the values written, as numbers are compared regardless of width.
+     *
+     * @param json Some JSON
+     * @return A value
+     */
+    public static AnnotationValue<?> fromJson(CharSequence json) {
+        JsonReader reader = JsonReader.of(json);
+        AnnotationValue<?> result = fromJson(reader);
+        reader.end();
+        return result;
+    }
+
+    /**
+     * Read a value from a reader positioned at the object
+     * <code>writeJson</code> produced; the <code>kind</code> member must
+     * precede the <code>value</code> member, as it does in that output.
+     *
+     * @param json A reader
+     * @return A value
+     */
+    public static AnnotationValue<?> fromJson(JsonReader json) {
+        json.beginObject();
+        AnnotationValueKind kind = null;
+        AnnotationValue<?> result = null;
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "kind":
+                    String kindName = json.nextString();
+                    try {
+                        kind = AnnotationValueKind.valueOf(kindName);
+                    } catch (IllegalArgumentException ex) {
+                        throw json.error("Unknown kind " + kindName);
+                    }
+                    break;
+                case "value":
+                    if (kind == null) {
+                        throw json.error("Value precedes kind");
+                    }
+                    result = readValue(kind, json);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        if (result == null) {
+            throw json.error("No value");
+        }
+        json.endObject();
+        return result;
+    }
+
+    /**
+     * Write this value in the binary format ModelInput reads: a one-byte
+     * tag, which distinguishes ints from longs, floats from doubles and
+     * arrays of primitives from other arrays, followed by the value.
+     *
+     * @param out The output
+     * @throws IOException If writing fails
+     */
+    public void writeTo(ModelOutput out) throws IOException {
+        DataOutput data = out.data();
+        data.writeByte(tag);
+        switch (tag) {
+            case T_INT:
+            case T_LONG:
+                out.writeVarlong(zigzag(bits));
+                break;
+            case T_FLOAT:
+                data.writeInt((int) bits);
+                break;
+            case T_DOUBLE:
+                data.writeLong(bits);
+                break;
+            case T_CHAR:
+                out.writeVarint((int) bits);
+                break;
+            case T_BOOLEAN:
+                data.writeByte((int) bits);
+                break;
+            case T_ARRAY:
+                List<?> items = (List<?>) ref;
+                out.writeVarint(items.size());
+                for (Object item : items) {
+                    ((AnnotationValue<?>) item).writeTo(out);
+                }
+                break;
+            case T_ANNOTATION:
+                ((AnnotationModel) ref).writeTo(out);
+                break;
+            case T_INT_ARRAY:
+                int[] ints = (int[]) ref;
+                out.writeVarint(ints.length);
+                for (int i : ints) {
+                    out.writeVarlong(zigzag(i));
+                }
+                break;
+            case T_LONG_ARRAY:
+                long[] longs = (long[]) ref;
+                out.writeVarint(longs.length);
+                for (long l : longs) {
+                    out.writeVarlong(zigzag(l));
+                }
+                break;
+            case T_DOUBLE_ARRAY:
+                double[] doubles = (double[]) ref;
+                out.writeVarint(doubles.length);
+                for (double d : doubles) {
+                    data.writeLong(Double.doubleToRawLongBits(d));
+                }
+                break;
+            default:
+                out.writeString((String) ref);
+        }
+    }
+
+    /**
+     * Read a value written by <code>writeTo()</code>.
+     *
+     * @param in The input
+     * @return A value
+     * @throws IOException If reading fails or the input is malformed
+     */
+    public static AnnotationValue<?> readFrom(ModelInput in) throws IOException {
+        DataInput data = in.data();
+        byte tag = data.readByte();
+        switch (tag) {
+            case T_INT:
+                return ofInt((int) unzigzag(in.readVarlong()));
+            case T_LONG:
+                return ofLong(unzigzag(in.readVarlong()));
+            case T_FLOAT:
+                return new AnnotationValue<>(T_FLOAT, data.readInt(), null);
+            case T_DOUBLE:
+                return new AnnotationValue<>(T_DOUBLE, data.readLong(), null);
+            case T_CHAR:
+                return ofChar((char) in.readVarint());
+            case T_BOOLEAN:
+                return ofBoolean(data.readByte() != 0);
+            case T_CLASS:
+            case T_ENUM:
+            case T_STRING:
+                return new AnnotationValue<>(tag, 0, in.readString());
+            case T_ANNOTATION:
+                return new AnnotationValue<>(T_ANNOTATION, 0, AnnotationModel.readFrom(in));
+            case T_ARRAY:
+                int count = in.readCount();
+                List<AnnotationValue<?>> items = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    items.add(readFrom(in));
+                }
+                return new AnnotationValue<>(T_ARRAY, 0, items);
+            // Counts are untrusted, so arrays grow as elements are actually
+            // read, and a bad count fails with EOF rather than exhausting memory
+            case T_INT_ARRAY:
+                int intCount = in.readCount();
+                int[] ints = new int[Math.min(intCount, 1024)];
+                for (int i = 0; i < intCount; i++) {
+                    if (i == ints.length) {
+                        ints = Arrays.copyOf(ints, (int) Math.min(intCount, i * 2L));
+                    }
+                    ints[i] = (int) unzigzag(in.readVarlong());
+                }
+                return new AnnotationValue<>(T_INT_ARRAY, 0, ints);
+            case T_LONG_ARRAY:
+                int longCount = in.readCount();
+                long[] longs = new long[Math.min(longCount, 1024)];
+                for (int i = 0; i < longCount; i++) {
+                    if (i == longs.length) {
+                        longs = Arrays.copyOf(longs, (int) Math.min(longCount, i * 2L));
+                    }
+                    longs[i] = unzigzag(in.readVarlong());
+                }
+                return new AnnotationValue<>(T_LONG_ARRAY, 0, longs);
+            case T_DOUBLE_ARRAY:
+                int doubleCount = in.readCount();
+                double[] doubles = new double[Math.min(doubleCount, 1024)];
+                for (int i = 0; i < doubleCount; i++) {
+                    if (i == doubles.length) {
+                        doubles = Arrays.copyOf(doubles, (int) Math.min(doubleCount, i * 2L));
+                    }
+                    doubles[i] = Double.longBitsToDouble(data.readLong());
+                }
+                return new AnnotationValue<>(T_DOUBLE_ARRAY, 0, doubles);
+            default:
+                throw new IOException("Bad annotation value tag " + tag);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static AnnotationValue<?> readValue(AnnotationValueKind kind, JsonReader json) {
+        switch (kind) {
+            case INT:
+                String intText = json.nextNumber();
+                try {
+                    long val = Long.parseLong(intText);
+                    return val == (int) val ? ofInt((int) val) : ofLong(val);
+                } catch (NumberFormatException ex) {
+                    throw json.error("Bad INT value " + intText);
+                }
+            case FLOAT:
+                String floatText = json.nextNumber();
+                try {
+                    return ofDouble(Double.parseDouble(floatText));
+                } catch (NumberFormatException ex) {
+                    throw json.error("Bad FLOAT value " + floatText);
+                }
+            case CHAR:
+                String ch = json.nextString();
+                if (ch.length() != 1) {
+                    throw json.error("Bad CHAR value '" + ch + "'");
+                }
+                return ofChar(ch.charAt(0));
+            case BOOLEAN:
+                return ofBoolean(json.nextBoolean());
+            case ARRAY:
+                List<AnnotationValue<?>> items = new ArrayList<>();
+                json.beginArray();
+                while (json.hasNext()) {
+                    items.add(fromJson(json));
+                }
+                json.endArray();
+                return new AnnotationValue<>(kind, items);
+            case ANNOTATION:
+                return new AnnotationValue<>(kind, AnnotationModel.fromJson(json));
+            default:
+                return new AnnotationValue<>(kind, json.nextString());
+        }
     }
 
     /**
@@ -85,19 +527,19 @@ public final class AnnotationValue<T> implements JsonRenderable {
      */
     @SuppressWarnings({"StringEquality", "unchecked"})
     public AnnotationValue<?> resolve(Imports imports) {
-        switch (kind) {
-            case ANNOTATION:
-                AnnotationModel val = (AnnotationModel) value;
-                return new AnnotationValue<>(kind, val.resolve(imports));
-            case CLASS:
-                String className = (String) value;
+        switch (tag) {
+            case T_ANNOTATION:
+                AnnotationModel val = (AnnotationModel) ref;
+                return new AnnotationValue<>(AnnotationValueKind.ANNOTATION, val.resolve(imports));
+            case T_CLASS:
+                String className = (String) ref;
                 String newName = imports.resolve(className);
                 if (newName != className) {
-                    return new AnnotationValue<>(kind, newName);
+                    return new AnnotationValue<>(AnnotationValueKind.CLASS, newName);
                 }
                 return this;
-            case ARRAY:
-                List<AnnotationValue<?>> l = (List<AnnotationValue<?>>) value;
+            case T_ARRAY:
+                List<AnnotationValue<?>> l = (List<AnnotationValue<?>>) ref;
                 List<AnnotationValue<?>> newVs = new ArrayList<>(l.size());
                 boolean anyChanged = false;
                 for (AnnotationValue<?> v : l) {
@@ -112,8 +554,8 @@ public final class AnnotationValue<T> implements JsonRenderable {
                 } else {
                     return new AnnotationValue<>(AnnotationValueKind.ARRAY, newVs);
                 }
-            case ENUM:
-                String ev = (String) value;
+            case T_ENUM:
+                String ev = (String) ref;
                 int dotIx = ev.indexOf('.');
                 if (dotIx > 0 && ev.lastIndexOf('.') == dotIx) {
                     // If we have, e.g. SomeEnum.SOME_ITEM, strip the string to SomeEnum
@@ -136,36 +578,213 @@ public final class AnnotationValue<T> implements JsonRenderable {
         }
     }
 
+    /**
+     * Get the value, boxing it if it is stored as a primitive. For arrays
+     * stored as primitive arrays, this is a read-only list view which creates
+     * element values as they are requested.
+     *
+     * @return The value
+     */
+    @SuppressWarnings("unchecked")
     public T value() {
-        return value;
+        switch (tag) {
+            case T_INT:
+                return (T) Integer.valueOf((int) bits);
+            case T_LONG:
+                return (T) Long.valueOf(bits);
+            case T_FLOAT:
+                return (T) Float.valueOf(Float.intBitsToFloat((int) bits));
+            case T_DOUBLE:
+                return (T) Double.valueOf(Double.longBitsToDouble(bits));
+            case T_CHAR:
+                return (T) Character.valueOf((char) bits);
+            case T_BOOLEAN:
+                return (T) Boolean.valueOf(bits != 0);
+            case T_INT_ARRAY:
+            case T_LONG_ARRAY:
+            case T_DOUBLE_ARRAY:
+                return (T) new PrimitiveArrayView(tag, ref);
+            default:
+                return (T) ref;
+        }
     }
 
     public AnnotationValueKind kind() {
-        return kind;
+        return KIND_FOR_TAG[tag];
     }
 
     public String stringValue() {
-        return Objects.toString(value);
+        return Objects.toString(value());
+    }
+
+    /**
+     * Determine if this is an array value stored as an array of primitive
+     * ints, longs or doubles, so the corresponding array accessor is cheap
+     * and <code>value()</code> is a view over it.
+     *
+     * @return true if this is a primitive array
+     */
+    public boolean isPrimitiveArray() {
+        return tag >= T_INT_ARRAY;
+    }
+
+    /**
+     * Get the value of an INT, FLOAT or CHAR value as an int, with the same
+     * narrowing conversion <code>Number.intValue()</code> would apply.
+     *
+     * @return An int
+     * @throws IllegalStateException if this is not a numeric value
+     */
+    public int intValue() {
+        switch (tag) {
+            case T_INT:
+            case T_LONG:
+            case T_CHAR:
+                return (int) bits;
+            case T_FLOAT:
+            case T_DOUBLE:
+                return (int) doubleValue();
+            default:
+                throw notA("numeric");
+        }
+    }
+
+    public long longValue() {
+        switch (tag) {
+            case T_INT:
+            case T_LONG:
+            case T_CHAR:
+                return bits;
+            case T_FLOAT:
+            case T_DOUBLE:
+                return (long) doubleValue();
+            default:
+                throw notA("numeric");
+        }
+    }
+
+    public double doubleValue() {
+        switch (tag) {
+            case T_FLOAT:
+                return Float.intBitsToFloat((int) bits);
+            case T_DOUBLE:
+                return Double.longBitsToDouble(bits);
+            case T_INT:
+            case T_LONG:
+            case T_CHAR:
+                return bits;
+            default:
+                throw notA("numeric");
+        }
+    }
+
+    public float floatValue() {
+        return (float) doubleValue();
+    }
+
+    public char charValue() {
+        if (tag != T_CHAR) {
+            throw notA("char");
+        }
+        return (char) bits;
+    }
+
+    public boolean booleanValue() {
+        if (tag != T_BOOLEAN) {
+            throw notA("boolean");
+        }
+        return bits != 0;
+    }
+
+    /**
+     * Get the elements of an array of int values.
+     *
+     * @return A new array
+     * @throws IllegalStateException if this is not an array of ints
+     */
+    public int[] intArray() {
+        if (tag != T_INT_ARRAY) {
+            throw notA("int array");
+        }
+        return ((int[]) ref).clone();
+    }
+
+    /**
+     * Get the elements of an array of int or long values, widening ints.
+     *
+     * @return A new array
+     * @throws IllegalStateException if this is not an array of ints or longs
+     */
+    public long[] longArray() {
+        switch (tag) {
+            case T_LONG_ARRAY:
+                return ((long[]) ref).clone();
+            case T_INT_ARRAY:
+                int[] ints = (int[]) ref;
+                long[] result = new long[ints.length];
+                for (int i = 0; i < ints.length; i++) {
+                    result[i] = ints[i];
+                }
+                return result;
+            default:
+                throw notA("long array");
+        }
+    }
+
+    /**
+     * Get the elements of an array of double, int or long values, widening
+     * integral values.
+     *
+     * @return A new array
+     * @throws IllegalStateException if this is not an array of numbers stored
+     * as primitives
+     */
+    public double[] doubleArray() {
+        switch (tag) {
+            case T_DOUBLE_ARRAY:
+                return ((double[]) ref).clone();
+            case T_INT_ARRAY:
+                return Arrays.stream((int[]) ref).asDoubleStream().toArray();
+            case T_LONG_ARRAY:
+                return Arrays.stream((long[]) ref).asDoubleStream().toArray();
+            default:
+                throw notA("double array");
+        }
+    }
+
+    private IllegalStateException notA(String what) {
+        return new IllegalStateException("Not a " + what + " value: " + kind() + " " + this);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public String toString() {
-        String baseValue = value.toString();
-        switch (kind) {
-            case ANNOTATION:
-                return baseValue;
-            case CLASS:
-                return baseValue + ".class";
-            case STRING:
-                return '"' + baseValue + '"';
-            case INT:
-                return value instanceof Long ? baseValue + "L" : baseValue;
-            case FLOAT:
-                return value instanceof Float ? baseValue + "F" : baseValue + "D";
-            case ARRAY:
+        switch (tag) {
+            case T_ANNOTATION:
+                return ref.toString();
+            case T_CLASS:
+                return ref + ".class";
+            case T_STRING:
+                return '"' + (String) ref + '"';
+            case T_INT:
+                return Integer.toString((int) bits);
+            case T_LONG:
+                return bits + "L";
+            case T_FLOAT:
+                return Float.intBitsToFloat((int) bits) + "F";
+            case T_DOUBLE:
+                return Double.longBitsToDouble(bits) + "D";
+            case T_CHAR:
+                return "'" + (char) bits + "'";
+            case T_BOOLEAN:
+                return Boolean.toString(bits != 0);
+            case T_ARRAY:
+            case T_INT_ARRAY:
+            case T_LONG_ARRAY:
+            case T_DOUBLE_ARRAY:
                 StringBuilder sb = new StringBuilder();
                 sb.append('{');
-                List<AnnotationValue<?>> l = (List<AnnotationValue<?>>) value;
+                List<AnnotationValue<?>> l = (List<AnnotationValue<?>>) value();
                 for (Iterator<AnnotationValue<?>> it = l.iterator(); it.hasNext();) {
                     sb.append(it.next());
                     if (it.hasNext()) {
@@ -173,20 +792,46 @@ public final class AnnotationValue<T> implements JsonRenderable {
                     }
                 }
                 return sb.append('}').toString();
-            case CHAR:
-                return "'" + baseValue + "'";
             default:
-                return baseValue;
+                return String.valueOf(ref);
         }
     }
 
     @Override
     public int hashCode() {
-        int hash = 5;
-        hash = 43 * hash + Objects.hashCode(this.value);
+        int hash = this.hashCode;
+        if (hash == 0) {
+            hash = 5;
+            hash = 43 * hash + kind().ordinal();
+            hash = 43 * hash + valueHash();
+            this.hashCode = hash;
+        }
         return hash;
     }
 
+    private int valueHash() {
+        // Numbers hash by value regardless of width, as equals() compares
+        // them that way
+        switch (tag) {
+            case T_INT:
+            case T_LONG:
+                return Long.hashCode(bits);
+            case T_FLOAT:
+            case T_DOUBLE:
+                return Float.hashCode(floatValue());
+            case T_CHAR:
+                return Character.hashCode((char) bits);
+            case T_BOOLEAN:
+                return Boolean.hashCode(bits != 0);
+            case T_INT_ARRAY:
+            case T_LONG_ARRAY:
+            case T_DOUBLE_ARRAY:
+                return value().hashCode();
+            default:
+                return ref.hashCode();
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -199,6 +844,81 @@ public final class AnnotationValue<T> implements JsonRenderable {
             return false;
         }
         final AnnotationValue<?> other = (AnnotationValue<?>) obj;
-        return Objects.equals(this.value, other.value);
+        if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode) {
+            return false;
+        }
+        if (this.tag != other.tag) {
+            return sameNumbers(other);
+        }
+        if (this.bits != other.bits) {
+            return false;
+        }
+        switch (tag) {
+            case T_INT_ARRAY:
+                return Arrays.equals((int[]) ref, (int[]) other.ref);
+            case T_LONG_ARRAY:
+                return Arrays.equals((long[]) ref, (long[]) other.ref);
+            case T_DOUBLE_ARRAY:
+                return Arrays.equals((double[]) ref, (double[]) other.ref);
+            default:
+                return Objects.equals(this.ref, other.ref);
+        }
+    }
+
+    private boolean sameNumbers(AnnotationValue<?> other) {
+        // JSON numbers carry no width, so an int and a long, or a float and
+        // a double, with the same value are equal; a float is compared at
+        // float precision
+        switch (kind()) {
+            case INT:
+                return other.kind() == AnnotationValueKind.INT && bits == other.bits;
+            case FLOAT:
+                return other.kind() == AnnotationValueKind.FLOAT
+                        && Float.compare(floatValue(), other.floatValue()) == 0;
+            case ARRAY:
+                return other.kind() == AnnotationValueKind.ARRAY && value().equals(other.value());
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * List view over a primitive array, creating element values on demand.
+     */
+    private static final class PrimitiveArrayView extends AbstractList<AnnotationValue<?>>
+            implements RandomAccess {
+
+        private final byte tag;
+        private final Object array;
+
+        PrimitiveArrayView(byte tag, Object array) {
+            this.tag = tag;
+            this.array = array;
+        }
+
+        @Override
+        public AnnotationValue<?> get(int index) {
+            switch (tag) {
+                case T_INT_ARRAY:
+                    return ofInt(((int[]) array)[index]);
+                case T_LONG_ARRAY:
+                    return ofLong(((long[]) array)[index]);
+                default:
+                    return new AnnotationValue<>(T_DOUBLE,
+                            Double.doubleToLongBits(((double[]) array)[index]), null);
+            }
+        }
+
+        @Override
+        public int size() {
+            switch (tag) {
+                case T_INT_ARRAY:
+                    return ((int[]) array).length;
+                case T_LONG_ARRAY:
+                    return ((long[]) array).length;
+                default:
+                    return ((double[]) array).length;
+            }
+        }
     }
 }
@@ -0,0 +1,48 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model.annotation;
+
+/**
+ * Result of a callback to an AnnotationTreeVisitor, which determines how
+ * traversal proceeds.
+ *
+ * @author Tim Boudreau
+ */
+public enum AnnotationVisitResult {
+    /**
+     * Continue traversal normally.
+     */
+    CONTINUE,
+    /**
+     * Do not descend into the nested annotation the visited value holds, or
+     * when returned on entering an annotation, do not visit its values; the
+     * annotation is still exited. Traversal continues with the next sibling.
+     */
+    SKIP_CHILDREN,
+    /**
+     * Abort traversal; every annotation entered so far is still exited, but
+     * the results of those calls are ignored.
+     */
+    STOP
+}
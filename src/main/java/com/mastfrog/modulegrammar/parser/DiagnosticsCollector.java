@@ -0,0 +1,301 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.antlr.v4.runtime.tree.ErrorNode;
+
+/**
+ * Collects parse errors from many parser threads without slowing them down,
+ * for batch runs where ModuleParserErrorListener.STDERR would make every
+ * thread contend for System.err. Errors are detached into ModuleDiagnostics
+ * on the reporting thread, and handed over through a bounded queue to a
+ * single background thread, which passes them to a sink in batches.
+ * <p>
+ * The collector is bounded: if the queue is full, new diagnostics are
+ * dropped (and counted) rather than making parser threads wait. It is
+ * deduplicating: a diagnostic equal to one already reported is discarded,
+ * so a file parsed twice, or a bad construct reported by both lexer and
+ * parser, is reported once. The diagnostics seen are themselves bounded:
+ * they are kept in two generations, and when the newer one fills it becomes
+ * the older and the older is discarded, so only duplicates of diagnostics
+ * which have aged out of both can be reported again.
+ * </p>
+ * <p>
+ * If the sink throws, the batch it was passed is counted as failed, and
+ * delivery continues with the next batch.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class DiagnosticsCollector implements AutoCloseable {
+
+    private static final int MAX_BATCH = 256;
+    private final BlockingQueue<ModuleDiagnostic> queue;
+    private final AtomicReference<Seen> seen = new AtomicReference<>(new Seen(null));
+    private final int maxSeen;
+    private final Consumer<? super List<ModuleDiagnostic>> sink;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // Accepted but not yet delivered
+    private final AtomicLong pending = new AtomicLong();
+    private volatile boolean closed;
+    private final Thread drainer;
+
+    /**
+     * Create a collector and start its thread.
+     *
+     * @param capacity The maximum number of diagnostics waiting to be
+     * delivered
+     * @param sink Receives batches of diagnostics, on the collector's thread
+     */
+    public DiagnosticsCollector(int capacity, Consumer<? super List<ModuleDiagnostic>> sink) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be > 0: " + capacity);
+        }
+        if (sink == null) {
+            throw new IllegalArgumentException("Null sink");
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxSeen = Math.max(1024, capacity * 4);
+        this.sink = sink;
+        drainer = new Thread(this::drain, "module-diagnostics");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Create a collector which writes each batch to stderr with a single
+     * call.
+     *
+     * @param capacity The maximum number of diagnostics waiting to be
+     * written
+     * @return A collector
+     */
+    public static DiagnosticsCollector toStderr(int capacity) {
+        return new DiagnosticsCollector(capacity, batch -> {
+            StringBuilder sb = new StringBuilder(batch.size() * 80);
+            for (ModuleDiagnostic d : batch) {
+                sb.append(d).append('\n');
+            }
+            System.err.print(sb);
+        });
+    }
+
+    /**
+     * Get a listener for parsing one file.
+     *
+     * @param source A name for the file, included in its diagnostics, or
+     * null
+     * @return A listener
+     */
+    public ModuleParserErrorListener listener(String source) {
+        return new ModuleParserErrorListener() {
+            @Override
+            public void onParserError(ErrorNode node) {
+                report(ModuleDiagnostic.of(node, source));
+            }
+
+            @Override
+            public void onSyntaxError(ModuleSyntaxError err) {
+                report(ModuleDiagnostic.of(err, source));
+            }
+        };
+    }
+
+    /**
+     * Report a diagnostic.
+     *
+     * @param diagnostic A diagnostic
+     * @return true if it was accepted, false if it was a duplicate, the queue
+     * was full or the collector is closed
+     */
+    public boolean report(ModuleDiagnostic diagnostic) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        Seen gen = seen.get();
+        if (gen.inPrevious(diagnostic) || !gen.current.add(diagnostic)) {
+            duplicates.incrementAndGet();
+            return false;
+        }
+        if (gen.current.size() >= maxSeen) {
+            // Only one thread wins; a diagnostic added to the generation
+            // being retired is still in the next one's previous set
+            seen.compareAndSet(gen, new Seen(gen.current));
+        }
+        if (!queue.offer(diagnostic)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        // May briefly go negative if the drainer gets there first
+        pending.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Wait until every diagnostic accepted so far has been delivered to the
+     * sink.
+     *
+     * @throws InterruptedException If interrupted
+     */
+    public void flush() throws InterruptedException {
+        synchronized (this) {
+            while (pending.get() > 0) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * The number of diagnostics discarded because the queue was full or the
+     * collector was closed.
+     *
+     * @return A count
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * The number of diagnostics discarded as duplicates.
+     *
+     * @return A count
+     */
+    public long duplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * The number of diagnostics passed to the sink.
+     *
+     * @return A count
+     */
+    public long delivered() {
+        return delivered.get();
+    }
+
+    /**
+     * The number of diagnostics in batches the sink threw an exception on.
+     *
+     * @return A count
+     */
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * Deliver any diagnostics still queued and stop the collector's thread.
+     * If the calling thread is interrupted while waiting, it returns at once
+     * with its interrupt status set, and the collector's thread finishes
+     * delivering on its own.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            drainer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Anything which slipped in as the thread exited
+        int left = queue.drainTo(new ArrayList<>());
+        if (left > 0) {
+            dropped.addAndGet(left);
+            pending.addAndGet(-left);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void drain() {
+        List<ModuleDiagnostic> batch = new ArrayList<>(MAX_BATCH);
+        for (;;) {
+            ModuleDiagnostic first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (first == null) {
+                if (closed && queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, MAX_BATCH - 1);
+            try {
+                sink.accept(Collections.unmodifiableList(new ArrayList<>(batch)));
+                delivered.addAndGet(batch.size());
+            } catch (RuntimeException ex) {
+                failed.addAndGet(batch.size());
+            } finally {
+                pending.addAndGet(-batch.size());
+                synchronized (this) {
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DiagnosticsCollector(delivered=" + delivered + ", duplicates=" + duplicates
+                + ", dropped=" + dropped + ", failed=" + failed + ", queued=" + queue.size() + ")";
+    }
+
+    /**
+     * A generation of diagnostics seen, and the one before it.
+     */
+    private static final class Seen {
+
+        private final Set<ModuleDiagnostic> current = ConcurrentHashMap.newKeySet();
+        private final Set<ModuleDiagnostic> previous;
+
+        Seen(Set<ModuleDiagnostic> previous) {
+            this.previous = previous;
+        }
+
+        boolean inPrevious(ModuleDiagnostic diagnostic) {
+            return previous != null && previous.contains(diagnostic);
+        }
+    }
+}
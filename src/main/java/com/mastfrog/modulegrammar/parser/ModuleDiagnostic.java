@@ -0,0 +1,221 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.parser;
+
+import java.util.Objects;
+import java.util.Optional;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ErrorNode;
+
+/**
+ * A parse error detached from the parse that produced it: unlike a
+ * ModuleSyntaxError or ErrorNode, it holds no reference to the lexer, parser,
+ * tokens or input, so keeping one keeps only a few strings alive.
+ *
+ * @author Tim Boudreau
+ */
+public final class ModuleDiagnostic {
+
+    private final Kind kind;
+    private final String source;
+    private final int line;
+    private final int column;
+    private final int offset;
+    private final String message;
+    private final String tokenText;
+    private int hashCode; // cached; 0 until computed
+
+    public ModuleDiagnostic(Kind kind, String source, int line, int column, int offset,
+            String message, String tokenText) {
+        if (kind == null || message == null) {
+            throw new IllegalArgumentException("Null kind or message");
+        }
+        this.kind = kind;
+        this.source = source;
+        this.line = line;
+        this.column = column;
+        this.offset = offset;
+        this.message = message;
+        this.tokenText = tokenText;
+    }
+
+    /**
+     * Detach a syntax error. Lexer errors have no offending token, so for
+     * those the text the lexer was stuck on is used - which is only possible
+     * while the lexer is still at the error, i.e. within the listener call.
+     *
+     * @param err A syntax error
+     * @param source A name for the file being parsed, or null
+     * @return A diagnostic
+     */
+    public static ModuleDiagnostic of(ModuleSyntaxError err, String source) {
+        String text = err.offendingSymbol.map(Token::getText).orElse(null);
+        if (text == null && err.rcgnzr instanceof Lexer lexer) {
+            CharStream in = lexer.getInputStream();
+            int start = lexer._tokenStartCharIndex;
+            if (start >= 0 && start < in.size()) {
+                text = in.getText(Interval.of(start, Math.max(start, Math.min(in.index(), in.size() - 1))));
+            }
+        }
+        return new ModuleDiagnostic(Kind.SYNTAX_ERROR, source, err.line, err.charPositionInLine,
+                err.absoluteCharacterIndex, err.message, text);
+    }
+
+    /**
+     * Detach an error node.
+     *
+     * @param node An error node
+     * @param source A name for the file being parsed, or null
+     * @return A diagnostic
+     */
+    public static ModuleDiagnostic of(ErrorNode node, String source) {
+        Token tok = node.getSymbol();
+        String text = tok == null ? node.getText() : tok.getText();
+        return new ModuleDiagnostic(Kind.ERROR_NODE, source,
+                tok == null ? -1 : tok.getLine(), tok == null ? -1 : tok.getCharPositionInLine(),
+                tok == null ? -1 : tok.getStartIndex(), "Unexpected '" + text + "'", text);
+    }
+
+    public enum Kind {
+        /**
+         * Reported by the lexer or parser's error listener.
+         */
+        SYNTAX_ERROR,
+        /**
+         * An error node in the parse tree.
+         */
+        ERROR_NODE
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * The name of the file being parsed, if one was supplied.
+     *
+     * @return A name
+     */
+    public Optional<String> source() {
+        return Optional.ofNullable(source);
+    }
+
+    /**
+     * The line, from 1, or -1 if unknown.
+     *
+     * @return A line
+     */
+    public int line() {
+        return line;
+    }
+
+    /**
+     * The column, from 0, or -1 if unknown.
+     *
+     * @return A column
+     */
+    public int column() {
+        return column;
+    }
+
+    /**
+     * The character offset in the input, or -1 if unknown.
+     *
+     * @return An offset
+     */
+    public int offset() {
+        return offset;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    /**
+     * The text of the offending token, if there was one.
+     *
+     * @return The text
+     */
+    public Optional<String> tokenText() {
+        return Optional.ofNullable(tokenText);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(64);
+        if (source != null) {
+            sb.append(source).append(':');
+        }
+        sb.append(line).append(':').append(column).append(' ').append(message);
+        if (tokenText != null && kind == Kind.SYNTAX_ERROR) {
+            sb.append(" at '").append(tokenText).append('\'');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        if (hashCode != 0) {
+            return hashCode;
+        }
+        int hash = 7;
+        hash = 53 * hash + this.kind.ordinal();
+        hash = 53 * hash + Objects.hashCode(this.source);
+        hash = 53 * hash + this.line;
+        hash = 53 * hash + this.column;
+        hash = 53 * hash + this.message.hashCode();
+        return hashCode = hash;
+    }
+
+    /**
+     * Diagnostics are equal if they report the same message at the same place
+     * in the same source.
+     *
+     * @param obj Another object
+     * @return true if they are equal
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ModuleDiagnostic other = (ModuleDiagnostic) obj;
+        if (this.hashCode != 0 && other.hashCode != 0 && this.hashCode != other.hashCode) {
+            return false;
+        }
+        return this.kind == other.kind && this.line == other.line
+                && this.column == other.column
+                && Objects.equals(this.source, other.source)
+                && this.message.equals(other.message);
+    }
+}
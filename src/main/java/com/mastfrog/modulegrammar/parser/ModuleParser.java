@@ -26,13 +26,25 @@ package com.mastfrog.modulegrammar.parser;
 import com.mastfrog.modulegrammar.ModuleInfoGrammarLexer;
 import com.mastfrog.modulegrammar.ModuleInfoGrammarParser;
 import com.mastfrog.modulegrammar.ModuleModelExtractor;
+import com.mastfrog.modulegrammar.json.JsonWriter;
+import com.mastfrog.modulegrammar.model.Export;
 import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.model.Opens;
+import com.mastfrog.modulegrammar.model.Provides;
+import com.mastfrog.modulegrammar.model.Require;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.module.InvalidModuleDescriptorException;
+import java.lang.module.ModuleDescriptor;
 import java.nio.channels.ReadableByteChannel;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import org.antlr.v4.runtime.ANTLRErrorListener;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
@@ -106,6 +118,60 @@ public final class ModuleParser {
         return parser.compilationUnit().accept(new ModuleModelExtractor(errs::onParserError));
     }
 
+    /**
+     * Read a compiled <code>module-info.class</code> into a ModuleModel.
+     *
+     * @param classFile A stream positioned at the start of the class file
+     * @return A model
+     * @throws IOException If the stream cannot be read or does not contain a
+     * valid module descriptor
+     */
+    public static ModuleModel parseClassFile(InputStream classFile) throws IOException {
+        try {
+            return fromDescriptor(ModuleDescriptor.read(classFile));
+        } catch (InvalidModuleDescriptorException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Convert a JDK module descriptor into a ModuleModel. The class file
+     * format does not preserve imports, and the JDK's descriptor does not
+     * expose annotations, so the result contains only the module's
+     * directives. Mandated and synthetic requires (such as the implicit
+     * <code>requires java.base</code>) are omitted, so a model read from
+     * source and one read from the corresponding class file compare equal.
+     *
+     * @param desc A descriptor
+     * @return A model
+     */
+    public static ModuleModel fromDescriptor(ModuleDescriptor desc) {
+        Set<Require> requires = new HashSet<>();
+        for (ModuleDescriptor.Requires req : desc.requires()) {
+            Set<ModuleDescriptor.Requires.Modifier> mods = req.modifiers();
+            if (mods.contains(ModuleDescriptor.Requires.Modifier.MANDATED)
+                    || mods.contains(ModuleDescriptor.Requires.Modifier.SYNTHETIC)) {
+                continue;
+            }
+            requires.add(new Require(mods.contains(ModuleDescriptor.Requires.Modifier.STATIC),
+                    mods.contains(ModuleDescriptor.Requires.Modifier.TRANSITIVE), req.name()));
+        }
+        List<Provides> provides = new ArrayList<>();
+        for (ModuleDescriptor.Provides p : desc.provides()) {
+            provides.add(new Provides(p.service(), p.providers()));
+        }
+        List<Export> exports = new ArrayList<>();
+        for (ModuleDescriptor.Exports e : desc.exports()) {
+            exports.add(new Export(e.source(), e.isQualified() ? e.targets() : null));
+        }
+        List<Opens> opens = new ArrayList<>();
+        for (ModuleDescriptor.Opens o : desc.opens()) {
+            opens.add(new Opens(o.source(), o.isQualified() ? o.targets() : null));
+        }
+        return new ModuleModel(desc.isOpen(), desc.name(), Collections.emptySet(),
+                desc.uses(), requires, provides, exports, opens, Collections.emptyList());
+    }
+
     public static void main(String[] args) throws Exception {
         if (args.length != 1) {
             System.err.println("Usage:  java -jar module-info-grammar.jar /path/to/module-info.java");
@@ -113,6 +179,9 @@ public final class ModuleParser {
         }
         Path p = Paths.get(args[0]);
         ModuleModel mdl = parse(p);
-        System.out.println(mdl.toJson());
+        JsonWriter json = JsonWriter.toUtf8(System.out, true);
+        json.value(mdl);
+        json.flush();
+        System.out.println();
     }
 }
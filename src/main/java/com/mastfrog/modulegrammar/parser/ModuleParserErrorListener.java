@@ -98,7 +98,9 @@ public interface ModuleParserErrorListener {
     };
 
     /**
-     * A listener that logs all errors to stderr.
+     * A listener that logs all errors to stderr. Parsers on many threads
+     * using it will contend for System.err; for batch runs, use a
+     * DiagnosticsCollector instead.
      */
     public static ModuleParserErrorListener STDERR = new ModuleParserErrorListener() {
         @Override
@@ -23,47 +23,45 @@
  */
 package com.mastfrog.modulegrammar.parser;
 
-import java.util.Optional;
 import org.antlr.v4.runtime.tree.ErrorNode;
 
 /**
+ * Thrown by the THROWING error listener. Holds only a detached
+ * ModuleDiagnostic, so a caught exception does not keep the parse that
+ * produced it alive, and is created without a stack trace - the diagnostic
+ * says where the problem is, and filling in the stack is most of the cost of
+ * throwing an exception for every bad file in a large batch.
  *
  * @author Tim Boudreau
  */
 public final class ModuleParserException extends IllegalStateException {
 
-    private final ErrorNode errorNode;
-    private final ModuleSyntaxError syntaxError;
+    private final ModuleDiagnostic diagnostic;
 
     ModuleParserException(ErrorNode err) {
         super("Error node encountered: " + err);
-        this.errorNode = err;
-        this.syntaxError = null;
+        this.diagnostic = ModuleDiagnostic.of(err, null);
     }
 
     ModuleParserException(ModuleSyntaxError err) {
         super(err.toString());
-        this.syntaxError = err;
-        this.errorNode = null;
+        this.diagnostic = ModuleDiagnostic.of(err, null);
     }
 
     public boolean isSyntaxError() {
-        return syntaxError != null;
+        return diagnostic.kind() == ModuleDiagnostic.Kind.SYNTAX_ERROR;
     }
 
     public boolean isErrorNode() {
-        return errorNode != null;
+        return diagnostic.kind() == ModuleDiagnostic.Kind.ERROR_NODE;
     }
 
-    public Optional<ErrorNode> errorNode() {
-        return Optional.ofNullable(errorNode);
+    public ModuleDiagnostic diagnostic() {
+        return diagnostic;
     }
 
-    public Optional<ModuleSyntaxError> syntaxError() {
-        return Optional.ofNullable(syntaxError);
-    }
-
-    public Object getError() {
-        return errorNode == null ? syntaxError : errorNode;
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
     }
 }
@@ -0,0 +1,109 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import com.mastfrog.modulegrammar.parser.ModuleParserErrorListener;
+import java.io.OutputStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ClassPathCatalogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testCatalogResolvesWildcardImports() throws Exception {
+        Path jar = jar("lib.jar", "com/foo/Svc.class", "com/foo/Outer.class", "com/foo/Outer$Inner.class",
+                "com/foo/Outer$1.class", "com/foo/package-info.class", "module-info.class",
+                "META-INF/versions/11/com/foo/Later.class", "META-INF/MANIFEST.MF");
+        Path src = dir.resolve("src");
+        Files.createDirectories(src.resolve("org/bar"));
+        Files.write(src.resolve("org/bar/Impl.java"), "package org.bar;".getBytes(UTF_8));
+
+        ClassPathCatalog catalog = ClassPathCatalog.build(Arrays.asList(jar, src));
+        assertEquals(5, catalog.size(), catalog::toString);
+        assertTrue(catalog.contains("com.foo", "Svc"));
+        assertTrue(catalog.contains("com.foo", "Later"));
+        assertTrue(catalog.contains("com.foo.Outer", "Inner"));
+        assertTrue(catalog.contains("org.bar", "Impl"));
+        assertFalse(catalog.contains("com.foo", "Inner"));
+        assertFalse(catalog.contains("com.foo", "package-info"));
+        assertEquals("[Later, Outer, Svc]", catalog.types("com.foo").toString());
+
+        ModuleModel mdl = ModuleParser.parse("import com.foo.*;\nimport org.bar.*;\n"
+                + "module a {\n    uses Svc;\n    provides Svc with Impl;\n}\n",
+                ModuleParserErrorListener.THROWING);
+        assertEquals("[com.foo.*, org.bar.*]", mdl.imports().toString().lines()
+                .map(l -> l.substring("import ".length(), l.length() - 1)).toList().toString());
+        assertEquals(mdl, mdl.resolved());
+        ModuleModel resolved = mdl.resolved(catalog);
+        assertTrue(resolved.uses().contains("com.foo.Svc"), resolved::toString);
+        assertTrue(resolved.provides("com.foo.Svc", "org.bar.Impl"), resolved::toString);
+    }
+
+    @Test
+    public void testCacheRescansOnlyChangedJars() throws Exception {
+        Path a = jar("a.jar", "com/a/A.class");
+        Path b = jar("b.jar", "com/b/B.class");
+        Path cache = dir.resolve("catalog.cache");
+        ClassPathCatalog first = ClassPathCatalog.load(cache, Arrays.asList(a, b));
+        assertTrue(first.contains("com.a", "A"));
+        assertTrue(Files.exists(cache));
+
+        // Replace a.jar's contents but restore its size and timestamp - the
+        // cached entry must be used, which proves the jar was not reopened
+        FileTime aTime = Files.getLastModifiedTime(a);
+        jar("a.jar", "com/a/X.class");
+        Files.setLastModifiedTime(a, aTime);
+        jar("b.jar", "com/b/C.class", "com/b/D.class");
+        ClassPathCatalog second = ClassPathCatalog.load(cache, Arrays.asList(a, b));
+        assertTrue(second.contains("com.a", "A"), second::toString);
+        assertFalse(second.contains("com.a", "X"), second::toString);
+        assertTrue(second.contains("com.b", "D"), second::toString);
+        assertFalse(second.contains("com.b", "B"), second::toString);
+    }
+
+    private Path jar(String name, String... entries) throws Exception {
+        Path result = dir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(result);
+                ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (String entry : entries) {
+                zip.putNextEntry(new ZipEntry(entry));
+                zip.closeEntry();
+            }
+        }
+        return result;
+    }
+}
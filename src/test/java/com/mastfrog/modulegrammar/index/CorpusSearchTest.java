@@ -0,0 +1,97 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import static com.mastfrog.modulegrammar.parser.ModuleParserErrorListener.THROWING;
+import java.nio.ByteBuffer;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CorpusSearchTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testMatcherFindsOverlappingPatterns() {
+        ByteMatcher m = new ByteMatcher(new byte[][]{
+            "he".getBytes(UTF_8), "she".getBytes(UTF_8), "hers".getBytes(UTF_8), "his".getBytes(UTF_8)});
+        BitSet found = new BitSet();
+        assertEquals(3, m.scan(ByteBuffer.wrap("ushers".getBytes(UTF_8)), found));
+        assertTrue(found.get(0));
+        assertTrue(found.get(1));
+        assertTrue(found.get(2));
+        assertFalse(found.get(3));
+        found.clear();
+        assertEquals(0, m.scan(ByteBuffer.wrap("nothing to see".getBytes(UTF_8)), found));
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        List<Path> files = new ArrayList<>();
+        files.add(write("a", "module a {\n    requires foo.bar;\n}\n"));
+        // Mentions the needle only in a comment - parsed, but must not match
+        files.add(write("b", "// requires foo.bar someday\nmodule b {\n    requires baz;\n}\n"));
+        files.add(write("c", "module c {\n    requires quux;\n}\n"));
+        files.add(write("d", "import com.x.Marker;\n@Marker\nmodule d {\n    requires baz;\n}\n"));
+        // Not valid at all, and without a needle, so never parsed
+        files.add(write("e", "this is not { a module"));
+
+        CorpusSearch.SearchResult result = new CorpusSearch(
+                ModuleQuery.requires("foo.bar"),
+                ModuleQuery.annotatedWith("com.x.Marker")).search(files);
+        assertEquals(5, result.scanned(), result::toString);
+        assertEquals(3, result.parsed(), result::toString);
+        assertEquals(2, result.hits().size(), result::toString);
+        assertEquals("a", result.hits().get(0).model().moduleName());
+        assertEquals("requires foo.bar", result.hits().get(0).matched().get(0).toString());
+        assertEquals("d", result.hits().get(1).model().moduleName());
+        assertEquals("@com.x.Marker", result.hits().get(1).matched().get(0).toString());
+    }
+
+    @Test
+    public void testExportAndOpenQueriesMatchQualifiedClauses() {
+        ModuleModel mdl = ModuleParser.parse("module a {\n    exports com.a to b;\n"
+                + "    opens com.a.impl;\n}\n", THROWING);
+        assertTrue(ModuleQuery.exports("com.a").test(mdl));
+        assertTrue(ModuleQuery.opens("com.a.impl").test(mdl));
+        assertFalse(ModuleQuery.exports("com.a.impl").test(mdl));
+        assertFalse(ModuleQuery.opens("com.a").test(mdl));
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path result = dir.resolve(name).resolve("module-info.java");
+        Files.createDirectories(result.getParent());
+        return Files.write(result, content.getBytes(UTF_8));
+    }
+}
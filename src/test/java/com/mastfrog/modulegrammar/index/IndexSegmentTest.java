@@ -0,0 +1,123 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.index.IndexSegment.Entry;
+import com.mastfrog.modulegrammar.index.IndexSegment.MergeResult;
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import static com.mastfrog.modulegrammar.parser.ModuleParserErrorListener.THROWING;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IndexSegmentTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testShardedWriteAndMerge() throws Exception {
+        List<List<ModuleModel>> shards = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (int i = 0; i < 30; i++) {
+            ModuleModel mdl = model("m" + i, "dep" + (i % 4));
+            shards.get(IndexSegment.shard(mdl.moduleName(), 3)).add(mdl);
+        }
+        // The same module indexed twice, and a different version of it
+        ModuleModel dupe = model("m7", "dep3");
+        shards.get(IndexSegment.shard("m7", 3)).add(dupe);
+        ModuleModel changed = model("m7", "other");
+        shards.get(IndexSegment.shard("m7", 3)).add(changed);
+
+        List<Path> segments = new ArrayList<>();
+        int[] counts = new int[shards.size()];
+        for (int i = 0; i < shards.size(); i++) {
+            assertFalse(shards.get(i).isEmpty(), "Nothing in shard " + i);
+            Path seg = dir.resolve("seg" + i);
+            counts[i] = IndexSegment.write(seg, shards.get(i));
+            segments.add(seg);
+        }
+        // The duplicate is dropped within its shard
+        assertEquals(31, counts[0] + counts[1] + counts[2]);
+        // Merging a segment with itself must not duplicate anything
+        segments.add(segments.get(0));
+
+        Path merged = dir.resolve("merged");
+        MergeResult result = IndexSegment.merge(merged, segments);
+        assertEquals(31, result.written(), result::toString);
+        assertEquals(31 + counts[0], result.read(), result::toString);
+        assertEquals(counts[0], result.duplicates(), result::toString);
+        assertFalse(Files.exists(dir.resolve("merged.tmp")));
+
+        List<String> names = new ArrayList<>();
+        int m7 = 0;
+        try (IndexSegment.Reader reader = IndexSegment.open(merged)) {
+            for (Entry e = reader.next(); e != null; e = reader.next()) {
+                names.add(e.name());
+                assertEquals(e.fingerprint(), IndexSegment.fingerprint(e.model()));
+                if (e.name().equals("m7")) {
+                    m7++;
+                    assertTrue(e.model().equals(dupe) || e.model().equals(changed));
+                }
+            }
+            assertNull(reader.next());
+        }
+        assertEquals(2, m7);
+        List<String> sorted = new ArrayList<>(names);
+        sorted.sort(null);
+        assertEquals(sorted, names);
+    }
+
+    @Test
+    public void testOrderAndCorruptionAreRejected() throws Exception {
+        Path seg = dir.resolve("seg");
+        try (IndexSegment.Writer writer = IndexSegment.create(seg)) {
+            assertTrue(writer.add(model("b", "x")));
+            assertFalse(writer.add(model("b", "x")));
+            assertThrows(IllegalArgumentException.class, () -> writer.add(model("a", "x")));
+            assertEquals(1, writer.count());
+        }
+        byte[] bytes = Files.readAllBytes(seg);
+        Path truncated = Files.write(dir.resolve("truncated"), Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> IndexSegment.merge(dir.resolve("out"), List.of(seg, truncated)));
+        assertFalse(Files.exists(dir.resolve("out")));
+        assertFalse(Files.exists(dir.resolve("out.tmp")));
+        Path junk = Files.write(dir.resolve("junk"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> IndexSegment.open(junk));
+    }
+
+    private static ModuleModel model(String name, String dep) {
+        return ModuleParser.parse("module " + name + " {\n    requires " + dep + ";\n"
+                + "    exports com." + name + ";\n}\n", THROWING);
+    }
+}
@@ -0,0 +1,113 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.index.LiveModuleIndex.ModuleChange;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LiveModuleIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testIndexTracksChanges() throws Exception {
+        Path a = write("a", "module a {\n    requires foo;\n}\n");
+        BlockingQueue<ModuleChange> changes = new LinkedBlockingQueue<>();
+        try (LiveModuleIndex index = new LiveModuleIndex(Collections.singleton(dir), Duration.ofMillis(50))) {
+            index.start();
+            LiveModuleIndex.Snapshot initial = index.snapshot();
+            assertEquals(1, initial.size());
+            assertTrue(initial.module("a").isPresent());
+            index.subscribe(changes::add);
+
+            Path b = write("b", "module b {\n    requires a;\n}\n");
+            ModuleChange change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change, "No change notification for new module");
+            assertSame(ModuleChange.Kind.ADDED, change.kind());
+            assertEquals(b, change.file());
+            assertTrue(index.snapshot().module("b").get().requires("a"));
+            // Snapshots are never modified after publication
+            assertEquals(1, initial.size());
+            assertTrue(index.snapshot().generation() > initial.generation());
+
+            // A burst of saves should produce a single change
+            for (int i = 0; i < 5; i++) {
+                write("a", "module a {\n    requires foo" + i + ";\n}\n");
+            }
+            change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change, "No change notification for modified module");
+            assertSame(ModuleChange.Kind.CHANGED, change.kind());
+            assertTrue(change.current().get().requires("foo4"), change.current()::toString);
+            assertTrue(change.previous().get().requires("foo"));
+            assertNull(changes.poll(300, TimeUnit.MILLISECONDS), "Burst was not debounced");
+
+            Files.delete(b);
+            change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change, "No change notification for deleted module");
+            assertSame(ModuleChange.Kind.REMOVED, change.kind());
+            assertFalse(index.snapshot().module("b").isPresent());
+            assertEquals(a, index.snapshot().modules().keySet().iterator().next());
+        }
+    }
+
+    @Test
+    public void testThrowingSubscriberDoesNotStarveOthers() throws Exception {
+        write("a", "module a {}\n");
+        BlockingQueue<ModuleChange> changes = new LinkedBlockingQueue<>();
+        BlockingQueue<Exception> failures = new LinkedBlockingQueue<>();
+        try (LiveModuleIndex index = new LiveModuleIndex(Collections.singleton(dir), Duration.ofMillis(50))) {
+            index.onFailure((path, ex) -> failures.add(ex));
+            index.start();
+            index.subscribe(change -> {
+                throw new IllegalStateException("bad subscriber");
+            });
+            index.subscribe(changes::add);
+
+            Path b = write("b", "module b {}\n");
+            ModuleChange change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change, "Second subscriber was not notified");
+            assertEquals(b, change.file());
+            Exception failure = failures.poll(10, TimeUnit.SECONDS);
+            assertNotNull(failure, "Subscriber failure was not reported");
+            assertEquals("bad subscriber", failure.getMessage());
+        }
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path result = dir.resolve(name).resolve("module-info.java");
+        Files.createDirectories(result.getParent());
+        return Files.write(result, content.getBytes(UTF_8));
+    }
+}
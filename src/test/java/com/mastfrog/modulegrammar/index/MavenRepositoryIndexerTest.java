@@ -0,0 +1,152 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MavenRepositoryIndexerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testIndexRepository() throws Exception {
+        Path repo = createRepository();
+        Path out = dir.resolve("index.json");
+        Path checkpoint = dir.resolve("index.checkpoint");
+        List<IndexedArtifact> seen = new ArrayList<>();
+        IndexResult result = new MavenRepositoryIndexer(repo, out, checkpoint)
+                .onIndexed(seen::add)
+                .onFailure((jar, ex) -> fail("Failed on " + jar, ex))
+                .run();
+        assertTrue(result.isComplete());
+        assertFalse(result.isResumed());
+        assertEquals(4, result.jars(), result::toString);
+        assertEquals(3, result.modules(), result::toString);
+        assertFalse(Files.exists(checkpoint), "Checkpoint should be deleted after a complete run");
+
+        assertEquals("com.example:alpha:1.0:sources", seen.get(0).coordinates());
+        assertSame(IndexedArtifact.DescriptorKind.SOURCE, seen.get(0).kind());
+        assertEquals("com.example:alpha:1.0", seen.get(1).coordinates());
+        assertSame(IndexedArtifact.DescriptorKind.CLASS, seen.get(1).kind());
+
+        ModuleModel sql = seen.get(1).model();
+        assertEquals("java.sql", sql.moduleName());
+        assertTrue(sql.requiresTransitive("java.xml"));
+        assertFalse(sql.requires("java.base"), "Mandated requires should be omitted");
+        assertTrue(sql.uses("java.sql.Driver"));
+        assertEquals("java.logging", seen.get(2).model().moduleName());
+
+        assertEquals(3, readRecords(out).size());
+    }
+
+    @Test
+    public void testInterruptedRunResumes() throws Exception {
+        Path repo = createRepository();
+        Path out = dir.resolve("index.json");
+        Path checkpoint = dir.resolve("index.checkpoint");
+        List<String> seen = new ArrayList<>();
+        IndexResult first;
+        try {
+            first = new MavenRepositoryIndexer(repo, out, checkpoint)
+                    .checkpointEvery(1)
+                    .onIndexed(artifact -> {
+                        seen.add(artifact.jar());
+                        Thread.currentThread().interrupt();
+                    }).run();
+        } finally {
+            Thread.interrupted();
+        }
+        assertFalse(first.isComplete());
+        assertEquals(1, first.modules());
+        assertTrue(Files.exists(checkpoint));
+
+        IndexResult second = new MavenRepositoryIndexer(repo, out, checkpoint)
+                .onIndexed(artifact -> seen.add(artifact.jar()))
+                .run();
+        assertTrue(second.isComplete());
+        assertTrue(second.isResumed());
+        assertEquals(3, second.modules(), second::toString);
+        assertEquals(4, second.jars(), second::toString);
+        assertEquals(3, seen.size(), "Some jars indexed twice: " + seen);
+        assertEquals(3, seen.stream().distinct().count(), "Some jars indexed twice: " + seen);
+
+        List<Map<String, Object>> records = readRecords(out);
+        assertEquals(3, records.size());
+        assertEquals("com.example:alpha:1.0:sources", records.get(0).get("artifact"));
+        assertEquals("org.example:gamma:3.0", records.get(2).get("artifact"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> readRecords(Path out) throws IOException {
+        List<Map<String, Object>> result = new ArrayList<>();
+        try (MappingIterator<Map> it = new ObjectMapper().readerFor(Map.class).readValues(out.toFile())) {
+            while (it.hasNext()) {
+                result.add(it.next());
+            }
+        }
+        return result;
+    }
+
+    private Path createRepository() throws IOException {
+        Path repo = dir.resolve("repository");
+        Path jrt = FileSystems.getFileSystem(URI.create("jrt:/")).getPath("/modules");
+        byte[] sql = Files.readAllBytes(jrt.resolve("java.sql/module-info.class"));
+        byte[] logging = Files.readAllBytes(jrt.resolve("java.logging/module-info.class"));
+        jar(repo.resolve("com/example/alpha/1.0/alpha-1.0.jar"), "module-info.class", sql);
+        jar(repo.resolve("com/example/alpha/1.0/alpha-1.0-sources.jar"), "module-info.java",
+                "import java.sql.Driver;\nmodule alpha {\n    requires java.sql;\n    uses Driver;\n}\n".getBytes(UTF_8));
+        jar(repo.resolve("com/example/beta/2.0/beta-2.0.jar"), "com/example/Beta.class", new byte[]{1, 2, 3});
+        jar(repo.resolve("org/example/gamma/3.0/gamma-3.0.jar"), "META-INF/versions/11/module-info.class", logging);
+        Files.write(repo.resolve("org/example/gamma/3.0/gamma-3.0.pom"), "<project/>".getBytes(UTF_8));
+        return repo;
+    }
+
+    private static void jar(Path path, String entry, byte[] bytes) throws IOException {
+        Files.createDirectories(path.getParent());
+        try (OutputStream out = Files.newOutputStream(path);
+                ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry(entry));
+            zip.write(bytes);
+            zip.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.index;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import static com.mastfrog.modulegrammar.parser.ModuleParserErrorListener.THROWING;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ModuleIndexFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testWriteAndQuery() throws Exception {
+        ModuleModel c = ModuleParser.parse("import com.x.spi.Thing;\n"
+                + "@Deprecated\nmodule c {\n    requires transitive a;\n    requires static b;\n"
+                + "    exports com.c;\n    exports com.c.spi to a, b;\n"
+                + "    opens com.c.impl;\n    uses Thing;\n"
+                + "    provides Thing with com.c.CThing;\n}\n", THROWING);
+        ModuleModel a = ModuleParser.parse("module a {\n    exports com.a;\n    opens com.a.impl to c;\n}\n", THROWING);
+        ModuleModel b = ModuleParser.parse("open module b {\n    requires a;\n"
+                + "    provides com.x.spi.Thing with com.b.BThing;\n}\n", THROWING);
+        Path file = dir.resolve("modules.idx");
+        ModuleIndexFile.write(file, Arrays.asList(c, a, b));
+        assertFalse(Files.exists(dir.resolve("modules.idx.tmp")));
+
+        ModuleIndexFile index = ModuleIndexFile.open(file);
+        assertEquals(3, index.size());
+        assertEquals("a", index.name(0));
+        assertEquals("b", index.name(1));
+        assertEquals("c", index.name(2));
+        assertEquals(2, index.indexOf("c"));
+        assertEquals(-1, index.indexOf("d"));
+        assertEquals(-1, index.indexOf("com.a"));
+        assertTrue(index.isOpen(1));
+        assertFalse(index.isOpen(0));
+
+        assertTrue(index.requires(2, "a"));
+        assertTrue(index.requiresTransitive(2, "a"));
+        assertTrue(index.requires(2, "b"));
+        assertFalse(index.requiresTransitive(2, "b"));
+        assertFalse(index.requires(0, "b"));
+        assertTrue(index.exports(2, "com.c.spi"));
+        assertFalse(index.exports(2, "com.a"));
+        assertTrue(index.opens(2, "com.c.impl"));
+        assertTrue(index.opens(0, "com.a.impl"));
+        // Type names are resolved against imports
+        assertTrue(index.uses(2, "com.x.spi.Thing"));
+        assertTrue(index.provides(2, "com.x.spi.Thing"));
+
+        assertArrayEquals(new int[]{1, 2}, index.modulesRequiring("a"));
+        assertArrayEquals(new int[0], index.modulesRequiring("nothing"));
+        assertArrayEquals(new int[]{0}, index.modulesExporting("com.a"));
+        assertArrayEquals(new int[]{1, 2}, index.modulesProviding("com.x.spi.Thing"));
+        assertArrayEquals(new int[]{2}, index.modulesUsing("com.x.spi.Thing"));
+
+        // Models are decoded as written, annotations and imports included
+        assertEquals(c, index.model(2));
+        assertEquals(a, index.model("a").get());
+        assertFalse(index.model("d").isPresent());
+        assertEquals(1, index.model(2).annotations().size());
+
+        ModuleIndexFile copy = ModuleIndexFile.of(ByteBuffer.wrap(Files.readAllBytes(file)));
+        assertEquals(b, copy.model(1));
+    }
+
+    @Test
+    public void testEmptyAndInvalid() throws Exception {
+        Path file = dir.resolve("empty.idx");
+        ModuleIndexFile.write(file, List.of());
+        ModuleIndexFile index = ModuleIndexFile.open(file);
+        assertEquals(0, index.size());
+        assertEquals(-1, index.indexOf("a"));
+        assertArrayEquals(new int[0], index.modulesRequiring("a"));
+
+        Path junk = Files.write(dir.resolve("junk.idx"), "not an index at all, really not".getBytes());
+        assertThrows(IOException.class, () -> ModuleIndexFile.open(junk));
+        byte[] truncated = Arrays.copyOf(Files.readAllBytes(file), (int) Files.size(file) - 4);
+        assertThrows(IOException.class, () -> ModuleIndexFile.of(ByteBuffer.wrap(truncated)));
+    }
+}
@@ -0,0 +1,176 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.json;
+
+import com.mastfrog.modulegrammar.model.ModelInterner;
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValue;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValueKind;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import static com.mastfrog.modulegrammar.parser.ModuleParserErrorListener.THROWING;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class JsonReaderTest {
+
+    private static final String SOURCE = "import com.foo.Svc;\n"
+            + "import com.foo.Marker;\n"
+            + "import com.foo.*;\n"
+            + "@Marker(value = {@Inner(name = \"a \\\"b\\\"\", n = 3000000000)}, c = 'q', b = true,\n"
+            + "    ints = {1, 2, 3}, d = 2.5, e = Kind.FOO, k = String.class, empty = {}, s = \"Café\")\n"
+            + "open module a.b {\n"
+            + "    requires transitive java.logging;\n"
+            + "    requires static c.d;\n"
+            + "    uses Svc;\n"
+            + "    provides Svc with com.foo.SvcImpl, com.foo.OtherImpl;\n"
+            + "    exports a.b.api;\n"
+            + "    exports a.b.spi to x.y, z;\n"
+            + "    opens a.b.impl to q;\n"
+            + "    opens a.b.data;\n"
+            + "}\n";
+
+    @Test
+    public void testTokens() {
+        JsonReader r = JsonReader.of(" {\"a\" : [1, -2.5e3, true, false, null, \"x\\ty\\u00e9\\\"\"], \"b\":{}} ");
+        r.beginObject();
+        assertEquals("a", r.nextName());
+        r.beginArray();
+        assertEquals("1", r.nextNumber());
+        assertEquals("-2.5e3", r.nextNumber());
+        assertTrue(r.nextBoolean());
+        assertFalse(r.nextBoolean());
+        r.nextNull();
+        assertEquals("x\tyé\"", r.nextString());
+        assertFalse(r.hasNext());
+        r.endArray();
+        assertEquals("b", r.nextName());
+        r.skipValue();
+        r.endObject();
+        r.end();
+
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.of("[1,]").skipValue());
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.of("{\"a\" 1}").skipValue());
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.of("[\"abc").skipValue());
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> {
+            JsonReader trailing = JsonReader.of("{}\n  x");
+            trailing.skipValue();
+            trailing.end();
+        });
+        assertTrue(ex.getMessage().endsWith("2:3"), ex.getMessage());
+    }
+
+    @Test
+    public void testModelRoundTrip() throws Exception {
+        ModuleModel mdl = ModuleParser.parse(SOURCE, THROWING);
+        ModuleModel fromPretty = ModuleModel.fromJson(mdl.toJson());
+        assertEquals(mdl, fromPretty);
+        assertEquals(mdl.toJson(), fromPretty.toJson());
+        assertEquals(mdl, ModuleModel.fromJson(mdl.toCompactJson()));
+        assertEquals(mdl, ModuleModel.fromJson(new ByteArrayInputStream(mdl.toJson().getBytes(UTF_8))));
+        ModuleModel resolved = mdl.resolved();
+        assertEquals(resolved, ModuleModel.fromJson(resolved.toJson()));
+        assertTrue(fromPretty.provides("com.foo.Svc", "com.foo.OtherImpl"));
+
+        AnnotationModel marker = fromPretty.annotations().get(0);
+        assertSame(AnnotationValueKind.CHAR, marker.getProperty("c").get().kind());
+        assertSame(AnnotationValueKind.CLASS, marker.getProperty("k").get().kind());
+        assertSame(AnnotationValueKind.ENUM, marker.getProperty("e").get().kind());
+        assertTrue(marker.getProperty("ints").get().isPrimitiveArray());
+        AnnotationValue<?> inner = ((java.util.List<?>) marker.getProperty("value").get().value())
+                .stream().map(AnnotationValue.class::cast).findFirst().get();
+        assertSame(AnnotationValueKind.ANNOTATION, inner.kind());
+        assertEquals(3000000000L, ((AnnotationModel) inner.value()).getProperty("n").get().value());
+    }
+
+    @Test
+    public void testValues() {
+        assertEquals(AnnotationValue.ofInts(1, 2, 3),
+                AnnotationValue.fromJson(AnnotationValue.ofInts(1, 2, 3).toCompactJson()));
+        assertEquals(Arrays.asList(AnnotationValue.ofLong(5000000000L), AnnotationValue.ofDouble(0.1)),
+                Arrays.asList(AnnotationValue.fromJson("{\"kind\":\"INT\",\"value\":5000000000}"),
+                        AnnotationValue.fromJson("{\"kind\":\"FLOAT\",\"value\":0.1}")));
+        assertThrows(IllegalArgumentException.class,
+                () -> AnnotationValue.fromJson("{\"value\":1,\"kind\":\"INT\"}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> AnnotationValue.fromJson("{\"kind\":\"NOPE\",\"value\":1}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> ModuleModel.fromJson("{\"open\":true}"));
+    }
+
+    @Test
+    public void testNumericWidthsRoundTrip() throws Exception {
+        ModuleModel mdl = ModuleParser.parse("@Foo(a = 5L, b = 1.5F, c = 5, d = 1.5, e = 0.1F,\n"
+                + "    longs = {1L, 2L}, floats = {0.1F, 2F})\nmodule x {}\n", THROWING);
+        // JSON numbers carry no width; the output is unchanged by it
+        String json = mdl.toCompactJson();
+        assertFalse(json.contains("\"type\""), json);
+        assertTrue(json.contains("\"value\":5}"), json);
+        ModuleModel read = ModuleModel.fromJson(mdl.toJson());
+        assertEquals(mdl, read);
+        assertEquals(mdl.hashCode(), read.hashCode());
+        assertEquals(mdl, ModuleModel.fromJson(json));
+        AnnotationModel foo = read.annotations().get(0);
+        assertEquals(5, foo.getProperty("a").get().value());
+        assertEquals(1.5D, foo.getProperty("b").get().value());
+        assertEquals(0.1D, foo.getProperty("e").get().value());
+
+        // Numbers compare by value across widths, at float precision for floats
+        assertEquals(AnnotationValue.ofLong(5), AnnotationValue.ofInt(5));
+        assertEquals(AnnotationValue.ofLong(-5).hashCode(), AnnotationValue.ofInt(-5).hashCode());
+        assertEquals(AnnotationValue.ofFloat(0.1F), AnnotationValue.ofDouble(0.1));
+        assertEquals(AnnotationValue.ofFloat(0.1F).hashCode(), AnnotationValue.ofDouble(0.1).hashCode());
+        assertNotEquals(AnnotationValue.ofLong(5), AnnotationValue.ofInt(6));
+        assertNotEquals(AnnotationValue.ofFloat(0.1F), AnnotationValue.ofDouble(0.2));
+        assertNotEquals(AnnotationValue.ofDouble(0.1), AnnotationValue.ofDouble(0.1000000001));
+        assertEquals(AnnotationValue.ofLongs(1, 2), AnnotationValue.ofInts(1, 2));
+
+        // The binary format keeps widths exactly
+        AnnotationModel binary = binaryCopy(mdl).annotations().get(0);
+        assertEquals(5L, binary.getProperty("a").get().value());
+        assertEquals(1.5F, binary.getProperty("b").get().value());
+
+        // Interning never swaps one width for another
+        ModelInterner interner = new ModelInterner();
+        assertSame(Integer.class, interner.intern(AnnotationValue.ofInt(5)).value().getClass());
+        assertSame(Long.class, interner.intern(AnnotationValue.ofLong(5)).value().getClass());
+        ModuleModel narrow = interner.intern(ModuleModel.fromJson(mdl.toJson()).toBuilder().build());
+        ModuleModel wide = interner.intern(binaryCopy(mdl).toBuilder().build());
+        assertEquals(narrow, wide);
+        assertNotSame(narrow, wide);
+        assertEquals(5L, wide.annotations().get(0).getProperty("a").get().value());
+    }
+
+    private static ModuleModel binaryCopy(ModuleModel mdl) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mdl.writeTo(new DataOutputStream(bytes));
+        return ModuleModel.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
@@ -0,0 +1,152 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.json;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValue;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import static com.mastfrog.modulegrammar.parser.ModuleParserErrorListener.THROWING;
+import java.io.ByteArrayOutputStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class JsonWriterTest {
+
+    @Test
+    public void testEscaping() {
+        assertEquals("\"a\\\"b\\\\c\\nd\\te\\u0001f\\u2028g\"",
+                JsonWriter.quote("a\"b\\c\nd\te\u0001f\u2028g", new StringBuilder()).toString());
+        assertEquals("\"plain\"", JsonWriter.quote("plain", new StringBuilder()).toString());
+    }
+
+    @Test
+    public void testCompactAndPretty() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("a", 1);
+        map.put("b", Arrays.asList("x", null, 'y', 2.5F));
+        map.put("c", new LinkedHashMap<>());
+        map.put("d", null);
+        StringBuilder sb = new StringBuilder();
+        JsonWriter.to(sb, false).value(map);
+        assertEquals("{\"a\":1,\"b\":[\"x\",\"y\",2.5],\"c\":{},\"d\":null}", sb.toString());
+        sb.setLength(0);
+        JsonWriter.to(sb, true).value(map);
+        assertEquals("{\n    \"a\" : 1,\n    \"b\" : [\n        \"x\",\n        \"y\",\n        2.5],\n"
+                + "    \"c\" : {},\n    \"d\" : null\n}", sb.toString());
+    }
+
+    @Test
+    public void testModelOutput() {
+        ModuleModel mdl = ModuleParser.parse("import com.foo.Svc;\n"
+                + "@Note(\"Café \\\"😀\\\"\")\n"
+                + "module a.b {\n"
+                + "    requires static c.d;\n"
+                + "    provides Svc with com.foo.SvcImpl;\n"
+                + "}\n", THROWING);
+        String pretty = mdl.toJson();
+        assertTrue(pretty.contains("\"module\" : \"c.d\", \"transitive\" : false, \"static\" : true"), pretty);
+        String compact = mdl.toCompactJson();
+        assertFalse(compact.contains("\n") || compact.contains(" : "), compact);
+        assertTrue(compact.contains("{\"module\":\"c.d\",\"transitive\":false,\"static\":true}"), compact);
+        assertTrue(compact.contains("\"Café \\\\\\\"😀\\\\\\\"\""), compact);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = JsonWriter.toUtf8(out, true);
+        writer.value(mdl);
+        writer.flush();
+        assertEquals(pretty, new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void testLegacyRenderablesBridge() {
+        JsonRenderable legacy = new JsonRenderable() {
+            @Override
+            public StringBuilder renderJsonInto(StringBuilder sb) {
+                return sb.append("{\"legacy\" : true}");
+            }
+        };
+        StringBuilder sb = new StringBuilder();
+        JsonWriter.to(sb, false).startArray().value(legacy).value(1).endArray();
+        assertEquals("[{\"legacy\" : true},1]", sb.toString());
+        assertEquals("{\"legacy\" : true}", legacy.toCompactJson());
+
+        // A streaming renderable may contain a legacy one
+        JsonRenderable nested = new JsonRenderable() {
+            @Override
+            public void writeJson(JsonWriter writer) {
+                writer.startArray().value(legacy).endArray();
+            }
+        };
+        assertEquals("[{\"legacy\" : true}]", nested.toCompactJson());
+        assertEquals("[\n    {\"legacy\" : true}]", nested.toJson());
+
+        JsonRenderable neither = new JsonRenderable() {
+        };
+        assertThrows(IllegalStateException.class, neither::toJson);
+        assertThrows(IllegalStateException.class, neither::toCompactJson);
+    }
+
+    @Test
+    public void testUnrepresentableValues() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = JsonWriter.toUtf8(out, false);
+        // Output ending in half a surrogate pair leaves the encoder holding
+        // it when flushed
+        writer.rawValue("\"a\ud83d");
+        writer.flush();
+        assertArrayEquals("\"a\ud83d".getBytes(UTF_8), out.toByteArray());
+        assertEquals("\"a?", new String(out.toByteArray(), UTF_8));
+
+        StringBuilder sb = new StringBuilder();
+        JsonWriter.to(sb, false).value(Arrays.asList(Double.NaN, Float.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, 1.5));
+        assertEquals("[\"NaN\",\"Infinity\",\"-Infinity\",1.5]", sb.toString());
+        JsonReader reader = JsonReader.of(sb);
+        reader.beginArray();
+        assertEquals("NaN", reader.nextNumber());
+        assertEquals("Infinity", reader.nextNumber());
+        assertEquals("-Infinity", reader.nextNumber());
+        assertEquals("1.5", reader.nextNumber());
+        reader.endArray();
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.of("\"nope\"").nextNumber());
+
+        AnnotationValue<Number> nan = AnnotationValue.ofDouble(Double.NaN);
+        assertEquals(nan, AnnotationValue.fromJson(nan.toCompactJson()));
+        AnnotationValue<Number> inf = AnnotationValue.ofFloat(Float.NEGATIVE_INFINITY);
+        assertEquals(inf, AnnotationValue.fromJson(inf.toJson()));
+    }
+
+    @Test
+    public void testMisuseIsRejected() {
+        JsonWriter w = JsonWriter.to(new StringBuilder(), true);
+        w.startObject().key("x");
+        assertThrows(IllegalStateException.class, () -> w.key("y"));
+        JsonWriter w2 = JsonWriter.to(new StringBuilder(), true).startInlineObject().key("x");
+        assertThrows(IllegalStateException.class, w2::startArray);
+    }
+}
@@ -0,0 +1,123 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import static com.mastfrog.modulegrammar.parser.ModuleParserErrorListener.THROWING;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class ArraySetTest {
+
+    private static final String[] NONE = new String[0];
+
+    @Test
+    public void testSortedDeduplicatesAndShares() {
+        String[] sorted = ArraySet.sorted(Arrays.asList("c", "a", "b", "a", "c"), NONE);
+        assertArrayEquals(new String[]{"a", "b", "c"}, sorted);
+        assertSame(NONE, ArraySet.sorted(Collections.emptyList(), NONE));
+        ArraySet<String> set = new ArraySet<>(sorted);
+        // An ArraySet's array is shared, not copied
+        assertSame(sorted, ArraySet.sorted(set, NONE));
+        assertEquals(Set.of("a", "b", "c"), set);
+        assertEquals(Set.of("a", "b", "c").hashCode(), set.hashCode());
+        assertTrue(set.contains("b"));
+        assertFalse(set.contains("d"));
+        assertFalse(set.contains(3));
+        assertEquals(List.of("a", "b", "c"), List.copyOf(set));
+    }
+
+    @Test
+    public void testIndexOf() {
+        String[] sorted = {"b", "d", "f"};
+        assertEquals(0, ArraySet.indexOf(sorted, "b"));
+        assertEquals(2, ArraySet.indexOf(sorted, "f"));
+        assertEquals(-1, ArraySet.indexOf(sorted, "a"));
+        assertEquals(-2, ArraySet.indexOf(sorted, "c"));
+        assertEquals(-4, ArraySet.indexOf(sorted, "g"));
+        assertEquals(-1, ArraySet.indexOf(NONE, "a"));
+    }
+
+    @Test
+    public void testWithAndWithout() {
+        String[] sorted = {"b", "d"};
+        assertArrayEquals(new String[]{"a", "b", "d"}, ArraySet.with(sorted, "a"));
+        assertArrayEquals(new String[]{"b", "c", "d"}, ArraySet.with(sorted, "c"));
+        assertArrayEquals(new String[]{"b", "d", "e"}, ArraySet.with(sorted, "e"));
+        assertSame(sorted, ArraySet.with(sorted, "b"));
+        assertArrayEquals(new String[]{"d"}, ArraySet.without(sorted, "b"));
+        assertSame(sorted, ArraySet.without(sorted, "c"));
+        // The originals are never modified
+        assertArrayEquals(new String[]{"b", "d"}, sorted);
+
+        Require[] requires = {new Require(false, false, "a")};
+        Require replacement = new Require(true, false, "a");
+        Require[] replaced = ArraySet.with(requires, replacement);
+        assertNotSame(requires, replaced);
+        assertSame(replacement, replaced[0]);
+        assertEquals(1, replaced.length);
+    }
+
+    @Test
+    public void testEqualityUsesEqualsNotCompareTo() {
+        ArraySet<Require> plain = new ArraySet<>(new Require[]{new Require(false, false, "a")});
+        ArraySet<Require> statik = new ArraySet<>(new Require[]{new Require(true, false, "a")});
+        assertNotEquals(plain, statik);
+    }
+
+    @Test
+    public void testDuplicateClausesMerge() {
+        // javac rejects these; duplicate requires merge to the strongest
+        // modifiers, other duplicate clauses keep the first
+        ModuleModel mdl = ModuleParser.parse("module m {\n    requires static a;\n    requires a;\n"
+                + "    exports a.p to x;\n    exports a.p;\n}\n", THROWING);
+        assertEquals(1, mdl.requires().size());
+        assertTrue(mdl.requires("a"));
+        assertFalse(mdl.requiresStatic("a"));
+        assertEquals(1, mdl.exports().size());
+        assertFalse(mdl.exports().iterator().next().isExportedTo("y"));
+
+        ModuleModel forward = ModuleParser.parse("module m {\n    requires static a;\n"
+                + "    requires transitive a;\n}\n", THROWING);
+        ModuleModel reversed = ModuleParser.parse("module m {\n    requires transitive a;\n"
+                + "    requires static a;\n}\n", THROWING);
+        assertEquals(forward, reversed);
+        assertEquals("    requires transitive a;", forward.requires().iterator().next().toString());
+        assertEquals("    requires static transitive a;", ModuleParser.parse("module m {\n"
+                + "    requires static a;\n    requires static transitive a;\n}\n", THROWING)
+                .requires().iterator().next().toString());
+
+        Require plain = new Require(false, false, "a");
+        Require statik = new Require(true, false, "a");
+        assertSame(plain, Require.strongest(plain, statik));
+        assertSame(plain, Require.strongest(statik, plain));
+        assertEquals(new Require(false, true, "a"), Require.strongest(plain, new Require(true, true, "a")));
+        String[] merged = ArraySet.sorted(Arrays.asList("b", "a", "b"), NONE, (x, y) -> x + y);
+        assertArrayEquals(new String[]{"a", "bb"}, merged);
+    }
+}
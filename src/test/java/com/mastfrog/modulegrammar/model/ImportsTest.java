@@ -0,0 +1,63 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class ImportsTest {
+
+    @Test
+    public void testResolve() {
+        Imports imports = new Imports(Arrays.asList("com.foo.Svc", "com.foo.Outer.Inner", "org.bar.Svc",
+                "com.foo.Override"));
+        assertEquals("com.foo.Svc", imports.resolve("Svc"));
+        assertEquals("com.foo.Outer.Inner", imports.resolve("Inner"));
+        assertEquals("org.bar.Svc", imports.resolve("org.bar.Svc"));
+        assertEquals("Nothing", imports.resolve("Nothing"));
+        // Explicit imports shadow java.lang
+        assertEquals("com.foo.Override", imports.resolve("Override"));
+        assertEquals("java.lang.Deprecated", imports.resolve("Deprecated"));
+        assertEquals("java.lang.Iterable", Imports.EMPTY.resolve("Iterable"));
+        assertEquals("java.lang.Runnable", Imports.EMPTY.resolve("Runnable"));
+        assertEquals("java.lang.FunctionalInterface", Imports.EMPTY.resolve("FunctionalInterface"));
+    }
+
+    @Test
+    public void testJavaLangCatalogIsCompleteAndPublic() throws Exception {
+        int found = 0;
+        for (String name : new String[]{"Object", "String", "Iterable", "Runnable", "AutoCloseable",
+            "Override", "SuppressWarnings", "Record", "StackWalker", "Thread"}) {
+            assertEquals("java.lang." + name, JavaLangCatalog.resolve(name));
+            found++;
+        }
+        assertEquals(10, found);
+        assertTrue(JavaLangCatalog.size() > 90, "Catalog too small: " + JavaLangCatalog.size());
+        // Package-private and nested types cannot be referenced by simple name
+        assertNull(JavaLangCatalog.resolve("StringLatin1"));
+        assertNull(JavaLangCatalog.resolve("State"));
+        assertNull(JavaLangCatalog.resolve("Svc"));
+    }
+}
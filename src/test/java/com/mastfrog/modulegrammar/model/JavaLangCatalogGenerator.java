@@ -0,0 +1,152 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Regenerates the java.lang type table used by JavaLangCatalog from the
+ * running JDK's <code>jrt:/</code> filesystem. Not run by default; run with
+ * <code>mvn test -Dtest=JavaLangCatalogGenerator -Dregenerate=true</code> and
+ * commit the result when moving to a new JDK.
+ */
+@EnabledIfSystemProperty(named = "regenerate", matches = "true")
+public class JavaLangCatalogGenerator {
+
+    private static final Path TARGET = Paths.get("src/main/resources/com/mastfrog/modulegrammar/model",
+            JavaLangCatalog.RESOURCE);
+
+    @Test
+    public void regenerate() throws Exception {
+        List<String> names = javaLangTypes();
+        int[] seeds = new int[Math.max(1, names.size() / 4)];
+        String[] slots = perfectHash(names, seeds);
+        try (OutputStream out = Files.newOutputStream(TARGET)) {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(JavaLangCatalog.MAGIC);
+            data.writeInt(slots.length);
+            data.writeInt(seeds.length);
+            for (int seed : seeds) {
+                data.writeInt(seed);
+            }
+            for (String name : slots) {
+                data.writeUTF(name);
+            }
+            data.flush();
+        }
+        for (int i = 0; i < slots.length; i++) {
+            assertEquals(i, JavaLangCatalog.slot(slots[i], seeds, slots.length));
+        }
+        System.out.println("Wrote " + slots.length + " java.lang types to " + TARGET.toAbsolutePath());
+    }
+
+    private static List<String> javaLangTypes() throws IOException, ClassNotFoundException {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        TreeSet<String> result = new TreeSet<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(
+                jrt.getPath("/modules/java.base/java/lang"), "*.class")) {
+            for (Path file : dir) {
+                String name = file.getFileName().toString();
+                name = name.substring(0, name.length() - ".class".length());
+                if (name.indexOf('$') >= 0 || name.indexOf('-') >= 0) {
+                    continue;
+                }
+                Class<?> type = Class.forName("java.lang." + name, false,
+                        ClassLoader.getPlatformClassLoader());
+                if (Modifier.isPublic(type.getModifiers())) {
+                    result.add(name);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Hash-and-displace: place the largest buckets first, searching for a
+     * seed which sends every name in the bucket to a distinct free slot.
+     */
+    private static String[] perfectHash(List<String> names, int[] seeds) {
+        List<List<String>> buckets = new ArrayList<>();
+        for (int i = 0; i < seeds.length; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (String name : names) {
+            buckets.get(Math.floorMod(JavaLangCatalog.hash(name, 0), seeds.length)).add(name);
+        }
+        Integer[] order = new Integer[seeds.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(buckets.get(b).size(), buckets.get(a).size()));
+        String[] slots = new String[names.size()];
+        for (int bucket : order) {
+            List<String> members = buckets.get(bucket);
+            for (int seed = 1;; seed++) {
+                int[] placed = tryPlace(members, seed, slots);
+                if (placed != null) {
+                    for (int i = 0; i < placed.length; i++) {
+                        slots[placed[i]] = members.get(i);
+                    }
+                    seeds[bucket] = seed;
+                    break;
+                }
+            }
+        }
+        return slots;
+    }
+
+    private static int[] tryPlace(List<String> members, int seed, String[] slots) {
+        int[] result = new int[members.size()];
+        for (int i = 0; i < result.length; i++) {
+            int slot = Math.floorMod(JavaLangCatalog.hash(members.get(i), seed), slots.length);
+            if (slots[slot] != null) {
+                return null;
+            }
+            for (int j = 0; j < i; j++) {
+                if (result[j] == slot) {
+                    return null;
+                }
+            }
+            result[i] = slot;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import static com.mastfrog.modulegrammar.parser.ModuleParserErrorListener.THROWING;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Measures the heap retained per parsed ModuleModel. Not run by default; run
+ * with <code>mvn test -Dtest=ModelMemoryBenchmark -Dbenchmark=true</code>.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class ModelMemoryBenchmark {
+
+    private static final int MODELS = 20000;
+
+    @Test
+    public void measureBytesPerModel() {
+        // Warm up, so class loading and JIT are not measured
+        parseAll(1000);
+        long before = usedHeap();
+        List<ModuleModel> models = parseAll(MODELS);
+        long after = usedHeap();
+        assertEquals(MODELS, models.size());
+        System.out.println("Retained bytes per model: " + ((after - before) / MODELS));
+        System.out.println("Estimated: " + MemoryEstimate.of(models));
+    }
+
+    @Test
+    public void measureBytesPerInternedModel() {
+        parseAll(1000);
+        ModelInterner interner = new ModelInterner();
+        long before = usedHeap();
+        List<ModuleModel> models = parseAll(MODELS);
+        models.replaceAll(interner::intern);
+        long after = usedHeap();
+        assertEquals(MODELS, models.size());
+        System.out.println("Retained bytes per interned model: " + ((after - before) / MODELS));
+        System.out.println("Estimated: " + MemoryEstimate.of(models));
+    }
+
+    private static List<ModuleModel> parseAll(int count) {
+        List<ModuleModel> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(ModuleParser.parse(source(i), THROWING));
+        }
+        return result;
+    }
+
+    static String source(int i) {
+        return "import com.mastfrog.modxule.annotations.Artifact;\n"
+                + "import com.mastfrog.module.annotations.Maven;\n"
+                + "import com.mastfrog.util.service.AbstractWoogle;\n"
+                + "import javax.annotation.processing.Processor;\n"
+                + "@Maven(value = {@Artifact(javaModule = \"util.preconditions\", is = \"com.mastfrog:util-preconditions:" + i + "\")})\n"
+                + "module build.thing" + i + " {\n"
+                + "    requires static module.annotations;\n"
+                + "    requires module.info.grammar;\n"
+                + "    requires transitive fnords.are.invisible;\n"
+                + "    requires java.logging;\n"
+                + "    requires java.compiler;\n"
+                + "    exports com.foo.thing" + i + ";\n"
+                + "    exports com.foo.thing" + i + ".spi to com.foo.other, com.foo.another;\n"
+                + "    opens com.foo.thing" + i + ".impl to com.fasterxml.jackson.databind;\n"
+                + "    uses AbstractWoogle;\n"
+                + "    provides Processor with\n"
+                + "       com.foo.DefaultsAnnotationProcessor,\n"
+                + "       com.foo.NamespaceAnnotationProcessor;\n"
+                + "}\n";
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        long result = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            result = Math.min(result, rt.totalMemory() - rt.freeMemory());
+        }
+        return result;
+    }
+}
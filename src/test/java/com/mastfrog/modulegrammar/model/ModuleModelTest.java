@@ -0,0 +1,492 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValue;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationValueKind;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import com.mastfrog.modulegrammar.parser.ModuleParserErrorListener;
+import com.mastfrog.modulegrammar.model.annotation.AnnotationModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class ModuleModelTest {
+
+    private static final String SOURCE = "import com.foo.Svc;\n"
+            + "module a.b {\n"
+            + "    requires java.logging;\n"
+            + "    requires static c.d;\n"
+            + "    uses Svc;\n"
+            + "    provides Svc with com.foo.SvcImpl;\n"
+            + "    exports a.b.api;\n"
+            + "}\n";
+
+    @Test
+    public void testBuilderDerivesWithoutDisturbingOriginal() throws Exception {
+        ModuleModel orig = parse(SOURCE);
+        assertEquals(orig, orig.toBuilder().build());
+
+        ModuleModel plusOne = orig.toBuilder().withRequire("e.f").build();
+        assertTrue(plusOne.requires("e.f"));
+        assertFalse(orig.requires("e.f"));
+        assertEquals(3, plusOne.requires().size());
+        // Untouched sections are shared
+        assertSame(orig.uses(), plusOne.uses());
+        assertSame(orig.imports(), plusOne.imports());
+
+        ModuleModel.Builder base = orig.toBuilder().withoutExport("a.b.api");
+        assertSame(base, base.withoutExport("no.such.pkg"));
+        ModuleModel transitive = base.withRequire(new Require(false, true, "java.logging")).build();
+        assertTrue(transitive.requiresTransitive("java.logging"));
+        assertTrue(transitive.exports().isEmpty());
+        assertFalse(base.build().requiresTransitive("java.logging"));
+        assertFalse(orig.exports().isEmpty());
+
+        ModuleModel rebuilt = ModuleModel.builder("a.b")
+                .withImport("com.foo.Svc")
+                .withRequire("java.logging")
+                .withRequire(new Require(true, false, "c.d"))
+                .withUses("Svc")
+                .withProvides(new Provides("Svc", Collections.singleton("com.foo.SvcImpl")))
+                .withExport(new Export("a.b.api", (ExportTargets) null))
+                .build();
+        assertEquals(orig, rebuilt);
+        assertEquals(orig.toString(), rebuilt.toString());
+        assertEquals(parse(rebuilt.toString()), rebuilt);
+    }
+
+    @Test
+    public void testInternerCanonicalizesElements() throws Exception {
+        String src = SOURCE.replace("module a.b", "import com.foo.Ann;\n"
+                + "@Ann(deps = {@Dep(name = \"x\"), @Dep(name = \"y\")}, count = 5)\n"
+                + "module a.b");
+        ModelInterner interner = new ModelInterner();
+        ModuleModel a = parse(src);
+        ModuleModel b = parse(src.replace("a.b.api", "a.b.other"));
+        ModuleModel ia = interner.intern(a);
+        ModuleModel ib = interner.intern(b);
+        assertEquals(a, ia);
+        assertEquals(b, ib);
+        assertEquals(a.hashCode(), ia.hashCode());
+        assertNotSame(ia, ib);
+        // Parsed models have positions, so are not pooled whole
+        ModuleModel again = parse(src);
+        ModuleModel iagain = interner.intern(again);
+        assertEquals(ia, iagain);
+        assertNotSame(ia, iagain);
+        assertSame(ia.annotations().get(0), iagain.annotations().get(0));
+        // Models without positions are
+        ModuleModel built = a.toBuilder().build();
+        assertSame(interner.intern(built), interner.intern(built.toBuilder().build()));
+        assertSame(ia.annotations().get(0), ib.annotations().get(0));
+        assertSame(ia.imports(), ib.imports());
+        assertSame(find(ia, "java.logging"), find(ib, "java.logging"));
+        assertSame(interner.intern(new Require(false, false, "java.logging")), find(ia, "java.logging"));
+        // Values of different kinds must not be conflated
+        assertNotEquals(new AnnotationValue<>(AnnotationValueKind.STRING, "Foo"),
+                new AnnotationValue<>(AnnotationValueKind.CLASS, "Foo"));
+    }
+
+    @Test
+    public void testAnnotationsMaterializeOnceAcrossThreads() throws Exception {
+        String src = SOURCE.replace("module a.b", "import com.foo.Ann;\n"
+                + "@Ann(deps = {@Dep(name = \"x\")}, count = 5) // comment\n"
+                + "@Other\n"
+                + "module a.b");
+        ModuleModel mdl = parse(src);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService exe = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<? extends AnnotationModel>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(exe.submit(() -> {
+                    start.await();
+                    return mdl.annotations();
+                }));
+            }
+            start.countDown();
+            List<? extends AnnotationModel> first = results.get(0).get(10, TimeUnit.SECONDS);
+            assertEquals(2, first.size());
+            assertEquals("@Ann(count = 5, deps = {@Dep(name = \"x\")})", first.get(0).toString());
+            assertEquals("@Other", first.get(1).toString());
+            for (Future<List<? extends AnnotationModel>> f : results) {
+                assertSame(first.get(0), f.get(10, TimeUnit.SECONDS).get(0));
+            }
+        } finally {
+            exe.shutdownNow();
+        }
+        assertTrue(mdl.findAnnotation("com.foo.Ann").isPresent());
+    }
+
+    @Test
+    public void testQueriesResolveImportedNames() throws Exception {
+        String src = SOURCE.replace("module a.b", "import com.foo.Ann;\n"
+                + "import com.foo.SvcImpl;\n"
+                + "@Ann\n"
+                + "module a.b").replace("exports a.b.api;", "exports a.b.api;\n"
+                + "    opens a.b.impl to x.y;");
+        ModuleModel mdl = parse(src);
+        assertTrue(mdl.requires("java.logging"));
+        assertTrue(mdl.requiresStatic("c.d"));
+        assertFalse(mdl.requiresTransitive("c.d"));
+        assertFalse(mdl.requires("c"));
+        assertTrue(mdl.uses("Svc"));
+        assertTrue(mdl.uses("com.foo.Svc"));
+        assertFalse(mdl.uses("com.bar.Svc"));
+        assertTrue(mdl.provides("Svc"));
+        assertTrue(mdl.provides("com.foo.Svc"));
+        assertTrue(mdl.provides("Svc", "com.foo.SvcImpl"));
+        assertTrue(mdl.provides("com.foo.Svc", "SvcImpl"));
+        assertFalse(mdl.provides("com.foo.Svc", "com.foo.Svc"));
+        assertTrue(mdl.opens("a.b.impl", "x.y"));
+        assertFalse(mdl.opens("a.b.impl", "z"));
+        assertFalse(mdl.opens("a.b.api", "x.y"));
+        assertTrue(mdl.findAnnotation("Ann").isPresent());
+        assertTrue(mdl.findAnnotation("com.foo.Ann").isPresent());
+        assertFalse(mdl.findAnnotation("com.bar.Ann").isPresent());
+        assertSame(mdl.resolved(), mdl.resolved());
+        assertTrue(mdl.resolved().provides("com.foo.Svc", "com.foo.SvcImpl"));
+    }
+
+    @Test
+    public void testSourcePositions() throws Exception {
+        String src = "import com.foo.Ann;\n"
+                + "import com.foo.Svc;\n"
+                + "@Ann(deps = {@Dep(name = \"x\"), @Dep(name = \"y\")}, count = 5)\n"
+                + "module a.b {\n"
+                + "    requires java.logging;\n"
+                + "    requires static c.d;\n"
+                + "    exports a.b.api;\n"
+                + "    uses Svc;\n"
+                + "    provides Svc with com.foo.SvcImpl;\n"
+                + "}\n";
+        ModuleModel mdl = parse(src);
+        assertPosition(mdl, src, find(mdl, "c.d"), 6, 4, "requires static c.d");
+        assertPosition(mdl, src, mdl.exports().iterator().next(), 7, 4, "exports a.b.api");
+        assertPosition(mdl, src, mdl.provides().iterator().next(), 9, 4,
+                "provides Svc with com.foo.SvcImpl");
+        AnnotationModel ann = mdl.annotations().get(0);
+        assertPosition(mdl, src, ann, 3, 0, src.substring(src.indexOf("@Ann"), src.indexOf("\nmodule")));
+        assertPosition(mdl, src, ann.properties().get("count"), 3, 58, "5");
+        AnnotationValue<?> deps = ann.properties().get("deps");
+        assertPosition(mdl, src, deps, 3, 12, "{@Dep(name = \"x\"), @Dep(name = \"y\")}");
+        AnnotationValue<?> y = (AnnotationValue<?>) ((List<?>) deps.value()).get(1);
+        assertPosition(mdl, src, y, 3, 31, "@Dep(name = \"y\")");
+        AnnotationModel yModel = (AnnotationModel) y.value();
+        assertPosition(mdl, src, yModel, 3, 31, "@Dep(name = \"y\")");
+        assertPosition(mdl, src, yModel.properties().get("name"), 3, 43, "\"y\"");
+        // Derived models keep positions, even where resolving reorders things
+        ModuleModel resolved = mdl.resolved();
+        assertNotSame(mdl.provides().iterator().next(), resolved.provides().iterator().next());
+        assertPosition(resolved, src, resolved.provides().iterator().next(), 9, 4,
+                "provides Svc with com.foo.SvcImpl");
+        ModelInterner interner = new ModelInterner();
+        ModuleModel interned = interner.intern(mdl);
+        assertPosition(interned, src, interned.annotations().get(0).properties().get("count"), 3, 58, "5");
+        // An equal model from a different source keeps its own positions
+        String shifted = "\n\n" + src;
+        ModuleModel other = interner.intern(parse(shifted));
+        assertEquals(interned, other);
+        assertPosition(other, shifted, find(other, "c.d"), 8, 4, "requires static c.d");
+        assertPosition(interned, src, find(interned, "c.d"), 6, 4, "requires static c.d");
+        assertFalse(mdl.sourcePosition(new Require(false, false, "nothing")).isPresent());
+        assertFalse(mdl.sourcePosition(new Require(true, true, "c.d")).isPresent());
+        assertFalse(mdl.toBuilder().build().sourcePosition(find(mdl, "c.d")).isPresent());
+    }
+
+    private static void assertPosition(ModuleModel mdl, String src, Object element, int line, int column, String text) {
+        SourcePosition pos = mdl.sourcePosition(element).orElseThrow(() -> new AssertionError("No position for " + element));
+        assertEquals(line, pos.line(), pos::toString);
+        assertEquals(column, pos.column(), pos::toString);
+        assertEquals(text, src.substring(pos.startOffset(), pos.endOffset()));
+    }
+
+    private static Require find(ModuleModel mdl, String name) {
+        for (Require r : mdl.requires()) {
+            if (r.moduleName().equals(name)) {
+                return r;
+            }
+        }
+        throw new AssertionError(name);
+    }
+
+    @Test
+    public void testMemoryEstimate() throws Exception {
+        List<ModuleModel> models = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            models.add(parse("import com.x.Marker;\n@Marker(n = " + i + ")\nmodule m" + i + " {\n"
+                    + "    requires java.logging;\n    requires java.compiler;\n"
+                    + "    exports com.m" + i + ".api;\n}\n"));
+        }
+        MemoryEstimate one = MemoryEstimate.of(models.get(0));
+        long sum = 0;
+        for (MemoryEstimate.Category c : MemoryEstimate.Category.values()) {
+            sum += one.bytes(c);
+        }
+        assertEquals(sum, one.bytes(), one::toString);
+        assertTrue(one.bytes(MemoryEstimate.Category.STRINGS) > 0, one::toString);
+        assertTrue(one.bytes(MemoryEstimate.Category.COLLECTIONS) > 0, one::toString);
+        assertTrue(one.bytes(MemoryEstimate.Category.ELEMENTS) > 0, one::toString);
+        // Counting a model twice in a corpus must not count it twice
+        assertEquals(one.bytes(), MemoryEstimate.of(Arrays.asList(models.get(0), models.get(0))).bytes());
+        // Materializing annotations retains more
+        models.get(0).annotations();
+        MemoryEstimate withAnnotations = MemoryEstimate.of(models.get(0));
+        assertTrue(withAnnotations.bytes(MemoryEstimate.Category.ANNOTATIONS) > 0, withAnnotations::toString);
+
+        MemoryEstimate corpus = MemoryEstimate.of(models);
+        assertEquals(10, corpus.models());
+        ModelInterner interner = new ModelInterner();
+        List<ModuleModel> interned = new ArrayList<>(models);
+        interned.replaceAll(interner::intern);
+        MemoryEstimate internedCorpus = MemoryEstimate.of(interned);
+        assertTrue(internedCorpus.bytes(MemoryEstimate.Category.STRINGS)
+                < corpus.bytes(MemoryEstimate.Category.STRINGS), () -> corpus + " vs " + internedCorpus);
+        assertTrue(internedCorpus.bytes() < corpus.bytes(), () -> corpus + " vs " + internedCorpus);
+    }
+
+
+    @Test
+    public void testNameFilter() throws Exception {
+        ModuleModel mdl = parse("import com.x.Woogle;\n"
+                + "import javax.annotation.processing.Processor;\n"
+                + "module build.thing {\n"
+                + "    requires static module.annotations;\n"
+                + "    requires java.compiler;\n"
+                + "    exports com.foo.thing.spi to com.foo.other, com.foo.another;\n"
+                + "    opens com.foo.thing.impl to com.fasterxml.jackson.databind;\n"
+                + "    uses Woogle;\n"
+                + "    provides Processor with com.foo.DefaultsProcessor, com.foo.OtherProcessor;\n"
+                + "}\n");
+        for (String name : new String[]{"build.thing", "module.annotations", "java.compiler",
+            "com.foo.thing.spi", "com.foo.another", "com.foo.thing.impl",
+            "com.fasterxml.jackson.databind", "Woogle", "com.x.Woogle",
+            "Processor", "javax.annotation.processing.Processor", "com.foo.OtherProcessor"}) {
+            assertTrue(mdl.mightMention(name), name);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (mdl.mightMention("com.absent.module" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 500, "False positive rate too high: " + falsePositives);
+        assertFalse(mdl.requires("com.absent.module"));
+        assertTrue(mdl.uses("com.x.Woogle"));
+        assertTrue(mdl.provides("javax.annotation.processing.Processor", "com.foo.DefaultsProcessor"));
+        assertFalse(mdl.opens("com.foo.thing", "com.fasterxml.jackson.databind"));
+        assertTrue(mdl.opens("com.foo.thing.impl", "com.fasterxml.jackson.databind"));
+        ModuleModel derived = mdl.toBuilder().withRequire("added.module").build();
+        assertTrue(derived.requires("added.module"));
+    }
+
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        ModuleModel rich = parse("import com.foo.*;\n"
+                + "@Marker(value = {@Inner(name = \"a \\\"b\\\"\", n = 3L)}, c = 'q', b = true, f = 1.5F,\n"
+                + "    ints = {1, 2, 3000}, longs = {1L, 2L}, doubles = {1.5, 0.25}, d = 2.5, e = Kind.FOO,\n"
+                + "    k = String.class, empty = {}, s = \"Caf\u00e9\")\n"
+                + "open module a.b {\n"
+                + "    requires transitive java.logging;\n"
+                + "    exports a.b.spi to x.y, z;\n"
+                + "    opens a.b.impl to q;\n"
+                + "    opens a.b.data;\n"
+                + "}\n");
+        List<ModuleModel> models = new ArrayList<>();
+        models.add(rich);
+        models.add(parse(SOURCE));
+        for (int i = 0; i < 3; i++) {
+            models.add(parse("module com.foo.thing" + i + " {\n"
+                    + "    requires transitive com.foo.shared.api;\n"
+                    + "    requires java.logging;\n"
+                    + "    exports com.foo.thing" + i + ".spi to com.foo.other, com.foo.another;\n"
+                    + "    opens com.foo.thing" + i + ".impl to com.fasterxml.jackson.databind;\n"
+                    + "}\n"));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        ModelOutput out = new ModelOutput(data);
+        int[] sizes = new int[models.size()];
+        for (int i = 0; i < models.size(); i++) {
+            int before = data.size();
+            out.write(models.get(i));
+            sizes[i] = data.size() - before;
+        }
+        // Later models reuse strings written by earlier ones
+        assertTrue(sizes[4] < sizes[2], () -> Arrays.toString(sizes));
+        assertTrue(sizes[2] < models.get(2).toCompactJson().length() / 2, () -> Arrays.toString(sizes));
+
+        ModelInput in = new ModelInput(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for (ModuleModel expected : models) {
+            ModuleModel got = in.read();
+            assertEquals(expected, got);
+            assertEquals(expected.toJson(), got.toJson());
+        }
+        AnnotationValue<?> f = rich.annotations().get(0).getProperty("f").get();
+        assertEquals(Float.valueOf(1.5F), f.value());
+
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        rich.writeTo(new DataOutputStream(single));
+        assertEquals(rich, ModuleModel.readFrom(new DataInputStream(new ByteArrayInputStream(single.toByteArray()))));
+        byte[] corrupt = single.toByteArray();
+        corrupt[0]++;
+        assertThrows(IOException.class, () -> ModuleModel.readFrom(
+                new DataInputStream(new ByteArrayInputStream(corrupt))));
+
+        // Huge counts in malformed input fail with an IOException, without
+        // allocating what they claim
+        for (int tag : new int[]{11, 12, 13}) {
+            ByteArrayOutputStream huge = new ByteArrayOutputStream();
+            ModelOutput hugeOut = new ModelOutput(new DataOutputStream(huge));
+            hugeOut.data().writeByte(tag);
+            hugeOut.writeVarint(Integer.MAX_VALUE);
+            hugeOut.data().writeLong(1);
+            ModelInput hugeIn = new ModelInput(new DataInputStream(new ByteArrayInputStream(huge.toByteArray())));
+            assertThrows(IOException.class, () -> AnnotationValue.readFrom(hugeIn));
+        }
+        ByteArrayOutputStream longString = new ByteArrayOutputStream();
+        ModelOutput stringOut = new ModelOutput(new DataOutputStream(longString));
+        stringOut.writeVarint(0);
+        stringOut.writeVarint(Integer.MAX_VALUE);
+        stringOut.data().write(new byte[100]);
+        ModelInput stringIn = new ModelInput(new DataInputStream(new ByteArrayInputStream(longString.toByteArray())));
+        assertThrows(IOException.class, stringIn::readString);
+    }
+
+    @Test
+    public void testFingerprint() throws Exception {
+        ModuleModel mdl = parse("import com.x.spi.Thing;\n"
+                + "@Marker(names = {\"a\", \"b\"}, n = 3)\n"
+                + "module fp.test {\n"
+                + "    requires transitive a;\n    requires static b;\n"
+                + "    exports com.c to x, y;\n    opens com.c.impl;\n"
+                + "    uses Thing;\n    provides Thing with com.c.One, com.c.Two;\n}\n");
+        // Reordered, reformatted, commented, with names written out and an
+        // unused import
+        ModuleModel same = parse("import java.util.List;\n"
+                + "// a comment\n@Marker(n = 3, names = {\"a\", \"b\"})\n"
+                + "module fp.test\n{\n    provides com.x.spi.Thing with com.c.Two, com.c.One;\n"
+                + "    /* uses */ uses com.x.spi.Thing;\n    opens com.c.impl;\n"
+                + "    exports com.c to y, x;\n    requires static b;\n    requires transitive a;\n}\n");
+        assertEquals(mdl.fingerprint(), same.fingerprint());
+        assertEquals(mdl.fingerprint(), mdl.resolved().fingerprint());
+        assertEquals(mdl.fingerprint(), ModuleModel.fromJson(mdl.toJson()).fingerprint());
+        assertEquals(mdl.fingerprint(), ModuleFingerprint.parse(mdl.fingerprint().toString()));
+        // Pinned, so an accidental change to the hash, which would make
+        // stored fingerprints useless, fails here
+        assertEquals("0fe7f503d4df5b669578c0ccc156f6fb", mdl.fingerprint().toString());
+
+        String src = mdl.toString();
+        for (String changed : new String[]{
+            src.replace("requires transitive a", "requires a"),
+            src.replace("requires static b", "requires static c"),
+            src.replace("exports com.c to x, y", "exports com.c to x"),
+            src.replace("exports com.c to x, y", "exports com.c"),
+            src.replace("opens com.c.impl", "opens com.c.impl to x"),
+            src.replace("uses Thing", "uses OtherThing"),
+            src.replace("com.c.One, ", ""),
+            src.replace("n = 3", "n = 4"),
+            src.replace("module fp.test", "open module fp.test")}) {
+            assertNotEquals(mdl.fingerprint(), parse(changed).fingerprint(), changed);
+        }
+        // Names imported by wildcard cannot be resolved, so the wildcards
+        // count; a resolved copy drops them
+        String wildSource = "import foo.*;\nimport x.Svc;\nmodule w {\n    uses Svc;\n    uses Thing;\n}\n";
+        ModuleModel wild = parse(wildSource);
+        assertNotEquals(wild.fingerprint(), parse(wildSource.replace("foo.*", "bar.*")).fingerprint());
+        assertNotSame(wild, wild.resolved());
+        assertNotEquals(wild.fingerprint(), wild.resolved().fingerprint());
+        assertEquals(wild.resolved().fingerprint(),
+                parse("module w {\n    uses x.Svc;\n    uses Thing;\n}\n").fingerprint());
+        assertEquals(wild.abiFingerprint(), wild.resolved().abiFingerprint());
+        // A lone value and a one-element array mean the same thing
+        assertEquals(parse("@A(x = 1)\nmodule m {}\n").fingerprint(),
+                parse("@A(x = {1})\nmodule m {}\n").fingerprint());
+        assertNotEquals(parse("@A(x = {1, 2})\nmodule m {}\n").fingerprint(),
+                parse("@A(x = {2, 1})\nmodule m {}\n").fingerprint());
+    }
+
+    @Test
+    public void testAbiFingerprint() throws Exception {
+        ModuleModel mdl = parse("import com.x.spi.Thing;\n@Deprecated\n"
+                + "module abi.test {\n"
+                + "    requires transitive a;\n    requires b;\n"
+                + "    exports com.c;\n    exports com.c.spi to x;\n"
+                + "    opens com.c.impl;\n    opens com.c.internal to y;\n"
+                + "    uses Thing;\n    provides Thing with com.c.One;\n}\n");
+        String src = mdl.toString();
+        for (String internal : new String[]{
+            src.replace("requires b", "requires c"),
+            src.replace("requires b", "requires static b"),
+            src.replace("uses Thing", "uses OtherThing"),
+            src.replace("com.c.One", "com.c.Two"),
+            src.replace("opens com.c.internal to y", "opens com.c.internal to z"),
+            src.replace("@Deprecated", "")}) {
+            ModuleModel changed = parse(internal);
+            assertNotEquals(mdl.fingerprint(), changed.fingerprint(), internal);
+            assertEquals(mdl.abiFingerprint(), changed.abiFingerprint(), internal);
+        }
+        for (String visible : new String[]{
+            src.replace("requires transitive a", "requires a"),
+            src.replace("requires b", "requires transitive b"),
+            src.replace("exports com.c;", "exports com.c.other;"),
+            src.replace("exports com.c.spi to x", "exports com.c.spi"),
+            src.replace("opens com.c.impl;", "opens com.c.impl to y;"),
+            src.replace("opens com.c.internal to y", "opens com.c.internal"),
+            src.replace("module abi.test", "open module abi.test")}) {
+            assertNotEquals(mdl.abiFingerprint(), parse(visible).abiFingerprint(), visible);
+        }
+        assertNotEquals(mdl.fingerprint(), mdl.abiFingerprint());
+        assertEquals(mdl.abiFingerprint(), mdl.resolved().abiFingerprint());
+
+        // Duplicate requires of one module give the same fingerprints in
+        // either order
+        ModuleModel forward = parse("module dup {\n    requires static a;\n    requires transitive a;\n}\n");
+        ModuleModel reversed = parse("module dup {\n    requires transitive a;\n    requires static a;\n}\n");
+        assertEquals(forward.abiFingerprint(), reversed.abiFingerprint());
+        assertEquals(forward.fingerprint(), reversed.fingerprint());
+        assertEquals(parse("module dup {\n    requires transitive a;\n}\n").abiFingerprint(),
+                forward.abiFingerprint());
+    }
+
+    private static ModuleModel parse(String source) {
+        return ModuleParser.parse(source, ModuleParserErrorListener.THROWING);
+    }
+}
@@ -0,0 +1,120 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model;
+
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import static com.mastfrog.modulegrammar.parser.ModuleParserErrorListener.THROWING;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Compares the binary format with JSON and with reparsing source, for size
+ * per model and encode and decode time. Not run by default; run with
+ * <code>mvn test -Dtest=SerializationBenchmark -Dbenchmark=true</code>.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class SerializationBenchmark {
+
+    private static final int MODELS = 5000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void compareFormats() throws IOException {
+        List<String> sources = new ArrayList<>(MODELS);
+        List<ModuleModel> models = new ArrayList<>(MODELS);
+        for (int i = 0; i < MODELS; i++) {
+            sources.add(ModelMemoryBenchmark.source(i));
+            models.add(ModuleParser.parse(sources.get(i), THROWING));
+        }
+        long sourceBytes = 0;
+        for (String src : sources) {
+            sourceBytes += src.getBytes(UTF_8).length;
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            ModelOutput out = new ModelOutput(data);
+            for (ModuleModel mdl : models) {
+                out.write(mdl);
+            }
+            data.flush();
+            long binaryEncode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ModelInput in = new ModelInput(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            for (int i = 0; i < MODELS; i++) {
+                in.read();
+            }
+            long binaryDecode = System.nanoTime() - start;
+
+            // Independently encoded, so no string table is shared between models
+            long singleBytes = 0;
+            for (int i = 0; i < 100; i++) {
+                ByteArrayOutputStream one = new ByteArrayOutputStream();
+                models.get(i).writeTo(new DataOutputStream(one));
+                singleBytes += one.size();
+            }
+
+            start = System.nanoTime();
+            List<String> json = new ArrayList<>(MODELS);
+            long jsonBytes = 0;
+            for (ModuleModel mdl : models) {
+                String s = mdl.toCompactJson();
+                jsonBytes += s.length();
+                json.add(s);
+            }
+            long jsonEncode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String s : json) {
+                ModuleModel.fromJson(s);
+            }
+            long jsonDecode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String src : sources) {
+                ModuleParser.parse(src, THROWING).annotations();
+            }
+            long reparse = System.nanoTime() - start;
+
+            assertEquals(models.get(0), ModuleModel.fromJson(json.get(0)));
+            System.out.println("Round " + round + ": bytes per model - binary " + bytes.size() / MODELS
+                    + " (" + singleBytes / 100 + " standalone), compact json " + jsonBytes / MODELS
+                    + ", source " + sourceBytes / MODELS);
+            System.out.println("  ns per model - binary encode " + binaryEncode / MODELS
+                    + " decode " + binaryDecode / MODELS + "; json encode " + jsonEncode / MODELS
+                    + " decode " + jsonDecode / MODELS + "; reparse " + reparse / MODELS);
+        }
+    }
+}
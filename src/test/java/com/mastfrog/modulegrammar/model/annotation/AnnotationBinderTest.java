@@ -0,0 +1,121 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model.annotation;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import com.mastfrog.modulegrammar.parser.ModuleParserErrorListener;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class AnnotationBinderTest {
+
+    private static final String SOURCE = "@MavenInfo(group = \"com.foo\", version = 3, ports = {80, 443},\n"
+            + "    scope = Scope.TEST, deps = {@Dep(name = \"a\", optional = true), @Dep(name = \"b\")},\n"
+            + "    main = @Dep(name = \"c\"), weights = {1.5, 2.5}, tags = \"solo\")\n"
+            + "module m {\n}\n";
+
+    public enum Scope {
+        COMPILE, TEST
+    }
+
+    public record Dep(String name, boolean optional) {
+    }
+
+    public record MavenInfo(String group, int version, int[] ports, Scope scope,
+            List<Dep> deps, Dep main, double[] weights, String[] tags, long missing) {
+    }
+
+    public interface DepView {
+
+        String name();
+
+        boolean optional();
+
+        default String describe() {
+            return name() + (optional() ? "?" : "");
+        }
+    }
+
+    public interface MavenView {
+
+        String group();
+
+        Integer version();
+
+        DepView[] deps();
+
+        List<String> tags();
+
+        default String classifier() {
+            return "none";
+        }
+    }
+
+    @Test
+    public void testBindRecord() {
+        AnnotationModel anno = parse().annotations().get(0);
+        MavenInfo info = anno.bind(MavenInfo.class);
+        assertEquals("com.foo", info.group());
+        assertEquals(3, info.version());
+        assertArrayEquals(new int[]{80, 443}, info.ports());
+        assertSame(Scope.TEST, info.scope());
+        assertEquals(List.of(new Dep("a", true), new Dep("b", false)), info.deps());
+        assertEquals(new Dep("c", false), info.main());
+        assertArrayEquals(new double[]{1.5, 2.5}, info.weights());
+        assertArrayEquals(new String[]{"solo"}, info.tags());
+        assertEquals(0L, info.missing());
+    }
+
+    @Test
+    public void testBindInterface() {
+        AnnotationModel anno = parse().annotations().get(0);
+        MavenView view = anno.bind(MavenView.class);
+        assertEquals("com.foo", view.group());
+        assertEquals(Integer.valueOf(3), view.version());
+        assertEquals(2, view.deps().length);
+        assertEquals("a?", view.deps()[0].describe());
+        assertEquals("b", view.deps()[1].describe());
+        assertEquals(List.of("solo"), view.tags());
+        assertEquals("none", view.classifier());
+        assertEquals(view, anno.bind(MavenView.class));
+        assertEquals(view.hashCode(), anno.bind(MavenView.class).hashCode());
+    }
+
+    @Test
+    public void testBadBindings() {
+        AnnotationModel anno = parse().annotations().get(0);
+        assertThrows(IllegalArgumentException.class, () -> anno.bind(String.class));
+        // group is a string, not an annotation
+        assertThrows(IllegalArgumentException.class, () -> anno.bind(WrongType.class));
+    }
+
+    public record WrongType(Dep group) {
+    }
+
+    private static ModuleModel parse() {
+        return ModuleParser.parse(SOURCE, ModuleParserErrorListener.THROWING);
+    }
+}
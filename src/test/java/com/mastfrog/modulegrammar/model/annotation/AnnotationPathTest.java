@@ -0,0 +1,77 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model.annotation;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import com.mastfrog.modulegrammar.parser.ModuleParserErrorListener;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class AnnotationPathTest {
+
+    private static final String SOURCE = "import com.foo.Maven;\n"
+            + "@Maven(deps = {@Dep(name = \"a\", scope = \"test\"), @Dep(name = \"b\")},\n"
+            + "    single = @Dep(name = \"c\", scope = \"runtime\"), tags = {\"x\", \"y\"})\n"
+            + "@Other(value = 3)\n"
+            + "module m {\n}\n";
+
+    @Test
+    public void testSelect() {
+        ModuleModel mdl = ModuleParser.parse(SOURCE, ModuleParserErrorListener.THROWING);
+        assertEquals(List.of("a", "b"), strings(AnnotationPath.compile("Maven.deps[*].name").select(mdl)));
+        assertEquals(List.of("test"), strings(AnnotationPath.compile("Maven.deps[*].scope").select(mdl)));
+        assertEquals(List.of("b"), strings(AnnotationPath.compile("Maven.deps[1].name").select(mdl)));
+        assertEquals(List.of(), strings(AnnotationPath.compile("Maven.deps[2].name").select(mdl)));
+        // Qualified names resolve through imports
+        assertEquals(List.of("a", "b"), strings(AnnotationPath.compile("com.foo.Maven.deps[*].name").select(mdl)));
+        // A single value stands in for a one-element array
+        assertEquals(List.of("runtime"), strings(AnnotationPath.compile("Maven.single[*].scope").select(mdl)));
+        assertEquals(List.of("runtime"), strings(AnnotationPath.compile("Maven.single.scope").select(mdl)));
+        assertEquals(List.of("x", "y"), strings(AnnotationPath.compile("Maven.tags[*]").select(mdl)));
+        assertEquals(3, AnnotationPath.compile("Other.value").first(mdl).get().intValue());
+        assertFalse(AnnotationPath.compile("Nope.value").first(mdl).isPresent());
+
+        AnnotationModel maven = mdl.findAnnotation("Maven").get();
+        assertEquals(List.of("a", "b"), strings(AnnotationPath.compile("Maven.deps[*].name").select(maven)));
+        assertSame(AnnotationPath.compile("Maven.deps[*].name"), AnnotationPath.compile("Maven.deps[*].name"));
+    }
+
+    @Test
+    public void testMalformed() {
+        for (String bad : new String[]{"Maven", "Maven.", "Maven..x", "Maven.deps[", "Maven.deps[x]", "Maven[*].x", "Maven.deps[*]x"}) {
+            assertThrows(IllegalArgumentException.class, () -> AnnotationPath.compile(bad), bad);
+        }
+    }
+
+    private static List<String> strings(List<AnnotationValue<?>> values) {
+        List<String> result = new ArrayList<>();
+        for (AnnotationValue<?> v : values) {
+            result.add(v.stringValue());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,127 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model.annotation;
+
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import com.mastfrog.modulegrammar.parser.ModuleParserErrorListener;
+import static com.mastfrog.modulegrammar.model.annotation.AnnotationVisitResult.CONTINUE;
+import static com.mastfrog.modulegrammar.model.annotation.AnnotationVisitResult.SKIP_CHILDREN;
+import static com.mastfrog.modulegrammar.model.annotation.AnnotationVisitResult.STOP;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class AnnotationTreeVisitorTest {
+
+    private static final String SOURCE = "@Outer(a = @Skip(x = @Deep(y = 1)), b = {@Keep(z = 2), 3}, c = 4)\n"
+            + "module m {\n}\n";
+
+    @Test
+    public void testEventOrderMatchesBooleanVisitor() {
+        AnnotationModel anno = parse();
+        List<String> events = new ArrayList<>();
+        assertTrue(anno.visitValues(new Recorder(events, null)));
+        assertEquals(List.of("enter Outer 0", "a@0", "enter Skip 1", "x@1", "enter Deep 2", "y@2",
+                "exit Deep 2", "exit Skip 1", "b[]@0", "enter Keep 1", "z@1", "exit Keep 1", "b[]@0",
+                "c@0", "exit Outer 0"), events);
+        // Aborting still exits everything entered
+        events.clear();
+        assertFalse(anno.visitValues(new Recorder(events, "y")));
+        assertEquals(List.of("enter Outer 0", "a@0", "enter Skip 1", "x@1", "enter Deep 2", "y@2",
+                "exit Deep 2", "exit Skip 1", "exit Outer 0"), events);
+    }
+
+    @Test
+    public void testSkipChildren() {
+        List<String> events = new ArrayList<>();
+        assertTrue(parse().walk(new AnnotationTreeVisitor() {
+            @Override
+            public AnnotationVisitResult onEnterAnnotationModel(AnnotationModel model, int depth) {
+                events.add("enter " + model.name());
+                return model.name().equals("Keep") ? SKIP_CHILDREN : CONTINUE;
+            }
+
+            @Override
+            public AnnotationVisitResult visitValue(AnnotationModel owner, int depth, String name,
+                    AnnotationValue<?> value, boolean isArrayElement) {
+                events.add(name);
+                return name.equals("a") ? SKIP_CHILDREN : CONTINUE;
+            }
+        }));
+        assertEquals(List.of("enter Outer", "a", "b", "enter Keep", "b", "c"), events);
+    }
+
+    @Test
+    public void testDeepNesting() {
+        int depth = 100000;
+        AnnotationModel mdl = new AnnotationModel("Leaf", Map.of("v", AnnotationValue.ofInt(1)));
+        for (int i = 0; i < depth; i++) {
+            mdl = new AnnotationModel("N", Map.of("c",
+                    new AnnotationValue<>(AnnotationValueKind.ANNOTATION, mdl)));
+        }
+        int[] max = new int[1];
+        assertTrue(mdl.walk((owner, d, name, value, isArrayElement) -> {
+            max[0] = Math.max(max[0], d);
+            return CONTINUE;
+        }));
+        assertEquals(depth, max[0]);
+        assertFalse(mdl.walk((owner, d, name, value, isArrayElement) -> d == depth / 2 ? STOP : CONTINUE));
+    }
+
+    private static AnnotationModel parse() {
+        return ModuleParser.parse(SOURCE, ModuleParserErrorListener.THROWING).annotations().get(0);
+    }
+
+    static final class Recorder implements AnnotationModelVisitor {
+
+        private final List<String> events;
+        private final String stopAt;
+
+        Recorder(List<String> events, String stopAt) {
+            this.events = events;
+            this.stopAt = stopAt;
+        }
+
+        @Override
+        public boolean onEnterAnnotationModel(AnnotationModel model, int depth) {
+            events.add("enter " + model.name() + " " + depth);
+            return true;
+        }
+
+        @Override
+        public boolean visitValue(AnnotationModel owner, int depth, String name,
+                AnnotationValue<?> value, boolean isArrayElement) {
+            events.add(name + (isArrayElement ? "[]" : "") + "@" + depth);
+            return !name.equals(stopAt);
+        }
+
+        @Override
+        public boolean onExitAnnotationModel(AnnotationModel model, int depth) {
+            events.add("exit " + model.name() + " " + depth);
+            return true;
+        }
+    }
+}
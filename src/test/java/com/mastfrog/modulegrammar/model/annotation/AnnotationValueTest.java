@@ -0,0 +1,98 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.model.annotation;
+
+import com.mastfrog.modulegrammar.model.ModuleModel;
+import com.mastfrog.modulegrammar.parser.ModuleParser;
+import com.mastfrog.modulegrammar.parser.ModuleParserErrorListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class AnnotationValueTest {
+
+    private static final String SOURCE = "@Nums(ints = {1, 2, 3}, longs = {4L, 5L}, "
+            + "doubles = {1.5, 2.5D}, mixed = {1, 2L}, floats = {1.5F}, one = 7, big = 5000000000, ch = 'x')\n"
+            + "module a {\n}\n";
+
+    @Test
+    public void testPrimitiveStorage() {
+        ModuleModel mdl = ModuleParser.parse(SOURCE, ModuleParserErrorListener.THROWING);
+        AnnotationModel anno = mdl.annotations().get(0);
+        AnnotationValue<?> ints = anno.getProperty("ints").get();
+        assertTrue(ints.isPrimitiveArray());
+        assertArrayEquals(new int[]{1, 2, 3}, ints.intArray());
+        assertArrayEquals(new long[]{1, 2, 3}, ints.longArray());
+        assertEquals(AnnotationValue.ofInts(1, 2, 3), ints);
+        assertArrayEquals(new long[]{4, 5}, anno.getProperty("longs").get().longArray());
+        assertArrayEquals(new double[]{1.5, 2.5}, anno.getProperty("doubles").get().doubleArray());
+        // Mixed and float arrays keep the general representation, so their
+        // element types (and therefore their rendering) are preserved
+        assertFalse(anno.getProperty("mixed").get().isPrimitiveArray());
+        assertFalse(anno.getProperty("floats").get().isPrimitiveArray());
+        assertThrows(IllegalStateException.class, () -> anno.getProperty("mixed").get().intArray());
+
+        assertEquals(7, anno.getProperty("one").get().intValue());
+        assertEquals(Integer.valueOf(7), anno.getProperty("one").get().value());
+        assertEquals(5000000000L, anno.getProperty("big").get().longValue());
+        assertEquals(Long.valueOf(5000000000L), anno.getProperty("big").get().value());
+        assertEquals('x', anno.getProperty("ch").get().charValue());
+
+        assertEquals("@Nums(big = 5000000000L, ch = 'x', doubles = {1.5D, 2.5D}, floats = {1.5F}, "
+                + "ints = {1, 2, 3}, longs = {4L, 5L}, mixed = {1, 2L}, one = 7)", anno.toString());
+        assertEquals(mdl, ModuleParser.parse(mdl.toString(), ModuleParserErrorListener.THROWING));
+    }
+
+    @Test
+    public void testPrimitiveArraysAreIndistinguishableFromLists() {
+        List<AnnotationValue<?>> boxed = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            boxed.add(new AnnotationValue<>(AnnotationValueKind.INT, i));
+        }
+        AnnotationValue<?> fromList = new AnnotationValue<>(AnnotationValueKind.ARRAY, boxed);
+        AnnotationValue<?> fromInts = AnnotationValue.ofInts(1, 2, 3);
+        assertEquals(fromList, fromInts);
+        assertEquals(fromList.hashCode(), fromInts.hashCode());
+        assertEquals(boxed, fromInts.value());
+        assertEquals(boxed.hashCode(), fromInts.value().hashCode());
+        assertEquals(fromList.toJson(), fromInts.toJson());
+
+        AnnotationModel viaList = new AnnotationModel("A", Map.of("value", fromList));
+        AnnotationModel viaInts = new AnnotationModel("A", Map.of("value", fromInts));
+        assertEquals(visit(viaList), visit(viaInts));
+        assertEquals(Arrays.asList("value=1[]", "value=2[]", "value=3[]"), visit(viaInts));
+    }
+
+    private static List<String> visit(AnnotationModel mdl) {
+        List<String> result = new ArrayList<>();
+        mdl.visitValues((owner, depth, name, value, isArrayElement) -> {
+            result.add(name + "=" + value.value() + (isArrayElement ? "[]" : ""));
+            return true;
+        });
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2022 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.modulegrammar.parser;
+
+import static com.mastfrog.modulegrammar.parser.ModuleParser.parse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class DiagnosticsCollectorTest {
+
+    private static final String BAD = "module some.stuff {\n    r#quires foo.bar;\n}\n";
+
+    @Test
+    public void testCollectsAndDeduplicatesAcrossThreads() throws Exception {
+        List<ModuleDiagnostic> received = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService exe = Executors.newFixedThreadPool(4);
+        try (DiagnosticsCollector collector = new DiagnosticsCollector(1000, received::addAll)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                // Each of ten files is parsed four times
+                String name = "file" + (i % 10);
+                futures.add(exe.submit(() -> parse(BAD, collector.listener(name))));
+            }
+            for (Future<?> f : futures) {
+                f.get(10, TimeUnit.SECONDS);
+            }
+            collector.flush();
+            assertFalse(received.isEmpty());
+            assertEquals(received.size(), collector.delivered());
+            assertEquals(0, received.size() % 10, received::toString);
+            assertEquals(received.size() * 3, collector.duplicates(), collector::toString);
+            assertEquals(0, collector.dropped());
+            ModuleDiagnostic first = received.stream()
+                    .filter(d -> d.source().get().equals("file0")).findFirst().get();
+            assertEquals(2, first.line());
+            assertTrue(first.toString().startsWith("file0:2:"), first::toString);
+        } finally {
+            exe.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDropsWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch entered = new CountDownLatch(1);
+        DiagnosticsCollector collector = new DiagnosticsCollector(2, batch -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            assertTrue(collector.report(diagnostic(0)));
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            // The sink is blocked; two more fit in the queue
+            assertTrue(collector.report(diagnostic(1)));
+            assertTrue(collector.report(diagnostic(2)));
+            assertFalse(collector.report(diagnostic(3)));
+            assertFalse(collector.report(diagnostic(1)));
+            assertEquals(1, collector.dropped());
+            assertEquals(1, collector.duplicates());
+        } finally {
+            release.countDown();
+            collector.close();
+        }
+        assertEquals(3, collector.delivered());
+    }
+
+    @Test
+    public void testExceptionsAreDetachedAndStackless() {
+        ModuleParserException ex = assertThrows(ModuleParserException.class,
+                () -> parse(BAD, ModuleParserErrorListener.THROWING));
+        assertEquals(0, ex.getStackTrace().length);
+        assertTrue(ex.isSyntaxError());
+        assertEquals(2, ex.diagnostic().line());
+        assertEquals("#", ex.diagnostic().tokenText().orElse(null), ex.diagnostic()::toString);
+    }
+
+    @Test
+    public void testSinkFailuresAreCounted() throws Exception {
+        List<ModuleDiagnostic> received = Collections.synchronizedList(new ArrayList<>());
+        try (DiagnosticsCollector collector = new DiagnosticsCollector(10, batch -> {
+            if (batch.contains(diagnostic(0))) {
+                throw new IllegalStateException("Sink failure");
+            }
+            received.addAll(batch);
+        })) {
+            assertTrue(collector.report(diagnostic(0)));
+            collector.flush();
+            assertTrue(collector.report(diagnostic(1)));
+            collector.flush();
+            assertEquals(1, collector.failed(), collector::toString);
+            assertEquals(1, collector.delivered(), collector::toString);
+            assertEquals(List.of(diagnostic(1)), received);
+        }
+    }
+
+    @Test
+    public void testDeduplicationSurvivesRollover() throws Exception {
+        // Remembers 1024 diagnostics per generation; some of these may be
+        // dropped if the queue fills, but are still seen
+        try (DiagnosticsCollector collector = new DiagnosticsCollector(256, batch -> {
+        })) {
+            for (int i = 0; i < 3000; i++) {
+                collector.report(diagnostic(i));
+            }
+            assertEquals(0, collector.duplicates());
+            // Recent diagnostics are still recognized after rollovers
+            assertFalse(collector.report(diagnostic(2999)));
+            assertFalse(collector.report(diagnostic(2000)));
+            assertEquals(2, collector.duplicates());
+            // Ones which aged out of both generations are not
+            collector.report(diagnostic(0));
+            assertEquals(2, collector.duplicates());
+        }
+    }
+
+    private static ModuleDiagnostic diagnostic(int line) {
+        return new ModuleDiagnostic(ModuleDiagnostic.Kind.SYNTAX_ERROR, "x", line, 0, 0, "bad", null);
+    }
+}
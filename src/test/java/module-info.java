@@ -22,6 +22,8 @@
  * THE SOFTWARE.
  */
 module module.info.grammar {
+    opens com.mastfrog.modulegrammar.index;
+    opens com.mastfrog.modulegrammar.json;
     opens com.mastfrog.modulegrammar.model;
     opens com.mastfrog.modulegrammar.parser;
     opens com.mastfrog.modulegrammar.model.annotation;